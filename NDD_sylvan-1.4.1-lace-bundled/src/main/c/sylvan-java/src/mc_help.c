@@ -19,12 +19,14 @@
 #include <sylvan.h>
 #include <assert.h>
 #include <jni.h>
+#include "lace_worker.h"
 
 #define Abort(...) { fprintf(stderr, __VA_ARGS__); fprintf(stderr, "Abort at line %d!\n", __LINE__); return 0; }
 
 JNIEXPORT jobject JNICALL
 Java_jsylvan_MCFile_fromFile(JNIEnv *env, jclass cl, jstring filename)
 {
+    JSYLVAN_WORKER_ONLY(env, NULL);
     const char *fname = (*env)->GetStringUTFChars(env, filename, 0);
     FILE *f = fopen(fname, "r");
 
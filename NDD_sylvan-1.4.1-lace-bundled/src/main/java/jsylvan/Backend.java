@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * The hot operations of JSylvan, see JSylvan.backend(): FfmBackend on Java 22 and later,
+ * JniBackend otherwise. The methods match the JSylvan methods of the same name; foldPar
+ * is makeFoldPar, and for OP_AND with <variables> other than True, makeAndExistsPar.
+ */
+public interface Backend
+{
+    long makeVar(int a);
+    long makeNot(long a);
+    long makeAnd(long a, long b);
+    long makeOr(long a, long b);
+    long makeImplies(long a, long b);
+    long makeIte(long a, long b, long c);
+    long makeEquals(long a, long b);
+    long makeNotEquals(long a, long b);
+    long makeExists(long a, long variables);
+    long makeForall(long a, long variables);
+    long makeAndExists(long a, long b, long variables);
+    long makeNext(long a, long b, long variables);
+    long makePrev(long a, long b, long variables);
+    long ref(long bdd);
+    void deref(long bdd);
+    int getVar(long bdd);
+    long getThen(long bdd);
+    long getElse(long bdd);
+    double satcount(long bdd, long variables);
+    long nodecount(long bdd);
+    long foldPar(int op, long[] bdds, long variables);
+    long applyRef(int op, long a, long b);
+    long makeVarRef(int a);
+    long makeIteRef(long a, long b, long c);
+    long makeAndExistsRef(long a, long b, long variables);
+    long composeRef(long bdd, long map);
+    long mapAddRef(long map, int key, long value);
+}
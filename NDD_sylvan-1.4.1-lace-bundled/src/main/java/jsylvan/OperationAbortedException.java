@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * Thrown when a bounded operation hits its OperationLimit. The operation has released its
+ * temporary results, and the limit cannot be reused for another operation.
+ */
+public class OperationAbortedException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limit that was hit.
+     */
+    public enum Reason
+    {
+        NODE_BUDGET,
+        DEADLINE,
+        CANCELLED
+    }
+
+    private final Reason reason;
+    private final long nodesMade;
+
+    public OperationAbortedException(Reason reason, long nodesMade)
+    {
+        super("operation aborted: " + reason.name().toLowerCase().replace('_', ' ') + " after " + nodesMade + " nodes");
+        this.reason = reason;
+        this.nodesMade = nodesMade;
+    }
+
+    /**
+     * Get the limit that was hit.
+     */
+    public Reason getReason()
+    {
+        return reason;
+    }
+
+    /**
+     * Get the number of nodes made before the operation stopped.
+     */
+    public long getNodesMade()
+    {
+        return nodesMade;
+    }
+}
@@ -0,0 +1,1722 @@
+/**
+ * An independent NDD engine, which owns the node table, the bdd engine, the operation
+ * caches and the field layout. The static API of NDD works on a default manager created
+ * by NDD.initNDD(). Managers share nothing, so independent managers can run concurrently
+ * on different threads, each within its own table sizes. A manager itself is not thread
+ * safe, and nodes of different managers must not be mixed.
+ * @author Zechun Li & Yichi Zhang - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jndd.diagram;
+
+import javafx.util.Pair;
+import jdd.bdd.BDD;
+import jdd.bdd.Permutation;
+import org.ants.jndd.cache.OperationCache;
+import org.ants.jndd.nodetable.NodeTable;
+import org.ants.jndd.utils.DecomposeBDD;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+
+public class NDDManager {
+    /**
+     * The default size of each operation cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * The default associativity of each operation cache.
+     */
+    public static final int DEFAULT_CACHE_WAYS = 2;
+
+    private final static boolean DEBUG_MODEL = false;
+
+    /**
+     * The terminal node TRUE, shared by all managers.
+     */
+    private final static NDD TRUE = NDD.getTrue();
+
+    /**
+     * The terminal node FALSE, shared by all managers.
+     */
+    private final static NDD FALSE = NDD.getFalse();
+
+    /**
+     * The ndd node table.
+     */
+    private final NodeTable nodeTable;
+
+    /**
+     * The internal bdd engine.
+     */
+    private final BDD bddEngine;
+
+    /**
+     * The number of fields.
+     */
+    private int fieldNum;
+
+    /**
+     * The max id of bits for each field.
+     */
+    private final ArrayList<Integer> maxVariablePerField;
+
+    /**
+     * The decomposer of bdds into per field bdds, following maxVariablePerField.
+     */
+    private final DecomposeBDD decomposer;
+
+    /**
+     * The correction factor of each field, used by operation of satCount.
+     */
+    private final ArrayList<Double> satCountDiv;
+
+    /**
+     * The number of solutions of each node over the fields from its own field on,
+     * cached across satCount calls until the next garbage collection.
+     */
+    private final HashMap<NDD, Double> satCountCache;
+
+    /**
+     * The ref'ed bdd of each converted node, cached across toBDD calls until the next garbage collection.
+     */
+    private final HashMap<NDD, Integer> toBDDCache;
+
+    /**
+     * All bdd variables.
+     */
+    private final ArrayList<int[]> bddVarsPerField;
+
+    /**
+     * The negation of each ndd variable.
+     */
+    private final ArrayList<int[]> bddNotVarsPerField;
+
+    /**
+     * All ndd variables.
+     */
+    private final ArrayList<NDD[]> nddVarsPerField;
+
+    /**
+     * The negation of each ndd variable.
+     */
+    private final ArrayList<NDD[]> nddNotVarsPerField;
+
+    /**
+     * Temporary ndd nodes during a logical operation, which should be protected
+     * during garbage collection.
+     */
+    private final HashSet<NDD> temporarilyProtect;
+
+    /**
+     * The cache of operation NOT.
+     */
+    private final OperationCache<NDD> notCache;
+    /**
+     * The cache of operation AND.
+     */
+    private final OperationCache<NDD> andCache;
+    /**
+     * The cache of operation OR.
+     */
+    private final OperationCache<NDD> orCache;
+    /**
+     * The cache of operation DIFF, where (a, b) and (b, a) differ.
+     */
+    private final OperationCache<NDD> diffCache;
+    /**
+     * The cache of operation IMP, where (a, b) and (b, a) differ.
+     */
+    private final OperationCache<NDD> impCache;
+    /**
+     * The cache of existential quantification, keyed by the node and the field.
+     */
+    private final OperationCache<NDD> existCache;
+    /**
+     * The cache of operation ITE, keyed by the three operands in order.
+     */
+    private final OperationCache<NDD> iteCache;
+    /**
+     * The cache of existential quantification of a set of fields, keyed by the node and the set.
+     */
+    private final OperationCache<NDD> existFieldsCache;
+    /**
+     * The cache of the fused AND and existential quantification, keyed by the nodes and the set of fields.
+     */
+    private final OperationCache<NDD> andExistCache;
+    /**
+     * The sets of fields quantified so far, each with a small id for the caches.
+     */
+    private final HashMap<BitSet, FieldSet> fieldSets;
+    /**
+     * The cache of field replacement, keyed by the node and the pair of fields.
+     */
+    private final OperationCache<NDD> replaceCache;
+
+    /**
+     * The permutations that move the variables of one field to another, keyed by the pair of fields.
+     */
+    private final HashMap<Integer, Permutation> fieldPermutations;
+
+    /**
+     * Create an NDD manager with default operation caches.
+     * @param nddTableSize The max size of ndd node table.
+     * @param bddTableSize The max size of bdd node table.
+     * @param bddCacheSize The max size of bdd operation cache.
+     */
+    public NDDManager(int nddTableSize, int bddTableSize, int bddCacheSize) {
+        this(nddTableSize, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_WAYS, bddTableSize, bddCacheSize);
+    }
+
+    /**
+     * Create an NDD manager.
+     * @param nddTableSize The max size of ndd node table.
+     * @param nddCacheSize The size of each ndd operation cache.
+     * @param cacheWays The associativity of each ndd operation cache, 1 for direct-mapped caches.
+     * @param bddTableSize The max size of bdd node table.
+     * @param bddCacheSize The max size of bdd operation cache.
+     */
+    public NDDManager(int nddTableSize, int nddCacheSize, int cacheWays, int bddTableSize, int bddCacheSize) {
+        nodeTable = new NodeTable(this, nddTableSize, bddTableSize, bddCacheSize);
+        bddEngine = nodeTable.getBddEngine();
+        fieldNum = -1;
+        maxVariablePerField = new ArrayList<>();
+        decomposer = new DecomposeBDD(bddEngine, maxVariablePerField);
+        satCountDiv = new ArrayList<>();
+        satCountCache = new HashMap<>();
+        toBDDCache = new HashMap<>();
+        bddVarsPerField = new ArrayList<>();
+        bddNotVarsPerField = new ArrayList<>();
+        nddVarsPerField = new ArrayList<>();
+        nddNotVarsPerField = new ArrayList<>();
+        temporarilyProtect = new HashSet<>();
+        notCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        andCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        orCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        diffCache = new OperationCache<>(nddCacheSize, 3, cacheWays, false, nodeTable::isLive);
+        impCache = new OperationCache<>(nddCacheSize, 3, cacheWays, false, nodeTable::isLive);
+        existCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        iteCache = new OperationCache<>(nddCacheSize, 4, cacheWays, false, nodeTable::isLive);
+        existFieldsCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        andExistCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        fieldSets = new HashMap<>();
+        replaceCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        fieldPermutations = new HashMap<>();
+    }
+
+    // declare a field of 'bitNum' bits
+    /**
+     * Declare a new field.
+     * @param bitNum The number of bits in the field.
+     * @return The id of the field.
+     */
+    public int declareField(int bitNum) {
+        // 1. update the number of fields
+        fieldNum++;
+        // 2. update the boundary of each field
+        if (maxVariablePerField.isEmpty()) {
+            maxVariablePerField.add(bitNum - 1);
+        } else {
+            maxVariablePerField.add(maxVariablePerField.get(maxVariablePerField.size() - 1) + bitNum);
+        }
+        // 3. update satCountDiv, which will be used in satCount operation of NDD
+        double factor = Math.pow(2.0, bitNum);
+        for (int i=0; i < satCountDiv.size(); i++) {
+            satCountDiv.set(i, satCountDiv.get(i) * factor);
+        }
+        int totalBitsBefore = 0;
+        if (maxVariablePerField.size() > 1) {
+            totalBitsBefore = maxVariablePerField.get(maxVariablePerField.size() - 2) + 1;
+        }
+        satCountDiv.add(Math.pow(2.0, totalBitsBefore));
+        // counts over the old fields are stale
+        satCountCache.clear();
+        // 4. add node table
+        nodeTable.declareField();
+        // 5. declare vars
+        int[] bddVars = new int[bitNum];
+        int[] bddNotVars = new int[bitNum];
+        NDD[] nddVars = new NDD[bitNum];
+        NDD[] nddNotVars = new NDD[bitNum];
+
+        for (int i = 0;i < bitNum;i++) {
+            bddVars[i] = bddEngine.ref(bddEngine.createVar());
+            bddNotVars[i] = bddEngine.ref(bddEngine.not(bddVars[i]));
+
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            edges.put(TRUE, bddEngine.ref(bddVars[i]));
+            nddVars[i] = mk(fieldNum, edges);
+            nodeTable.fixNDDNodeRefCount(nddVars[i]);
+
+            edges = new HashMap<>();
+            edges.put(TRUE, bddEngine.ref(bddNotVars[i]));
+            nddNotVars[i] = mk(fieldNum, edges);
+            nodeTable.fixNDDNodeRefCount(nddNotVars[i]);
+        }
+        bddVarsPerField.add(bddVars);
+        bddNotVarsPerField.add(bddNotVars);
+        nddVarsPerField.add(nddVars);
+        nddNotVarsPerField.add(nddNotVars);
+        return fieldNum;
+    }
+
+    public int getFieldNum() {
+        return fieldNum;
+    }
+
+    /**
+     * Get the ndd variable of a specific bit.
+     * @param field The id of the field.
+     * @param index The id of the bit in the field.
+     * @return The ndd variable.
+     */
+    public NDD getVar(int field, int index) {
+        return nddVarsPerField.get(field)[index];
+    }
+
+    public int[] getBDDVars(int field) {
+        return bddVarsPerField.get(field);
+    }
+
+    public int[] getNotBDDVars(int field) {
+        return bddNotVarsPerField.get(field);
+    }
+
+    /**
+     * Get the negation the variable for a specific bit.
+     * @param field The id of the field.
+     * @param index The id of the bit in the field.
+     * @return The negation of the ndd variable.
+     */
+    public NDD getNotVar(int field, int index) {
+        return nddNotVarsPerField.get(field)[index];
+    }
+
+    /**
+     * Clear all the caches. Garbage collections triggered by the node table keep them, dropping
+     * the entries of freed nodes, while those triggered by the JDD GC prehook clear them.
+     */
+    public void clearCaches() {
+        notCache.clearCache();
+        andCache.clearCache();
+        orCache.clearCache();
+        diffCache.clearCache();
+        impCache.clearCache();
+        existCache.clearCache();
+        iteCache.clearCache();
+        existFieldsCache.clearCache();
+        andExistCache.clearCache();
+        replaceCache.clearCache();
+        satCountCache.clear();
+        for (int bdd : toBDDCache.values()) {
+            bddEngine.deref(bdd);
+        }
+        toBDDCache.clear();
+    }
+
+    /**
+     * Drop the per-node caches of a node, invoked by the node table when the node is freed.
+     * The operation caches check their results on lookup instead.
+     * @param ndd The freed ndd node.
+     */
+    public void evict(NDD ndd) {
+        satCountCache.remove(ndd);
+        Integer bdd = toBDDCache.remove(ndd);
+        if (bdd != null) {
+            bddEngine.deref(bdd);
+        }
+    }
+
+    /**
+     * Set the max pause of one garbage collection of the node table. Unreferenced nodes are
+     * queued when their reference count drops to 0, so a collection only visits the garbage.
+     * With a budget, a collection stops when it runs out of time and resumes after a few more
+     * nodes are created, letting the table exceed its size meanwhile.
+     * @param millis The budget in milliseconds, 0 for freeing all garbage at once (default).
+     */
+    public void setGCPauseBudget(long millis) {
+        nodeTable.setPauseBudget(millis);
+    }
+
+    public BDD getBDDEngine() {
+        return bddEngine;
+    }
+
+    /**
+     * Protect a root node from garbage collection.
+     * @param ndd The root to be protected.
+     * @return The ndd node.
+     */
+    public NDD ref(NDD ndd) {
+        return nodeTable.ref(ndd);
+    }
+
+    /**
+     * Unprotect a root node, such that the node can be cleared during garbage collection.
+     * @param ndd The ndd node to be unprotected.
+     */
+    public void deref(NDD ndd) {
+        nodeTable.deref(ndd);
+    }
+
+    /**
+     * Get all the temporary nodes.
+     * @return All the temporary nodes.
+     */
+    public HashSet<NDD> getTemporarilyProtect() {
+        return temporarilyProtect;
+    }
+
+    /**
+     * The logical operation AND, which automatically ref the result and deref the first operand.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD andTo(NDD a, NDD b) {
+        NDD result = ref(and(a, b));
+        deref(a);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int bBDD = bddEngine.ref(toBDD(b));
+            int resultBDD = bddEngine.andTo(aBDD, bBDD);
+            bddEngine.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation and: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The logical operation OR, which automatically ref the result and deref the first operand.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD orTo(NDD a, NDD b) {
+        NDD result = ref(or(a, b));
+        deref(a);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int bBDD = bddEngine.ref(toBDD(b));
+            int resultBDD = bddEngine.orTo(aBDD, bBDD);
+            bddEngine.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation or: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add an edge into a set of edges, may merge some edges.
+     * @param edges A set of edges.
+     * @param descendant The descendant of the edge to be inserted.
+     * @param labelBDD The label of the edge to be inserted.
+     */
+    protected void addEdge(HashMap<NDD, Integer> edges, NDD descendant, int labelBDD) {
+        // omit the edge pointing to terminal node FALSE
+        if (descendant.isFalse()) {
+            bddEngine.deref(labelBDD);
+            return;
+        }
+        // try to find the edge pointing to the same descendant
+        Integer oldLabel = edges.get(descendant);
+        if (oldLabel == null) {
+            oldLabel = 0;
+        }
+        // merge the bdd label
+        int newLabel = bddEngine.orTo(oldLabel, labelBDD);
+        bddEngine.deref(labelBDD);
+        edges.put(descendant, newLabel);
+    }
+
+    /**
+     * The logical operation AND.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD and(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        NDD result = andRec(a, b);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int bBDD = bddEngine.ref(toBDD(b));
+            int resultBDD = bddEngine.andTo(aBDD, bBDD);
+            bddEngine.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation and: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the logical operation AND.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    private NDD andRec(NDD a, NDD b) {
+        // terminal condition
+        if (a.isFalse() || b.isTrue()) {
+            return a;
+        } else if (a.isTrue() || b.isFalse() || a == b){
+            return b;
+        }
+
+        // check the cache
+        if (andCache.getEntry(a, b))
+            return andCache.result;
+
+        NDD result = null;
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        if (a.field == b.field) {
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                for (Map.Entry<NDD, Integer> entryB : b.edges.entrySet()) {
+                    // the bdd label on the new edge
+                    int intersect = bddEngine.ref(bddEngine.and(entryA.getValue(), entryB.getValue()));
+                    if (intersect != 0) {
+                        // the descendant of the new edge
+                        NDD subResult = andRec(entryA.getKey(), entryB.getKey());
+                        // try to merge edges
+                        addEdge(edges, subResult, intersect);
+                    }
+                }
+            }
+        } else {
+            if (a.field > b.field) {
+                NDD t = a;
+                a = b;
+                b = t;
+            }
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                /*
+                 * if A branches on a higher field than B,
+                 * we can let A operate with a pseudo node
+                 * with only edge labelled by true and pointing to B
+                 */
+                NDD subResult = andRec(entryA.getKey(), b);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+        }
+        // try to create or reuse node
+        result = mk(a.field, edges);
+        // protect the node during the operation
+        temporarilyProtect.add(result);
+        // store the result into cache
+        andCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * The logical operation OR.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD or(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        NDD result = orRec(a, b);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int bBDD = bddEngine.ref(toBDD(b));
+            int resultBDD = bddEngine.orTo(aBDD, bBDD);
+            bddEngine.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation or: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the logical operation OR.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    private NDD orRec(NDD a, NDD b) {
+        // terminal condition
+        if (a.isTrue() || b.isFalse()) {
+            return a;
+        } else if (a.isFalse() || b.isTrue() || a == b) {
+            return b;
+        }
+
+        //check the cache
+        if (orCache.getEntry(a, b))
+            return orCache.result;
+
+        NDD result = null;
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        if (a.field == b.field) {
+            // record edges of each node, which will 'or' with the edge pointing to FALSE of another node
+            HashMap<NDD, Integer> residualA = new HashMap<>(a.edges);
+            HashMap<NDD, Integer> residualB = new HashMap<>(b.edges);
+            for (int oneBDD : a.edges.values()) {
+                bddEngine.ref(oneBDD);
+            }
+            for (int oneBDD : b.edges.values()) {
+                bddEngine.ref(oneBDD);
+            }
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                for (Map.Entry<NDD, Integer> entryB : b.edges.entrySet()) {
+                    // the bdd label on the new edge
+                    int intersect = bddEngine.ref(bddEngine.and(entryA.getValue(), entryB.getValue()));
+                    if (intersect != 0) {
+                        // update residual
+                        int notIntersect = bddEngine.ref(bddEngine.not(intersect));
+                        int oldResidual = residualA.get(entryA.getKey());
+                        residualA.put(entryA.getKey(), bddEngine.andTo(oldResidual, notIntersect));
+                        oldResidual = residualB.get(entryB.getKey());
+                        residualB.put(entryB.getKey(), bddEngine.andTo(oldResidual, notIntersect));
+                        bddEngine.deref(notIntersect);
+                        // the descendant of the new edge
+                        NDD subResult = orRec(entryA.getKey(), entryB.getKey());
+                        // try to merge edges
+                        addEdge(edges, subResult, intersect);
+                    }
+                }
+            }
+            /*
+             * Each residual of A doesn't match with any explicit edge of B,
+             * and will match with the edge pointing to FALSE of B, which is omitted.
+             * The situation is the same for B.
+             */
+            for (Map.Entry<NDD, Integer> entryA : residualA.entrySet()) {
+                if (entryA.getValue() != 0) {
+                    addEdge(edges, entryA.getKey(), bddEngine.ref(entryA.getValue()));
+                }
+            }
+            for (Map.Entry<NDD, Integer> entryB : residualB.entrySet()) {
+                if (entryB.getValue() != 0) {
+                    addEdge(edges, entryB.getKey(), bddEngine.ref(entryB.getValue()));
+                }
+            }
+        } else {
+            if (a.field > b.field) {
+                NDD t = a;
+                a = b;
+                b = t;
+            }
+            int residualB = 1;
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                /*
+                 * if A branches on a higher field than B,
+                 * we can let A operate with a pseudo node
+                 * with only edge labelled by true and pointing to B
+                 */
+                int notIntersect = bddEngine.ref(bddEngine.not(entryA.getValue()));
+                residualB = bddEngine.andTo(residualB, notIntersect);
+                bddEngine.deref(notIntersect);
+                NDD subResult = orRec(entryA.getKey(), b);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+            if (residualB != 0) {
+                addEdge(edges, b, residualB);
+            }
+        }
+        // try to create or reuse node
+        result = mk(a.field, edges);
+        // protect the node during the operation
+        temporarilyProtect.add(result);
+        // store the result into cache
+        orCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * The logical operation NOT.
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    public NDD not(NDD a) {
+        temporarilyProtect.clear();
+        NDD result = notRec(a);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int resultBDD = bddEngine.not(aBDD);
+            bddEngine.deref(aBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation not: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the logical operation NOT.
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    private NDD notRec(NDD a) {
+        if (a.isTrue()) {
+            return FALSE;
+        } else if (a.isFalse()) {
+            return TRUE;
+        }
+
+
+        if (notCache.getEntry(a))
+            return notCache.result;
+
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        Integer residual = 1;
+        for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+            int notIntersect = bddEngine.ref(bddEngine.not(entryA.getValue()));
+            residual = bddEngine.andTo(residual, notIntersect);
+            bddEngine.deref(notIntersect);
+            NDD subResult = notRec(entryA.getKey());
+            addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+        }
+        if (residual != 0) {
+            addEdge(edges, TRUE, residual);
+        }
+        NDD result = mk(a.field, edges);
+        temporarilyProtect.add(result);
+        notCache.setEntry(a, result);
+        return result;
+    }
+
+    // a / b <==> a ∩ (not b)
+    /**
+     * The logical operation DIFF, which is equivalent to a AND (NOT b).
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    public NDD diff(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        if (diffCache.getEntry(a, b))
+            return diffCache.result;
+        NDD n = notRec(b);
+        temporarilyProtect.add(n);
+        NDD result = andRec(a, n);
+        diffCache.setEntry(a, b, result);
+        if (DEBUG_MODEL) {
+            int aBDD = bddEngine.ref(toBDD(a));
+            int bBDD = bddEngine.ref(toBDD(b));
+            int t = bddEngine.ref(bddEngine.not(bBDD));
+            bddEngine.deref(bBDD);
+            int resultBDD = bddEngine.and(aBDD, t);
+            bddEngine.deref(aBDD);
+            bddEngine.deref(t);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation diff: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The existential quantification.
+     * @param a The operand.
+     * @param field The field to run an existential quantification.
+     * @return The result.
+     */
+    public NDD exist(NDD a, int field) {
+        temporarilyProtect.clear();
+        return existRec(a, field);
+    }
+
+    /**
+     * The recursive implementation of existential quantification.
+     * @param a The operand.
+     * @param field The field to run an existential quantification.
+     * @return The result.
+     */
+    private NDD existRec(NDD a, int field) {
+        if (a.isTerminal() || a.field > field) {
+            return a;
+        }
+        if (existCache.getEntry(a, field))
+            return existCache.result;
+
+        NDD result = FALSE;
+        if (a.field == field) {
+            for (NDD next : a.edges.keySet()) {
+                result = orRec(result, next);
+            }
+        } else {
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD subResult = existRec(entryA.getKey(), field);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        existCache.setEntry(a, field, result);
+        return result;
+    }
+
+    /**
+     * The existential quantification of several fields in one pass.
+     * @param a The operand.
+     * @param fields The fields to quantify.
+     * @return The result.
+     */
+    public NDD exist(NDD a, BitSet fields) {
+        FieldSet set = fieldSet(fields);
+        temporarilyProtect.clear();
+        return existFields(a, set);
+    }
+
+    /**
+     * The projection onto some fields, i.e., the existential quantification of all others.
+     * @param a The operand.
+     * @param keep The fields to keep.
+     * @return The result.
+     */
+    public NDD project(NDD a, BitSet keep) {
+        BitSet fields = new BitSet();
+        fields.set(0, fieldNum + 1);
+        fields.andNot(keep);
+        return exist(a, fields);
+    }
+
+    /**
+     * The logical operation IF f THEN g ELSE h, i.e., (f AND g) OR (NOT f AND h), in one
+     * recursion.
+     * @param f The condition.
+     * @param g The result where f holds.
+     * @param h The result where f does not hold.
+     * @return The result of the logical operation.
+     */
+    public NDD ite(NDD f, NDD g, NDD h) {
+        temporarilyProtect.clear();
+        return iteRec(f, g, h);
+    }
+
+    /**
+     * The recursive implementation of the logical operation ITE.
+     * @param f The condition.
+     * @param g The result where f holds.
+     * @param h The result where f does not hold.
+     * @return The result of the logical operation.
+     */
+    private NDD iteRec(NDD f, NDD g, NDD h) {
+        // terminal condition
+        if (f.isTrue() || g == h) {
+            return g;
+        } else if (f.isFalse()) {
+            return h;
+        } else if (g.isTrue() || f == g) {
+            return orRec(f, h);
+        } else if (h.isFalse() || f == h) {
+            return andRec(f, g);
+        } else if (g.isFalse()) {
+            NDD n = notRec(f);
+            temporarilyProtect.add(n);
+            return andRec(n, h);
+        } else if (h.isTrue()) {
+            NDD n = notRec(f);
+            temporarilyProtect.add(n);
+            return orRec(n, g);
+        }
+
+        // check the cache
+        if (iteCache.getEntry(f, g, h))
+            return iteCache.result;
+
+        // all three operands are non-terminal here, split them on the top field
+        int field = Math.min(f.field, Math.min(g.field, h.field));
+        Pair<NDD[], int[]> fEdges = cofactors(f, field);
+        Pair<NDD[], int[]> gEdges = cofactors(g, field);
+        Pair<NDD[], int[]> hEdges = cofactors(h, field);
+        int[] fLabels = fEdges.getValue(), gLabels = gEdges.getValue(), hLabels = hEdges.getValue();
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        for (int i = 0; i < fLabels.length; i++) {
+            for (int j = 0; j < gLabels.length; j++) {
+                int fg = bddEngine.ref(bddEngine.and(fLabels[i], gLabels[j]));
+                if (fg == 0) {
+                    continue;
+                }
+                for (int k = 0; k < hLabels.length; k++) {
+                    int label = bddEngine.ref(bddEngine.and(fg, hLabels[k]));
+                    if (label != 0) {
+                        NDD subResult = iteRec(fEdges.getKey()[i], gEdges.getKey()[j], hEdges.getKey()[k]);
+                        addEdge(edges, subResult, label);
+                    }
+                }
+                bddEngine.deref(fg);
+            }
+        }
+        for (int[] labels : Arrays.asList(fLabels, gLabels, hLabels)) {
+            for (int label : labels) {
+                bddEngine.deref(label);
+            }
+        }
+        NDD result = mk(field, edges);
+        temporarilyProtect.add(result);
+        iteCache.setEntry(f, g, h, result);
+        return result;
+    }
+
+    /**
+     * Get the edges of a node as seen from a field at or above it. A node on the field
+     * has its own edges, plus an edge to FALSE labelled by the rest of the field, which the
+     * node omits. A node below the field has a single edge labelled by TRUE.
+     * @param n The node.
+     * @param field The field.
+     * @return The descendants and their labels, which are ref'ed.
+     */
+    private Pair<NDD[], int[]> cofactors(NDD n, int field) {
+        if (n.isTerminal() || n.field != field) {
+            return new Pair<>(new NDD[] {n}, new int[] {1});
+        }
+        int covered = 0;
+        for (int label : n.edges.values()) {
+            covered = bddEngine.orTo(covered, label);
+        }
+        int rest = bddEngine.ref(bddEngine.not(covered));
+        bddEngine.deref(covered);
+        int size = n.edges.size() + (rest == 0 ? 0 : 1);
+        NDD[] children = new NDD[size];
+        int[] labels = new int[size];
+        int i = 0;
+        for (Map.Entry<NDD, Integer> entry : n.edges.entrySet()) {
+            children[i] = entry.getKey();
+            labels[i++] = bddEngine.ref(entry.getValue());
+        }
+        if (i < size) {
+            children[i] = FALSE;
+            labels[i] = rest;
+        }
+        return new Pair<>(children, labels);
+    }
+
+    /**
+     * The conjunction of any number of operands, TRUE if there are none. The operands are
+     * joined in a balanced tree of pairs, the smallest first, which creates far fewer
+     * intermediate nodes than a chain of and().
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public NDD andAll(Collection<NDD> operands) {
+        temporarilyProtect.clear();
+        return reduce(operands, true);
+    }
+
+    /**
+     * The union of any number of operands, FALSE if there are none, see andAll().
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public NDD orAll(Collection<NDD> operands) {
+        temporarilyProtect.clear();
+        return reduce(operands, false);
+    }
+
+    /**
+     * The implementation of andAll() and orAll().
+     * @param operands The operands.
+     * @param conjunction If the operands are joined by AND, otherwise by OR.
+     * @return The result.
+     */
+    private NDD reduce(Collection<NDD> operands, boolean conjunction) {
+        NDD identity = conjunction ? TRUE : FALSE;
+        NDD absorbing = conjunction ? FALSE : TRUE;
+        // drop the identity and duplicates, and stop at the absorbing element
+        HashSet<NDD> seen = new HashSet<>();
+        ArrayList<NDD> terms = new ArrayList<>(operands.size());
+        for (NDD operand : operands) {
+            if (operand == absorbing) {
+                return absorbing;
+            }
+            if (operand != identity && seen.add(operand)) {
+                terms.add(operand);
+            }
+        }
+        HashMap<NDD, Integer> sizes = new HashMap<>();
+        for (NDD term : terms) {
+            sizes.put(term, size(term));
+        }
+        terms.sort(Comparator.comparingInt(sizes::get));
+        return balanced(terms.toArray(new NDD[0]), terms.size(), conjunction);
+    }
+
+    /**
+     * The number of non-terminal nodes reachable from a node.
+     * @param root The node.
+     * @return The number of nodes.
+     */
+    private int size(NDD root) {
+        HashSet<NDD> visited = new HashSet<>();
+        ArrayDeque<NDD> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NDD n = stack.pop();
+            if (n.isTerminal() || !visited.add(n)) {
+                continue;
+            }
+            for (NDD next : n.edges.keySet()) {
+                stack.push(next);
+            }
+        }
+        return visited.size();
+    }
+
+    /**
+     * The fused AND and existential quantification, exist fields . a and b, also known as
+     * the relational product. The conjunction is never built: the descendants at the
+     * quantified fields are joined by OR as they are computed.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param fields The fields to quantify.
+     * @return The result.
+     */
+    public NDD andExist(NDD a, NDD b, int[] fields) {
+        FieldSet set = fieldSet(fields);
+        temporarilyProtect.clear();
+        return andExistRec(a, b, set);
+    }
+
+    /**
+     * The recursive implementation of the fused AND and existential quantification.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param set The fields to quantify.
+     * @return The result.
+     */
+    private NDD andExistRec(NDD a, NDD b, FieldSet set) {
+        // terminal condition
+        if (a.isFalse() || b.isFalse()) {
+            return FALSE;
+        } else if (a.isTrue() || a == b) {
+            return existFields(b, set);
+        } else if (b.isTrue()) {
+            return existFields(a, set);
+        }
+        if (a.field > b.field) {
+            NDD t = a;
+            a = b;
+            b = t;
+        }
+        // no quantified field below, so it is a plain AND
+        if (a.field > set.last) {
+            return andRec(a, b);
+        }
+
+        // check the cache
+        if (andExistCache.getEntry(a, b, set.id))
+            return andExistCache.result;
+
+        NDD result;
+        boolean quantified = set.fields.get(a.field);
+        if (a.field == b.field) {
+            if (quantified) {
+                // only whether the labels intersect matters, the intersection itself is dropped
+                result = FALSE;
+                for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                    for (Map.Entry<NDD, Integer> entryB : b.edges.entrySet()) {
+                        if (result.isTrue()) {
+                            break;
+                        }
+                        if (bddEngine.and(entryA.getValue(), entryB.getValue()) != 0) {
+                            result = orRec(result, andExistRec(entryA.getKey(), entryB.getKey(), set));
+                            temporarilyProtect.add(result);
+                        }
+                    }
+                }
+            } else {
+                HashMap<NDD, Integer> edges = new HashMap<>();
+                for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                    for (Map.Entry<NDD, Integer> entryB : b.edges.entrySet()) {
+                        int intersect = bddEngine.ref(bddEngine.and(entryA.getValue(), entryB.getValue()));
+                        if (intersect != 0) {
+                            addEdge(edges, andExistRec(entryA.getKey(), entryB.getKey(), set), intersect);
+                        }
+                    }
+                }
+                result = mk(a.field, edges);
+            }
+        } else if (quantified) {
+            // every label of a is satisfiable, so all descendants count
+            result = FALSE;
+            for (NDD next : a.edges.keySet()) {
+                if (result.isTrue()) {
+                    break;
+                }
+                result = orRec(result, andExistRec(next, b, set));
+                temporarilyProtect.add(result);
+            }
+        } else {
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD subResult = andExistRec(entryA.getKey(), b, set);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        andExistCache.setEntry(a, b, set.id, result);
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the existential quantification of a set of fields.
+     * @param a The operand.
+     * @param set The fields to quantify.
+     * @return The result.
+     */
+    private NDD existFields(NDD a, FieldSet set) {
+        if (a.isTerminal() || a.field > set.last) {
+            return a;
+        }
+        if (existFieldsCache.getEntry(a, set.id))
+            return existFieldsCache.result;
+
+        NDD result;
+        if (set.fields.get(a.field)) {
+            // the union of the quantified descendants
+            NDD[] terms = new NDD[a.edges.size()];
+            int count = 0;
+            for (NDD next : a.edges.keySet()) {
+                NDD subResult = existFields(next, set);
+                if (subResult.isTrue()) {
+                    count = 0;
+                    terms[count++] = TRUE;
+                    break;
+                }
+                terms[count++] = subResult;
+            }
+            result = balanced(terms, count, false);
+        } else {
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD subResult = existFields(entryA.getKey(), set);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        existFieldsCache.setEntry(a, set.id, result);
+        return result;
+    }
+
+    /**
+     * The conjunction or union of some nodes, in a balanced tree of pairs, such that the
+     * operands of each step stay small instead of one of them growing with each step.
+     * @param terms The nodes, overwritten with partial results.
+     * @param count The number of nodes in terms.
+     * @param conjunction If the nodes are joined by AND, otherwise by OR.
+     * @return The result.
+     */
+    private NDD balanced(NDD[] terms, int count, boolean conjunction) {
+        NDD absorbing = conjunction ? FALSE : TRUE;
+        if (count == 0) {
+            return conjunction ? TRUE : FALSE;
+        }
+        while (count > 1) {
+            int half = 0;
+            for (int i = 0; i + 1 < count; i += 2) {
+                NDD step = conjunction ? andRec(terms[i], terms[i + 1]) : orRec(terms[i], terms[i + 1]);
+                if (step == absorbing) {
+                    return step;
+                }
+                temporarilyProtect.add(step);
+                terms[half++] = step;
+            }
+            if (count % 2 == 1) {
+                terms[half++] = terms[count - 1];
+            }
+            count = half;
+        }
+        return terms[0];
+    }
+
+    /**
+     * Get the field set of an array of fields, which is shared by all equal arrays.
+     * @param fields The fields, in any order and with duplicates allowed.
+     * @return The field set.
+     */
+    private FieldSet fieldSet(int[] fields) {
+        BitSet bits = new BitSet();
+        for (int field : fields) {
+            if (field < 0) {
+                throw new IllegalArgumentException("no field " + field);
+            }
+            bits.set(field);
+        }
+        return fieldSet(bits);
+    }
+
+    /**
+     * Get the field set of a bit set of fields, which is shared by all equal bit sets.
+     * @param fields The fields.
+     * @return The field set.
+     */
+    private FieldSet fieldSet(BitSet fields) {
+        if (fields.length() > fieldNum + 1) {
+            throw new IllegalArgumentException("no field " + (fields.length() - 1));
+        }
+        FieldSet set = fieldSets.get(fields);
+        if (set == null) {
+            // the key is copied, as the caller may change its bit set
+            BitSet bits = (BitSet) fields.clone();
+            set = new FieldSet(fieldSets.size(), bits);
+            fieldSets.put(bits, set);
+        }
+        return set;
+    }
+
+    /**
+     * A set of fields to quantify, with an id that stands for it in the operation caches.
+     */
+    private static final class FieldSet {
+        final int id;
+        final BitSet fields;
+        /**
+         * The highest field in the set, -1 if empty.
+         */
+        final int last;
+
+        FieldSet(int id, BitSet fields) {
+            this.id = id;
+            this.fields = fields;
+            this.last = fields.length() - 1;
+        }
+    }
+
+    /**
+     * Move the predicate on one field to another field of the same width, such as the
+     * rewrite of a header field. The old constraint on toField is dropped and fromField
+     * becomes unconstrained, i.e., the result is (exist toField . a)[fromField := toField].
+     * @param a The operand.
+     * @param fromField The field to move.
+     * @param toField The field to move it to.
+     * @return The result.
+     */
+    public NDD replaceField(NDD a, int fromField, int toField) {
+        checkPairedFields(new int[] {toField, fromField});
+        temporarilyProtect.clear();
+        if (fromField == toField) {
+            return a;
+        }
+        return replaceRec(existRec(a, toField), fromField, toField);
+    }
+
+    /**
+     * The relational image of a set of states, e.g., the packets leaving a rewrite element.
+     * The relation relates each current field in pairedFields to the next field following
+     * it: pairedFields = {x0, x0', x1, x1', ...}. The image is
+     * (exist x0, x1, ... . states and relation)[x0' := x0, x1' := x1, ...], and fields not
+     * in pairedFields are kept as they are.
+     * @param states The set of states, over the current fields.
+     * @param relation The relation, over the current and next fields.
+     * @param pairedFields The pairs of current and next fields.
+     * @return The image.
+     */
+    public NDD image(NDD states, NDD relation, int[] pairedFields) {
+        checkPairedFields(pairedFields);
+        temporarilyProtect.clear();
+        int[] currentFields = new int[pairedFields.length / 2];
+        for (int i = 0; i < currentFields.length; i++) {
+            currentFields[i] = pairedFields[2 * i];
+        }
+        NDD result = andExistRec(states, relation, fieldSet(currentFields));
+        for (int i = 0; i < pairedFields.length; i += 2) {
+            result = replaceRec(result, pairedFields[i + 1], pairedFields[i]);
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of field replacement, where toField is unconstrained in a.
+     * @param a The operand.
+     * @param fromField The field to move.
+     * @param toField The field to move it to.
+     * @return The result.
+     */
+    private NDD replaceRec(NDD a, int fromField, int toField) {
+        if (a.isTerminal() || a.field > fromField) {
+            return a;
+        }
+        int key = fromField << 16 | toField;
+        if (replaceCache.getEntry(a, key))
+            return replaceCache.result;
+
+        NDD result;
+        if (a.field == fromField) {
+            // each edge becomes its descendant and its label moved to toField
+            Permutation permutation = fieldPermutation(fromField, toField);
+            result = FALSE;
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD moved = toNDDFunc(bddEngine.ref(bddEngine.replace(entryA.getValue(), permutation)), toField);
+                temporarilyProtect.add(moved);
+                result = orRec(result, andRec(entryA.getKey(), moved));
+            }
+        } else if (toField > a.field) {
+            // the moved field stays below this node
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD subResult = replaceRec(entryA.getKey(), fromField, toField);
+                addEdge(edges, subResult, bddEngine.ref(entryA.getValue()));
+            }
+            result = mk(a.field, edges);
+        } else {
+            // the moved field goes above this node, so each edge is joined by AND
+            result = FALSE;
+            for (Map.Entry<NDD, Integer> entryA : a.edges.entrySet()) {
+                NDD subResult = replaceRec(entryA.getKey(), fromField, toField);
+                NDD edge = toNDDFunc(bddEngine.ref(entryA.getValue()), a.field);
+                temporarilyProtect.add(edge);
+                result = orRec(result, andRec(edge, subResult));
+            }
+        }
+        temporarilyProtect.add(result);
+        replaceCache.setEntry(a, key, result);
+        return result;
+    }
+
+    /**
+     * Get the permutation that moves each variable of fromField to the variable of toField at the same bit.
+     */
+    private Permutation fieldPermutation(int fromField, int toField) {
+        int key = fromField << 16 | toField;
+        Permutation permutation = fieldPermutations.get(key);
+        if (permutation == null) {
+            permutation = bddEngine.createPermutation(bddVarsPerField.get(fromField), bddVarsPerField.get(toField));
+            fieldPermutations.put(key, permutation);
+        }
+        return permutation;
+    }
+
+    /**
+     * Check that pairedFields holds pairs of declared fields of the same width.
+     */
+    private void checkPairedFields(int[] pairedFields) {
+        if (pairedFields.length % 2 != 0) {
+            throw new IllegalArgumentException("fields must come in pairs");
+        }
+        for (int i = 0; i < pairedFields.length; i += 2) {
+            int x = pairedFields[i], y = pairedFields[i + 1];
+            if (x < 0 || x > fieldNum || y < 0 || y > fieldNum) {
+                throw new IllegalArgumentException("no field " + (x < 0 || x > fieldNum ? x : y));
+            }
+            if (bddVarsPerField.get(x).length != bddVarsPerField.get(y).length) {
+                throw new IllegalArgumentException("fields " + x + " and " + y + " differ in width");
+            }
+        }
+    }
+
+    // a => b <==> (not a) ∪ b
+    /**
+     * The logical implication, which is equivalent to (NOT a) OR b.
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical implication.
+     */
+    public NDD imp(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        if (impCache.getEntry(a, b))
+            return impCache.result;
+        NDD n = notRec(a);
+        temporarilyProtect.add(n);
+        NDD result = orRec(n, b);
+        impCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * The number of solutions encoded in the ndd node.
+     * @param ndd The ndd node.
+     * @return The number of solutions.
+     */
+    public double satCount(NDD ndd) {
+        double result = satCountRec(ndd, 0);
+        if (DEBUG_MODEL) {
+            double bddResult = bddEngine.satCount(toBDD(ndd));
+            if (result != bddResult) {
+                System.out.println("Operation satCount: result wrong!");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The number of solutions of a node over the fields from 'field' on, where the fields
+     * skipped before the node are unconstrained.
+     * @param curr Current ndd node.
+     * @param field Current field.
+     * @return The number of solutions.
+     */
+    private double satCountRec(NDD curr, int field) {
+        if (curr.isFalse()) {
+            return 0;
+        } else if (curr.isTrue()) {
+            return Math.pow(2.0, bitsBefore(fieldNum + 1) - bitsBefore(field));
+        }
+        Double result = satCountCache.get(curr);
+        if (result == null) {
+            result = satCountNode(curr);
+        }
+        return Math.pow(2.0, bitsBefore(curr.field) - bitsBefore(field)) * result;
+    }
+
+    /**
+     * The number of solutions of a non-terminal node over the fields from its own field on,
+     * summing the solutions of each label times the solutions of its descendant.
+     * @param curr The ndd node.
+     * @return The number of solutions.
+     */
+    private double satCountNode(NDD curr) {
+        double result = 0;
+        for (Map.Entry<NDD, Integer> entry : curr.edges.entrySet()) {
+            // the bdd engine counts over all variables, the other fields are unconstrained in labels
+            double bddSat = bddEngine.satCount(entry.getValue()) / satCountDiv.get(curr.field);
+            result += bddSat * satCountRec(entry.getKey(), curr.field + 1);
+        }
+        satCountCache.put(curr, result);
+        return result;
+    }
+
+    /**
+     * The number of bdd variables of all fields before a field.
+     * @param field The field, fieldNum + 1 for all fields.
+     * @return The number of variables.
+     */
+    private int bitsBefore(int field) {
+        return field == 0 ? 0 : maxVariablePerField.get(field - 1) + 1;
+    }
+
+    /**
+     * Encode an NDD of a prefix with no temporary NDD nodes created.
+     * @param prefixBinary The binary prefix, e.g., [1, 0, 1, 0] for 10.
+     * @param field The field of the prefix.
+     * @return An ndd node encoding the prefix.
+     */
+    public NDD encodePrefix(int[] prefixBinary, int field) {
+        if (prefixBinary.length == 0) {
+            return TRUE;
+        }
+
+        int prefixBDD = encodePrefixBDD(prefixBinary, getBDDVars(field), getNotBDDVars(field));
+
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        edges.put(TRUE, prefixBDD);
+        return mk(field, edges);
+    }
+
+    public NDD encodePrefixs(ArrayList<int[]> prefixsBinary, int field) {
+        int prefixsBDD = 0;
+        for (int[] prefix : prefixsBinary) {
+            prefixsBDD = bddEngine.orTo(prefixsBDD, encodePrefixBDD(prefix, getBDDVars(field), getNotBDDVars(field)));
+        }
+        HashMap<NDD, Integer> edges = new HashMap<>();
+        edges.put(TRUE, prefixsBDD);
+        return mk(field, edges);
+    }
+
+    public int encodePrefixBDD(int[] prefixBinary, int[] vars, int[] notVars) {
+        if (prefixBinary.length == 0) {
+            return 1;
+        }
+
+        int prefixBDD = 1;
+        for (int i = prefixBinary.length - 1; i >= 0; i--) {
+            int currentBit = prefixBinary[i] == 1 ? vars[i] : notVars[i];
+            if (i == prefixBinary.length - 1) {
+                prefixBDD = bddEngine.ref(currentBit);
+            } else {
+                prefixBDD = bddEngine.andTo(prefixBDD, currentBit);
+            }
+        }
+        return prefixBDD;
+    }
+
+    // <field, bdd>, entries in perFieldBDD must follow the order with field asc
+    public NDD encodeACL(ArrayList<Pair<Integer, Integer>> perFieldBDD) {
+        NDD result = TRUE;
+        for (int i = perFieldBDD.size() - 1; i >= 0; i--) {
+            if (perFieldBDD.get(i).getValue() != 1) {
+                HashMap<NDD, Integer> edges = new HashMap<>();
+                edges.put(result, perFieldBDD.get(i).getValue());
+                result = mk(perFieldBDD.get(i).getKey(), edges);
+            }
+        }
+        return result;
+    }
+
+
+    public NDD toNDD(int a, int field) {
+        return toNDDFunc(a, field);
+    }
+
+    private NDD toNDDFunc(int a, int field)
+    {
+        if(a == 1) {
+            return TRUE;
+        } else {
+            HashMap<NDD, Integer> edges = new HashMap<>();
+            edges.put(TRUE, a);
+            return mk(field, edges);
+        }
+    }
+
+    public NDD toNDD(int a) {
+        return toNDDFunc(a);
+    }
+
+    private NDD toNDDFunc(int a)
+    {
+        HashMap<Integer, HashMap<Integer, Integer>> decomposed = decomposer.decompose(a);
+        HashMap<Integer, NDD> converted = new HashMap<>();
+        converted.put(1, TRUE);
+        while(decomposed.size() != 0)
+        {
+            Set<Integer> finished = converted.keySet();
+            for(Map.Entry<Integer, HashMap<Integer, Integer>> entry : decomposed.entrySet())
+            {
+                if(finished.containsAll(entry.getValue().keySet()))
+                {
+                    int field = decomposer.getField(entry.getKey());
+                    HashMap<NDD, Integer> map = new HashMap<>();
+                    for(Map.Entry<Integer, Integer> entry1 : entry.getValue().entrySet())
+                    {
+                        map.put(converted.get(entry1.getKey()), bddEngine.ref(entry1.getValue()));
+                    }
+                    NDD n = mk(field, map);
+                    converted.put(entry.getKey(), n);
+                    decomposed.remove(entry.getKey());
+                    break;
+                }
+            }
+        }
+        for(HashMap<Integer, Integer> map : decomposed.values())
+        {
+            for(Integer pred : map.values())
+            {
+                bddEngine.deref(pred);
+            }
+        }
+        return converted.get(a);
+    }
+
+    public ArrayList<int[]> toArray(NDD curr) {
+        ArrayList<int[]> array = new ArrayList<>();
+        paths(curr, false).forEachRemaining(array::add);
+        return array;
+    }
+
+    /**
+     * Enumerate the paths of an ndd node to TRUE lazily, each as the bdd label of every
+     * field, TRUE for the fields the path skips. With cubes, each label is expanded into the
+     * cubes of its bdd, one path per combination; the cubes are not ref'ed, and only stay
+     * valid until the next bdd operation. The node must stay ref'ed while it is enumerated.
+     * Without cubes, the enumeration can be split for parallel streams, as it only reads
+     * nodes; with cubes, it creates bdd nodes, and is never split.
+     * @param root The ndd node.
+     * @param cubes If the labels are expanded into cubes.
+     * @return The paths.
+     */
+    public Spliterator<int[]> paths(NDD root, boolean cubes) {
+        return new PathSpliterator(bddEngine, root, fieldNum, cubes);
+    }
+
+    public int toBDD(NDD root) {
+        int result = toBDDRec(root);
+        bddEngine.deref(result);
+        return result;
+    }
+
+    /**
+     * The recursive implementation of toBDD, memoized per node in toBDDCache.
+     * The caller owns a reference of the result, since a garbage collection of the bdd
+     * engine may clear toBDDCache in the middle of the conversion.
+     * @param current The current ndd node.
+     * @return The bdd node, ref'ed for the caller.
+     */
+    private int toBDDRec(NDD current) {
+        if (current.isTrue()) {
+            return 1;
+        } else if (current.isFalse()) {
+            return 0;
+        }
+        Integer cached = toBDDCache.get(current);
+        if (cached != null) {
+            return bddEngine.ref(cached);
+        }
+        int result = 0;
+        for (Map.Entry<NDD, Integer> entry : current.edges.entrySet()) {
+            int temp = bddEngine.andTo(toBDDRec(entry.getKey()), entry.getValue());
+            result = bddEngine.orTo(result, temp);
+            bddEngine.deref(temp);
+        }
+        toBDDCache.put(current, bddEngine.ref(result));
+        return result;
+    }
+
+    public void print(NDD root) {
+        System.out.println("Print " + root + " begin!");
+        printRec(root);
+        System.out.println("Print " + root + " finish!\n");
+    }
+
+    private void printRec(NDD current) {
+        if (current.isTrue()) System.out.println("TRUE\n");
+        else if (current.isFalse()) System.out.println("FALSE\n");
+        else {
+            System.out.println("field:" + current.field + " node:" + current);
+            for (Map.Entry<NDD, Integer> entry : current.getEdges().entrySet()) {
+                System.out.println("next:" + entry.getKey() + " label:" + entry.getValue());
+            }
+            System.out.println();
+            for (NDD next : current.getEdges().keySet()) {
+                printRec(next);
+            }
+        }
+    }
+    
+    public void printDot(NDD root, String filename) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("digraph NDD_Graph {\n");
+        sb.append("  rankdir=TD;\n");
+        sb.append("  compound=true;\n");
+        
+        HashSet<NDD> visitedNDD = new HashSet<>();
+        
+        sb.append("  NDD_TRUE [shape=box, style=filled, label=\"NDD TRUE\"];\n");
+        sb.append("  NDD_FALSE [shape=box, style=filled, label=\"NDD FALSE\"];\n");
+        
+        try {
+            FileWriter writer = new FileWriter(filename);
+            
+            HashMap<Integer, Integer> bddRoots = new HashMap<>();
+            collectBDDRoots(root, bddRoots, new HashSet<NDD>());
+            
+            for (Integer bddId : bddRoots.keySet()) {
+                if (bddId <= 1) continue;
+                
+                sb.append("  subgraph cluster_").append(bddId).append(" {\n");
+                sb.append("    label=\"BDD ").append(bddId).append("\";\n");
+                sb.append("    style=dashed;\n");
+                sb.append("    color=blue;\n");
+                sb.append("    bgcolor=lightgrey;\n");
+                
+                sb.append("    true_").append(bddId).append(" [shape=box, label=\"true#").append(bddId).append("\", style=filled];\n");
+                sb.append("    false_").append(bddId).append(" [shape=box, label=\"false#").append(bddId).append("\", style=filled];\n");
+                printBDDSubgraph(bddId, bddId, sb, new HashSet<Integer>());
+                
+                sb.append("  }\n\n");
+            }
+            
+            visitedNDD.clear();
+            printNDDStructure(root, sb, visitedNDD);
+            
+            sb.append("}\n");
+            writer.write(sb.toString());
+            writer.close();
+            
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void printNDDStructure(NDD current, StringBuilder sb, 
+                                        HashSet<NDD> visited) {
+        if (current.isTerminal() || visited.contains(current)) {
+            return;
+        }
+        visited.add(current);
+        
+        String nodeId = "NDD_" + System.identityHashCode(current);
+        sb.append("  ").append(nodeId)
+        .append(" [shape=circle, label=\"Field ").append(current.field).append("\"];\n");
+        
+        for (Map.Entry<NDD, Integer> entry : current.getEdges().entrySet()) {
+            NDD next = entry.getKey();
+            int bddId = entry.getValue();
+            
+            String nextId;
+            if (next.isTrue()) {
+                nextId = "NDD_TRUE";
+            } else if (next.isFalse()) {
+                nextId = "NDD_FALSE";
+            } else {
+                nextId = "NDD_" + System.identityHashCode(next);
+            }
+            sb.append("  ").append(nodeId).append(" -> ").append(nextId)
+            .append(" [label=\"").append(bddId).append("\"];\n");
+            
+            printNDDStructure(next, sb, visited);
+        }
+    }
+    private void collectBDDRoots(NDD ndd, HashMap<Integer, Integer> bddRoots, HashSet<NDD> visited) {
+        if (ndd.isTerminal() || visited.contains(ndd)) {
+            return;
+        }
+        visited.add(ndd);
+        
+        for (Map.Entry<NDD, Integer> entry : ndd.getEdges().entrySet()) {
+            int bddId = entry.getValue();
+            bddRoots.put(bddId, bddId);
+            
+            collectBDDRoots(entry.getKey(), bddRoots, visited);
+        }
+    }
+    private void printBDDSubgraph(int currentBDD, int rootBDD, 
+                                    StringBuilder sb, HashSet<Integer> visited) {
+        if (currentBDD <= 1 || visited.contains(currentBDD)) {
+            return;
+        }
+        visited.add(currentBDD);
+        
+        int var = bddEngine.getVar(currentBDD);
+        int high = bddEngine.getHigh(currentBDD);
+        int low = bddEngine.getLow(currentBDD);
+        
+        sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+        .append(" [shape=circle, label=\"x").append(var).append("\"];\n");
+        
+        if (high == 1) {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> true_").append(rootBDD).append(";\n");
+        } else if (high == 0) {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> false_").append(rootBDD).append(";\n");
+        } else {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> node").append(high).append("_").append(rootBDD).append(";\n");
+            printBDDSubgraph(high, rootBDD, sb, visited);
+        }
+        
+        if (low == 1) {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> true_").append(rootBDD).append(" [style=dotted];\n");
+        } else if (low == 0) {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> false_").append(rootBDD).append(" [style=dotted];\n");
+        } else {
+            sb.append("    node").append(currentBDD).append("_").append(rootBDD)
+            .append(" -> node").append(low).append("_").append(rootBDD)
+            .append(" [style=dotted];\n");
+            printBDDSubgraph(low, rootBDD, sb, visited);
+        }
+    }
+
+    /**
+     * Create or reuse an NDD node.
+     * Note that, one should ref all bdd labels in edges before invoking mk.
+     * @param field The field of the ndd node.
+     * @param edges All the edges of the ndd node.
+     * @return The ndd node.
+     */
+    public NDD mk(int field, HashMap<NDD, Integer> edges) {
+        return nodeTable.mk(field, edges);
+    }
+
+    public int nodeCount() {
+        ArrayList<HashMap<HashMap<NDD, Integer>, NDD>> tables = nodeTable.getNodeTable();
+        int nodeCount = 0;
+        for (HashMap<HashMap<NDD, Integer>, NDD> table : tables) {
+            nodeCount += table.size();
+        }
+        return nodeCount;
+    }
+}
@@ -5,6 +5,9 @@
  */
 package org.ants.jpndd.cache;
 
+import java.util.Arrays;
+import java.util.function.Predicate;
+
 import javax.validation.constraints.NotNull;
 
 public class OperationCache<T> {
@@ -14,15 +17,64 @@ public class OperationCache<T> {
     int cacheSize;
 
     /**
-     * The length of each entry. 3 for binary operations and 2 for unary operations.
+     * The length of each entry. 4 for ternary operations, 3 for binary operations and 2 for unary operations.
      */
     int entrySize;
 
+    /**
+     * The number of entries in each set, 1 for a direct-mapped cache.
+     */
+    int ways;
+
+    /**
+     * The number of sets.
+     */
+    int setCount;
+
+    /**
+     * If the operation is commutative, such that (a, b) and (b, a) share an entry.
+     */
+    boolean commutative;
+
     /**
      * The cache.
      */
     Object[] cache;
 
+    /**
+     * The integer operand of each entry, e.g., the field of an existential quantification.
+     */
+    int[] keys;
+
+    /**
+     * The generation in which each entry was written. Entries of older generations are
+     * invalid, so the cache is cleared by starting a new generation.
+     */
+    int[] stamps;
+
+    /**
+     * The current generation, starting from 1 such that a fresh entry is invalid.
+     */
+    int generation;
+
+    /**
+     * The time of the last use of each entry, used to pick the least recently used
+     * entry of a set. Only allocated for set-associative caches.
+     */
+    long[] lastUse;
+
+    /**
+     * The clock of lastUse.
+     */
+    long tick;
+
+    /**
+     * Check if a cached result is still alive. Entries whose result has been freed are
+     * treated as misses, so the cache survives garbage collections. Null if every result
+     * stays valid until clearCache().
+     */
+    Predicate<T> live;
+
     /**
      * Store the result of getEntry() temporarily, if the entry is found.
      */
@@ -34,14 +86,55 @@ public class OperationCache<T> {
     public int hashValue;
 
     /**
-     * Construct function of operation cache.
+     * Construct function of a direct-mapped operation cache.
      * @param cacheSize The max number of entries in the cache
      * @param entrySize The length of each entry. 3 for binary operations and 2 for unary operations.
      */
     public OperationCache(int cacheSize, int entrySize) {
-        this.cacheSize = cacheSize;
+        this(cacheSize, entrySize, 1, true);
+    }
+
+    /**
+     * Construct function of a set-associative operation cache of a commutative operation.
+     * @param cacheSize The max number of entries in the cache
+     * @param entrySize The length of each entry. 3 for binary operations and 2 for unary operations.
+     * @param ways The number of entries in each set, 1 for a direct-mapped cache.
+     */
+    public OperationCache(int cacheSize, int entrySize, int ways) {
+        this(cacheSize, entrySize, ways, true);
+    }
+
+    /**
+     * Construct function of operation cache.
+     * @param cacheSize The max number of entries in the cache
+     * @param entrySize The length of each entry. 3 for binary operations and 2 for unary operations.
+     * @param ways The number of entries in each set, 1 for a direct-mapped cache.
+     * @param commutative If (a, b) and (b, a) have the same result, false for e.g. diff.
+     */
+    public OperationCache(int cacheSize, int entrySize, int ways, boolean commutative) {
+        this(cacheSize, entrySize, ways, commutative, null);
+    }
+
+    /**
+     * Construct function of operation cache, whose entries are checked against freed results.
+     * @param cacheSize The max number of entries in the cache
+     * @param entrySize The length of each entry. 3 for binary operations and 2 for unary operations.
+     * @param ways The number of entries in each set, 1 for a direct-mapped cache.
+     * @param commutative If (a, b) and (b, a) have the same result, false for e.g. diff.
+     * @param live Check if a cached result is still alive, null if results never die.
+     */
+    public OperationCache(int cacheSize, int entrySize, int ways, boolean commutative, Predicate<T> live) {
+        this.ways = Math.max(1, ways);
+        this.setCount = Math.max(1, cacheSize / this.ways);
+        this.cacheSize = setCount * this.ways;
         this.entrySize = entrySize;
-        cache = new Object [cacheSize * entrySize];
+        this.commutative = commutative;
+        cache = new Object [this.cacheSize * entrySize];
+        keys = new int [this.cacheSize];
+        stamps = new int [this.cacheSize];
+        lastUse = this.ways > 1 ? new long [this.cacheSize] : null;
+        generation = 1;
+        this.live = live;
         result = null;
     }
 
@@ -85,28 +178,136 @@ public class OperationCache<T> {
 
     /**
      * Insert new entry of (operand1, result) into cache.
-     * Directly overwrite the old value if there exist a hash collision.
-     * @param index The index of the entry to be inserted, which is actually a hash value.
+     * Overwrite the least recently used entry of the set if the set is full.
+     * @param index The set of the entry to be inserted, which is actually a hash value.
      * @param operand1 The only operand of a unary operation.
      * @param result The result of the operation.
      */
     public void setEntry(int index, T operand1, T result) {
-        setOperand(index, 1, operand1);
-        setResult(index, result);
+        int entry = victim(index);
+        setOperand(entry, 1, operand1);
+        setResult(entry, result);
+        validate(entry);
     }
 
     /**
      * Insert new entry of (operand1, operand2, result) into cache.
-     * Directly overwrite the old value if there exist a hash collision.
-     * @param index The index of the entry to be inserted, which is actually a hash value.
+     * Overwrite the least recently used entry of the set if the set is full.
+     * @param index The set of the entry to be inserted, which is actually a hash value.
      * @param operand1 The first operand of a binary operation.
      * @param operand2 The second operand of a binary operation.
      * @param result The result of the operation.
      */
     public void setEntry(int index, T operand1, T operand2, T result) {
-        setOperand(index, 1, operand1);
-        setOperand(index, 2, operand2);
-        setResult(index, result);
+        int entry = victim(index);
+        setOperand(entry, 1, operand1);
+        setOperand(entry, 2, operand2);
+        setResult(entry, result);
+        validate(entry);
+    }
+
+    /**
+     * Insert new entry of (operand1, key, result) into cache.
+     * Overwrite the least recently used entry of the set if the set is full.
+     * @param index The set of the entry to be inserted, which is actually a hash value.
+     * @param operand1 The operand.
+     * @param key The integer operand, e.g., a field.
+     * @param result The result of the operation.
+     */
+    public void setEntry(int index, T operand1, int key, T result) {
+        int entry = victim(index);
+        setOperand(entry, 1, operand1);
+        keys[entry] = key;
+        setResult(entry, result);
+        validate(entry);
+    }
+
+    /**
+     * Insert new entry of (operand1, operand2, operand3, result) into cache.
+     * Overwrite the least recently used entry of the set if the set is full.
+     * @param index The set of the entry to be inserted, which is actually a hash value.
+     * @param operand1 The first operand of a ternary operation.
+     * @param operand2 The second operand of a ternary operation.
+     * @param operand3 The third operand of a ternary operation.
+     * @param result The result of the operation.
+     */
+    public void setEntry(int index, T operand1, T operand2, T operand3, T result) {
+        int entry = victim(index);
+        setOperand(entry, 1, operand1);
+        setOperand(entry, 2, operand2);
+        setOperand(entry, 3, operand3);
+        setResult(entry, result);
+        validate(entry);
+    }
+
+    /**
+     * Insert new entry of (operand1, operand2, key, result) into cache.
+     * Overwrite the least recently used entry of the set if the set is full.
+     * @param index The set of the entry to be inserted, which is actually a hash value.
+     * @param operand1 The first operand of a binary operation.
+     * @param operand2 The second operand of a binary operation.
+     * @param key The integer operand, e.g., a set of fields.
+     * @param result The result of the operation.
+     */
+    public void setEntry(int index, T operand1, T operand2, int key, T result) {
+        int entry = victim(index);
+        setOperand(entry, 1, operand1);
+        setOperand(entry, 2, operand2);
+        keys[entry] = key;
+        setResult(entry, result);
+        validate(entry);
+    }
+
+    /**
+     * Insert new entry of (operand1, result) into cache. Unlike setEntry(hashValue, ...),
+     * this is safe after recursive operations reused the cache since getEntry().
+     * @param operand1 The only operand of a unary operation.
+     * @param result The result of the operation.
+     */
+    public void setEntry(T operand1, T result) {
+        setEntry(goodHash(operand1), operand1, result);
+    }
+
+    /**
+     * Insert new entry of (operand1, operand2, result) into cache, see setEntry(operand1, result).
+     * @param operand1 The first operand of a binary operation.
+     * @param operand2 The second operand of a binary operation.
+     * @param result The result of the operation.
+     */
+    public void setEntry(T operand1, T operand2, T result) {
+        setEntry(goodHash(operand1, operand2), operand1, operand2, result);
+    }
+
+    /**
+     * Insert new entry of (operand1, key, result) into cache, see setEntry(operand1, result).
+     * @param operand1 The operand.
+     * @param key The integer operand, e.g., a field.
+     * @param result The result of the operation.
+     */
+    public void setEntry(T operand1, int key, T result) {
+        setEntry(goodHash(operand1, key), operand1, key, result);
+    }
+
+    /**
+     * Insert new entry of (operand1, operand2, operand3, result) into cache, see setEntry(operand1, result).
+     * @param operand1 The first operand of a ternary operation.
+     * @param operand2 The second operand of a ternary operation.
+     * @param operand3 The third operand of a ternary operation.
+     * @param result The result of the operation.
+     */
+    public void setEntry(T operand1, T operand2, T operand3, T result) {
+        setEntry(goodHash(operand1, operand2, operand3), operand1, operand2, operand3, result);
+    }
+
+    /**
+     * Insert new entry of (operand1, operand2, key, result) into cache, see setEntry(operand1, result).
+     * @param operand1 The first operand of a binary operation.
+     * @param operand2 The second operand of a binary operation.
+     * @param key The integer operand, e.g., a set of fields.
+     * @param result The result of the operation.
+     */
+    public void setEntry(T operand1, T operand2, int key, T result) {
+        setEntry(goodHash(operand1, operand2, key), operand1, operand2, key, result);
     }
 
     /**
@@ -116,13 +317,16 @@ public class OperationCache<T> {
      */
     public boolean getEntry(T operand1) {
         int hash = goodHash(operand1);
-        if (getOperand(hash, 1) == operand1) {
-            result = getResult(hash);
-            return true;
-        } else {
-            hashValue = hash;
-            return false;
+        for (int entry = hash * ways; entry < (hash + 1) * ways; entry++) {
+            if (isValid(entry) && getOperand(entry, 1) == operand1) {
+                if (hit(entry)) {
+                    return true;
+                }
+                break;
+            }
         }
+        hashValue = hash;
+        return false;
     }
 
     /**
@@ -133,41 +337,207 @@ public class OperationCache<T> {
      */
     public boolean getEntry(T operand1, T operand2) {
         int hash = goodHash(operand1, operand2);
-        if ((getOperand(hash, 1) == operand1 && getOperand(hash, 2) == operand2)
-            || (getOperand(hash, 1) == operand2 && getOperand(hash, 2) == operand1)) {
-            result = getResult(hash);
-            return true;
-        } else {
-            hashValue = hash;
+        for (int entry = hash * ways; entry < (hash + 1) * ways; entry++) {
+            if (!isValid(entry)) {
+                continue;
+            }
+            if ((getOperand(entry, 1) == operand1 && getOperand(entry, 2) == operand2)
+                || (commutative && getOperand(entry, 1) == operand2 && getOperand(entry, 2) == operand1)) {
+                if (hit(entry)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        hashValue = hash;
+        return false;
+    }
+
+    /**
+     * Get the result of operation(operand1, key).
+     * @param operand1 The operand.
+     * @param key The integer operand, e.g., a field.
+     * @return TRUE if the entry found (the result will be stored in this.result), FALSE if the entry not found (the hashValue will be stored in this.hashValue).
+     */
+    public boolean getEntry(T operand1, int key) {
+        int hash = goodHash(operand1, key);
+        for (int entry = hash * ways; entry < (hash + 1) * ways; entry++) {
+            if (isValid(entry) && getOperand(entry, 1) == operand1 && keys[entry] == key) {
+                if (hit(entry)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        hashValue = hash;
+        return false;
+    }
+
+    /**
+     * Get the result of operation(operand1, operand2, operand3). The operands are never swapped.
+     * @param operand1 The first operand of a ternary operation.
+     * @param operand2 The second operand of a ternary operation.
+     * @param operand3 The third operand of a ternary operation.
+     * @return TRUE if the entry found (the result will be stored in this.result), FALSE if the entry not found (the hashValue will be stored in this.hashValue).
+     */
+    public boolean getEntry(T operand1, T operand2, T operand3) {
+        int hash = goodHash(operand1, operand2, operand3);
+        for (int entry = hash * ways; entry < (hash + 1) * ways; entry++) {
+            if (isValid(entry) && getOperand(entry, 1) == operand1 && getOperand(entry, 2) == operand2
+                && getOperand(entry, 3) == operand3) {
+                if (hit(entry)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        hashValue = hash;
+        return false;
+    }
+
+    /**
+     * Get the result of operation(operand1, operand2, key).
+     * @param operand1 The first operand of a binary operation.
+     * @param operand2 The second operand of a binary operation.
+     * @param key The integer operand, e.g., a set of fields.
+     * @return TRUE if the entry found (the result will be stored in this.result), FALSE if the entry not found (the hashValue will be stored in this.hashValue).
+     */
+    public boolean getEntry(T operand1, T operand2, int key) {
+        int hash = goodHash(operand1, operand2, key);
+        for (int entry = hash * ways; entry < (hash + 1) * ways; entry++) {
+            if (!isValid(entry) || keys[entry] != key) {
+                continue;
+            }
+            if ((getOperand(entry, 1) == operand1 && getOperand(entry, 2) == operand2)
+                || (commutative && getOperand(entry, 1) == operand2 && getOperand(entry, 2) == operand1)) {
+                if (hit(entry)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        hashValue = hash;
+        return false;
+    }
+
+    /**
+     * Record a hit of an entry, or invalidate the entry if its result has been freed.
+     * @param entry The index of the entry.
+     * @return If the entry is a hit.
+     */
+    private boolean hit(int entry) {
+        T cached = getResult(entry);
+        if (live != null && !live.test(cached)) {
+            invalidateEntry(entry);
             return false;
         }
+        result = cached;
+        if (lastUse != null) {
+            lastUse[entry] = ++tick;
+        }
+        return true;
+    }
+
+    /**
+     * Choose the entry of a set to be overwritten: an invalid entry if there is one,
+     * otherwise the least recently used one.
+     * @param set The index of the set.
+     * @return The index of the entry.
+     */
+    private int victim(int set) {
+        int first = set * ways;
+        if (ways == 1) {
+            return first;
+        }
+        int victim = first;
+        for (int entry = first; entry < first + ways; entry++) {
+            if (!isValid(entry)) {
+                return entry;
+            }
+            if (lastUse[entry] < lastUse[victim]) {
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Mark an entry valid in the current generation.
+     * @param entry The index of the entry.
+     */
+    private void validate(int entry) {
+        stamps[entry] = generation;
+        if (lastUse != null) {
+            lastUse[entry] = ++tick;
+        }
     }
 
     /**
-     * Calculate the hash value of the operand, which will be the index in the cache.
+     * Calculate the hash value of the operand, which will be the index of the set in the cache.
      * @param operand1 The only operand of a unary operation.
      * @return The hash value.
      */
     private int goodHash(@NotNull T operand1) {
-        return Math.abs(operand1.hashCode()) % cacheSize;
+        return Math.abs(operand1.hashCode() % setCount);
     }
 
     /**
-     * Calculate the hash value of operands, which will be the index in the cache.
+     * Calculate the hash value of operands, which will be the index of the set in the cache.
      * @param operand1 The first operand of a binary operation.
      * @param operand2 The second operand of a binary operation.
      * @return The hash value.
      */
     private int goodHash(@NotNull T operand1, @NotNull T operand2) {
-        return (int) (Math.abs((long) operand1.hashCode() + (long) operand2.hashCode()) % cacheSize);
+        long hash = commutative
+            ? (long) operand1.hashCode() + (long) operand2.hashCode()
+            : (long) operand1.hashCode() * 31 + (long) operand2.hashCode();
+        return (int) (Math.abs(hash) % setCount);
     }
 
     /**
-     * Invalidate an entry in the cache.
+     * Calculate the hash value of an operand and an integer operand.
+     * @param operand1 The operand.
+     * @param key The integer operand.
+     * @return The hash value.
+     */
+    private int goodHash(@NotNull T operand1, int key) {
+        return (int) (Math.abs((long) operand1.hashCode() * 31 + key) % setCount);
+    }
+
+    /**
+     * Calculate the hash value of the operands of a ternary operation.
+     * @param operand1 The first operand.
+     * @param operand2 The second operand.
+     * @param operand3 The third operand.
+     * @return The hash value.
+     */
+    private int goodHash(@NotNull T operand1, @NotNull T operand2, @NotNull T operand3) {
+        long hash = ((long) operand1.hashCode() * 31 + (long) operand2.hashCode()) * 31 + (long) operand3.hashCode();
+        return (int) (Math.abs(hash) % setCount);
+    }
+
+    /**
+     * Calculate the hash value of operands and an integer operand.
+     * @param operand1 The first operand of a binary operation.
+     * @param operand2 The second operand of a binary operation.
+     * @param key The integer operand.
+     * @return The hash value.
+     */
+    private int goodHash(@NotNull T operand1, @NotNull T operand2, int key) {
+        long hash = commutative
+            ? (long) operand1.hashCode() + (long) operand2.hashCode()
+            : (long) operand1.hashCode() * 31 + (long) operand2.hashCode();
+        return (int) (Math.abs(hash * 31 + key) % setCount);
+    }
+
+    /**
+     * Invalidate an entry in the cache, and drop its nodes such that a freed result is
+     * not kept reachable by the cache.
      * @param index The index of the entry to be invalidated.
      */
     private void invalidateEntry(int index) {
-        setOperand(index, 1, null);
+        stamps[index] = 0;
+        Arrays.fill(cache, index * entrySize, (index + 1) * entrySize, null);
     }
 
     /**
@@ -176,17 +546,19 @@ public class OperationCache<T> {
      * @return If the entry stores valid content.
      */
     private boolean isValid(int index) {
-        return getOperand(index, 1) != null;
+        return stamps[index] == generation;
     }
 
     /**
      * Invalidate all the entries in the cache.
+     * Starting a new generation is O(1); stale entries are overwritten lazily.
      */
-    // invalidate all entries in the cache during garbage collections of the node table
     public void clearCache() {
-//        for (int i = 0; i < cacheSize; i++) {
-//            invalidateEntry(i);
-//        }
-        cache = new Object [cacheSize * entrySize];
+        generation++;
+        if (generation == 0) {
+            // the stamps wrapped around, so old stamps could look valid again
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
     }
 }
@@ -0,0 +1,259 @@
+/**
+ * Edges of an NDD node under construction.
+ * @author Zechun Li - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jpndd.diagram;
+
+import java.util.Arrays;
+
+import org.ants.jpndd.utils.Labels;
+
+import jsylvan.JSylvan;
+
+public class EdgeList {
+    /**
+     * Lists up to this size are searched linearly, larger ones through an index.
+     */
+    private static final int LINEAR_LIMIT = 8;
+
+    /**
+     * The descendants of the edges, in insertion order until sortByChild() is invoked.
+     */
+    private NDD[] children;
+
+    /**
+     * The bdd label of each edge.
+     */
+    private long[] labels;
+
+    /**
+     * The number of edges.
+     */
+    private int size;
+
+    /**
+     * Open addressing index from descendant to position + 1, only used for large lists.
+     */
+    private int[] index;
+
+    /**
+     * Construct an empty list of edges.
+     *
+     * @param capacity The expected number of edges.
+     */
+    public EdgeList(int capacity) {
+        capacity = Math.max(capacity, 2);
+        children = new NDD[capacity];
+        labels = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * Add an edge, merging it with the edge pointing to the same descendant if there
+     * is one. Edges pointing to FALSE or labeled by FALSE are omitted.
+     * Note that, the label should be ref'ed before, and is taken over by the list.
+     *
+     * @param descendant The descendant of the edge to be inserted.
+     * @param labelBDD   The label of the edge to be inserted.
+     */
+    public void add(NDD descendant, long labelBDD) {
+        if (descendant.isFalse() || labelBDD == JSylvan.getFalse()) {
+            Labels.deref(labelBDD);
+            return;
+        }
+        int position = indexOf(descendant);
+        if (position >= 0) {
+            long oldLabel = labels[position];
+            labels[position] = Labels.or(oldLabel, labelBDD);
+            Labels.deref(labelBDD);
+            Labels.deref(oldLabel);
+            return;
+        }
+        if (size == children.length) {
+            children = Arrays.copyOf(children, size * 2);
+            labels = Arrays.copyOf(labels, size * 2);
+        }
+        children[size] = descendant;
+        labels[size] = labelBDD;
+        size++;
+        if (index != null) {
+            if (size * 2 > index.length) {
+                buildIndex();
+            } else {
+                insertIndex(size - 1);
+            }
+        } else if (size > LINEAR_LIMIT) {
+            buildIndex();
+        }
+    }
+
+    /**
+     * Get the number of edges.
+     *
+     * @return The number of edges.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the descendant of an edge.
+     *
+     * @param i The position of the edge.
+     * @return The descendant.
+     */
+    public NDD getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * Get the label of an edge.
+     *
+     * @param i The position of the edge.
+     * @return The bdd label.
+     */
+    public long getLabel(int i) {
+        return labels[i];
+    }
+
+    /**
+     * Sort the edges by the id of their descendants, which is the canonical order of the
+     * edges of a node.
+     */
+    public void sortByChild() {
+        sort(0, size - 1);
+        index = null;
+    }
+
+    /**
+     * The structural hash of a node of the given field with these edges, see NDD.hashCode().
+     * Only meaningful after sortByChild().
+     *
+     * @param field The field of the node.
+     * @return The hash value.
+     */
+    public int structuralHash(int field) {
+        return NDD.structuralHash(field, children, labels, size);
+    }
+
+    /**
+     * Check if the (sorted) edges equal the edges of a node.
+     *
+     * @param node The ndd node.
+     * @return If both have the same edges.
+     */
+    public boolean sameEdges(NDD node) {
+        if (node.edgeCount() != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (node.getChild(i) != children[i] || node.getLabel(i) != labels[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the descendants into an array of the exact size.
+     *
+     * @return The descendants.
+     */
+    public NDD[] toChildren() {
+        return Arrays.copyOf(children, size);
+    }
+
+    /**
+     * Copy the labels into an array of the exact size.
+     *
+     * @return The labels.
+     */
+    public long[] toLabels() {
+        return Arrays.copyOf(labels, size);
+    }
+
+    /**
+     * Deref all labels, used when the edges are dropped.
+     */
+    public void derefLabels() {
+        for (int i = 0; i < size; i++) {
+            Labels.deref(labels[i]);
+        }
+    }
+
+    private int indexOf(NDD descendant) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == descendant) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = slotOf(descendant, mask); index[slot] != 0; slot = (slot + 1) & mask) {
+            if (children[index[slot] - 1] == descendant) {
+                return index[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void buildIndex() {
+        int capacity = Integer.highestOneBit(size * 4 - 1) << 1;
+        index = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insertIndex(i);
+        }
+    }
+
+    private void insertIndex(int position) {
+        int mask = index.length - 1;
+        int slot = slotOf(children[position], mask);
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private static int slotOf(NDD descendant, int mask) {
+        long id = descendant.getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            long pivot = children[(low + high) >>> 1].getId();
+            int i = low, j = high;
+            while (i <= j) {
+                while (children[i].getId() < pivot) i++;
+                while (children[j].getId() > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && children[j - 1].getId() > children[j].getId(); j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        NDD child = children[i];
+        children[i] = children[j];
+        children[j] = child;
+        long label = labels[i];
+        labels[i] = labels[j];
+        labels[j] = label;
+    }
+}
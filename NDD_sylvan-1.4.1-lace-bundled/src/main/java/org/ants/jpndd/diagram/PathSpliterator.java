@@ -0,0 +1,315 @@
+/**
+ * Lazy enumeration of the paths of an NDD to TRUE, each as the label of every field, like
+ * NDD.toArray() but in memory bounded by the number of fields. Splitting hands out the
+ * top-level edges not visited yet, so the paths can feed a parallel stream.
+ * @author Zechun Li - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jpndd.diagram;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.ants.jpndd.utils.Labels;
+
+import jsylvan.JSylvan;
+
+final class PathSpliterator implements Spliterator<long[]> {
+    /**
+     * The root of the enumeration.
+     */
+    private final NDD root;
+
+    /**
+     * The largest field index.
+     */
+    private final int fieldNum;
+
+    /**
+     * If each label is expanded into the cubes of its bdd.
+     */
+    private final boolean cubes;
+
+    /**
+     * The nodes on the current path, the root frame at the bottom.
+     */
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+
+    /**
+     * The frame of the root, which owns the range of top-level edges to visit.
+     */
+    private final Frame rootFrame;
+
+    /**
+     * The label of each field on the current path, copied for every path yielded.
+     */
+    private final long[] vec;
+
+    /**
+     * If the root is TRUE and its single path is not yielded yet.
+     */
+    private boolean pendingTrue;
+
+    /**
+     * Construct the enumeration of the paths of a node.
+     *
+     * @param root     The node.
+     * @param fieldNum The largest field index.
+     * @param cubes    If each label is expanded into the cubes of its bdd.
+     */
+    PathSpliterator(NDD root, int fieldNum, boolean cubes) {
+        this(root, fieldNum, cubes, 0, root.isTerminal() ? 0 : root.children.length);
+    }
+
+    /**
+     * Construct the enumeration of the paths of a node through a range of its edges.
+     *
+     * @param root     The node.
+     * @param fieldNum The largest field index.
+     * @param cubes    If each label is expanded into the cubes of its bdd.
+     * @param from     The first edge, inclusive.
+     * @param to       The last edge, exclusive.
+     */
+    private PathSpliterator(NDD root, int fieldNum, boolean cubes, int from, int to) {
+        this.root = root;
+        this.fieldNum = fieldNum;
+        this.cubes = cubes;
+        vec = new long[fieldNum + 1];
+        pendingTrue = root.isTrue();
+        if (root.isTerminal()) {
+            rootFrame = null;
+        } else {
+            for (int i = 0; i < root.field; i++) {
+                vec[i] = JSylvan.getTrue();
+            }
+            rootFrame = new Frame(root, from, to);
+            stack.push(rootFrame);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super long[]> action) {
+        if (pendingTrue) {
+            pendingTrue = false;
+            for (int i = 0; i <= fieldNum; i++) {
+                vec[i] = JSylvan.getTrue();
+            }
+            action.accept(vec.clone());
+            return true;
+        }
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (!nextLabel(top)) {
+                stack.pop();
+                continue;
+            }
+            NDD child = top.node.children[top.edge];
+            int below = child.isTerminal() ? fieldNum + 1 : child.field;
+            for (int i = top.node.field + 1; i < below; i++) {
+                vec[i] = JSylvan.getTrue();
+            }
+            if (child.isTrue()) {
+                action.accept(cubes ? buildCubes() : vec.clone());
+                return true;
+            } else if (!child.isFalse()) {
+                stack.push(new Frame(child, 0, child.children.length));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move a frame to its next label, the next cube of the current edge when cubes are
+     * expanded, otherwise the next edge.
+     *
+     * @param frame The frame.
+     * @return If there is a next label.
+     */
+    private boolean nextLabel(Frame frame) {
+        if (cubes && frame.cubes != null && frame.cubes.next()) {
+            return true;
+        }
+        if (++frame.edge >= frame.to) {
+            return false;
+        }
+        long label = frame.node.labels[frame.edge];
+        vec[frame.node.field] = label;
+        if (cubes) {
+            frame.cubes = new Cubes(label);
+            // a label is never FALSE, so it has at least one cube
+            frame.cubes.next();
+        }
+        return true;
+    }
+
+    /**
+     * Build the cubes of the current path. The fields without a node on the path get TRUE.
+     *
+     * @return The cube of each field, not ref'ed.
+     */
+    private long[] buildCubes() {
+        long[] result = new long[fieldNum + 1];
+        for (int i = 0; i <= fieldNum; i++) {
+            result[i] = JSylvan.getTrue();
+        }
+        // each cube is ref'ed while the next ones are built, then all are released
+        for (Frame frame : stack) {
+            result[frame.node.field] = frame.cubes.build();
+        }
+        for (Frame frame : stack) {
+            Labels.deref(result[frame.node.field]);
+        }
+        return result;
+    }
+
+    /**
+     * Split off the second half of the top-level edges not visited yet. The enumeration
+     * of cubes creates bdd nodes, which must not happen on several threads, so it is never
+     * split.
+     */
+    @Override
+    public Spliterator<long[]> trySplit() {
+        if (cubes || rootFrame == null || stack.isEmpty()) {
+            return null;
+        }
+        int unvisited = rootFrame.to - rootFrame.edge - 1;
+        if (unvisited < 2) {
+            return null;
+        }
+        int mid = rootFrame.to - unvisited / 2;
+        PathSpliterator rest = new PathSpliterator(root, fieldNum, false, mid, rootFrame.to);
+        rootFrame.to = mid;
+        return rest;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * A node on the current path and the edge taken from it.
+     */
+    private static final class Frame {
+        final NDD node;
+
+        /**
+         * The edge taken, starting before the first edge of the range.
+         */
+        int edge;
+
+        /**
+         * The end of the range of edges, exclusive.
+         */
+        int to;
+
+        /**
+         * The cubes of the label of the edge taken, only used when cubes are expanded.
+         */
+        Cubes cubes;
+
+        Frame(NDD node, int from, int to) {
+            this.node = node;
+            this.edge = from - 1;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Depth-first enumeration of the paths to TRUE of a bdd, each a cube. The path is kept
+     * as the nodes passed and the branch taken at each, no bdd node is created until
+     * build().
+     */
+    private static final class Cubes {
+        private final long bdd;
+
+        private long[] nodes = new long[16];
+
+        private boolean[] high = new boolean[16];
+
+        /**
+         * The length of the current path, -1 before the first one.
+         */
+        private int depth = -1;
+
+        Cubes(long bdd) {
+            this.bdd = bdd;
+        }
+
+        /**
+         * Move to the next path to TRUE, low branches first.
+         *
+         * @return If there is a next path.
+         */
+        boolean next() {
+            long n;
+            if (depth < 0) {
+                depth = 0;
+                n = bdd;
+            } else if (backtrack()) {
+                n = JSylvan.getThen(nodes[depth - 1]);
+            } else {
+                return false;
+            }
+            while (true) {
+                while (n != JSylvan.getTrue() && n != JSylvan.getFalse()) {
+                    if (depth == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, depth * 2);
+                        high = Arrays.copyOf(high, depth * 2);
+                    }
+                    nodes[depth] = n;
+                    high[depth++] = false;
+                    n = JSylvan.getElse(n);
+                }
+                if (n == JSylvan.getTrue()) {
+                    return true;
+                }
+                if (!backtrack()) {
+                    return false;
+                }
+                n = JSylvan.getThen(nodes[depth - 1]);
+            }
+        }
+
+        /**
+         * Drop the nodes whose high branch is taken from the end of the path, and take the
+         * high branch of the last remaining one.
+         *
+         * @return If there is such a node.
+         */
+        private boolean backtrack() {
+            while (depth > 0 && high[depth - 1]) {
+                depth--;
+            }
+            if (depth == 0) {
+                return false;
+            }
+            high[depth - 1] = true;
+            return true;
+        }
+
+        /**
+         * Build the cube of the current path.
+         *
+         * @return The cube, ref'ed.
+         */
+        long build() {
+            long cube = Labels.ref(JSylvan.getTrue());
+            for (int i = depth - 1; i >= 0; i--) {
+                long var = Labels.var(JSylvan.getVar(nodes[i]));
+                long next = Labels.and(high[i] ? var : JSylvan.makeNot(var), cube);
+                Labels.deref(var);
+                Labels.deref(cube);
+                cube = next;
+            }
+            return cube;
+        }
+    }
+}
@@ -10,16 +10,46 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 import jsylvan.JSylvan;
+import jsylvan.SylvanNodes;
 
 public class DecomposeBDD {
     private final static long BDD_FALSE = JSylvan.getFalse();
     private final static long BDD_TRUE = JSylvan.getTrue();
-    private static int fieldNum;
-    private static ArrayList<Integer> maxVariablePerField;
+    private final ArrayList<Integer> maxVariablePerField;
 
-    public static HashMap<Long, HashMap<Long, Long>> decompose(long a, ArrayList<Integer> vars) {
+    /**
+     * The node table of Sylvan, read without JNI calls while walking the bdds. Null if the
+     * native library has no view of its table or the view misreads it, then the nodes are
+     * read through JSylvan.
+     */
+    private final SylvanNodes nodes = nodeView();
+
+    /**
+     * The decomposer of the last static decompose() call, used by the static bddGetField().
+     */
+    private static DecomposeBDD last;
+
+    /**
+     * Create a decomposer for a field layout. The list is read on each call, so fields
+     * declared later are taken into account.
+     *
+     * @param vars The max id of bits for each field.
+     */
+    public DecomposeBDD(ArrayList<Integer> vars) {
         maxVariablePerField = vars;
-        fieldNum = maxVariablePerField.size();
+    }
+
+    public static HashMap<Long, HashMap<Long, Long>> decompose(long a, ArrayList<Integer> vars) {
+        last = new DecomposeBDD(vars);
+        return last.decompose(a);
+    }
+
+    public static int bddGetField(long a) {
+        return last.getField(a);
+    }
+
+    public HashMap<Long, HashMap<Long, Long>> decompose(long a) {
+        int fieldNum = maxVariablePerField.size();
         HashMap<Long, HashMap<Long, Long>> decomposedBDD = new HashMap<>();
         if (a == BDD_FALSE) {
         } else if (a == BDD_TRUE) {
@@ -35,7 +65,7 @@ public class DecomposeBDD {
                 for (long from : boundaryPoints.get(currentField)) {
                     decomposedBDD.put(from, new HashMap<>());
                     for (long to : boundaryTree.get(from)) {
-                        long perFieldBDD = JSylvan.ref(constructPerFieldBDD(from, to, from));
+                        long perFieldBDD = constructPerFieldBDD(from, to, from);
                         decomposedBDD.get(from).put(to, perFieldBDD);
                     }
                 }
@@ -43,17 +73,18 @@ public class DecomposeBDD {
 
             for (long from : boundaryPoints.get(fieldNum - 1)) {
                 decomposedBDD.put(from, new HashMap<>());
-                decomposedBDD.get(from).put(BDD_TRUE, JSylvan.ref(from));
+                decomposedBDD.get(from).put(BDD_TRUE, Labels.ref(from));
             }
         }
         return decomposedBDD;
     }
 
-    public static int bddGetField(long a) {
+    public int getField(long a) {
+        int fieldNum = maxVariablePerField.size();
         if (a == BDD_FALSE || a == BDD_TRUE) {
             return fieldNum;
         }
-        int varA = JSylvan.getVar(a);
+        int varA = getVar(a);
         int currentField = 0;
         while (currentField < fieldNum) {
             if (varA <= maxVariablePerField.get(currentField)) {
@@ -64,9 +95,10 @@ public class DecomposeBDD {
         return currentField;
     }
 
-    private static void getBoundaryTree(long a, HashMap<Long, HashSet<Long>> boundaryTree,
-                                        ArrayList<HashSet<Long>> boundaryPoints) {
-        int startField = bddGetField(a);
+    private void getBoundaryTree(long a, HashMap<Long, HashSet<Long>> boundaryTree,
+                                 ArrayList<HashSet<Long>> boundaryPoints) {
+        int fieldNum = maxVariablePerField.size();
+        int startField = getField(a);
         for (int i = 0; i < fieldNum; i++) {
             boundaryPoints.add(new HashSet<>());
         }
@@ -83,41 +115,67 @@ public class DecomposeBDD {
         }
     }
 
-    private static void detectBoundaryPoints(long from, long current, HashMap<Long, HashSet<Long>> boundaryTree,
-                                             ArrayList<HashSet<Long>> boundaryPoints) {
+    private void detectBoundaryPoints(long from, long current, HashMap<Long, HashSet<Long>> boundaryTree,
+                                      ArrayList<HashSet<Long>> boundaryPoints) {
         if (current == BDD_FALSE) {
             return;
         }
 
-        if (bddGetField(from) != bddGetField(current)) {
+        if (getField(from) != getField(current)) {
             if (!boundaryTree.containsKey(from)) {
                 boundaryTree.put(from, new HashSet<>());
             }
             boundaryTree.get(from).add(current);
             if (current != BDD_TRUE) {
-                boundaryPoints.get(bddGetField(current)).add(current);
+                boundaryPoints.get(getField(current)).add(current);
             }
             return;
         }
 
-        detectBoundaryPoints(from, JSylvan.getThen(current), boundaryTree, boundaryPoints);
-        detectBoundaryPoints(from, JSylvan.getElse(current), boundaryTree, boundaryPoints);
+        detectBoundaryPoints(from, getThen(current), boundaryTree, boundaryPoints);
+        detectBoundaryPoints(from, getElse(current), boundaryTree, boundaryPoints);
     }
 
-    // return per field bdd without ref
-    private static long constructPerFieldBDD(long from, long to, long current) {
-        if (bddGetField(from) != bddGetField(current)) {
+    // return per field bdd, ref'ed
+    private long constructPerFieldBDD(long from, long to, long current) {
+        if (getField(from) != getField(current)) {
             if (to == current)
                 return BDD_TRUE;
             else
                 return BDD_FALSE;
         }
 
-        long new_low = JSylvan.ref(constructPerFieldBDD(from, to, JSylvan.getThen(current)));
-        long new_high = JSylvan.ref(constructPerFieldBDD(from, to, JSylvan.getElse(current)));
-        long result = JSylvan.makeIte(JSylvan.getVar(current), new_low, new_high);
-        JSylvan.deref(new_low);
-        JSylvan.deref(new_high);
+        long new_low = constructPerFieldBDD(from, to, getThen(current));
+        long new_high = constructPerFieldBDD(from, to, getElse(current));
+        long var = Labels.var(getVar(current));
+        long result = Labels.ite(var, new_low, new_high);
+        Labels.deref(var);
+        Labels.deref(new_low);
+        Labels.deref(new_high);
         return result;
     }
+
+    private int getVar(long a) {
+        return nodes != null ? nodes.getVar(a) : JSylvan.getVar(a);
+    }
+
+    private long getThen(long a) {
+        return nodes != null ? nodes.getThen(a) : JSylvan.getThen(a);
+    }
+
+    private long getElse(long a) {
+        return nodes != null ? nodes.getElse(a) : JSylvan.getElse(a);
+    }
+
+    private static SylvanNodes nodeView() {
+        try {
+            return JSylvan.nodes();
+        } catch (UnsatisfiedLinkError e) {
+            // native library built before the view
+            return null;
+        } catch (UnsupportedOperationException e) {
+            // the view does not know the node layout of this Sylvan
+            return null;
+        }
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * Notified when Sylvan starts and finishes a garbage collection, see JSylvan.addGCListener().
+ *
+ * Listeners run on the Lace worker that leads the collection while all other workers wait,
+ * so they must be quick and must not call JSylvan, which would deadlock. Typical listeners
+ * drop Java caches keyed by unreferenced BDDs, or flag their owner to clean up later.
+ */
+public interface GCListener
+{
+    /**
+     * Called before Sylvan marks the referenced and protected BDDs.
+     */
+    default void gcStarted()
+    {
+    }
+
+    /**
+     * Called after Sylvan rebuilt its unique table, unreferenced BDDs may be gone now.
+     */
+    default void gcFinished()
+    {
+    }
+}
@@ -160,7 +160,7 @@ public class AtomizedNDD extends NDD {
         // protect the node during the operation
         atomizedTemporarilyProtect.add(result);
         if (cacheEnable) {
-            andCache.setEntry(andCache.hashValue, a, b, result);
+            andCache.setEntry(a, b, result);
         }
         return result;
     }
@@ -379,8 +379,8 @@ public class AtomizedNDD extends NDD {
 
     public static HashMap<NDD, AtomizedNDD> atomization(HashSet<NDD> nddPredicates, HashMap<NDD, HashSet<Integer>[]> nddToAtoms) {
         //collect preds
-        HashSet<Integer>[] bddPredicatesPerField = new HashSet[fieldNum + 1];
-        for(int i = 0; i <= fieldNum; i++) {
+        HashSet<Integer>[] bddPredicatesPerField = new HashSet[getFieldNum() + 1];
+        for(int i = 0; i <= getFieldNum(); i++) {
             bddPredicatesPerField[i] = new HashSet<>();
         }
         for(NDD nddPredicate : nddPredicates) {
@@ -388,7 +388,7 @@ public class AtomizedNDD extends NDD {
         }
 
         //update atoms
-        for(int field = 0; field <= fieldNum; field++) {
+        for(int field = 0; field <= getFieldNum(); field++) {
             HashSet<Integer> atoms = new HashSet<>();
             atoms.add(1);
             HashSet<Integer> newAtoms = new HashSet<>();
@@ -420,7 +420,7 @@ public class AtomizedNDD extends NDD {
 
         //atomize bdd pred
         HashMap<Integer, HashSet<Integer>> bddToAtoms = new HashMap<>();
-        for(int field = 0; field <= fieldNum; field++) {
+        for(int field = 0; field <= getFieldNum(); field++) {
             for(int bddPredicate : bddPredicatesPerField[field]) {
                 HashSet<Integer> atomsOfPredicate = new HashSet<>();
                 for(int atom : atomsPerField.get(field)) {
@@ -435,8 +435,8 @@ public class AtomizedNDD extends NDD {
         //atomize ndd pred
         HashMap<NDD, AtomizedNDD> nddToAtomizationNDD = new HashMap<>();
         for(NDD nddPredicate : nddPredicates) {
-            HashSet<Integer>[] atoms = new HashSet[fieldNum + 1];
-            for(int field = 0; field <= fieldNum; field++) {
+            HashSet<Integer>[] atoms = new HashSet[getFieldNum() + 1];
+            for(int field = 0; field <= getFieldNum(); field++) {
                 atoms[field] = new HashSet<>();
             }
             AtomizedNDD atomizedNDD = atomizeNDD(nddPredicate, bddToAtoms);
@@ -491,15 +491,15 @@ public class AtomizedNDD extends NDD {
 
     public static void changeAtoms(AtomizedNDD oldPredicate, AtomizedNDD newPredicate, HashSet<Integer>[] remove,
                                   HashSet<Integer>[] add) {
-        HashSet<Integer>[] array1 = new HashSet[fieldNum + 1];
-        HashSet<Integer>[] array2 = new HashSet[fieldNum + 1];
-        for (int i = 0; i <= fieldNum; i++) {
+        HashSet<Integer>[] array1 = new HashSet[getFieldNum() + 1];
+        HashSet<Integer>[] array2 = new HashSet[getFieldNum() + 1];
+        for (int i = 0; i <= getFieldNum(); i++) {
             array1[i] = new HashSet<>();
             array2[i] = new HashSet<>();
         }
         collectAtoms(oldPredicate, array1);
         collectAtoms(newPredicate, array2);
-        for (int i = 0; i <= fieldNum; i++) {
+        for (int i = 0; i <= getFieldNum(); i++) {
             remove[i] = new HashSet<>(array1[i]);
             add[i] = new HashSet<>(array2[i]);
             remove[i].removeAll(array2[i]);
@@ -578,8 +578,8 @@ public class AtomizedNDD extends NDD {
 
     public static void getAtomsToSplitMultipleFields(AtomizedNDD atomizedNDD, int[] deltaVector, ArrayList<HashSet<Integer>> deltaToAtoms,
                                                 ArrayList<HashMap<Integer, HashSet<Integer>>> atomsToSplit, int field) {
-        if (field == fieldNum + 1) {
-        } else if ((atomizedNDD.isTrue() && field <= fieldNum) || atomizedNDD.field > field) {
+        if (field == getFieldNum() + 1) {
+        } else if ((atomizedNDD.isTrue() && field <= getFieldNum()) || atomizedNDD.field > field) {
             if (deltaVector[field] == 1) {
                 deltaToAtoms.get(field).addAll(getAllAtoms(field));
             } else {
@@ -714,7 +714,7 @@ public class AtomizedNDD extends NDD {
 
     public static int getAtomsCount() {
         int atomsNumber = 0;
-        for (int field = 0; field <= fieldNum; field++) {
+        for (int field = 0; field <= getFieldNum(); field++) {
             atomsNumber += atomsPerField.get(field).size();
         }
         return atomsNumber;
@@ -5,87 +5,36 @@
  */
 package org.ants.jpndd.diagram;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-
-import org.ants.jpndd.cache.OperationCache;
-import org.ants.jpndd.nodetable.NodeTable;
-import org.ants.jpndd.utils.DecomposeBDD;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javafx.util.Pair;
-import jsylvan.JSylvan;
+import jsylvan.OperationLimit;
 
 public class NDD {
     /**
      * The size of each operation cache.
      */
-    private static int CACHE_SIZE = 10000;
-    private final static boolean DEBUG_MODEL = false;
-
-    /**
-     * The ndd node table.
-     */
-    private static NodeTable nodeTable;
-
-    /**
-     * The number of fields.
-     */
-    protected static int fieldNum;
-
-    /**
-     * The max id of bits for each field.
-     */
-    private static ArrayList<Integer> maxVariablePerField;
-
-    /**
-     * The correction factor of each field, used by operation of satCount.
-     */
-    private static ArrayList<Double> satCountDiv;
-
+    private static int CACHE_SIZE = NDDManager.DEFAULT_CACHE_SIZE;
     /**
-     * All bdd variables.
+     * The associativity of each operation cache, 1 for direct-mapped caches.
      */
-    private static ArrayList<long[]> bddVarsPerField;
-
-    /**
-     * The negation of each ndd variable.
-     */
-    private static ArrayList<long[]> bddNotVarsPerField;
-
+    private static int CACHE_WAYS = NDDManager.DEFAULT_CACHE_WAYS;
     /**
-     * All ndd variables.
+     * The max pause of one garbage collection in milliseconds, 0 for no limit.
      */
-    private static ArrayList<NDD[]> nddVarsPerField;
+    private static long GC_PAUSE_BUDGET = 0;
 
     /**
-     * The negation of each ndd variable.
+     * The default manager, which the static api works on.
      */
-    private static ArrayList<NDD[]> nddNotVarsPerField;
-
-    /**
-     * Temporary ndd nodes during a logical operation, which should be protected
-     * during garbage collection.
-     */
-    private static HashSet<NDD> temporarilyProtect;
-
-    /**
-     * The cache of operation NOT.
-     */
-    private static OperationCache<NDD> notCache;
-    /**
-     * The cache of operation AND.
-     */
-    private static OperationCache<NDD> andCache;
-    /**
-     * The cache of operation OR.
-     */
-    private static OperationCache<NDD> orCache;
+    private static NDDManager manager;
 
     /**
      * Init the NDD engine.
@@ -95,18 +44,8 @@ public class NDD {
      * @param bddCacheSize The max size of bdd operation cache.
      */
     public static void initNDD(int nddTableSize, int bddTableSize, int bddCacheSize, long sylvanMaxMemory) {
-        nodeTable = new NodeTable(nddTableSize, bddTableSize, bddCacheSize, sylvanMaxMemory);
-        fieldNum = -1;
-        maxVariablePerField = new ArrayList<>();
-        satCountDiv = new ArrayList<>();
-        bddVarsPerField = new ArrayList<>();
-        bddNotVarsPerField = new ArrayList<>();
-        nddVarsPerField = new ArrayList<>();
-        nddNotVarsPerField = new ArrayList<>();
-        temporarilyProtect = new HashSet<>();
-        notCache = new OperationCache<>(CACHE_SIZE, 2);
-        andCache = new OperationCache<>(CACHE_SIZE, 3);
-        orCache = new OperationCache<>(CACHE_SIZE, 3);
+        manager = new NDDManager(nddTableSize, CACHE_SIZE, CACHE_WAYS, bddTableSize, bddCacheSize, sylvanMaxMemory);
+        manager.setGCPauseBudget(GC_PAUSE_BUDGET);
     }
 
     /**
@@ -121,6 +60,36 @@ public class NDD {
         initNDD(nddTableSize, bddTableSize, bddCacheSize, sylvanMaxMemory);
     }
 
+    /**
+     * Set the associativity of the operation caches, which takes effect in the next initNDD().
+     * Within a set, the least recently used entry is overwritten.
+     * @param ways The number of entries per set (default 2), 1 for direct-mapped caches.
+     */
+    public static void setCacheWays(int ways) {
+        CACHE_WAYS = ways;
+    }
+
+    /**
+     * Set the max pause of one garbage collection of the node table, see NDDManager.setGCPauseBudget().
+     * It applies to the current default manager and those created by later initNDD() calls.
+     * @param millis The budget in milliseconds, 0 for freeing all garbage at once (default).
+     */
+    public static void setGCPauseBudget(long millis) {
+        GC_PAUSE_BUDGET = millis;
+        if (manager != null) {
+            manager.setGCPauseBudget(millis);
+        }
+    }
+
+    /**
+     * Get the default manager created by initNDD(), e.g., to pass it to code written against NDDManager.
+     * 
+     * @return The default manager.
+     */
+    public static NDDManager getDefaultManager() {
+        return manager;
+    }
+
     /**
      * declare a new field of 'bitNum' bits.
      * 
@@ -128,55 +97,11 @@ public class NDD {
      * @return The id of the field.
      */
     public static int declareField(int bitNum) {
-        // 1. update the number of fields
-        fieldNum++;
-        // 2. update the boundary of each field
-        if (maxVariablePerField.isEmpty()) {
-            maxVariablePerField.add(bitNum - 1);
-        } else {
-            maxVariablePerField.add(maxVariablePerField.get(maxVariablePerField.size() - 1) + bitNum);
-        }
-        // 3. update satCountDiv, which will be used in satCount operation of NDD
-        double factor = Math.pow(2.0, bitNum);
-        for (int i = 0; i < satCountDiv.size(); i++) {
-            satCountDiv.set(i, satCountDiv.get(i) * factor);
-        }
-        int totalBitsBefore = 0;
-        if (maxVariablePerField.size() > 1) {
-            totalBitsBefore = maxVariablePerField.get(maxVariablePerField.size() - 2) + 1;
-        }
-        satCountDiv.add(Math.pow(2.0, totalBitsBefore));
-        // 4. add node table
-        nodeTable.declareField();
-        // 5. declare vars
-        long[] bddVars = new long[bitNum];
-        long[] bddNotVars = new long[bitNum];
-        NDD[] nddVars = new NDD[bitNum];
-        NDD[] nddNotVars = new NDD[bitNum];
-
-        for (int i = 0; i < bitNum; i++) {
-            bddVars[i] = JSylvan.ref(JSylvan.makeVar(totalBitsBefore + i + 1));
-            bddNotVars[i] = JSylvan.ref(JSylvan.makeNot(bddVars[i]));
-
-            Map<NDD, Long> edges = new HashMap<>();
-            edges.put(getTrue(), JSylvan.ref(bddVars[i]));
-            nddVars[i] = mk(fieldNum, edges);
-            nodeTable.fixNDDNodeRefCount(nddVars[i]);
-
-            edges = new HashMap<>();
-            edges.put(getTrue(), JSylvan.ref(bddNotVars[i]));
-            nddNotVars[i] = mk(fieldNum, edges);
-            nodeTable.fixNDDNodeRefCount(nddNotVars[i]);
-        }
-        bddVarsPerField.add(bddVars);
-        bddNotVarsPerField.add(bddNotVars);
-        nddVarsPerField.add(nddVars);
-        nddNotVarsPerField.add(nddNotVars);
-        return fieldNum;
+        return manager.declareField(bitNum);
     }
 
     public static int getFieldNum() {
-        return fieldNum;
+        return manager.getFieldNum();
     }
 
     /**
@@ -187,9 +112,9 @@ public class NDD {
      * @return The ndd variable.
      */
     public static NDD getVar(int field, int index) {
-        return nddVarsPerField.get(field)[index];
+        return manager.getVar(field, index);
     }
-    
+
     /**
      * Get the negation the variable for a specific bit.
      * 
@@ -198,24 +123,22 @@ public class NDD {
      * @return The negation of the ndd variable.
      */
     public static NDD getNotVar(int field, int index) {
-        return nddNotVarsPerField.get(field)[index];
+        return manager.getNotVar(field, index);
     }
 
     public static long[] getBDDVars(int field) {
-        return bddVarsPerField.get(field);
+        return manager.getBDDVars(field);
     }
 
     public static long[] getNotBDDVars(int field) {
-        return bddNotVarsPerField.get(field);
+        return manager.getNotBDDVars(field);
     }
 
     /**
-     * Clear all the caches, the api is usually invoked during garbage collection.
+     * Clear all the caches, see NDDManager.clearCaches().
      */
     public static void clearCaches() {
-        notCache.clearCache();
-        andCache.clearCache();
-        orCache.clearCache();
+        manager.clearCaches();
     }
 
     /**
@@ -225,7 +148,7 @@ public class NDD {
      * @return The ndd node.
      */
     public static NDD ref(NDD ndd) {
-        return nodeTable.ref(ndd);
+        return manager.ref(ndd);
     }
 
     /**
@@ -235,7 +158,7 @@ public class NDD {
      * @param ndd The ndd node to be unprotected.
      */
     public static void deref(NDD ndd) {
-        nodeTable.deref(ndd);
+        manager.deref(ndd);
     }
 
     /**
@@ -244,7 +167,7 @@ public class NDD {
      * @return All the temporary nodes.
      */
     public static HashSet<NDD> getTemporarilyProtect() {
-        return temporarilyProtect;
+        return manager.getTemporarilyProtect();
     }
 
     /**
@@ -256,20 +179,7 @@ public class NDD {
      * @return The result of the logical operation.
      */
     public static NDD andTo(NDD a, NDD b) {
-        NDD result = ref(and(a, b));
-        deref(a);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long bBDD = JSylvan.ref(toBDD(b));
-            long resultBDD = JSylvan.ref(JSylvan.makeAnd(aBDD, bBDD));
-            JSylvan.deref(aBDD);
-            JSylvan.deref(bBDD);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation and: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
+        return manager.andTo(a, b);
     }
 
     /**
@@ -281,45 +191,7 @@ public class NDD {
      * @return The result of the logical operation.
      */
     public static NDD orTo(NDD a, NDD b) {
-        NDD result = ref(or(a, b));
-        deref(a);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long bBDD = JSylvan.ref(toBDD(b));
-            long resultBDD = JSylvan.ref(JSylvan.makeOr(aBDD, bBDD));
-            JSylvan.deref(aBDD);
-            JSylvan.deref(bBDD);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation or: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
-    }
-
-    /**
-     * Add an edge into a set of edges, may merge some edges.
-     * 
-     * @param edges      A set of edges.
-     * @param descendant The descendant of the edge to be inserted.
-     * @param labelBDD   The label of the edge to be inserted.
-     */
-    protected static void addEdge(Map<NDD, Long> edges, NDD descendant, long labelBDD) {
-        // omit the edge pointing to terminal node FALSE
-        if (descendant.isFalse()) {
-            JSylvan.deref(labelBDD);
-            return;
-        }
-        // try to find the edge pointing to the same descendant
-        Long oldLabel = JSylvan.getFalse();
-        if (edges.containsKey(descendant)) {
-            oldLabel = edges.get(descendant);
-        }
-        // merge the bdd label
-        long newLabel = JSylvan.ref(JSylvan.makeOr(oldLabel, labelBDD));
-        JSylvan.deref(labelBDD);
-        JSylvan.deref(oldLabel);
-        edges.put(descendant, newLabel);
+        return manager.orTo(a, b);
     }
 
     /**
@@ -330,116 +202,20 @@ public class NDD {
      * @return The result of the logical operation.
      */
     public static NDD and(NDD a, NDD b) {
-        temporarilyProtect.clear();
-        NDD result = andRec(a, b);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long bBDD = JSylvan.ref(toBDD(b));
-            long resultBDD = JSylvan.ref(JSylvan.makeAnd(aBDD, bBDD));
-            JSylvan.deref(aBDD);
-            JSylvan.deref(bBDD);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation and: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
+        return manager.and(a, b);
     }
 
-    // static ReentrantLock bdd_lock = new ReentrantLock();
-
     /**
-     * The recursive implementation of the logical operation AND.
+     * The logical operation AND, within the resources of a limit.
      * 
      * @param a The first operand.
      * @param b The second operand.
+     * @param limit The resources the operation may use.
      * @return The result of the logical operation.
+     * @throws jsylvan.OperationAbortedException If a limit was hit.
      */
-    private static NDD andRec(NDD a, NDD b) {
-        // terminal condition
-        if (a.isFalse() || b.isTrue()) {
-            return a;
-        } else if (a.isTrue() || b.isFalse() || a == b) {
-            return b;
-        }
-
-        // check the cache
-        if (andCache.getEntry(a, b))
-            return andCache.result;
-
-        Map<NDD, Long> edges = new HashMap<>();
-        if (a.field == b.field) {
-            // // compute the intersection of the edges in parallel
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     // System.out.println("outer " + Thread.currentThread().getName() + " processing" + " from " + entryA.getKey());
-
-            //     b.edges.entrySet().parallelStream().forEach(entryB -> {
-            //         // System.out.println("inner " + Thread.currentThread().getName() + " processing" + " from " + entryA.getKey() + " for " + entryB.getKey());
-
-            //         // System.out.println("trying to get lock " + Thread.currentThread().getName() + " from " + entryA.getKey() + " for " + entryB.getKey());
-            //         bdd_lock.lock();
-            //         // System.out.println("successfully get lock " + Thread.currentThread().getName() + " from " + entryA.getKey() + " for " + entryB.getKey());
-            //         try {
-            //             long intersect = JSylvan.ref(JSylvan.makeAnd(entryA.getValue(), entryB.getValue()));
-            //             if (intersect != 0) {
-            //                 // the descendant of the new edge
-            //                 // System.out.println("digui" + " from " + entryA.getKey() + " for " + entryB.getKey());
-            //                 NDD subResult = andRec(entryA.getKey(), entryB.getKey());
-            //                 // try to merge edges
-            //                 addEdge(edges, subResult, intersect);
-            //             }
-            //         } finally {
-            //             // System.out.println("trying to free lock " + Thread.currentThread().getName() + " from " + entryA.getKey() + " for " + entryB.getKey());
-            //             bdd_lock.unlock();
-            //             // System.out.println("successfully free lock " + Thread.currentThread().getName() + " from " + entryA.getKey() + " for " + entryB.getKey());
-            //         }
-            //     });
-            // });
-
-            for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-                for (Map.Entry<NDD, Long> entryB : b.edges.entrySet()) {
-                    // the bdd label on the new edge
-                    long intersect = JSylvan.ref(JSylvan.makeAnd(entryA.getValue(), entryB.getValue()));
-                    if (intersect != JSylvan.getFalse()) {
-                        // the descendant of the new edge
-                        NDD subResult = andRec(entryA.getKey(), entryB.getKey());
-                        // try to merge edges
-                        addEdge(edges, subResult, intersect);
-                    }
-                }
-            }
-        } else {
-            if (a.field > b.field) {
-                NDD t = a;
-                a = b;
-                b = t;
-            }
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     /*
-            //      * if A branches on a higher field than B,
-            //      * we can let A operate with a pseudo node
-            //      * with only edge labelled by true and pointing to B
-            //      */
-            //     NDD subResult = andRec(entryA.getKey(), b);
-            //     addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            // });
-            for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-                /*
-                 * if A branches on a higher field than B,
-                 * we can let A operate with a pseudo node
-                 * with only edge labelled by true and pointing to B
-                 */
-                NDD subResult = andRec(entryA.getKey(), b);
-                addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            }
-        }
-        // try to create or reuse node
-        NDD result = mk(a.field, edges);
-        // protect the node during the operation
-        temporarilyProtect.add(result);
-        // store the result into cache
-        andCache.setEntry(andCache.hashValue, a, b, result);
-        return result;
+    public static NDD and(NDD a, NDD b, OperationLimit limit) {
+        return manager.and(a, b, limit);
     }
 
     /**
@@ -450,292 +226,130 @@ public class NDD {
      * @return The result of the logical operation.
      */
     public static NDD or(NDD a, NDD b) {
-        temporarilyProtect.clear();
-        NDD result = orRec(a, b);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long bBDD = JSylvan.ref(toBDD(b));
-            long resultBDD = JSylvan.ref(JSylvan.makeOr(aBDD, bBDD));
-            JSylvan.deref(aBDD);
-            JSylvan.deref(bBDD);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation or: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
+        return manager.or(a, b);
     }
 
     /**
-     * The recursive implementation of the logical operation OR.
+     * The logical operation NOT.
      * 
-     * @param a The first operand.
-     * @param b The second operand.
+     * @param a The operand.
      * @return The result of the logical operation.
      */
-    private static NDD orRec(NDD a, NDD b) {
-        // terminal condition
-        if (a.isTrue() || b.isFalse()) {
-            return a;
-        } else if (a.isFalse() || b.isTrue() || a == b) {
-            return b;
-        }
-
-        // check the cache
-        if (orCache.getEntry(a, b))
-            return orCache.result;
-
-        Map<NDD, Long> edges = new HashMap<>();
-        if (a.field == b.field) {
-            // record edges of each node, which will 'or' with the edge pointing to FALSE of
-            // another node
-            Map<NDD, Long> residualA = new HashMap<>(a.edges);
-            Map<NDD, Long> residualB = new HashMap<>(b.edges);
-            for (long oneBDD : a.edges.values()) {
-                JSylvan.ref(oneBDD);
-            }
-            for (long oneBDD : b.edges.values()) {
-                JSylvan.ref(oneBDD);
-            }
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     b.edges.entrySet().parallelStream().forEach(entryB -> {
-            //         // the bdd label on the new edge
-            //         long intersect = JSylvan.ref(JSylvan.makeAnd(entryA.getValue(), entryB.getValue()));
-            //         if (intersect != 0) {
-            //             // update residual
-            //             long notIntersect = JSylvan.ref(JSylvan.makeNot(intersect));
-            //             long oldResidual = residualA.get(entryA.getKey());
-            //             residualA.put(entryA.getKey(), JSylvan.makeAnd(oldResidual, notIntersect));
-            //             oldResidual = residualB.get(entryB.getKey());
-            //             residualB.put(entryB.getKey(), JSylvan.makeAnd(oldResidual, notIntersect));
-            //             JSylvan.deref(notIntersect);
-            //             // the descendant of the new edge
-            //             NDD subResult = orRec(entryA.getKey(), entryB.getKey());
-            //             // try to merge edges
-            //             addEdge(edges, subResult, intersect);
-            //         }
-            //     });
-            // });
-
-            for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-                for (Map.Entry<NDD, Long> entryB : b.edges.entrySet()) {
-                    // the bdd label on the new edge
-                    long intersect = JSylvan.ref(JSylvan.makeAnd(entryA.getValue(), entryB.getValue()));
-                    if (intersect != JSylvan.getFalse()) {
-                        // update residual
-                        long notIntersect = JSylvan.ref(JSylvan.makeNot(intersect));
-                        long oldResidual = residualA.get(entryA.getKey());
-                        residualA.put(entryA.getKey(), JSylvan.ref(JSylvan.makeAnd(oldResidual, notIntersect)));
-                        JSylvan.deref(oldResidual);
-                        oldResidual = residualB.get(entryB.getKey());
-                        residualB.put(entryB.getKey(), JSylvan.ref(JSylvan.makeAnd(oldResidual, notIntersect)));
-                        JSylvan.deref(oldResidual);
-                        JSylvan.deref(notIntersect);
-                        // the descendant of the new edge
-                        NDD subResult = orRec(entryA.getKey(), entryB.getKey());
-                        // try to merge edges
-                        addEdge(edges, subResult, intersect);
-                    }
-                }
-            }
-            /*
-             * Each residual of A doesn't match with any explicit edge of B,
-             * and will match with the edge pointing to FALSE of B, which is omitted.
-             * The situation is the same for B.
-             */
-            // residualA.entrySet().parallelStream().forEach(entryA -> {
-            //     if (entryA.getValue() != 0) {
-            //         addEdge(edges, entryA.getKey(), JSylvan.ref(entryA.getValue()));
-            //     }
-            // });
-            for (Map.Entry<NDD, Long> entryA : residualA.entrySet()) {
-                if (entryA.getValue() != JSylvan.getFalse()) {
-                    addEdge(edges, entryA.getKey(), JSylvan.ref(entryA.getValue()));
-                }
-            }
-            // residualB.entrySet().parallelStream().forEach(entryB -> {
-            //     if (entryB.getValue() != 0) {
-            //         addEdge(edges, entryB.getKey(), JSylvan.ref(entryB.getValue()));
-            //     }
-            // });
-            for (Map.Entry<NDD, Long> entryB : residualB.entrySet()) {
-                if (entryB.getValue() != JSylvan.getFalse()) {
-                    addEdge(edges, entryB.getKey(), JSylvan.ref(entryB.getValue()));
-                }
-            }
-        } else {
-            if (a.field > b.field) {
-                NDD t = a;
-                a = b;
-                b = t;
-            }
-            long residualB = JSylvan.getTrue();
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     long notIntersect = JSylvan.ref(JSylvan.makeNot(entryA.getValue()));
-            //     residualB = JSylvan.makeAnd(residualB, notIntersect);
-            //     JSylvan.deref(notIntersect);
-            //     NDD subResult = orRec(entryA.getKey(), b);
-            //     addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            // });
-
-            for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-                /*
-                 * if A branches on a higher field than B,
-                 * we can let A operate with a pseudo node
-                 * with only edge labelled by true and pointing to B
-                 */
-                long notIntersect = JSylvan.ref(JSylvan.makeNot(entryA.getValue()));
-                long temp = residualB;
-                residualB = JSylvan.ref(JSylvan.makeAnd(residualB, notIntersect));
-                JSylvan.deref(temp);
-                JSylvan.deref(notIntersect);
-                NDD subResult = orRec(entryA.getKey(), b);
-                addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            }
-            if (residualB != JSylvan.getFalse()) {
-                addEdge(edges, b, residualB);
-            }
-        }
-        // try to create or reuse node
-        NDD result = mk(a.field, edges);
-        // protect the node during the operation
-        temporarilyProtect.add(result);
-        // store the result into cache
-        orCache.setEntry(orCache.hashValue, a, b, result);
-        return result;
+    public static NDD not(NDD a) {
+        return manager.not(a);
     }
 
+    // a / b <==> a ∩ (not b)
     /**
-     * The logical operation NOT.
+     * The logical operation DIFF, which is equivalent to a AND (NOT b).
      * 
      * @param a The operand.
      * @return The result of the logical operation.
      */
-    public static NDD not(NDD a) {
-        temporarilyProtect.clear();
-        NDD result = notRec(a);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long resultBDD = JSylvan.ref(JSylvan.makeNot(aBDD));
-            JSylvan.deref(aBDD);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation not: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
+    public static NDD diff(NDD a, NDD b) {
+        return manager.diff(a, b);
     }
 
     /**
-     * The recursive implementation of the logical operation NOT.
+     * The existential quantification.
      * 
-     * @param a The operand.
-     * @return The result of the logical operation.
+     * @param a     The operand.
+     * @param field The field to run an existential quantification.
+     * @return The result.
      */
-    private static NDD notRec(NDD a) {
-        if (a.isTrue()) {
-            return FALSE;
-        } else if (a.isFalse()) {
-            return TRUE;
-        }
+    public static NDD exist(NDD a, int field) {
+        return manager.exist(a, field);
+    }
 
-        if (notCache.getEntry(a))
-            return notCache.result;
+    /**
+     * The existential quantification of several fields in one pass.
+     * 
+     * @param a      The operand.
+     * @param fields The fields to quantify.
+     * @return The result.
+     */
+    public static NDD exist(NDD a, BitSet fields) {
+        return manager.exist(a, fields);
+    }
 
-        Map<NDD, Long> edges = new HashMap<>();
-        long residual = JSylvan.getTrue();
-        for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-            long notIntersect = JSylvan.ref(JSylvan.makeNot(entryA.getValue()));
-            long temp = residual;
-            residual = JSylvan.ref(JSylvan.makeAnd(residual, notIntersect));
-            JSylvan.deref(temp);
-            JSylvan.deref(notIntersect);
-            NDD subResult = notRec(entryA.getKey());
-            addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-        }
-        if (residual != JSylvan.getFalse()) {
-            addEdge(edges, TRUE, residual);
-        }
-        NDD result = mk(a.field, edges);
-        temporarilyProtect.add(result);
-        notCache.setEntry(notCache.hashValue, a, result);
-        return result;
+    /**
+     * The projection onto some fields, i.e., the existential quantification of all others.
+     * 
+     * @param a    The operand.
+     * @param keep The fields to keep.
+     * @return The result.
+     */
+    public static NDD project(NDD a, BitSet keep) {
+        return manager.project(a, keep);
     }
 
-    // a / b <==> a ∩ (not b)
     /**
-     * The logical operation DIFF, which is equivalent to a AND (NOT b).
+     * The logical operation IF f THEN g ELSE h.
      * 
-     * @param a The operand.
+     * @param f The condition.
+     * @param g The result where f holds.
+     * @param h The result where f does not hold.
      * @return The result of the logical operation.
      */
-    public static NDD diff(NDD a, NDD b) {
-        temporarilyProtect.clear();
-        NDD n = notRec(b);
-        temporarilyProtect.add(n);
-        NDD result = andRec(a, n);
-        if (DEBUG_MODEL) {
-            long aBDD = JSylvan.ref(toBDD(a));
-            long bBDD = JSylvan.ref(toBDD(b));
-            long t = JSylvan.ref(JSylvan.makeNot(bBDD));
-            JSylvan.deref(bBDD);
-            long resultBDD = JSylvan.ref(JSylvan.makeAnd(aBDD, t));
-            JSylvan.deref(aBDD);
-            JSylvan.deref(t);
-            if (resultBDD != toBDD(result)) {
-                System.out.println("Operation diff: result wrong!");
-            }
-            JSylvan.deref(resultBDD);
-        }
-        return result;
+    public static NDD ite(NDD f, NDD g, NDD h) {
+        return manager.ite(f, g, h);
     }
 
     /**
-     * The existential quantification.
+     * The conjunction of any number of operands, joined in a balanced tree.
      * 
-     * @param a     The operand.
-     * @param field The field to run an existential quantification.
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public static NDD andAll(Collection<NDD> operands) {
+        return manager.andAll(operands);
+    }
+
+    /**
+     * The union of any number of operands, joined in a balanced tree.
+     * 
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public static NDD orAll(Collection<NDD> operands) {
+        return manager.orAll(operands);
+    }
+
+    /**
+     * The fused AND and existential quantification, exist fields . a and b.
+     * 
+     * @param a      The first operand.
+     * @param b      The second operand.
+     * @param fields The fields to quantify.
      * @return The result.
      */
-    public static NDD exist(NDD a, int field) {
-        temporarilyProtect.clear();
-        return existRec(a, field);
+    public static NDD andExist(NDD a, NDD b, int[] fields) {
+        return manager.andExist(a, b, fields);
     }
 
     /**
-     * The recursive implementation of existential quantification.
+     * Move the predicate on one field to another field of the same width.
      * 
-     * @param a     The operand.
-     * @param field The field to run an existential quantification.
+     * @param a         The operand.
+     * @param fromField The field to move.
+     * @param toField   The field to move it to.
      * @return The result.
      */
-    private static NDD existRec(NDD a, int field) {
-        if (a.isTerminal() || a.field > field) {
-            return a;
-        }
+    public static NDD replaceField(NDD a, int fromField, int toField) {
+        return manager.replaceField(a, fromField, toField);
+    }
 
-        NDD result = FALSE;
-        if (a.field == field) {
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     result[0] = orRec(result[0], entryA.getKey());
-            // });
-            for (NDD next : a.edges.keySet()) {
-                result = orRec(result, next);
-            }
-        } else {
-            Map<NDD, Long> edges = new HashMap<>();
-            // a.edges.entrySet().parallelStream().forEach(entryA -> {
-            //     NDD subResult = existRec(entryA.getKey(), field);
-            //     addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            // });
-            for (Map.Entry<NDD, Long> entryA : a.edges.entrySet()) {
-                NDD subResult = existRec(entryA.getKey(), field);
-                addEdge(edges, subResult, JSylvan.ref(entryA.getValue()));
-            }
-            result = mk(a.field, edges);
-        }
-        temporarilyProtect.add(result);
-        return result;
+    /**
+     * The relational image of a set of states under a relation over pairs of current and
+     * next fields, {x0, x0', x1, x1', ...}.
+     * 
+     * @param states       The set of states.
+     * @param relation     The relation.
+     * @param pairedFields The pairs of current and next fields.
+     * @return The image.
+     */
+    public static NDD image(NDD states, NDD relation, int[] pairedFields) {
+        return manager.image(states, relation, pairedFields);
     }
 
     // a => b <==> (not a) ∪ b
@@ -747,11 +361,7 @@ public class NDD {
      * @return The result of the logical implication.
      */
     public static NDD imp(NDD a, NDD b) {
-        temporarilyProtect.clear();
-        NDD n = notRec(a);
-        temporarilyProtect.add(n);
-        NDD result = orRec(n, b);
-        return result;
+        return manager.imp(a, b);
     }
 
     /**
@@ -761,74 +371,8 @@ public class NDD {
      * @return The number of solutions.
      */
     public static double satCount(NDD ndd) {
-        // double result = satCountRec(ndd, 0);
-        // if (DEBUG_MODEL) {
-        // double bddResult = bddEngine.satCount(toBDD(ndd));
-        // if (result != bddResult) {
-        // System.out.println("Operation satCount: result wrong!");
-        // }
-        // }
-        // return result;
-
-        int[] variableset = new int[maxVariablePerField.get(fieldNum) + 1];
-        for (int i = 0; i < maxVariablePerField.get(fieldNum) + 1; i++)
-            variableset[i] = i + 1;
-        long SetofVariable = JSylvan.ref(JSylvan.makeSet(variableset));
-
-        // long bddQueen = toBDD(ndd);
-        // System.out.println("bdd queen");
-        // System.out.println("length " + (maxVariablePerField.get(fieldNum) + 1));
-        // System.out.println("set of variable " + SetofVariable);
-        // JSylvan.printDot(bddQueen);
-
-        return JSylvan.satcount(toBDD(ndd), SetofVariable);
-    }
-
-    /**
-     * The recursive implementation of satCount.
-     * 
-     * @param curr  Current ndd node.
-     * @param field Current field.
-     * @return The number of solutions.
-     */
-    /*
-    private static double satCountRec(NDD curr, int field) {
-        if (curr.isFalse()) {
-            return 0;
-        } else if (curr.isTrue()) {
-            if (field > fieldNum) {
-                return 1;
-            } else {
-                int len = maxVariablePerField.get(maxVariablePerField.size() - 1);
-                if (field == 0) {
-                    len++;
-                } else {
-                    len -= maxVariablePerField.get(field - 1);
-                }
-                return Math.pow(2.0, len);
-            }
-        } else {
-            double result = 0;
-            if (field == curr.field) {
-                for (Map.Entry<NDD, Long> entry : curr.edges.entrySet()) {
-                    double bddSat = JSylvan.satCount(entry.getValue()) / satCountDiv.get(curr.field);
-                    // System.out.println(bddEngine.satCount(entry.getValue()) + " " + bddSat);
-                    double nddSat = satCountRec(entry.getKey(), field + 1);
-                    result += bddSat * nddSat;
-                }
-            } else {
-                int len = maxVariablePerField.get(field);
-                if (field == 0) {
-                    len++;
-                } else {
-                    len -= maxVariablePerField.get(field - 1);
-                }
-                result = Math.pow(2.0, len) * satCountRec(curr, field + 1);
-            }
-            return result;
-        }
+        return manager.satCount(ndd);
     }
-    */
 
     /**
      * Encode an NDD of a prefix with no temporary NDD nodes created.
@@ -838,239 +382,104 @@ public class NDD {
      * @return An ndd node encoding the prefix.
      */
     public static NDD encodePrefix(int[] prefixBinary, int field) {
-        if (prefixBinary.length == 0) {
-            return TRUE;
-        }
-
-        long prefixBDD = encodePrefixBDD(prefixBinary, getBDDVars(field), getNotBDDVars(field));
-
-        Map<NDD, Long> edges = new HashMap<>();
-        edges.put(TRUE, prefixBDD);
-        return mk(field, edges);
+        return manager.encodePrefix(prefixBinary, field);
     }
 
     public static NDD encodePrefixs(ArrayList<int[]> prefixsBinary, int field) {
-        long prefixsBDD = JSylvan.getFalse();
-        for (int[] prefix : prefixsBinary) {
-            long temp = prefixsBDD;
-            prefixsBDD = JSylvan.makeOr(prefixsBDD, encodePrefixBDD(prefix, getBDDVars(field), getNotBDDVars(field)));
-            JSylvan.deref(temp);
-        }
-        Map<NDD, Long> edges = new HashMap<>();
-        edges.put(TRUE, prefixsBDD);
-        return mk(field, edges);
-    }
-
-    private static long encodePrefixBDD(int[] prefixBinary, long[] vars, long[] notVars) {
-        if (prefixBinary.length == 0) {
-            return JSylvan.getTrue();
-        }
-
-        long prefixBDD = JSylvan.getTrue();
-        for (int i = prefixBinary.length - 1; i >= 0; i--) {
-            long currentBit = prefixBinary[i] == 1 ? vars[i] : notVars[i];
-            if (i == prefixBinary.length - 1) {
-                prefixBDD = JSylvan.ref(currentBit);
-            } else {
-                long temp = prefixBDD;
-                prefixBDD = JSylvan.ref(JSylvan.makeAnd(prefixBDD, currentBit));
-                JSylvan.deref(temp);
-            }
-        }
-        return prefixBDD;
+        return manager.encodePrefixs(prefixsBinary, field);
     }
 
     /**
      * <field, bdd>, entries in perFieldBDD must follow the order with field asc
      */
     public static NDD encodeACL(ArrayList<Pair<Integer, Long>> perFieldBDD) {
-        NDD result = TRUE;
-        for (int i = perFieldBDD.size() - 1; i >= 0; i--) {
-            if (perFieldBDD.get(i).getValue() != JSylvan.getTrue()) {
-                Map<NDD, Long> edges = new HashMap<>();
-                edges.put(result, perFieldBDD.get(i).getValue());
-                result = mk(perFieldBDD.get(i).getKey(), edges);
-            }
-        }
-        return result;
+        return manager.encodeACL(perFieldBDD);
     }
 
     public static NDD toNDD(long a, int field) {
-        return toNDDFunc(a, field);
-    }
-
-    private static NDD toNDDFunc(long a, int field) {
-        if (a == JSylvan.getTrue()) {
-            return TRUE;
-        } else {
-            Map<NDD, Long> edges = new HashMap<>();
-            edges.put(TRUE, a);
-            return mk(field, edges);
-        }
+        return manager.toNDD(a, field);
     }
 
     public static NDD toNDD(long a) {
-        return toNDDFunc(a);
-    }
-
-    private static NDD toNDDFunc(long a) {
-        Map<Long, HashMap<Long, Long>> decomposed = DecomposeBDD.decompose(a, maxVariablePerField);
-        Map<Long, NDD> converted = new HashMap<>();
-        converted.put(JSylvan.getTrue(), TRUE);
-        while (!decomposed.isEmpty()) {
-            Set<Long> finished = converted.keySet();
-            for (Map.Entry<Long, HashMap<Long, Long>> entry : decomposed.entrySet()) {
-                if (finished.containsAll(entry.getValue().keySet())) {
-                    int field = DecomposeBDD.bddGetField(entry.getKey());
-                    Map<NDD, Long> map = new HashMap<>();
-                    for (Map.Entry<Long, Long> entry1 : entry.getValue().entrySet()) {
-                        map.put(converted.get(entry1.getKey()), JSylvan.ref(entry1.getValue()));
-                    }
-                    NDD n = mk(field, map);
-                    converted.put(entry.getKey(), n);
-                    decomposed.remove(entry.getKey());
-                    break;
-                }
-            }
-        }
-        for (Map<Long, Long> map : decomposed.values()) {
-            for (Long pred : map.values()) {
-                JSylvan.deref(pred);
-            }
-        }
-        return converted.get(a);
+        return manager.toNDD(a);
     }
 
     public static ArrayList<long[]> toArray(NDD curr) {
-        ArrayList<long[]> array = new ArrayList<>();
-        long[] vec = new long[fieldNum + 1];
-        toArrayRec(curr, array, vec, 0);
-        return array;
-    }
-
-    private static void toArrayRec(NDD curr, ArrayList<long[]> array, long[] vec, int currField) {
-        if (curr.isFalse()) {
-        } else if (curr.isTrue()) {
-            for (int i = currField; i <= fieldNum; i++) {
-                vec[i] = JSylvan.getTrue();
-            }
-            long[] temp = new long[fieldNum + 1];
-            for (int i = 0; i <= fieldNum; i++) {
-                temp[i] = vec[i];
-            }
-            array.add(temp);
-        } else {
-            for (int i = currField; i < curr.field; i++) {
-                vec[i] = JSylvan.getTrue();
-            }
-            for (Map.Entry<NDD, Long> entry : curr.edges.entrySet()) {
-                vec[curr.field] = entry.getValue();
-                toArrayRec(entry.getKey(), array, vec, curr.field + 1);
-            }
-        }
+        return manager.toArray(curr);
     }
 
+    /**
+     * Stream the paths of an ndd node to TRUE lazily, each as the bdd label of every field.
+     * Without cubes, the stream can be made parallel.
+     *
+     * @param root  The ndd node.
+     * @param cubes If the labels are expanded into the cubes of their bdds, which are not
+     *              ref'ed.
+     * @return The paths.
+     */
+    public static Stream<long[]> paths(NDD root, boolean cubes) {
+        return StreamSupport.stream(manager.paths(root, cubes), false);
+    }
+
+    /**
+     * Convert an ndd node to a bdd over all declared variables. The result is not ref'ed.
+     * 
+     * @param root The ndd node.
+     * @return The bdd node.
+     */
     public static long toBDD(NDD root) {
-        long result = toBDDRec(root);
-        JSylvan.deref(result);
-        return result;
+        return manager.toBDD(root);
     }
 
     /**
-     * The recursive implementation of toBDD.
+     * Convert an ndd node to a bdd like toBDD(), converting the nodes of each field in parallel.
+     * Nodes of the same field never depend on each other, so the nodes are converted field by
+     * field from the last one, on a pool of JSylvan.getWorkerCount() threads registered to JSylvan,
+     * which requires a Lace build that accepts external threads (see JSylvan.registerThread).
+     * The result is not ref'ed.
      * 
-     * @param current The current ndd node.
+     * @param root The ndd node.
      * @return The bdd node.
      */
-    private static long toBDDRec(NDD current) {
-        if (current.isTrue()) {
-            return JSylvan.getTrue();
-        } else if (current.isFalse()) {
-            return JSylvan.getFalse();
-        } else {
-            long result = JSylvan.getFalse();
-            for (Map.Entry<NDD, Long> entry : current.edges.entrySet()) {
-                long child = toBDDRec(entry.getKey());
-                long children = JSylvan.ref(JSylvan.makeAnd(child, entry.getValue()));
-                JSylvan.deref(child);
-                long temp = result;
-                result = JSylvan.ref(JSylvan.makeOr(result, children));
-                JSylvan.deref(temp);
-                JSylvan.deref(children);
-            }
-            return result;
-        }
+    public static long toBDDPar(NDD root) {
+        return manager.toBDDPar(root);
     }
 
     public static void print(NDD root) {
-        System.out.println("Print " + root + " begin!");
-        printRec(root);
-        System.out.println("Print " + root + " finish!\n");
-    }
-
-    private static void printRec(NDD current) {
-        if (current.isTrue())
-            System.out.println("TRUE");
-        else if (current.isFalse())
-            System.out.println("FALSE");
-        else {
-            System.out.println("field:" + current.field + " node:" + current);
-            for (Map.Entry<NDD, Long> entry : current.getEdges().entrySet()) {
-                System.out.println("next:" + entry.getKey() + " label:" + entry.getValue());
-            }
-            for (NDD next : current.getEdges().keySet()) {
-                printRec(next);
-            }
-        }
+        manager.print(root);
     }
 
-    private static PrintStream ps = null;
-    private static Map<NDD, Boolean> visitedNDD = new HashMap<>();
-    private static Map<Long, Boolean> visitedBDD = new HashMap<>();
-
     public static void printDot(String filename, NDD root) {
-        try {
-            ps = new PrintStream(new FileOutputStream(filename));
-            ps.println("digraph NDD {");
-            ps.println("\tinit__ [label=\"init\", style=invis, height=0, width=0];");
-            ps.println("\tinit__ -> " + root + ";");
-
-            printDot_rec(root);
-
-            ps.println("\t" + getFalse() + " [shape=box, label=\"FALSE\", style=filled, shape=box, height=0.3, width=0.3];");
-            ps.println("\t" + getTrue() + " [shape=box, label=\"TRUE\", style=filled, shape=box, height=0.3, width=0.3];");
+        manager.printDot(filename, root);
+    }
 
-            ps.println("}");
-            ps.close();
-        } catch (IOException e) {
-        }
+    // create or reuse a new NDD node
+    /**
+     * Create or reuse an NDD node.
+     * Note that, one should ref all bdd labels in edges before invoking mk.
+     * 
+     * @param field The field of the ndd node.
+     * @param edges All the edges of the ndd node.
+     * @return The ndd node.
+     */
+    public static NDD mk(int field, EdgeList edges) {
+        return manager.mk(field, edges);
     }
 
-    private static void printDot_rec(NDD current) {
-        if (visitedNDD.containsKey(current)) {
-            return;
-        }
-        visitedNDD.put(current, true);
-        if (current.isTerminal()) {
-            return;
-        }
-        ps.println("\t" + current + " [label=\"" + current.field + "\", shape=circle];");
-        for (Map.Entry<NDD, Long> entry : current.getEdges().entrySet()) {
-            ps.println("\t" + current + " -> " + entry.getKey() + " [label=\"" + entry.getValue() + "\"];");
-            printDot_rec(entry.getKey());
-            printBDDDot(entry.getValue());
-        }
+    /**
+     * Create or reuse an NDD node from a map of edges.
+     * Note that, one should ref all bdd labels in edges before invoking mk.
+     * 
+     * @param field The field of the ndd node.
+     * @param edges All the edges of the ndd node.
+     * @return The ndd node.
+     */
+    public static NDD mk(int field, Map<NDD, Long> edges) {
+        return manager.mk(field, edges);
     }
 
-    private static void printBDDDot(long bdd) {
-        if (bdd == 1 || bdd == 0) {
-            return;
-        }
-        if (visitedBDD.containsKey(bdd)) {
-            return;
-        }
-        visitedBDD.put(bdd, true);
-        JSylvan.printDot(bdd);
+    public static int nodeCount() {
+        return manager.nodeCount();
     }
 
     /**
@@ -1079,24 +488,83 @@ public class NDD {
     protected int field;
 
     /**
-     * All the edges of the node.
+     * The descendants of all the edges, sorted by id.
+     */
+    final NDD[] children;
+
+    /**
+     * The bdd label of each edge, in the order of children.
+     */
+    final long[] labels;
+
+    /**
+     * The unique id of the node, which defines the canonical order of edges.
      */
-    private Map<NDD, Long> edges;
+    private final long id;
+
+    /**
+     * The structural hash of the node, computed once on creation.
+     */
+    private final int hash;
+
+    /**
+     * The number of references from roots and parent nodes, maintained by the node table.
+     */
+    private int refCount;
+
+    /**
+     * If the node waits in the queue of unreferenced nodes of the node table.
+     */
+    private boolean queued;
+
+    /**
+     * The id of the next terminal node to be created, other nodes get their ids from their node table.
+     */
+    private static long nextTerminalId = 0;
 
     /**
      * Construct function, used for terminal nodes.
      */
-    public NDD() {}
+    public NDD() {
+        this.children = new NDD[0];
+        this.labels = new long[0];
+        this.id = nextTerminalId++;
+        this.hash = (int) id;
+    }
 
     /**
      * Construct function, used for non-terminal nodes.
      * 
-     * @param field The field that the node branches on.
-     * @param edges Edges of the node.
+     * @param id       The id of the node, unique in its node table and greater than the ids of the terminals.
+     * @param field    The field that the node branches on.
+     * @param children The descendants of the edges, sorted by id.
+     * @param labels   The bdd label of each edge.
      */
-    public NDD(int field, Map<NDD, Long> edges) {
+    public NDD(long id, int field, NDD[] children, long[] labels) {
         this.field = field;
-        this.edges = edges;
+        this.children = children;
+        this.labels = labels;
+        this.id = id;
+        this.hash = structuralHash(field, children, labels, children.length);
+    }
+
+    /**
+     * Compute the structural hash of a node.
+     * 
+     * @param field    The field of the node.
+     * @param children The descendants of the edges, sorted by id.
+     * @param labels   The bdd label of each edge.
+     * @param size     The number of edges.
+     * @return The hash value.
+     */
+    static int structuralHash(int field, NDD[] children, long[] labels, int size) {
+        long h = field;
+        for (int i = 0; i < size; i++) {
+            h = h * 31 + children[i].id;
+            h = h * 31 + labels[i];
+        }
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
     }
 
     /**
@@ -1109,11 +577,90 @@ public class NDD {
     }
 
     /**
-     * Get all the edges of the node.
+     * Get the unique id of the node.
+     * 
+     * @return The id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the reference count of the node, used by the node table.
+     * 
+     * @return The reference count.
+     */
+    public int getRefCount() {
+        return refCount;
+    }
+
+    /**
+     * Set the reference count of the node, used by the node table.
+     * 
+     * @param refCount The new reference count.
+     */
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    /**
+     * Check if the node waits in the queue of unreferenced nodes, used by the node table.
+     * 
+     * @return If the node is queued.
+     */
+    public boolean isQueued() {
+        return queued;
+    }
+
+    /**
+     * Mark if the node waits in the queue of unreferenced nodes, used by the node table.
+     * 
+     * @param queued If the node is queued.
+     */
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+
+    /**
+     * Get the number of edges of the node.
+     * 
+     * @return The number of edges, 0 for terminal nodes.
+     */
+    public int edgeCount() {
+        return children.length;
+    }
+
+    /**
+     * Get the descendant of an edge, edges are sorted by the id of their descendants.
+     * 
+     * @param i The index of the edge.
+     * @return The descendant.
+     */
+    public NDD getChild(int i) {
+        return children[i];
+    }
+
+    /**
+     * Get the bdd label of an edge.
+     * 
+     * @param i The index of the edge.
+     * @return The bdd label.
+     */
+    public long getLabel(int i) {
+        return labels[i];
+    }
+
+    /**
+     * Get all the edges of the node as a new map, prefer edgeCount(), getChild() and
+     * getLabel() on hot paths.
      * 
      * @return All the edges.
      */
     public Map<NDD, Long> getEdges() {
+        Map<NDD, Long> edges = new HashMap<>();
+        for (int i = 0; i < children.length; i++) {
+            edges.put(children[i], labels[i]);
+        }
         return edges;
     }
 
@@ -1179,33 +726,11 @@ public class NDD {
 
     @Override
     public int hashCode() {
-        return System.identityHashCode(this);
+        return hash;
     }
 
     @Override
     public String toString() {
-        return "NDD_" + System.identityHashCode(this);
-    }
-
-    // create or reuse a new NDD node
-    /**
-     * Create or reuse an NDD node.
-     * Note that, one should ref all bdd labels in edges before invoking mk.
-     * 
-     * @param field The field of the ndd node.
-     * @param edges All the edges of the ndd node.
-     * @return The ndd node.
-     */
-    public static NDD mk(int field, Map<NDD, Long> edges) {
-        return nodeTable.mk(field, edges);
-    }
-
-    public static int nodeCount() {
-        ArrayList<Map<Map<NDD, Long>, NDD>> tables = nodeTable.getNodeTable();
-        int nodeCount = 0;
-        for (Map<Map<NDD, Long>, NDD> table : tables) {
-            nodeCount += table.size();
-        }
-        return nodeCount;
+        return "NDD_" + id;
     }
 }
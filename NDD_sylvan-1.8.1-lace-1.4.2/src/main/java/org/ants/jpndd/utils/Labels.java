@@ -0,0 +1,285 @@
+/**
+ * BDD operations on the labels of NDDs, shared by all NDD managers.
+ * @author Zechun Li - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jpndd.utils;
+
+import jsylvan.Backend;
+import jsylvan.JSylvan;
+import jsylvan.OperationLimit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Every result is ref'ed before it is returned, and before an operation of another thread
+ * can collect it, so that managers on different threads compute their labels at once.
+ * The operations use the *Ref entry points of JSylvan, which ref the result inside the Lace
+ * task that computes it. Native libraries built before those entry points only have the
+ * plain operations; then each operation runs under one lock together with the ref of its
+ * result, and managers only overlap outside Sylvan.
+ * The operations and the refs go through JSylvan.backend(), the Foreign Function & Memory API
+ * where the JVM and the native library have it; the bounded and the batched operations are JNI.
+ */
+public final class Labels {
+    private static final long FALSE = JSylvan.getFalse();
+    private static final long TRUE = JSylvan.getTrue();
+
+    /**
+     * The backend of the operations, picked on first use, which comes after JSylvan.init().
+     */
+    private static final Backend BACKEND = JSylvan.backend();
+
+    /**
+     * Whether the native library has the *Ref entry points, checked on first use, which
+     * comes after JSylvan.init().
+     */
+    private static final boolean REF_OPS = hasRefOps();
+
+    /**
+     * Whether the native library has JSylvan.applyBatch on direct buffers.
+     */
+    private static final boolean BATCH_OPS = hasBatchOps();
+
+    /**
+     * Serializes the operations of all managers if there are no *Ref entry points.
+     */
+    private static final Object LOCK = new Object();
+
+    private Labels() {
+    }
+
+    private static boolean hasRefOps() {
+        try {
+            BACKEND.deref(BACKEND.applyRef(JSylvan.OP_AND, TRUE, TRUE));
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    private static boolean hasBatchOps() {
+        try {
+            LongBuffer empty = allocate(0);
+            JSylvan.applyBatch(empty, 0, empty);
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return A direct buffer of capacity longs, read by Sylvan as native longs.
+     */
+    public static LongBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * Run count ops of the batch stream of JSylvan.applyBatch in one native call, each
+     * result ref'ed. Native libraries built before applyBatch run the ops one by one, which
+     * only covers OP_AND, OP_OR and OP_NOT.
+     *
+     * @param ops     The direct buffer of the (opcode, a, b) triples.
+     * @param count   The number of ops.
+     * @param results The direct buffer of the results.
+     */
+    public static void batch(LongBuffer ops, int count, LongBuffer results) {
+        if (BATCH_OPS) {
+            JSylvan.applyBatch(ops, count, results);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            long a = ops.get(3 * i + 1);
+            long b = ops.get(3 * i + 2);
+            switch ((int) ops.get(3 * i)) {
+                case JSylvan.OP_AND:
+                    results.put(i, and(a, b));
+                    break;
+                case JSylvan.OP_OR:
+                    results.put(i, or(a, b));
+                    break;
+                case JSylvan.OP_NOT:
+                    results.put(i, not(a));
+                    break;
+                default:
+                    throw new IllegalArgumentException("no fallback for opcode " + ops.get(3 * i));
+            }
+        }
+    }
+
+    /**
+     * Protect a bdd from Sylvan garbage collections.
+     *
+     * @return bdd.
+     */
+    public static long ref(long bdd) {
+        return BACKEND.ref(bdd);
+    }
+
+    /**
+     * Unprotect a bdd ref'ed before.
+     */
+    public static void deref(long bdd) {
+        BACKEND.deref(bdd);
+    }
+
+    /**
+     * @return a and b, ref'ed.
+     */
+    public static long and(long a, long b) {
+        if (REF_OPS)
+            return BACKEND.applyRef(JSylvan.OP_AND, a, b);
+        synchronized (LOCK) {
+            return BACKEND.ref(BACKEND.makeAnd(a, b));
+        }
+    }
+
+    /**
+     * @return a and b within the resources of limit, ref'ed.
+     * @throws jsylvan.OperationAbortedException If a limit was hit; no BDD was made then.
+     */
+    public static long and(long a, long b, OperationLimit limit) {
+        if (REF_OPS)
+            return JSylvan.makeAndRef(a, b, limit);
+        synchronized (LOCK) {
+            return JSylvan.makeAndRef(a, b, limit);
+        }
+    }
+
+    /**
+     * @return a or b, ref'ed.
+     */
+    public static long or(long a, long b) {
+        if (REF_OPS)
+            return BACKEND.applyRef(JSylvan.OP_OR, a, b);
+        synchronized (LOCK) {
+            return BACKEND.ref(BACKEND.makeOr(a, b));
+        }
+    }
+
+    /**
+     * The negation only flips the complement mark of an edge and makes no node, so it
+     * needs neither the lock nor a *Ref entry point while a is ref'ed.
+     *
+     * @return not a, ref'ed.
+     */
+    public static long not(long a) {
+        return BACKEND.ref(BACKEND.makeNot(a));
+    }
+
+    /**
+     * @return exists variables . a and b, ref'ed.
+     */
+    public static long andExists(long a, long b, long variables) {
+        if (REF_OPS)
+            return BACKEND.makeAndExistsRef(a, b, variables);
+        synchronized (LOCK) {
+            return BACKEND.ref(BACKEND.makeAndExists(a, b, variables));
+        }
+    }
+
+    /**
+     * @return IF a THEN b ELSE c, ref'ed.
+     */
+    public static long ite(long a, long b, long c) {
+        if (REF_OPS)
+            return BACKEND.makeIteRef(a, b, c);
+        synchronized (LOCK) {
+            return BACKEND.ref(BACKEND.makeIte(a, b, c));
+        }
+    }
+
+    /**
+     * @return bdd composed with map, ref'ed.
+     */
+    public static long compose(long bdd, long map) {
+        if (REF_OPS)
+            return BACKEND.composeRef(bdd, map);
+        synchronized (LOCK) {
+            return BACKEND.ref(JSylvan.compose(bdd, map));
+        }
+    }
+
+    /**
+     * @return map with the pair key, value added, ref'ed.
+     */
+    public static long mapAdd(long map, int key, long value) {
+        if (REF_OPS)
+            return BACKEND.mapAddRef(map, key, value);
+        synchronized (LOCK) {
+            return BACKEND.ref(JSylvan.mapAdd(map, key, value));
+        }
+    }
+
+    /**
+     * @return The bdd of variable var, ref'ed.
+     */
+    public static long var(int var) {
+        if (REF_OPS)
+            return BACKEND.makeVarRef(var);
+        synchronized (LOCK) {
+            return BACKEND.ref(BACKEND.makeVar(var));
+        }
+    }
+
+    /**
+     * @return The set of the variables vars, ref'ed.
+     */
+    public static long set(int[] vars) {
+        if (!REF_OPS) {
+            synchronized (LOCK) {
+                return BACKEND.ref(JSylvan.makeSet(vars));
+            }
+        }
+        // a set is the conjunction of its variables
+        long set = TRUE;
+        for (int var : vars) {
+            long bdd = BACKEND.makeVarRef(var);
+            long t = BACKEND.applyRef(JSylvan.OP_AND, set, bdd);
+            BACKEND.deref(bdd);
+            BACKEND.deref(set);
+            set = t;
+        }
+        return set;
+    }
+
+    /**
+     * @return The number of assignments to variables that satisfy bdd.
+     */
+    public static double satcount(long bdd, long variables) {
+        if (REF_OPS)
+            return BACKEND.satcount(bdd, variables);
+        synchronized (LOCK) {
+            return BACKEND.satcount(bdd, variables);
+        }
+    }
+
+    /**
+     * @return The union of a[i] and b[i] over all i, ref'ed.
+     */
+    public static long sumOfProducts(long[] a, long[] b) {
+        if (REF_OPS) {
+            long[] result = new long[1];
+            JSylvan.makeSumsOfProductsPar(a, b, new int[]{0, a.length}, 1, result);
+            return result[0];
+        }
+        if (a.length == 0)
+            return FALSE;
+        synchronized (LOCK) {
+            long[] terms = new long[a.length];
+            for (int i = 0; i < a.length; i++) {
+                terms[i] = BACKEND.ref(BACKEND.makeAnd(a[i], b[i]));
+            }
+            if (terms.length == 1)
+                return terms[0];
+            long sum = BACKEND.ref(JSylvan.makeUnionPar(terms));
+            for (long term : terms) {
+                BACKEND.deref(term);
+            }
+            return sum;
+        }
+    }
+}
@@ -18,6 +18,9 @@ package jsylvan;
 
 import java.io.IOException;
 
+import org.ants.jpndd.diagram.NDD;
+import org.ants.jpndd.diagram.NDDManager;
+
 public class JSylvanDemo
 {
     public static void main(String[] args)
@@ -82,6 +85,59 @@ public class JSylvanDemo
         result = JSylvan.ref(JSylvan.makeUnionPar(new long[]{a, b, c, d, e}));
         if (result != JSylvan.makeOr(JSylvan.makeOr(a, b),JSylvan.makeOr(c,JSylvan.makeOr(d,e)))) System.out.println("Fail test 2.");
 
+        System.out.println("Going to test the batched apply...");
+
+        // a and b, a or c, not d, exists a . (a and b), all in one native call
+        long[] ops = new long[]{
+            JSylvan.OP_AND, a, b,
+            JSylvan.OP_OR, a, c,
+            JSylvan.OP_NOT, d, 0,
+            JSylvan.OP_EXISTS, aAndB, a};
+        long[] results = new long[4];
+        JSylvan.applyBatch(ops, 4, results);
+        if (results[0] != aAndB || results[1] != JSylvan.makeOr(a, c)
+                || results[2] != JSylvan.makeNot(d) || results[3] != b) System.out.println("Fail test 3.");
+        for (long r : results) JSylvan.deref(r);
+
+        System.out.println("Going to cross-check the native NDD engine with jpndd...");
+
+        // the same NDDs built by both engines must give the same BDDs
+        boolean nativeNDD = true;
+        try {
+            NativeNDD.initNDD(1 << 16, 1 << 16, 400L*1024*1024);
+        } catch (UnsatisfiedLinkError | IOException ex) {
+            System.out.println("No native NDD engine in this build of sylvan-java, skipped.");
+            nativeNDD = false;
+        }
+        if (nativeNDD) {
+            NDDManager manager = new NDDManager(1 << 16, 1 << 16, 1 << 16, 400L*1024*1024);
+            manager.declareField(4);
+            manager.declareField(3);
+            NativeNDD.declareField(4);
+            NativeNDD.declareField(3);
+
+            // OR over (x_i and not y_j), checked after every step
+            NDD p = manager.ref(NDD.getFalse());
+            long q = NativeNDD.ref(NativeNDD.getFalse());
+            boolean same = true;
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 3; j++) {
+                    p = manager.orTo(p, manager.and(manager.getVar(0, i), manager.getNotVar(1, j)));
+                    q = NativeNDD.orTo(q, NativeNDD.and(NativeNDD.getVar(0, i), NativeNDD.getNotVar(1, j)));
+                    same &= manager.toBDD(p) == NativeNDD.toBDD(q);
+                }
+            }
+            same &= manager.toBDD(manager.not(p)) == NativeNDD.toBDD(NativeNDD.not(q));
+            same &= manager.toBDD(manager.diff(p, manager.getVar(0, 1))) == NativeNDD.toBDD(NativeNDD.diff(q, NativeNDD.getVar(0, 1)));
+            same &= manager.toBDD(manager.imp(p, manager.getVar(1, 2))) == NativeNDD.toBDD(NativeNDD.imp(q, NativeNDD.getVar(1, 2)));
+            same &= manager.toBDD(manager.exist(p, 0)) == NativeNDD.toBDD(NativeNDD.exist(q, 0));
+            same &= manager.satCount(p) == NativeNDD.satCount(q);
+            if (!same) System.out.println("Fail test 4.");
+            manager.deref(p);
+            NativeNDD.deref(q);
+            NativeNDD.quit();
+        }
+
         // And that concludes our little demonstration. TODO: make proper test class...
         System.out.println("Simple tests success!");
     }
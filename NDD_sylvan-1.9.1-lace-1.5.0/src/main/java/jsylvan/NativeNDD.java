@@ -0,0 +1,380 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * NDD engine that keeps its nodes in native memory, next to Sylvan.
+ *
+ * This mirrors the static API of org.ants.jpndd.diagram.NDD, but the node table, the
+ * operation cache and the apply recursion live in sylvan-java: the recursion runs as Lace
+ * tasks, spawning one task per pair of edges, so the Java side only pays one JNI call per
+ * operation.
+ *
+ * An NDD is a 64-bit long integer, 0 is FALSE and 1 is TRUE. Like in NDD, users must ref()
+ * the roots they keep; unreferenced nodes are freed by the garbage collection that runs
+ * before an operation once the node table is full. Operations are not thread safe, the
+ * parallelism comes from the Lace workers.
+ *
+ * An operation that cannot create a node, as the node ids or the native memory ran out,
+ * throws an OutOfMemoryError. The ref'ed nodes stay valid, and gc() can make room again.
+ */
+public class NativeNDD
+{
+    /**
+     * If the number of free nodes is less than this share of the node table after garbage
+     * collection, the node table grows.
+     */
+    private static final double QUICK_GROW_THRESHOLD = 0.1;
+
+    private static long nddTableSize;
+
+    private static int fieldNum;
+
+    /**
+     * The max id of bits for each field.
+     */
+    private static ArrayList<Integer> maxVariablePerField;
+
+    private static ArrayList<long[]> bddVarsPerField;
+    private static ArrayList<long[]> bddNotVarsPerField;
+    private static ArrayList<long[]> nddVarsPerField;
+    private static ArrayList<long[]> nddNotVarsPerField;
+
+    /**
+     * Init the native NDD engine, and Sylvan if it is not initialized yet.
+     *
+     * @param nddTableSize The number of nodes after which a garbage collection runs.
+     * @param nddCacheSize The number of entries of the operation cache.
+     * @param sylvanMaxMemory Maximum bytes for the Sylvan tables.
+     */
+    public static void initNDD(int nddTableSize, int nddCacheSize, long sylvanMaxMemory) throws IOException
+    {
+        if (!JSylvan.isInitialized()) {
+            JSylvan.init(0, sylvanMaxMemory, 1, 4, 1);
+        }
+        NativeNDD.nddTableSize = nddTableSize;
+        fieldNum = -1;
+        maxVariablePerField = new ArrayList<>();
+        bddVarsPerField = new ArrayList<>();
+        bddNotVarsPerField = new ArrayList<>();
+        nddVarsPerField = new ArrayList<>();
+        nddNotVarsPerField = new ArrayList<>();
+        init0(nddCacheSize);
+    }
+
+    /**
+     * Free all nodes. Sylvan itself keeps running.
+     */
+    public static void quit()
+    {
+        quit0();
+    }
+
+    /**
+     * Declare a new field of <bitNum> bits.
+     *
+     * @return The id of the field.
+     */
+    public static int declareField(int bitNum)
+    {
+        fieldNum++;
+        int totalBitsBefore = maxVariablePerField.isEmpty() ? 0 : maxVariablePerField.get(fieldNum - 1) + 1;
+        maxVariablePerField.add(totalBitsBefore + bitNum - 1);
+
+        long[] bddVars = new long[bitNum];
+        long[] bddNotVars = new long[bitNum];
+        long[] nddVars = new long[bitNum];
+        long[] nddNotVars = new long[bitNum];
+        for (int i = 0; i < bitNum; i++) {
+            bddVars[i] = JSylvan.ref(JSylvan.makeVar(totalBitsBefore + i + 1));
+            bddNotVars[i] = JSylvan.ref(JSylvan.makeNot(bddVars[i]));
+            // variables stay referenced for the lifetime of the engine
+            nddVars[i] = ref(mk(fieldNum, new long[]{getTrue()}, new long[]{bddVars[i]}));
+            nddNotVars[i] = ref(mk(fieldNum, new long[]{getTrue()}, new long[]{bddNotVars[i]}));
+        }
+        bddVarsPerField.add(bddVars);
+        bddNotVarsPerField.add(bddNotVars);
+        nddVarsPerField.add(nddVars);
+        nddNotVarsPerField.add(nddNotVars);
+        return fieldNum;
+    }
+
+    public static int getFieldNum()
+    {
+        return fieldNum;
+    }
+
+    /**
+     * Get the NDD of bit <index> of field <field>.
+     */
+    public static long getVar(int field, int index)
+    {
+        return nddVarsPerField.get(field)[index];
+    }
+
+    /**
+     * Get the negation of the NDD of bit <index> of field <field>.
+     */
+    public static long getNotVar(int field, int index)
+    {
+        return nddNotVarsPerField.get(field)[index];
+    }
+
+    public static long[] getBDDVars(int field)
+    {
+        return bddVarsPerField.get(field);
+    }
+
+    public static long[] getNotBDDVars(int field)
+    {
+        return bddNotVarsPerField.get(field);
+    }
+
+    public static long getTrue()
+    {
+        return 1L;
+    }
+
+    public static long getFalse()
+    {
+        return 0L;
+    }
+
+    public static boolean isTrue(long ndd)
+    {
+        return ndd == 1L;
+    }
+
+    public static boolean isFalse(long ndd)
+    {
+        return ndd == 0L;
+    }
+
+    public static boolean isTerminal(long ndd)
+    {
+        return ndd == 0L || ndd == 1L;
+    }
+
+    /**
+     * Create or reuse the node of field <field> with the given edges.
+     * Edges to FALSE are dropped and edges to the same descendant are merged.
+     * The labels are referenced by the node, the caller keeps its own references.
+     */
+    public static long mk(int field, long[] children, long[] labels)
+    {
+        prepare();
+        return mk0(field, children, labels);
+    }
+
+    /**
+     * Get the field of a node, -1 for the terminals.
+     */
+    public static int getField(long ndd)
+    {
+        return getField0(ndd);
+    }
+
+    /**
+     * Get the number of edges of a node, 0 for the terminals.
+     */
+    public static int getEdgeCount(long ndd)
+    {
+        return getEdgeCount0(ndd);
+    }
+
+    /**
+     * Get the descendant of edge <i> of a node. Edges are sorted by descendant.
+     */
+    public static long getChild(long ndd, int i)
+    {
+        checkEdge(ndd, i);
+        return getChild0(ndd, i);
+    }
+
+    /**
+     * Get the BDD label of edge <i> of a node. The label is not ref'ed.
+     */
+    public static long getLabel(long ndd, int i)
+    {
+        checkEdge(ndd, i);
+        return getLabel0(ndd, i);
+    }
+
+    /**
+     * Protect a root node from garbage collection.
+     */
+    public static long ref(long ndd)
+    {
+        ref0(ndd);
+        return ndd;
+    }
+
+    /**
+     * Unprotect a root node.
+     */
+    public static void deref(long ndd)
+    {
+        deref0(ndd);
+    }
+
+    public static long and(long a, long b)
+    {
+        prepare();
+        return and0(a, b);
+    }
+
+    public static long or(long a, long b)
+    {
+        prepare();
+        return or0(a, b);
+    }
+
+    public static long not(long a)
+    {
+        prepare();
+        return not0(a);
+    }
+
+    public static long diff(long a, long b)
+    {
+        prepare();
+        return diff0(a, b);
+    }
+
+    /**
+     * The logical implication, which is equivalent to (NOT a) OR b.
+     */
+    public static long imp(long a, long b)
+    {
+        prepare();
+        return imp0(a, b);
+    }
+
+    /**
+     * The existential quantification of field <field>.
+     */
+    public static long exist(long a, int field)
+    {
+        prepare();
+        return exist0(a, field);
+    }
+
+    /**
+     * AND which refs the result and derefs the first operand.
+     */
+    public static long andTo(long a, long b)
+    {
+        long result = ref(and(a, b));
+        deref(a);
+        return result;
+    }
+
+    /**
+     * OR which refs the result and derefs the first operand.
+     */
+    public static long orTo(long a, long b)
+    {
+        long result = ref(or(a, b));
+        deref(a);
+        return result;
+    }
+
+    /**
+     * Convert an NDD to a BDD over all declared variables. Like NDD.toBDD, the result is not ref'ed.
+     */
+    public static long toBDD(long ndd)
+    {
+        return toBDD0(ndd);
+    }
+
+    /**
+     * The number of solutions encoded in the NDD.
+     */
+    public static double satCount(long ndd)
+    {
+        int[] variableset = new int[maxVariablePerField.get(fieldNum) + 1];
+        for (int i = 0; i < variableset.length; i++) variableset[i] = i + 1;
+        long setOfVariables = JSylvan.ref(JSylvan.makeSet(variableset));
+        long bdd = JSylvan.ref(toBDD(ndd));
+        double result = JSylvan.satcount(bdd, setOfVariables);
+        JSylvan.deref(bdd);
+        JSylvan.deref(setOfVariables);
+        return result;
+    }
+
+    /**
+     * The number of nodes in the node table, without the terminals.
+     */
+    public static long nodeCount()
+    {
+        return nodeCount0();
+    }
+
+    /**
+     * Free all nodes that are not reachable from a ref'ed node.
+     *
+     * @return The number of freed nodes.
+     */
+    public static long gc()
+    {
+        return gc0();
+    }
+
+    /* Private stuff */
+
+    /**
+     * Collect garbage between operations once the node table is full, and grow the table
+     * if little was freed. Never runs inside an operation, where fresh nodes are not ref'ed.
+     */
+    private static void prepare()
+    {
+        if (nodeCount0() < nddTableSize) return;
+        gc0();
+        if (nddTableSize - nodeCount0() <= nddTableSize * QUICK_GROW_THRESHOLD) {
+            nddTableSize *= 2;
+        }
+    }
+
+    private static void checkEdge(long ndd, int i)
+    {
+        if (i < 0 || i >= getEdgeCount0(ndd)) {
+            throw new IndexOutOfBoundsException("edge " + i + " of node " + ndd);
+        }
+    }
+
+    private static native void init0(int cacheSize);
+    private static native void quit0();
+    private static native long mk0(int field, long[] children, long[] labels);
+    private static native long and0(long a, long b);
+    private static native long or0(long a, long b);
+    private static native long not0(long a);
+    private static native long diff0(long a, long b);
+    private static native long imp0(long a, long b);
+    private static native long exist0(long a, int field);
+    private static native long toBDD0(long a);
+    private static native void ref0(long a);
+    private static native void deref0(long a);
+    private static native int getField0(long a);
+    private static native int getEdgeCount0(long a);
+    private static native long getChild0(long a, int i);
+    private static native long getLabel0(long a, int i);
+    private static native long nodeCount0();
+    private static native long gc0();
+}
@@ -1,11 +1,16 @@
 package jsylvan;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Simple library class for working with JNI (Java Native Interface)
@@ -25,7 +30,10 @@ public class NativeUtils {
     /**
      * Loads library from current JAR archive
      *
-     * The file from JAR is copied into system temporary directory and then loaded. The temporary file is deleted after exiting.
+     * The file from JAR is copied into a cache directory, named by the SHA-256 checksum of its
+     * content, and then loaded. Later starts find the copy and skip writing it. The cache
+     * directory is the system property jsylvan.cache.dir, by default jsylvan-<user> in the
+     * system temporary directory.
      * Method uses String as filename because the pathname is "abstract", not system-dependent.
      *
      * @param filename The filename inside JAR as absolute path (beginning with '/'), e.g. /package/File.ext
@@ -43,51 +51,85 @@ public class NativeUtils {
         String[] parts = path.split("/");
         String filename = (parts.length > 1) ? parts[parts.length - 1] : null;
 
-        // Split filename to prexif and suffix (extension)
-        String prefix = "";
-        String suffix = null;
-        if (filename != null) {
-            parts = filename.split("\\.", 2);
-            prefix = parts[0];
-            suffix = (parts.length > 1) ? "."+parts[parts.length - 1] : null; // Thanks, davs! :-)
-        }
-
         // Check if the filename is okay
-        if (filename == null || prefix.length() < 3) {
+        if (filename == null || filename.split("\\.", 2)[0].length() < 3) {
             throw new IllegalArgumentException("The filename has to be at least 3 characters long.");
         }
 
-        // Prepare temporary file
-        File temp = File.createTempFile(prefix, suffix);
-        temp.deleteOnExit();
+        // Read the library and find its copy in the cache
+        byte[] library = readResource(path);
+        Path dir = cacheDir().resolve(sha256(library));
+        Path target = dir.resolve(filename);
 
-        if (!temp.exists()) {
-            throw new FileNotFoundException("File " + temp.getAbsolutePath() + " does not exist.");
+        if (!Files.isRegularFile(target) || Files.size(target) != library.length) {
+            // Write a private copy first and move it in place, so concurrent starts never load half a file
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, filename, ".tmp");
+            try {
+                Files.write(temp, library);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
         }
 
-        // Prepare buffer for data copying
-        byte[] buffer = new byte[1024];
-        int readBytes;
+        // Finally, load the library
+        System.load(target.toAbsolutePath().toString());
+    }
 
+    /**
+     * Get the SHA-256 checksum of a file inside the JAR, as hex.
+     */
+    static String checksum(String path) throws IOException {
+        return sha256(readResource(path));
+    }
+
+    /**
+     * Check if a file exists inside the JAR.
+     */
+    static boolean hasResource(String path) {
+        return NativeUtils.class.getResource(path) != null;
+    }
+
+    static byte[] readResource(String path) throws IOException {
         // Open and check input stream
         InputStream is = NativeUtils.class.getResourceAsStream(path);
         if (is == null) {
             throw new FileNotFoundException("File " + path + " was not found inside JAR.");
         }
 
-        // Open output stream and copy data between source file in JAR and the temporary file
-        OutputStream os = new FileOutputStream(temp);
+        // Prepare buffer for data copying
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int readBytes;
         try {
             while ((readBytes = is.read(buffer)) != -1) {
                 os.write(buffer, 0, readBytes);
             }
         } finally {
-            // If read/write fails, close streams safely before throwing an exception
-            os.close();
             is.close();
         }
+        return os.toByteArray();
+    }
 
-        // Finally, load the library
-        System.load(temp.getAbsolutePath());
+    static Path cacheDir() {
+        String dir = System.getProperty("jsylvan.cache.dir");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jsylvan-" + System.getProperty("user.name"));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 }
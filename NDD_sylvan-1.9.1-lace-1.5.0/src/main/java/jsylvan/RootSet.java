@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A registry of BDDs protected from garbage collection, an alternative to ref() and deref().
+ *
+ * The roots live in a direct buffer whose slots Sylvan protects as a whole (see
+ * JSylvan.protectRoots), so adding, replacing and removing a root is a plain Java write
+ * instead of a JNI call. Only growing the buffer calls into Sylvan. Free slots hold False.
+ * A root set is not thread safe; a BDD must be added before another thread can collect it.
+ *
+ * With a native library built before root buffers, each root is protected by ref() and
+ * deref() instead, behind the same interface.
+ */
+public class RootSet implements AutoCloseable
+{
+    private LongBuffer roots;
+
+    /**
+     * If Sylvan protects the buffer, otherwise each root is ref'ed.
+     */
+    private final boolean direct;
+
+    /**
+     * The slots below this index have been used, the others are False.
+     */
+    private int used = 0;
+
+    /**
+     * The stack of free slots below used.
+     */
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    /**
+     * Create a root set of an initial capacity, which grows when it is full.
+     */
+    public RootSet(int capacity)
+    {
+        roots = allocate(Math.max(1, capacity));
+        boolean protectedBuffer;
+        try {
+            JSylvan.protectRoots(roots);
+            protectedBuffer = true;
+        } catch (UnsatisfiedLinkError e) {
+            protectedBuffer = false;
+        }
+        direct = protectedBuffer;
+    }
+
+    /**
+     * Protect a BDD.
+     * @return The slot of the BDD, to replace or remove it later.
+     */
+    public int add(long bdd)
+    {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == roots.capacity()) grow();
+            slot = used++;
+        }
+        if (!direct) JSylvan.ref(bdd);
+        roots.put(slot, bdd);
+        return slot;
+    }
+
+    /**
+     * Get the BDD in a slot.
+     */
+    public long get(int slot)
+    {
+        checkSlot(slot);
+        return roots.get(slot);
+    }
+
+    /**
+     * Replace the BDD in a slot, the old one is no longer protected by this set.
+     */
+    public void set(int slot, long bdd)
+    {
+        checkSlot(slot);
+        if (!direct) {
+            JSylvan.ref(bdd);
+            JSylvan.deref(roots.get(slot));
+        }
+        roots.put(slot, bdd);
+    }
+
+    /**
+     * Unprotect the BDD in a slot and free the slot.
+     */
+    public void remove(int slot)
+    {
+        checkSlot(slot);
+        if (!direct) JSylvan.deref(roots.get(slot));
+        roots.put(slot, JSylvan.getFalse());
+        if (freeCount == free.length) {
+            int[] larger = new int[free.length * 2];
+            System.arraycopy(free, 0, larger, 0, freeCount);
+            free = larger;
+        }
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * Get the number of slots in use.
+     */
+    public int size()
+    {
+        return used - freeCount;
+    }
+
+    /**
+     * Unprotect all BDDs of this set. The set cannot be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        if (roots == null) return;
+        if (direct) {
+            JSylvan.unprotectRoots(roots);
+        } else {
+            // free slots hold False, whose deref is a no-op
+            for (int i = 0; i < used; i++) JSylvan.deref(roots.get(i));
+        }
+        roots = null;
+    }
+
+    /**
+     * Move the roots to a buffer twice as large. The new buffer is protected before the old
+     * one is released, so the roots stay protected throughout.
+     */
+    private void grow()
+    {
+        LongBuffer larger = allocate(roots.capacity() * 2);
+        for (int i = 0; i < used; i++) larger.put(i, roots.get(i));
+        if (direct) {
+            JSylvan.protectRoots(larger);
+            JSylvan.unprotectRoots(roots);
+        }
+        roots = larger;
+    }
+
+    private void checkSlot(int slot)
+    {
+        if (roots == null) throw new IllegalStateException("root set is closed");
+        if (slot < 0 || slot >= used) throw new IndexOutOfBoundsException("no root in slot " + slot);
+    }
+
+    private static LongBuffer allocate(int capacity)
+    {
+        // Sylvan reads the slots as native longs, and a new direct buffer is all False
+        return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A read-only view of Sylvan's node table, taken by JSylvan.nodes().
+ *
+ * getVar(), getThen() and getElse() decode the nodes in Java, so walking a BDD costs no
+ * JNI calls; they agree with the JSylvan methods of the same name. Creating nodes still
+ * goes through JSylvan. The view covers the table at its max size, which Sylvan allocates
+ * at init and never moves, so it stays valid as the table grows. A node is only stable
+ * while its BDD is referenced: after a garbage collection its slot may hold another node.
+ */
+public class SylvanNodes
+{
+    // A node is two 64-bit words: the first holds the high edge (40 bits of index and the
+    // complement bit 63), the second the variable (from bit 40) and the low edge.
+    private static final int NODE_BYTES = 16;
+    private static final long INDEX_MASK = 0x000000ffffffffffL;
+    private static final long COMPLEMENT = 0x8000000000000000L;
+
+    // a ByteBuffer holds at most 2 GB, so the table is covered by 1 GB chunks
+    private static final int CHUNK_BITS = 26;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final ByteBuffer[] chunks;
+
+    SylvanNodes(long tableSize)
+    {
+        chunks = new ByteBuffer[(int)((tableSize + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; i++) {
+            long first = (long)i << CHUNK_BITS;
+            long count = Math.min(tableSize - first, 1L << CHUNK_BITS);
+            chunks[i] = JSylvan.nodeTable0(first, count).asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Get the variable label of the root node of the BDD.
+     */
+    public int getVar(long bdd)
+    {
+        return (int)(word(bdd, 8) >>> 40);
+    }
+
+    /**
+     * Get the BDD where getVar(<bdd>) is true.
+     */
+    public long getThen(long bdd)
+    {
+        return (word(bdd, 0) & (COMPLEMENT | INDEX_MASK)) ^ (bdd & COMPLEMENT);
+    }
+
+    /**
+     * Get the BDD where getVar(<bdd>) is false.
+     */
+    public long getElse(long bdd)
+    {
+        return (word(bdd, 8) & INDEX_MASK) ^ (bdd & COMPLEMENT);
+    }
+
+    private long word(long bdd, int offset)
+    {
+        long index = bdd & INDEX_MASK;
+        return chunks[(int)(index >>> CHUNK_BITS)].getLong((int)(index & CHUNK_MASK) * NODE_BYTES + offset);
+    }
+}
@@ -17,23 +17,60 @@
 package jsylvan;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Java bindings for Sylvan.
  *
  * This is only a very basic Java-Sylvan bridge.
- * Notably unsupported is calling Sylvan from different threads.
- * The only thread that may use JSylvan is the thread that initialized JSylvan.
+ * A thread must call registerThread() before using JSylvan; the thread that
+ * initialized JSylvan is registered automatically.
+ * With Lace 1.4.2 and later, any number of Java threads may register and call
+ * Sylvan concurrently: their operations run as tasks on the shared Lace workers.
+ * Builds with a bundled Lace only accept the thread that initialized JSylvan: there,
+ * every native method called from another thread throws an IllegalStateException.
+ * The results of the plain operations are not ref'ed, and until the caller refs one, an
+ * operation of another thread may collect it. While a thread holds such a result, no other
+ * thread may run operations; threads that run operations at once use applyRef() and the
+ * other *Ref methods instead, whose results are ref'ed before the operation returns.
+ * The heavy operations also have *Async variants, which keep the Lace workers busy
+ * while the calling thread goes on issuing work.
  *
  * A BDD is a 64-bit long integer.
- * Users must explicitly reference used BDDs using methods ref() and deref().
+ * Users must explicitly reference used BDDs using methods ref() and deref(),
+ * or keep many of them in a RootSet, which protects them without a JNI call per BDD.
+ * Java caches of BDDs can follow Sylvan's garbage collections through addGCListener().
  *
  * Missing functions:
  * - nand, nor, invimp, diff, less
  * - sat_one (give one satisfying assignment)
- * - visitors, serialization
+ * - visitors
+ *
+ * Table usage and Sylvan's statistics are available through stats() and, for monitoring,
+ * the MXBean published by registerMBean().
+ *
+ * On Java 22 and later, the hot operations (node creation, the logic operators, ref/deref
+ * and node access) are also available through the Foreign Function & Memory API, see
+ * backend(). The static methods of JSylvan keep their JNI natives, whose names every
+ * build of the native library exports; the NDD managers of jpndd call backend().
+ *
+ * With Sylvan 1.9 and later, variables can be reordered by sifting, see reorder().
+ * Reordering keeps every BDD and only changes the level of its variables, so makeVar(i)
+ * and getVar() refer to the variable at level i of the current order.
  */
 public class JSylvan
 {
@@ -57,8 +94,90 @@ public class JSylvan
 
         setGranularity(granularity);
         initMtbdd();
+        try {
+            initHooks();
+            gcHooks = true;
+        } catch (UnsatisfiedLinkError e) {
+            // native library built before the hooks: GC listeners are never notified
+            gcHooks = false;
+        }
+
+        // the initializing thread can always call in, whatever the Lace build
+        registered.set(true);
+    }
+
+    /**
+     * Get the backend of the hot operations: the Foreign Function & Memory API on Java 22
+     * and later, if the native library has the plain C entry points of FfmBackend, JNI
+     * otherwise. Run with -Djsylvan.backend=jni to keep JNI. The backend is picked on the
+     * first call, which must come after init(); callers keep it in a static final field,
+     * so the JIT compiles its calls down to direct ones.
+     *
+     * The JSylvan methods of the same name always use JNI.
+     */
+    public static Backend backend()
+    {
+        if (instance == null) throw new IllegalStateException("JSylvan is not initialized");
+        return Backends.BACKEND;
+    }
+
+    /**
+     * Get the name of backend(): "ffm" or "jni".
+     */
+    public static String getBackend()
+    {
+        return backend() instanceof JniBackend ? "jni" : "ffm";
+    }
+
+    /**
+     * Check if init() has been called.
+     */
+    public static boolean isInitialized()
+    {
+        return instance != null;
     }
 
+    /**
+     * Register the calling thread as an external caller of Sylvan.
+     *
+     * Operations of a registered thread are handed to the Lace workers and the thread
+     * blocks until they finish, so Java threads share the worker pool with Sylvan's own
+     * work stealing instead of adding to it; size Java pools with getWorkerCount() in mind.
+     * This holds for ForkJoinPool threads as well; a virtual thread stays pinned to its
+     * carrier for the duration of each native call.
+     *
+     * @throws UnsupportedOperationException if the Lace build only accepts its own workers
+     */
+    public static void registerThread()
+    {
+        if (registered.get()) return;
+        if (!registerThread0()) {
+            throw new UnsupportedOperationException("this Lace build only accepts calls from the thread that initialized JSylvan");
+        }
+        registered.set(true);
+    }
+
+    /**
+     * Unregister the calling thread, e.g. before returning it to a pool that is shared with non-Sylvan work.
+     */
+    public static void unregisterThread()
+    {
+        registered.remove();
+    }
+
+    /**
+     * Check if the calling thread is registered.
+     */
+    public static boolean isThreadRegistered()
+    {
+        return registered.get();
+    }
+
+    /**
+     * Get the number of Lace workers.
+     */
+    public static native int getWorkerCount();
+
     /**
      * Terminate Lace and Sylvan and free memory.
      *
@@ -156,6 +275,116 @@ public class JSylvan
      */
     public static native long makeAndProject(long a, long b, long variables);
 
+    /**
+     * Compute <a> and <b>, within the resources of <limit>.
+     *
+     * @throws OperationAbortedException If a limit was hit; no BDD was made then.
+     */
+    public static long makeAnd(long a, long b, OperationLimit limit)
+    {
+        return makeAndExists(a, b, one, limit);
+    }
+
+    /**
+     * Compute <a> and <b> within the resources of <limit>, ref'ed like applyRef.
+     *
+     * @throws OperationAbortedException If a limit was hit; no BDD was made then.
+     */
+    public static long makeAndRef(long a, long b, OperationLimit limit)
+    {
+        return makeAndExistsRef(a, b, one, limit);
+    }
+
+    /**
+     * Compute exist <variables> . <a> and <b>, within the resources of <limit>.
+     *
+     * Sylvan cannot interrupt its own operations, so this runs a separate implementation
+     * that checks the limit in every task and unwinds once it is hit. It is a little slower
+     * than makeAndExists and has its own operation cache. Bounded operations run one at a
+     * time; other operations may run concurrently.
+     *
+     * @throws OperationAbortedException If a limit was hit; no BDD was made then.
+     */
+    public static long makeAndExists(long a, long b, long variables, OperationLimit limit)
+    {
+        long result = makeAndExistsRef(a, b, variables, limit);
+        deref(result);
+        return result;
+    }
+
+    /**
+     * Compute exist <variables> . <a> and <b> within the resources of <limit>, like
+     * makeAndExists, with the result ref'ed like applyRef.
+     *
+     * @throws OperationAbortedException If a limit was hit; no BDD was made then.
+     */
+    public static long makeAndExistsRef(long a, long b, long variables, OperationLimit limit)
+    {
+        limit.check();
+        // the thread running bounded() already holds the lock and has set the token
+        if (boundedOwner == Thread.currentThread()) return boundedAndExists(a, b, variables, limit);
+        synchronized (boundedLock) {
+            boundedToken = limit.getToken();
+            try {
+                return boundedAndExists(a, b, variables, limit);
+            } finally {
+                boundedToken = null;
+            }
+        }
+    }
+
+    /**
+     * Run <operation>, which makes many bounded calls under <limit>, such as the labels
+     * of a bounded NDD operation. The lock of the bounded operations is taken once for the
+     * whole operation rather than once per call, so other bounded operations wait until it
+     * is done.
+     */
+    public static <T> T bounded(OperationLimit limit, Supplier<T> operation)
+    {
+        if (boundedOwner == Thread.currentThread()) return operation.get();
+        synchronized (boundedLock) {
+            boundedToken = limit.getToken();
+            boundedOwner = Thread.currentThread();
+            try {
+                return operation.get();
+            } finally {
+                boundedOwner = null;
+                boundedToken = null;
+            }
+        }
+    }
+
+    /**
+     * The native bounded and-exists, called with boundedLock held. The result is ref'ed.
+     */
+    private static long boundedAndExists(long a, long b, long variables, OperationLimit limit)
+    {
+        long[] status = limit.status;
+        long result = boundedAndExists0(a, b, variables, limit.remainingNodes(), limit.remainingNanos(), status);
+        if (status[0] != 0) {
+            limit.addNodes(Math.min(status[1], limit.remainingNodes()));
+            throw limit.aborted(OperationAbortedException.Reason.values()[(int)status[0] - 1]);
+        }
+        limit.addNodes(status[1]);
+        // a cancellation just before the native call started is only seen here
+        try {
+            limit.check();
+        } catch (OperationAbortedException e) {
+            deref(result);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Stop the bounded operation running under <token>, if any.
+     */
+    static void cancel(CancellationToken token)
+    {
+        // a stop that arrives after the operation ended is cleared by the next one
+        if (token != null && boundedToken == token) boundedAbort0();
+    }
+
     /**
      * Compute relnext(<a> with <b> on <variables>)
      *
@@ -192,6 +421,210 @@ public class JSylvan
      */
     public static native long makeUnionPar(long[] bdds);
 
+    /**
+     * Given an array of BDDs, compute their conjunction/intersection in parallel.
+     */
+    public static long makeIntersectPar(long[] bdds)
+    {
+        return makeFoldPar0(OP_AND, bdds, one);
+    }
+
+    /**
+     * Compute <count> sums of products in one parallel operation: results[k] is the union of
+     * a[i] and b[i] over offsets[k] <= i < offsets[k+1]. The sums are split over the Lace
+     * workers like the BDDs of makeUnionPar, and so are the products of each sum. Every
+     * result is ref'ed inside the Lace task that computes it; callers deref them when done.
+     */
+    public static void makeSumsOfProductsPar(long[] a, long[] b, int[] offsets, int count, long[] results)
+    {
+        if (a.length != b.length || count < 0 || count >= offsets.length || count > results.length) {
+            throw new IllegalArgumentException("sums of products do not fit the given arrays");
+        }
+        for (int k = 0; k < count; k++) {
+            if (offsets[k] < 0 || offsets[k] > offsets[k+1] || offsets[k+1] > a.length) {
+                throw new IllegalArgumentException("offsets of sum " + k + " out of range");
+            }
+        }
+        makeSumsOfProductsPar0(a, b, offsets, count, results);
+    }
+
+    /**
+     * Given an array of BDDs, combine them with <op> in parallel: the array is split in halves
+     * which are folded by different Lace workers, then merged, down to single BDDs.
+     * The op is one of the associative OP_AND, OP_OR, OP_XOR and OP_EQUIV; an empty array
+     * gives the identity of the op.
+     */
+    public static long makeFoldPar(int op, long[] bdds)
+    {
+        if (op != OP_AND && op != OP_OR && op != OP_XOR && op != OP_EQUIV) {
+            throw new IllegalArgumentException("op " + op + " is not associative");
+        }
+        return makeFoldPar0(op, bdds, one);
+    }
+
+    /**
+     * Compute exists <variables> . (bdds[0] and bdds[1] and ...) like makeIntersectPar, but
+     * quantify <variables> at every merge, which keeps the partial results small.
+     *
+     * This is exact if each variable of <variables> occurs in at most one of the BDDs;
+     * otherwise the result over-approximates the quantified conjunction.
+     */
+    public static long makeAndExistsPar(long[] bdds, long variables)
+    {
+        return makeFoldPar0(OP_AND, bdds, variables);
+    }
+
+    /**
+     * Compute exist <variables> . <a> and <b> asynchronously.
+     *
+     * Each call is handed to Lace by one of getWorkerCount() threads registered to JSylvan,
+     * so independent calls run on all workers at once and the caller only waits when it joins.
+     * Unlike the plain operations, the resulting BDD is ref'ed inside the Lace task, like
+     * makeAndExistsRef, since another thread may collect garbage before the caller can ref
+     * it; the operands must stay referenced until the future completes. On a Lace build that
+     * only accepts the thread that initialized JSylvan, the operation runs on the calling
+     * thread instead, and the returned future is already complete.
+     */
+    public static CompletableFuture<Long> makeAndExistsAsync(long a, long b, long variables)
+    {
+        return async(() -> makeAndExistsRef(a, b, variables));
+    }
+
+    /**
+     * Compute relnext(<a> with <b> on <variables>) asynchronously, see makeAndExistsAsync.
+     */
+    public static CompletableFuture<Long> makeNextAsync(long a, long b, long variables)
+    {
+        return async(() -> makeNextRef(a, b, variables));
+    }
+
+    /**
+     * Compute exists <variables> . <a> asynchronously, see makeAndExistsAsync.
+     */
+    public static CompletableFuture<Long> makeExistsAsync(long a, long variables)
+    {
+        return async(() -> applyRef(OP_EXISTS, a, variables));
+    }
+
+    /**
+     * Compute IF <a> THEN <b> ELSE <c> asynchronously, see makeAndExistsAsync.
+     */
+    public static CompletableFuture<Long> makeIteAsync(long a, long b, long c)
+    {
+        return async(() -> makeIteRef(a, b, c));
+    }
+
+    /**
+     * Count the satisfying assignments of <bdd> asynchronously, see makeAndExistsAsync.
+     */
+    public static CompletableFuture<Double> satcountAsync(long bdd, long variables)
+    {
+        return async(() -> satcount(bdd, variables));
+    }
+
+    /**
+     * Opcodes of the batched apply stream (see applyBatch).
+     * Each op is a triple (opcode, a, b); unary ops ignore <b>.
+     * - OP_AND, OP_OR, OP_IMP, OP_XOR, OP_EQUIV: <a> op <b>
+     * - OP_NOT: not <a>
+     * - OP_DIFF: <a> and not <b>
+     * - OP_EXISTS: exists <b> . <a>, with <b> a set of variables
+     * - OP_REF: <a> itself
+     * - OP_DEREF: deref <a>, the result slot is set to False
+     */
+    public static final int OP_AND = 0;
+    public static final int OP_OR = 1;
+    public static final int OP_NOT = 2;
+    public static final int OP_DIFF = 3;
+    public static final int OP_IMP = 4;
+    public static final int OP_XOR = 5;
+    public static final int OP_EQUIV = 6;
+    public static final int OP_EXISTS = 7;
+    public static final int OP_REF = 8;
+    public static final int OP_DEREF = 9;
+
+    /**
+     * Run <count> packed ops of <ops> in a single native call, one JNI transition for the whole batch.
+     *
+     * The i-th op is (ops[3*i], ops[3*i+1], ops[3*i+2]) and its result is written to <results>[i].
+     * Results are ref'ed (except for OP_DEREF), so callers must deref them when done.
+     * Ops run in order, but an op cannot refer to the result of an earlier op of the same batch.
+     */
+    public static void applyBatch(long[] ops, int count, long[] results)
+    {
+        checkBatch(ops.length, count, results.length);
+        applyBatch0(ops, count, results);
+    }
+
+    /**
+     * Same as applyBatch, but on direct buffers, which avoids copying the op stream.
+     * Both buffers are read from and written to at absolute index 0.
+     */
+    public static void applyBatch(LongBuffer ops, int count, LongBuffer results)
+    {
+        if (!ops.isDirect() || !results.isDirect()) throw new IllegalArgumentException("batch buffers must be direct");
+        checkBatch(ops.capacity(), count, results.capacity());
+        applyBatchDirect0(ops, count, results);
+    }
+
+    /**
+     * Compute one op of the batch stream, except OP_DEREF, with the result ref'ed inside the
+     * Lace task that computes it, so no operation of another thread can collect it first.
+     * Callers deref the result when done.
+     */
+    public static long applyRef(int op, long a, long b)
+    {
+        return makeRef0(op, a, b, zero);
+    }
+
+    /**
+     * Compute IF <a> THEN <b> ELSE <c>, ref'ed like applyRef.
+     */
+    public static long makeIteRef(long a, long b, long c)
+    {
+        return makeRef0(OP_ITE, a, b, c);
+    }
+
+    /**
+     * Compute exists <variables> . <a> and <b>, ref'ed like applyRef.
+     */
+    public static long makeAndExistsRef(long a, long b, long variables)
+    {
+        return makeRef0(OP_AND_EXISTS, a, b, variables);
+    }
+
+    /**
+     * Compute relnext(<a> with <b> on <variables>), ref'ed like applyRef.
+     */
+    public static long makeNextRef(long a, long b, long variables)
+    {
+        return makeRef0(OP_NEXT, a, b, variables);
+    }
+
+    /**
+     * Get the BDD of variable <a>, ref'ed like applyRef.
+     */
+    public static long makeVarRef(int a)
+    {
+        return makeRef0(OP_VAR, a, zero, zero);
+    }
+
+    /**
+     * Compose <bdd> with <map> like compose, ref'ed like applyRef.
+     */
+    public static long composeRef(long bdd, long map)
+    {
+        return makeRef0(OP_COMPOSE, bdd, map, zero);
+    }
+
+    /**
+     * Add the pair <key>, <value> to <map> like mapAdd, ref'ed like applyRef.
+     */
+    public static long mapAddRef(long map, int key, long value)
+    {
+        return makeRef0(OP_MAP_ADD, map, key, value);
+    }
+
     /**
      * Compute the constrain or general cofactor of f @ c.
      */
@@ -239,6 +672,44 @@ public class JSylvan
      */
     public static native long getElse(long bdd);
 
+    /**
+     * Get a read-only view of the node table, which reads getVar(), getThen() and getElse()
+     * without JNI calls, for walking large BDDs from Java.
+     *
+     * The view decodes Sylvan's node layout itself, so it is checked against the JNI calls
+     * on a small BDD when it is first taken.
+     * @throws UnsatisfiedLinkError if the native library was built before the view
+     * @throws UnsupportedOperationException if the view misreads the nodes of this Sylvan
+     */
+    public static synchronized SylvanNodes nodes()
+    {
+        if (nodeView == null) {
+            SylvanNodes view = new SylvanNodes(nodeTableSize0());
+            long a = ref(makeVar(1)), b = ref(makeVar(2)), c = ref(makeVar(3));
+            // complemented edges on both branches, as in (a and not b) or (not a and c)
+            long probe = ref(makeIte(a, makeNot(b), c));
+            boolean same = sameNodes(view, probe);
+            deref(probe);
+            deref(c);
+            deref(b);
+            deref(a);
+            if (!same) throw new UnsupportedOperationException("the node view does not match the node layout of this Sylvan");
+            nodeView = view;
+        }
+        return nodeView;
+    }
+
+    /**
+     * Check that <view> reads every node of <bdd> like the JNI calls.
+     */
+    private static boolean sameNodes(SylvanNodes view, long bdd)
+    {
+        if (bdd == one || bdd == zero) return true;
+        long then = getThen(bdd), other = getElse(bdd);
+        return view.getVar(bdd) == getVar(bdd) && view.getThen(bdd) == then && view.getElse(bdd) == other
+                && sameNodes(view, then) && sameNodes(view, other);
+    }
+
     /**
      * Write the BDD as a text to standard out.
      */
@@ -259,6 +730,28 @@ public class JSylvan
      */
     public static native void fprintDot(String filename, long bdd);
 
+    /**
+     * Write the BDDs <roots> to a binary file, each shared node only once.
+     *
+     * The file is meant to be read back by load(), on a machine of the same byte order.
+     * Variables must fit in 24 bits.
+     */
+    public static void save(long[] roots, Path path) throws IOException
+    {
+        save0(roots, path.toAbsolutePath().toString());
+    }
+
+    /**
+     * Read the BDDs written by save(), in the order they were passed to it.
+     *
+     * The file is memory-mapped and its nodes are inserted into the unique table in one pass,
+     * children first. The returned BDDs are ref'ed, so callers must deref them when done.
+     */
+    public static long[] load(Path path) throws IOException
+    {
+        return load0(path.toAbsolutePath().toString());
+    }
+
     /**
      * Turn off automatic garbage collection, instead program will exit.
      */
@@ -276,6 +769,53 @@ public class JSylvan
      */
     public static native void gc();
 
+    /**
+     * Add a listener that is notified when Sylvan starts and finishes a garbage collection.
+     * Listeners are only notified if hasGCHooks().
+     */
+    public static void addGCListener(GCListener listener)
+    {
+        gcListeners.add(listener);
+    }
+
+    /**
+     * Check if the native library notifies the GC listeners. Libraries built before the
+     * hooks were added do not, and a listener then never hears of a collection.
+     */
+    public static boolean hasGCHooks()
+    {
+        return gcHooks;
+    }
+
+    /**
+     * Remove a listener added by addGCListener().
+     */
+    public static void removeGCListener(GCListener listener)
+    {
+        gcListeners.remove(listener);
+    }
+
+    /**
+     * Protect all BDDs in a direct buffer, like ref() on each slot, but Sylvan reads the
+     * slots when it collects: until unprotectRoots(), the buffer can be rewritten without
+     * further calls. Slots not in use must hold False. See RootSet for a managed buffer.
+     * @throws UnsatisfiedLinkError if the native library was built before root buffers
+     */
+    public static void protectRoots(LongBuffer roots)
+    {
+        if (!roots.isDirect()) throw new IllegalArgumentException("root buffers must be direct");
+        protectRoots0(roots);
+    }
+
+    /**
+     * Stop protecting a buffer passed to protectRoots().
+     */
+    public static void unprotectRoots(LongBuffer roots)
+    {
+        if (!roots.isDirect()) throw new IllegalArgumentException("root buffers must be direct");
+        unprotectRoots0(roots);
+    }
+
     /**
      * Get current number of BDD nodes in the hash table.
      */
@@ -286,6 +826,128 @@ public class JSylvan
      */
     public static native long getTableSize();
 
+    /**
+     * Check if Sylvan can reorder variables, which needs Sylvan 1.9 or later.
+     */
+    public static native boolean canReorder();
+
+    /**
+     * Keep the levels below <level> and from <level> on apart when reordering, so variables
+     * never move across it. The levels between two boundaries form a block, which is
+     * reordered on its own; levels from the highest boundary on are never reordered.
+     */
+    public static synchronized void addReorderBoundary(int level)
+    {
+        if (level < 0) throw new IllegalArgumentException("negative level " + level);
+        reorderBoundaries.add(level);
+    }
+
+    /**
+     * Limit the growth of the table while a variable is sifted, e.g. 1.2 for 20%, and the
+     * time of a whole reordering in milliseconds, 0 to keep Sylvan's time limit.
+     */
+    public static synchronized void setReorderLimits(double maxGrowth, long maxMillis)
+    {
+        checkReorder();
+        setReorderLimits0(maxGrowth, maxMillis);
+    }
+
+    /**
+     * Reorder the variables now, by sifting each block of levels (see addReorderBoundary).
+     * Sylvan collects garbage first, so unreferenced BDDs are gone afterwards.
+     */
+    public static synchronized void reorder()
+    {
+        checkReorder();
+        int[] boundaries = new int[reorderBoundaries.size()];
+        int i = 0;
+        for (int level : reorderBoundaries) boundaries[i++] = level;
+        reorder0(boundaries);
+        reorderCount++;
+        if (autoReorderThreshold > 0) {
+            nextAutoReorder = Math.max(autoReorderThreshold, 2 * getTableUsed());
+        }
+    }
+
+    /**
+     * Get the number of reorderings so far, to tell when data keyed by levels is stale.
+     */
+    public static synchronized long getReorderCount()
+    {
+        return reorderCount;
+    }
+
+    /**
+     * Let maybeReorder() reorder once the table holds <nodeThreshold> nodes, and after that
+     * once it holds twice as many nodes as after the last reordering. 0 turns it off.
+     * The NDD manager only calls maybeReorder() after NDDManager.setAutoReorder(true).
+     */
+    public static synchronized void setAutoReorder(long nodeThreshold)
+    {
+        if (nodeThreshold > 0) checkReorder();
+        autoReorderThreshold = nodeThreshold;
+        nextAutoReorder = nodeThreshold;
+    }
+
+    /**
+     * Reorder if automatic reordering is on and the table reached its threshold.
+     * Call this where the program holds no BDDs without a ref, as reorder() collects garbage.
+     *
+     * @return If the variables were reordered.
+     */
+    public static synchronized boolean maybeReorder()
+    {
+        if (autoReorderThreshold <= 0 || getTableUsed() < nextAutoReorder) return false;
+        reorder();
+        return true;
+    }
+
+    /**
+     * Get the variable order: element i is the variable at level i, where a variable is
+     * named by its level before any reordering. The levels below the highest reorder
+     * boundary are listed.
+     */
+    public static synchronized int[] getVariableOrder()
+    {
+        checkReorder();
+        return getVariableOrder0(reorderBoundaries.isEmpty() ? 0 : reorderBoundaries.last());
+    }
+
+    /**
+     * Take a snapshot of the table usage and of Sylvan's node, operation and GC counters.
+     *
+     * The counters are summed over all Lace workers, which stops the world for a moment, so
+     * avoid calling this in a tight loop. Any thread may call it; on a Lace build that only
+     * accepts the initializing thread, other threads get the table usage without counters.
+     */
+    public static SylvanStats stats()
+    {
+        long[] values = new long[SylvanStats.LENGTH];
+        stats0(values);
+        return new SylvanStats(values);
+    }
+
+    /**
+     * Reset Sylvan's node, operation and GC counters to 0.
+     */
+    public static native void resetStats();
+
+    /**
+     * Publish stats() as the MXBean jsylvan:type=Sylvan on the platform MBean server.
+     * Registering again returns the existing name.
+     *
+     * @return The name of the MXBean.
+     */
+    public static synchronized ObjectName registerMBean() throws JMException
+    {
+        ObjectName name = new ObjectName("jsylvan:type=Sylvan");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new SylvanStatsBean(), name);
+        }
+        return name;
+    }
+
     /**
      * Calculate number of variable assignments for which the BDD evaluation yields true
      * Parameters: the bdd, and a bdd representing the variables
@@ -373,7 +1035,7 @@ public class JSylvan
     private JSylvan() throws IOException
     {
         try {
-            NativeUtils.loadLibraryFromJar("/linux-x64/libsylvan-java.so");
+            NativeVariants.load();
         } catch (IOException ex) {
             ex.printStackTrace();
             throw ex;
@@ -382,6 +1044,138 @@ public class JSylvan
 
     private static JSylvan instance = null;
 
+    private static SylvanNodes nodeView = null;
+
+    /**
+     * Holds backend(), which is picked when the holder is initialized, after init() loaded
+     * the native library. FfmBackend is compiled for Java 22 (see the ffm profile of the
+     * pom), so older JVMs fail to load it and keep JNI, as do libraries built before the
+     * plain C entry points existed.
+     */
+    private static final class Backends
+    {
+        static final Backend BACKEND = select();
+
+        private static Backend select()
+        {
+            if (!"jni".equals(System.getProperty("jsylvan.backend"))) {
+                try {
+                    return (Backend) Class.forName("jsylvan.FfmBackend").getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // fall through to JNI
+                }
+            }
+            return new JniBackend();
+        }
+    }
+
+    private static final ThreadLocal<Boolean> registered = ThreadLocal.withInitial(() -> false);
+
+    private static native boolean registerThread0();
+
+    /**
+     * The threads of the *Async operations, created on first use.
+     * Stays null if the Lace build does not accept calls from other threads.
+     */
+    private static ForkJoinPool asyncPool = null;
+    private static boolean asyncPoolChecked = false;
+
+    private static synchronized ForkJoinPool getAsyncPool()
+    {
+        if (!asyncPoolChecked) {
+            asyncPoolChecked = true;
+            if (acceptsOtherThreads()) {
+                asyncPool = new ForkJoinPool(Math.max(1, getWorkerCount()));
+            }
+        }
+        return asyncPool;
+    }
+
+    /**
+     * Check on a new thread whether the Lace build accepts calls from threads it did not start.
+     */
+    private static boolean acceptsOtherThreads()
+    {
+        boolean[] accepted = new boolean[1];
+        Thread probe = new Thread(() -> {
+            try {
+                accepted[0] = registerThread0();
+            } catch (UnsatisfiedLinkError e) {
+                // a library without registration: only rely on the thread that initialized JSylvan
+            }
+        }, "jsylvan-register-probe");
+        probe.start();
+        try {
+            probe.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return accepted[0];
+    }
+
+    private static <T> CompletableFuture<T> async(Supplier<T> operation)
+    {
+        ForkJoinPool pool = getAsyncPool();
+        if (pool == null) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                result.complete(operation.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            registerThread();
+            return operation.get();
+        }, pool);
+    }
+
+    private static final List<GCListener> gcListeners = new CopyOnWriteArrayList<>();
+    private static boolean gcHooks = false;
+
+    private static final TreeSet<Integer> reorderBoundaries = new TreeSet<>();
+
+    /**
+     * Serializes the bounded operations, whose state in the native library is global,
+     * and the token of the running one.
+     */
+    private static final Object boundedLock = new Object();
+    private static volatile CancellationToken boundedToken = null;
+
+    /**
+     * The thread running bounded(), only set while it holds boundedLock.
+     */
+    private static volatile Thread boundedOwner = null;
+
+    /**
+     * The table usage at which maybeReorder() reorders, 0 when it is off.
+     */
+    private static long autoReorderThreshold = 0;
+    private static long nextAutoReorder = 0;
+    private static long reorderCount = 0;
+
+    private static void checkReorder()
+    {
+        if (!canReorder()) throw new UnsupportedOperationException("variable reordering needs Sylvan 1.9 or later");
+    }
+
+    /**
+     * Called by the GC hooks of Sylvan, see GCListener for the calling thread.
+     * A failing listener does not keep the others from being notified.
+     */
+    private static void gcEvent(boolean started)
+    {
+        for (GCListener listener : gcListeners) {
+            try {
+                if (started) listener.gcStarted();
+                else listener.gcFinished();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Use before initialization to configure computation to set table sizes.
      * Memory cap for unique table and computed cache in bytes.
@@ -396,7 +1190,51 @@ public class JSylvan
      */
     private static native void setSizes(long minTableSize, long maxTableSize, long minCacheSize, long maxCacheSize);
 
+    private static void checkBatch(int opsLength, int count, int resultsLength)
+    {
+        if (count < 0 || (long)count * 3 > opsLength || count > resultsLength) {
+            throw new IllegalArgumentException("batch of " + count + " ops does not fit the given arrays");
+        }
+    }
+
+
+    static native long makeFoldPar0(int op, long[] bdds, long variables);
+
+    // the ops of makeRef0 beyond the batch stream, as in jsylvan.c, also passed by FfmBackend
+    static final int OP_ITE = 10;
+    static final int OP_AND_EXISTS = 11;
+    static final int OP_NEXT = 12;
+    static final int OP_VAR = 13;
+    static final int OP_COMPOSE = 14;
+    static final int OP_MAP_ADD = 15;
+
+    private static native long makeRef0(int op, long a, long b, long c);
+
+    private static native void makeSumsOfProductsPar0(long[] a, long[] b, int[] offsets, int count, long[] results);
+
+    private static native long boundedAndExists0(long a, long b, long variables, long maxNodes, long timeoutNanos, long[] status);
+    private static native void boundedAbort0();
+
+    private static native void applyBatch0(long[] ops, int count, long[] results);
+    private static native void applyBatchDirect0(LongBuffer ops, int count, LongBuffer results);
+
+    private static native void stats0(long[] values);
+
+    private static native void setReorderLimits0(double maxGrowth, long maxMillis);
+    private static native void reorder0(int[] boundaries);
+    private static native int[] getVariableOrder0(int levels);
+
+    private static native long nodeTableSize0();
+    static native ByteBuffer nodeTable0(long first, long count);
+
+    private static native void save0(long[] roots, String path) throws IOException;
+    private static native long[] load0(String path) throws IOException;
+
+    private static native void protectRoots0(LongBuffer roots);
+    private static native void unprotectRoots0(LongBuffer roots);
+
     private static native void initLace(long workers, long stacksize);
     private static native void initPackage();
     private static native void initMtbdd();
+    private static native void initHooks();
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * A snapshot of Sylvan's tables and counters, taken by JSylvan.stats().
+ *
+ * The table and cache usage is always available. The node, operation and GC counters come
+ * from Sylvan's stats module, which only counts when Sylvan is built with SYLVAN_STATS
+ * (build-variants.sh --stats=on); otherwise hasCounters() is false and they are 0.
+ * Counters are cumulative since init() or the last JSylvan.resetStats().
+ */
+public class SylvanStats
+{
+    /**
+     * The BDD operations counted by Sylvan. OR, NOT, DIFF and IMP are computed by AND on
+     * complemented edges, so they are counted as AND.
+     */
+    public enum Op
+    {
+        ITE, AND, XOR, EXISTS, AND_EXISTS, RELNEXT, RELPREV, SATCOUNT
+    }
+
+    // layout of the array filled by JSylvan.stats0()
+    static final int COUNTERS = 0;
+    static final int TABLE_USED = 1;
+    static final int TABLE_SIZE = 2;
+    static final int CACHE_USED = 3;
+    static final int CACHE_SIZE = 4;
+    static final int NODES_CREATED = 5;
+    static final int NODES_REUSED = 6;
+    static final int GC_COUNT = 7;
+    static final int GC_TIME = 8;
+    static final int OPS = 9;
+    static final int LENGTH = OPS + 2 * Op.values().length;
+
+    private final long[] values;
+
+    SylvanStats(long[] values)
+    {
+        this.values = values;
+    }
+
+    /**
+     * Check if Sylvan counts nodes, operations and garbage collections.
+     */
+    public boolean hasCounters()
+    {
+        return values[COUNTERS] != 0;
+    }
+
+    /**
+     * Get the number of nodes in the unique table.
+     */
+    public long getTableUsed()
+    {
+        return values[TABLE_USED];
+    }
+
+    /**
+     * Get the current size of the unique table, which grows up to its max size.
+     */
+    public long getTableSize()
+    {
+        return values[TABLE_SIZE];
+    }
+
+    /**
+     * Get the share of the unique table in use, between 0 and 1.
+     */
+    public double getTableFill()
+    {
+        return values[TABLE_SIZE] == 0 ? 0 : (double) values[TABLE_USED] / values[TABLE_SIZE];
+    }
+
+    /**
+     * Get the number of entries of the operation cache in use.
+     */
+    public long getCacheUsed()
+    {
+        return values[CACHE_USED];
+    }
+
+    /**
+     * Get the current size of the operation cache.
+     */
+    public long getCacheSize()
+    {
+        return values[CACHE_SIZE];
+    }
+
+    /**
+     * Get the number of nodes created in the unique table.
+     */
+    public long getNodesCreated()
+    {
+        return values[NODES_CREATED];
+    }
+
+    /**
+     * Get the number of node creations that found the node in the unique table.
+     */
+    public long getNodesReused()
+    {
+        return values[NODES_REUSED];
+    }
+
+    /**
+     * Get the number of garbage collections.
+     */
+    public long getGcCount()
+    {
+        return values[GC_COUNT];
+    }
+
+    /**
+     * Get the total time spent in garbage collections, in nanoseconds.
+     */
+    public long getGcTimeNanos()
+    {
+        return values[GC_TIME];
+    }
+
+    /**
+     * Get the number of recursive calls of an operation, including those answered by the cache.
+     */
+    public long getCalls(Op op)
+    {
+        return values[OPS + 2 * op.ordinal()];
+    }
+
+    /**
+     * Get the number of recursive calls of an operation answered by the operation cache.
+     */
+    public long getCacheHits(Op op)
+    {
+        return values[OPS + 2 * op.ordinal() + 1];
+    }
+
+    /**
+     * Get the share of the recursive calls of an operation answered by the cache, between 0 and 1.
+     */
+    public double getCacheHitRate(Op op)
+    {
+        long calls = getCalls(op);
+        return calls == 0 ? 0 : (double) getCacheHits(op) / calls;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("table %d/%d (%.1f%%), cache %d/%d",
+                getTableUsed(), getTableSize(), 100 * getTableFill(), getCacheUsed(), getCacheSize()));
+        if (!hasCounters()) {
+            return sb.append(", no counters").toString();
+        }
+        sb.append(String.format(", nodes created %d reused %d, gc %d in %d ms",
+                getNodesCreated(), getNodesReused(), getGcCount(), getGcTimeNanos() / 1_000_000));
+        for (Op op : Op.values()) {
+            if (getCalls(op) != 0) {
+                sb.append(String.format(", %s %d (%.1f%% cached)", op, getCalls(op), 100 * getCacheHitRate(op)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.util.Map;
+
+/**
+ * JMX view of JSylvan.stats(), registered by JSylvan.registerMBean().
+ * Every attribute read takes a new snapshot, see SylvanStats for the meaning of each value.
+ */
+public interface SylvanStatsMXBean
+{
+    boolean isCountersEnabled();
+
+    long getTableUsed();
+
+    long getTableSize();
+
+    double getTableFill();
+
+    long getCacheUsed();
+
+    long getCacheSize();
+
+    long getNodesCreated();
+
+    long getNodesReused();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    /**
+     * Recursive calls per operation, keyed by SylvanStats.Op names.
+     */
+    Map<String, Long> getOperationCalls();
+
+    /**
+     * Recursive calls answered by the operation cache per operation, keyed by SylvanStats.Op names.
+     */
+    Map<String, Long> getOperationCacheHits();
+
+    /**
+     * Reset Sylvan's counters, see JSylvan.resetStats().
+     */
+    void resetStats();
+}
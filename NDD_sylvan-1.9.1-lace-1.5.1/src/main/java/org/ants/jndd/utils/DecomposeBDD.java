@@ -14,14 +14,37 @@ import java.util.HashSet;
 public class DecomposeBDD {
     private final static int BDD_FALSE = 0;
     private final static int BDD_TRUE = 1;
-    private static BDD bddEngine;
-    private static int fieldNum;
-    private static ArrayList<Integer> maxVariablePerField;
+    private final BDD bddEngine;
+    private final ArrayList<Integer> maxVariablePerField;
 
-    public static HashMap<Integer, HashMap<Integer, Integer>> decompose(int a, BDD bdd, ArrayList<Integer> vars) {
+    /**
+     * The decomposer of the last static decompose() call, used by the static bddGetField().
+     */
+    private static DecomposeBDD last;
+
+    /**
+     * Create a decomposer for a field layout. The list is read on each call, so fields
+     * declared later are taken into account.
+     *
+     * @param bdd The bdd engine of the decomposed bdds.
+     * @param vars The max id of bits for each field.
+     */
+    public DecomposeBDD(BDD bdd, ArrayList<Integer> vars) {
         bddEngine = bdd;
         maxVariablePerField = vars;
-        fieldNum = maxVariablePerField.size();
+    }
+
+    public static HashMap<Integer, HashMap<Integer, Integer>> decompose(int a, BDD bdd, ArrayList<Integer> vars) {
+        last = new DecomposeBDD(bdd, vars);
+        return last.decompose(a);
+    }
+
+    public static int bddGetField(int a) {
+        return last.getField(a);
+    }
+
+    public HashMap<Integer, HashMap<Integer, Integer>> decompose(int a) {
+        int fieldNum = maxVariablePerField.size();
         HashMap<Integer, HashMap<Integer, Integer>> decomposedBDD = new HashMap<Integer, HashMap<Integer, Integer>>();
         if (a == BDD_FALSE) {
         } else if (a == BDD_TRUE) {
@@ -51,7 +74,8 @@ public class DecomposeBDD {
         return decomposedBDD;
     }
 
-    public static int bddGetField(int a) {
+    public int getField(int a) {
+        int fieldNum = maxVariablePerField.size();
         if (a == BDD_FALSE || a == BDD_TRUE) {
             return fieldNum;
         }
@@ -66,9 +90,10 @@ public class DecomposeBDD {
         return currentField;
     }
 
-    private static void getBoundaryTree(int a, HashMap<Integer, HashSet<Integer>> boundaryTree,
-                                        ArrayList<HashSet<Integer>> boundaryPoints) {
-        int startField = bddGetField(a);
+    private void getBoundaryTree(int a, HashMap<Integer, HashSet<Integer>> boundaryTree,
+                                 ArrayList<HashSet<Integer>> boundaryPoints) {
+        int fieldNum = maxVariablePerField.size();
+        int startField = getField(a);
         for (int i = 0; i < fieldNum; i++) {
             boundaryPoints.add(new HashSet<Integer>());
         }
@@ -85,19 +110,19 @@ public class DecomposeBDD {
         }
     }
 
-    private static void detectBoundaryPoints(int from, int current, HashMap<Integer, HashSet<Integer>> boundaryTree,
-                                             ArrayList<HashSet<Integer>> boundaryPoints) {
+    private void detectBoundaryPoints(int from, int current, HashMap<Integer, HashSet<Integer>> boundaryTree,
+                                      ArrayList<HashSet<Integer>> boundaryPoints) {
         if (current == BDD_FALSE) {
             return;
         }
 
-        if (bddGetField(from) != bddGetField(current)) {
+        if (getField(from) != getField(current)) {
             if (!boundaryTree.containsKey(from)) {
                 boundaryTree.put(from, new HashSet<Integer>());
             }
             boundaryTree.get(from).add(current);
             if (current != BDD_TRUE) {
-                boundaryPoints.get(bddGetField(current)).add(current);
+                boundaryPoints.get(getField(current)).add(current);
             }
             return;
         }
@@ -107,8 +132,8 @@ public class DecomposeBDD {
     }
 
     // return per field bdd without ref
-    private static int constructPerFieldBDD(int from, int to, int current) {
-        if (bddGetField(from) != bddGetField(current)) {
+    private int constructPerFieldBDD(int from, int to, int current) {
+        if (getField(from) != getField(current)) {
             if (to == current)
                 return BDD_TRUE;
             else
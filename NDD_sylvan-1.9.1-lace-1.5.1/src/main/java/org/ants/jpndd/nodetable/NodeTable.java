@@ -6,33 +6,65 @@
 package org.ants.jpndd.nodetable;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 
+import org.ants.jpndd.diagram.EdgeList;
 import org.ants.jpndd.diagram.NDD;
+import org.ants.jpndd.diagram.NDDManager;
+import org.ants.jpndd.utils.Labels;
 
+import jsylvan.GCListener;
 import jsylvan.JSylvan;
 
 public class NodeTable {
     private static final boolean TEST_SYLVAN_INIT = false;
 
+    /**
+     * The manager owning the node table, whose caches and temporary nodes are handled in gc.
+     */
+    private final NDDManager manager;
+
     /**
      * The current size of the node table.
      */
     long currentSize;
 
+    /**
+     * The id of the next node to be created, 0 and 1 are the terminals.
+     */
+    private long nextId = 2;
+
     /**
      * The max size of the node table.
      */
     long nddTableSize;
 
     /**
-     * The node table.
+     * The initial number of slots of the unique table.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    /**
+     * The unique table of all fields, open addressing with linear probing, null marks an
+     * empty slot and DELETED the slot of a freed node. The table is kept at most half full.
+     */
+    NDD[] nodes;
+
+    /**
+     * Marks the slot of a freed node, such that probe sequences passing the slot stay intact.
+     */
+    private static final NDD DELETED = new NDD(-1, -1, new NDD[0], new long[0]);
+
+    /**
+     * The number of slots marked DELETED.
      */
-    ArrayList<Map<Map<NDD, Long>, NDD>> nodeTable;
+    private int deletedSlots;
+
+    /**
+     * The structural hash of the node in each slot, compared before the node itself.
+     */
+    int[] hashes;
 
     /**
      * If the number of free nodes is less than this threshold after garbage
@@ -41,30 +73,73 @@ public class NodeTable {
     final double QUICK_GROW_THRESHOLD = 0.1;
 
     /**
-     * The reference count of each node.
+     * The nodes whose reference count dropped to 0, the only candidates of garbage collection.
+     * A queued node may be revived before it is collected, so its count is checked again.
+     */
+    private final ArrayDeque<NDD> zeroRefNodes = new ArrayDeque<>();
+
+    /**
+     * The max pause of one garbage collection in nanoseconds, 0 for freeing all garbage at once.
+     */
+    private long pauseBudget;
+
+    /**
+     * The size of the node table that triggers the next garbage collection.
+     */
+    private long gcThreshold;
+
+    /**
+     * If a collection runs out of its pause budget, the next one starts after this share of
+     * nddTableSize more nodes is created.
+     */
+    final double SLICE_ALLOCATION = 0.01;
+
+    /**
+     * Set when Sylvan finished a garbage collection. Unreferenced nodes still hold their labels,
+     * so they are collected at the next node creation, before Sylvan runs out of table again.
      */
-    Map<NDD, Integer> referenceCount;
+    private volatile boolean bddCollected;
 
     /**
-     * Construct function for ndd.
+     * If the bdd variables may be reordered after a garbage collection, off by default.
+     */
+    private boolean autoReorder;
+
+    /**
+     * The reference count of a fixed node, which is never changed or collected.
+     */
+    private static final int FIXED = Integer.MAX_VALUE;
+
+    /**
+     * Construct function for ndd. Sylvan is initialized by the first node table.
      * 
+     * @param manager      The manager owning the node table.
      * @param nddTableSize The max size of ndd node table.
      * @param bddTableSize The max size of bdd node table.
      * @param bddCacheSize The max size of ndd operation cache.
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    public NodeTable(int nddTableSize, int bddTableSize, int bddCacheSize, long sylvanMaxMemory) {
+    public NodeTable(NDDManager manager, int nddTableSize, int bddTableSize, int bddCacheSize, long sylvanMaxMemory) {
+        this.manager = manager;
         this.currentSize = 0L;
         this.nddTableSize = nddTableSize;
-        this.nodeTable = new ArrayList<>();
+        this.gcThreshold = nddTableSize;
+        this.nodes = new NDD[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        JSylvan.addGCListener(new BDDCollectedFlag(this));
 
         // int tableRatio = Math.max(1, bddTableSize / bddCacheSize - 1);
         // int initratio = (int)Math.sqrt((double) maxMemory / (bddTableSize + bddCacheSize));
-        try{
-            JSylvan.init(0, sylvanMaxMemory, 1, 4, 1);
-        }catch (IOException ex) {
-            ex.printStackTrace();
-            return;
+        synchronized (NodeTable.class) {
+            if (JSylvan.isInitialized()) {
+                return;
+            }
+            try{
+                JSylvan.init(0, sylvanMaxMemory, 1, 4, 1);
+            }catch (IOException ex) {
+                ex.printStackTrace();
+                return;
+            }
         }
         JSylvan.disableGC();
         JSylvan.enableGC();
@@ -111,33 +186,50 @@ public class NodeTable {
             System.out.println("Simple tests success!");
             System.exit(1);
         }
-        
-        this.referenceCount = new HashMap<>();
     }
 
     /**
-     * Construct function for atomized ndd.
+     * Get the number of nodes in the node table.
      * 
-     * @param nddTableSize The max size of ndd node table.
-     * @param bddEngine    The engine for bdd.
+     * @return The number of nodes.
      */
-    public NodeTable(long nddTableSize, JSylvan bddEngine) {
-        this.currentSize = 0L;
-        this.nddTableSize = nddTableSize;
-        this.nodeTable = new ArrayList<>();
-        this.referenceCount = new HashMap<>();
+    public long nodeCount() {
+        return currentSize;
     }
 
-    public ArrayList<Map<Map<NDD, Long>, NDD>> getNodeTable() {
-        return nodeTable;
+    /**
+     * Set the max pause of one garbage collection. A collection that runs out of its budget
+     * resumes after a few more nodes are created, so the table may exceed its size meanwhile.
+     * 
+     * @param millis The budget in milliseconds, 0 for freeing all garbage at once (default).
+     */
+    public void setPauseBudget(long millis) {
+        pauseBudget = millis * 1_000_000L;
     }
 
     /**
-     * Declare a new field.
+     * Let a garbage collection reorder the bdd variables, see JSylvan.maybeReorder().
+     * 
+     * @param enabled If the variables may be reordered (default false).
+     */
+    public void setAutoReorder(boolean enabled) {
+        autoReorder = enabled;
+    }
+
+    /**
+     * Check if a node is still in the node table, i.e., it has not been freed.
+     * 
+     * @param ndd The ndd node.
+     * @return If the node is alive.
+     */
+    public boolean isLive(NDD ndd) {
+        return ndd.getRefCount() >= 0;
+    }
+
+    /**
+     * Declare a new field. All fields share one unique table, whose keys include the field.
      */
-    // declare a new node table for a new field
     public void declareField() {
-        nodeTable.add(new HashMap<>());
     }
 
     /**
@@ -148,40 +240,44 @@ public class NodeTable {
      * @return The ndd node.
      */
     // create or reuse a new node
-    public NDD mk(int field, Map<NDD, Long> edges) {
-        if (edges.isEmpty()) {
+    public NDD mk(int field, EdgeList edges) {
+        if (edges.size() == 0) {
             // Since NDD omits all edges pointing to FALSE, the empty edge represents FALSE.
             return NDD.getFalse();
-        } else if (edges.size() == 1 && edges.values().iterator().next() == 1) {
+        } else if (edges.size() == 1 && edges.getLabel(0) == JSylvan.getTrue()) {
             // Omit nodes with the only edge labeled by BDD TRUE.
-            return edges.keySet().iterator().next();
+            return edges.getChild(0);
         } else {
-            NDD node = nodeTable.get(field).get(edges);
+            edges.sortByChild();
+            int hash = edges.structuralHash(field);
+            NDD node = find(field, edges, hash);
             if (node == null) {
                 // create a new node
                 // 1. add ref count of all descendants
-                for (NDD descendant : edges.keySet()) {
-                    if (!descendant.isTerminal()) {
-                        referenceCount.put(descendant, referenceCount.get(descendant) + 1);
+                for (int i = 0; i < edges.size(); i++) {
+                    NDD descendant = edges.getChild(i);
+                    if (!descendant.isTerminal() && descendant.getRefCount() != FIXED) {
+                        descendant.setRefCount(descendant.getRefCount() + 1);
                     }
                 }
 
                 // 2. check if there should be a gc or grow
-                if (currentSize >= nddTableSize) {
+                if (currentSize >= gcThreshold || bddCollected) {
                     gcOrGrow();
                 }
 
-                // 3. create node
-                NDD newNode = new NDD(field, edges);
-                nodeTable.get(field).put(edges, newNode);
-                referenceCount.put(newNode, 0);
+                // 3. create node, which is unreferenced until it is ref'ed or becomes a descendant
+                NDD newNode = new NDD(nextId++, field, edges.toChildren(), edges.toLabels());
+                if ((currentSize + deletedSlots + 1) * 2 > nodes.length) {
+                    rehash((currentSize + 1) * 2 > nodes.length ? nodes.length * 2 : nodes.length);
+                }
+                insert(newNode);
                 currentSize++;
+                enqueue(newNode);
                 return newNode;
             } else {
                 // reuse node
-                for (Long bdd : edges.values()) {
-                    JSylvan.deref(bdd);
-                }
+                edges.derefLabels();
                 return node;
             }
         }
@@ -189,55 +285,86 @@ public class NodeTable {
 
     /**
      * Free unused ndd node, first by garbage collection, then by growing the node
-     * table.
+     * table. Operation caches are kept, their entries of freed nodes are dropped on lookup.
      */
     private void gcOrGrow() {
-        gc();
-        if (nddTableSize - currentSize <= nddTableSize * QUICK_GROW_THRESHOLD) {
-            grow();
+        if (gc(pauseBudget)) {
+            while (nddTableSize - currentSize <= nddTableSize * QUICK_GROW_THRESHOLD) {
+                grow();
+            }
+            gcThreshold = nddTableSize;
+            // the ndd code refs every bdd it holds, so reordering bdd variables is as safe here as a Sylvan gc
+            if (autoReorder) {
+                JSylvan.maybeReorder();
+            }
+        } else {
+            // continue the collection after a little more allocation
+            gcThreshold = currentSize + Math.max(1, (long) (nddTableSize * SLICE_ALLOCATION));
         }
-        NDD.clearCaches();
     }
 
     /**
-     * Garbage collection.
+     * Garbage collection, which frees the unreferenced nodes in zeroRefNodes and the
+     * descendants only reachable from them.
+     * 
+     * @param budget The max time in nanoseconds, 0 for no limit.
+     * @return If all the garbage is freed, false if the budget ran out first.
      */
-    private void gc() {
+    private boolean gc(long budget) {
+        long deadline = System.nanoTime() + budget;
+        bddCollected = false;
         // protect temporary nodes during NDD operations
-        for (NDD ndd : NDD.getTemporarilyProtect()) {
+        for (NDD ndd : manager.getTemporarilyProtect()) {
             ref(ndd);
         }
 
-        // remove unused nodes by topological sorting
-        Queue<NDD> deadNodesQueue = new LinkedList<>();
-        for (Map.Entry<NDD, Integer> entry : referenceCount.entrySet()) {
-            if (entry.getValue() == 0) {
-                deadNodesQueue.offer(entry.getKey());
-            }
-        }
-        while (!deadNodesQueue.isEmpty()) {
-            NDD deadNode = deadNodesQueue.poll();
-            for (NDD descendant : deadNode.getEdges().keySet()) {
-                if (descendant.isTerminal())
-                    continue;
-                int newReferenceCount = referenceCount.get(descendant) - 1;
-                referenceCount.put(descendant, newReferenceCount);
-                if (newReferenceCount == 0) {
-                    deadNodesQueue.offer(descendant);
-                }
+        // remove unused nodes in topological order, checking the clock every 64 nodes
+        int steps = 0;
+        while (!zeroRefNodes.isEmpty()) {
+            if (budget > 0 && (++steps & 63) == 0 && System.nanoTime() >= deadline) {
+                break;
             }
-            // delete current dead node
-            for (long bddLabel : deadNode.getEdges().values()) {
-                JSylvan.deref(bddLabel);
+            NDD deadNode = zeroRefNodes.poll();
+            deadNode.setQueued(false);
+            // skip nodes that are revived, fixed or already freed
+            if (deadNode.getRefCount() == 0) {
+                free(deadNode);
             }
-            referenceCount.remove(deadNode);
-            nodeTable.get(deadNode.getField()).remove(deadNode.getEdges());
-            currentSize--;
         }
+        boolean finished = zeroRefNodes.isEmpty();
 
-        for (NDD ndd : NDD.getTemporarilyProtect()) {
+        for (NDD ndd : manager.getTemporarilyProtect()) {
             deref(ndd);
         }
+        return finished;
+    }
+
+    /**
+     * Free an unreferenced node, queueing the descendants that become unreferenced.
+     * 
+     * @param deadNode The ndd node.
+     */
+    private void free(NDD deadNode) {
+        for (int i = 0; i < deadNode.edgeCount(); i++) {
+            deref(deadNode.getChild(i));
+            Labels.deref(deadNode.getLabel(i));
+        }
+        remove(deadNode);
+        deadNode.setRefCount(-1);
+        manager.evict(deadNode);
+        currentSize--;
+    }
+
+    /**
+     * Queue a node whose reference count dropped to 0, unless it is queued already.
+     * 
+     * @param ndd The ndd node.
+     */
+    private void enqueue(NDD ndd) {
+        if (!ndd.isQueued()) {
+            ndd.setQueued(true);
+            zeroRefNodes.offer(ndd);
+        }
     }
 
     /**
@@ -254,8 +381,8 @@ public class NodeTable {
      * @return The ndd node.
      */
     public NDD ref(NDD ndd) {
-        if (!ndd.isTerminal() && referenceCount.get(ndd) != Integer.MAX_VALUE) {
-            referenceCount.put(ndd, referenceCount.get(ndd) + 1);
+        if (!ndd.isTerminal() && ndd.getRefCount() != FIXED) {
+            ndd.setRefCount(ndd.getRefCount() + 1);
         }
         return ndd;
     }
@@ -266,7 +393,7 @@ public class NodeTable {
      * @param ndd
      */
     public void fixNDDNodeRefCount(NDD ndd) {
-        referenceCount.put(ndd, Integer.MAX_VALUE);
+        ndd.setRefCount(FIXED);
     }
 
     /**
@@ -276,8 +403,112 @@ public class NodeTable {
      * @param ndd The ndd node to be unprotected.
      */
     public void deref(NDD ndd) {
-        if (!ndd.isTerminal() && referenceCount.get(ndd) != Integer.MAX_VALUE) {
-            referenceCount.put(ndd, referenceCount.get(ndd) - 1);
+        if (!ndd.isTerminal() && ndd.getRefCount() != FIXED) {
+            int refCount = ndd.getRefCount() - 1;
+            ndd.setRefCount(refCount);
+            if (refCount == 0) {
+                enqueue(ndd);
+            }
+        }
+    }
+
+    /**
+     * Find the node with the given field and sorted edges.
+     * 
+     * @param field The field of the node.
+     * @param edges The edges, sorted by descendant.
+     * @param hash  The structural hash of the node.
+     * @return The node, or null if there is none.
+     */
+    private NDD find(int field, EdgeList edges, int hash) {
+        int mask = nodes.length - 1;
+        for (int slot = slotOf(hash, mask); nodes[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && nodes[slot].getField() == field && edges.sameEdges(nodes[slot])) {
+                return nodes[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Insert a node that is not in the table yet.
+     * 
+     * @param node The ndd node.
+     */
+    private void insert(NDD node) {
+        int hash = node.hashCode();
+        int mask = nodes.length - 1;
+        int slot = slotOf(hash, mask);
+        while (nodes[slot] != null && nodes[slot] != DELETED) {
+            slot = (slot + 1) & mask;
+        }
+        if (nodes[slot] == DELETED) {
+            deletedSlots--;
+        }
+        nodes[slot] = node;
+        hashes[slot] = hash;
+    }
+
+    /**
+     * Remove a freed node from the table. Its slot is emptied if it ends a probe sequence,
+     * otherwise marked DELETED.
+     * 
+     * @param node The ndd node.
+     */
+    private void remove(NDD node) {
+        int mask = nodes.length - 1;
+        int slot = slotOf(node.hashCode(), mask);
+        while (nodes[slot] != node) {
+            slot = (slot + 1) & mask;
+        }
+        if (nodes[(slot + 1) & mask] == null) {
+            nodes[slot] = null;
+        } else {
+            nodes[slot] = DELETED;
+            deletedSlots++;
+        }
+    }
+
+    /**
+     * Rebuild the table with the given number of slots, dropping the DELETED marks.
+     * 
+     * @param capacity The number of slots, a power of 2.
+     */
+    private void rehash(int capacity) {
+        NDD[] oldNodes = nodes;
+        nodes = new NDD[capacity];
+        hashes = new int[capacity];
+        deletedSlots = 0;
+        for (NDD node : oldNodes) {
+            if (node != null && node != DELETED) {
+                insert(node);
+            }
+        }
+    }
+
+    private static int slotOf(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Sets bddCollected after each Sylvan garbage collection. The node table is only weakly
+     * reachable from the listener, which unregisters itself once the table is dropped.
+     */
+    private static class BDDCollectedFlag implements GCListener {
+        private final WeakReference<NodeTable> table;
+
+        BDDCollectedFlag(NodeTable table) {
+            this.table = new WeakReference<>(table);
+        }
+
+        @Override
+        public void gcFinished() {
+            NodeTable nodeTable = table.get();
+            if (nodeTable == null) {
+                JSylvan.removeGCListener(this);
+            } else {
+                nodeTable.bddCollected = true;
+            }
         }
     }
 }
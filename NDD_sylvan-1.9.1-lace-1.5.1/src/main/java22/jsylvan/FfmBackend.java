@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * The hot operations of JSylvan through the Foreign Function & Memory API (Java 22),
+ * calling the plain C entry points jsylvan_* of libsylvan-java without JNI transitions.
+ *
+ * The library is found through the class loader, which loaded it in JSylvan.init().
+ * Node access, negation and ref/deref are critical downcalls: they neither block nor
+ * reach a garbage collection, whose hooks call back into Java. All other operations are
+ * plain downcalls, since they run on the Lace workers and may collect.
+ * Run with --enable-native-access=ALL-UNNAMED to silence the warning of the JVM.
+ */
+final class FfmBackend implements Backend
+{
+    private static final MethodHandle MAKE_VAR = downcall("jsylvan_make_var", FunctionDescriptor.of(JAVA_LONG, JAVA_INT), false);
+    private static final MethodHandle MAKE_NOT = downcall("jsylvan_make_not", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG), true);
+    private static final MethodHandle MAKE_AND = downcall("jsylvan_make_and", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_OR = downcall("jsylvan_make_or", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_IMPLIES = downcall("jsylvan_make_implies", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_ITE = downcall("jsylvan_make_ite", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_EQUALS = downcall("jsylvan_make_equals", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_NOT_EQUALS = downcall("jsylvan_make_not_equals", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_EXISTS = downcall("jsylvan_make_exists", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_FORALL = downcall("jsylvan_make_forall", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_AND_EXISTS = downcall("jsylvan_make_and_exists", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_NEXT = downcall("jsylvan_make_next", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle MAKE_PREV = downcall("jsylvan_make_prev", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle REF = downcall("jsylvan_ref", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG), true);
+    private static final MethodHandle DEREF = downcall("jsylvan_deref", FunctionDescriptor.ofVoid(JAVA_LONG), true);
+    private static final MethodHandle GET_VAR = downcall("jsylvan_get_var", FunctionDescriptor.of(JAVA_INT, JAVA_LONG), true);
+    private static final MethodHandle GET_THEN = downcall("jsylvan_get_then", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG), true);
+    private static final MethodHandle GET_ELSE = downcall("jsylvan_get_else", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG), true);
+    private static final MethodHandle SATCOUNT = downcall("jsylvan_satcount", FunctionDescriptor.of(JAVA_DOUBLE, JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle NODECOUNT = downcall("jsylvan_nodecount", FunctionDescriptor.of(JAVA_LONG, JAVA_LONG), false);
+    private static final MethodHandle FOLD_PAR = downcall("jsylvan_fold_par",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_INT, JAVA_LONG), false);
+    private static final MethodHandle MAKE_REF = downcall("jsylvan_make_ref",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, JAVA_LONG, JAVA_LONG, JAVA_LONG), false);
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, boolean critical)
+    {
+        MemorySegment symbol = SymbolLookup.loaderLookup().find(name)
+                .orElseThrow(() -> new UnsatisfiedLinkError("libsylvan-java has no " + name));
+        Linker.Option[] options = critical ? new Linker.Option[] { Linker.Option.critical(false) } : new Linker.Option[0];
+        return Linker.nativeLinker().downcallHandle(symbol, descriptor, options);
+    }
+
+    @Override
+    public long makeVar(int a)
+    {
+        try {
+            return (long) MAKE_VAR.invokeExact(a);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeNot(long a)
+    {
+        try {
+            return (long) MAKE_NOT.invokeExact(a);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeAnd(long a, long b)
+    {
+        try {
+            return (long) MAKE_AND.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeOr(long a, long b)
+    {
+        try {
+            return (long) MAKE_OR.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeImplies(long a, long b)
+    {
+        try {
+            return (long) MAKE_IMPLIES.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeIte(long a, long b, long c)
+    {
+        try {
+            return (long) MAKE_ITE.invokeExact(a, b, c);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeEquals(long a, long b)
+    {
+        try {
+            return (long) MAKE_EQUALS.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeNotEquals(long a, long b)
+    {
+        try {
+            return (long) MAKE_NOT_EQUALS.invokeExact(a, b);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeExists(long a, long variables)
+    {
+        try {
+            return (long) MAKE_EXISTS.invokeExact(a, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeForall(long a, long variables)
+    {
+        try {
+            return (long) MAKE_FORALL.invokeExact(a, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeAndExists(long a, long b, long variables)
+    {
+        try {
+            return (long) MAKE_AND_EXISTS.invokeExact(a, b, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makeNext(long a, long b, long variables)
+    {
+        try {
+            return (long) MAKE_NEXT.invokeExact(a, b, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long makePrev(long a, long b, long variables)
+    {
+        try {
+            return (long) MAKE_PREV.invokeExact(a, b, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long ref(long bdd)
+    {
+        try {
+            return (long) REF.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void deref(long bdd)
+    {
+        try {
+            DEREF.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public int getVar(long bdd)
+    {
+        try {
+            return (int) GET_VAR.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long getThen(long bdd)
+    {
+        try {
+            return (long) GET_THEN.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long getElse(long bdd)
+    {
+        try {
+            return (long) GET_ELSE.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public double satcount(long bdd, long variables)
+    {
+        try {
+            return (double) SATCOUNT.invokeExact(bdd, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long nodecount(long bdd)
+    {
+        try {
+            return (long) NODECOUNT.invokeExact(bdd);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The array is copied to native memory, as a fold may collect garbage, which is not
+     * allowed while a critical downcall accesses the Java heap.
+     */
+    @Override
+    public long foldPar(int op, long[] bdds, long variables)
+    {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocateFrom(JAVA_LONG, bdds);
+            return (long) FOLD_PAR.invokeExact(op, segment, bdds.length, variables);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The native library can not throw without the JNI environment, so a bad opcode is
+     * rejected here, as JSylvan.applyRef would.
+     */
+    @Override
+    public long applyRef(int op, long a, long b)
+    {
+        if (op < JSylvan.OP_AND || op >= JSylvan.OP_DEREF) throw new IllegalArgumentException("unknown opcode");
+        return makeRef(op, a, b, JSylvan.getFalse());
+    }
+
+    @Override
+    public long makeVarRef(int a)
+    {
+        return makeRef(JSylvan.OP_VAR, a, JSylvan.getFalse(), JSylvan.getFalse());
+    }
+
+    @Override
+    public long makeIteRef(long a, long b, long c)
+    {
+        return makeRef(JSylvan.OP_ITE, a, b, c);
+    }
+
+    @Override
+    public long makeAndExistsRef(long a, long b, long variables)
+    {
+        return makeRef(JSylvan.OP_AND_EXISTS, a, b, variables);
+    }
+
+    @Override
+    public long composeRef(long bdd, long map)
+    {
+        return makeRef(JSylvan.OP_COMPOSE, bdd, map, JSylvan.getFalse());
+    }
+
+    @Override
+    public long mapAddRef(long map, int key, long value)
+    {
+        return makeRef(JSylvan.OP_MAP_ADD, map, key, value);
+    }
+
+    private static long makeRef(int op, long a, long b, long c)
+    {
+        try {
+            return (long) MAKE_REF.invokeExact(op, a, b, c);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * A flag to stop bounded operations from another thread, see OperationLimit.
+ *
+ * Cancelling stops the bounded Sylvan operation running under the token, if any, and every
+ * later check of a limit that holds the token. A token cannot be reset.
+ */
+public class CancellationToken
+{
+    private volatile boolean cancelled = false;
+
+    /**
+     * Cancel the operations under this token. Any thread may call this.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        JSylvan.cancel(this);
+    }
+
+    /**
+     * Check if cancel() was called.
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * The hot operations through the JNI natives of JSylvan, the backend on JVMs without the
+ * Foreign Function & Memory API.
+ */
+final class JniBackend implements Backend
+{
+    @Override
+    public long makeVar(int a)
+    {
+        return JSylvan.makeVar(a);
+    }
+
+    @Override
+    public long makeNot(long a)
+    {
+        return JSylvan.makeNot(a);
+    }
+
+    @Override
+    public long makeAnd(long a, long b)
+    {
+        return JSylvan.makeAnd(a, b);
+    }
+
+    @Override
+    public long makeOr(long a, long b)
+    {
+        return JSylvan.makeOr(a, b);
+    }
+
+    @Override
+    public long makeImplies(long a, long b)
+    {
+        return JSylvan.makeImplies(a, b);
+    }
+
+    @Override
+    public long makeIte(long a, long b, long c)
+    {
+        return JSylvan.makeIte(a, b, c);
+    }
+
+    @Override
+    public long makeEquals(long a, long b)
+    {
+        return JSylvan.makeEquals(a, b);
+    }
+
+    @Override
+    public long makeNotEquals(long a, long b)
+    {
+        return JSylvan.makeNotEquals(a, b);
+    }
+
+    @Override
+    public long makeExists(long a, long variables)
+    {
+        return JSylvan.makeExists(a, variables);
+    }
+
+    @Override
+    public long makeForall(long a, long variables)
+    {
+        return JSylvan.makeForall(a, variables);
+    }
+
+    @Override
+    public long makeAndExists(long a, long b, long variables)
+    {
+        return JSylvan.makeAndExists(a, b, variables);
+    }
+
+    @Override
+    public long makeNext(long a, long b, long variables)
+    {
+        return JSylvan.makeNext(a, b, variables);
+    }
+
+    @Override
+    public long makePrev(long a, long b, long variables)
+    {
+        return JSylvan.makePrev(a, b, variables);
+    }
+
+    @Override
+    public long ref(long bdd)
+    {
+        return JSylvan.ref(bdd);
+    }
+
+    @Override
+    public void deref(long bdd)
+    {
+        JSylvan.deref(bdd);
+    }
+
+    @Override
+    public int getVar(long bdd)
+    {
+        return JSylvan.getVar(bdd);
+    }
+
+    @Override
+    public long getThen(long bdd)
+    {
+        return JSylvan.getThen(bdd);
+    }
+
+    @Override
+    public long getElse(long bdd)
+    {
+        return JSylvan.getElse(bdd);
+    }
+
+    @Override
+    public double satcount(long bdd, long variables)
+    {
+        return JSylvan.satcount(bdd, variables);
+    }
+
+    @Override
+    public long nodecount(long bdd)
+    {
+        return JSylvan.nodecount(bdd);
+    }
+
+    @Override
+    public long foldPar(int op, long[] bdds, long variables)
+    {
+        return JSylvan.makeFoldPar0(op, bdds, variables);
+    }
+
+    @Override
+    public long applyRef(int op, long a, long b)
+    {
+        return JSylvan.applyRef(op, a, b);
+    }
+
+    @Override
+    public long makeVarRef(int a)
+    {
+        return JSylvan.makeVarRef(a);
+    }
+
+    @Override
+    public long makeIteRef(long a, long b, long c)
+    {
+        return JSylvan.makeIteRef(a, b, c);
+    }
+
+    @Override
+    public long makeAndExistsRef(long a, long b, long variables)
+    {
+        return JSylvan.makeAndExistsRef(a, b, variables);
+    }
+
+    @Override
+    public long composeRef(long bdd, long map)
+    {
+        return JSylvan.composeRef(bdd, map);
+    }
+
+    @Override
+    public long mapAddRef(long map, int key, long value)
+    {
+        return JSylvan.mapAddRef(map, key, value);
+    }
+}
@@ -0,0 +1,357 @@
+/**
+ * Lazy enumeration of the paths of an NDD to TRUE, each as the label of every field, like
+ * NDD.toArray() but in memory bounded by the number of fields. Splitting hands out the
+ * top-level edges not visited yet, so the paths can feed a parallel stream.
+ * @author Zechun Li & Yichi Zhang - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jndd.diagram;
+
+import jdd.bdd.BDD;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+final class PathSpliterator implements Spliterator<int[]> {
+    /**
+     * The root of the enumeration.
+     */
+    private final NDD root;
+
+    /**
+     * The bdd engine of the labels.
+     */
+    private final BDD bddEngine;
+
+    /**
+     * The largest field index.
+     */
+    private final int fieldNum;
+
+    /**
+     * If each label is expanded into the cubes of its bdd.
+     */
+    private final boolean cubes;
+
+    /**
+     * The nodes on the current path, the root frame at the bottom.
+     */
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+
+    /**
+     * The edges of the root, shared by the splits.
+     */
+    private final NDD[] rootChildren;
+
+    private final int[] rootLabels;
+
+    /**
+     * The frame of the root, which owns the range of top-level edges to visit.
+     */
+    private final Frame rootFrame;
+
+    /**
+     * The label of each field on the current path, copied for every path yielded.
+     */
+    private final int[] vec;
+
+    /**
+     * If the root is TRUE and its single path is not yielded yet.
+     */
+    private boolean pendingTrue;
+
+    /**
+     * Construct the enumeration of the paths of a node.
+     * @param bddEngine The bdd engine of the labels.
+     * @param root The node.
+     * @param fieldNum The largest field index.
+     * @param cubes If each label is expanded into the cubes of its bdd.
+     */
+    PathSpliterator(BDD bddEngine, NDD root, int fieldNum, boolean cubes) {
+        this.bddEngine = bddEngine;
+        this.root = root;
+        this.fieldNum = fieldNum;
+        this.cubes = cubes;
+        vec = new int[fieldNum + 1];
+        pendingTrue = root.isTrue();
+        if (root.isTerminal()) {
+            rootChildren = null;
+            rootLabels = null;
+            rootFrame = null;
+        } else {
+            rootChildren = new NDD[root.edges.size()];
+            rootLabels = new int[root.edges.size()];
+            copyEdges(root, rootChildren, rootLabels);
+            rootFrame = start(0, rootChildren.length);
+        }
+    }
+
+    /**
+     * Construct the enumeration of the paths of a split through a range of the root edges.
+     * @param split The enumeration split.
+     * @param from The first edge, inclusive.
+     * @param to The last edge, exclusive.
+     */
+    private PathSpliterator(PathSpliterator split, int from, int to) {
+        bddEngine = split.bddEngine;
+        root = split.root;
+        fieldNum = split.fieldNum;
+        cubes = split.cubes;
+        vec = new int[fieldNum + 1];
+        pendingTrue = false;
+        rootChildren = split.rootChildren;
+        rootLabels = split.rootLabels;
+        rootFrame = start(from, to);
+    }
+
+    private Frame start(int from, int to) {
+        for (int i = 0; i < root.field; i++) {
+            vec[i] = 1;
+        }
+        Frame frame = new Frame(root, rootChildren, rootLabels, from, to);
+        stack.push(frame);
+        return frame;
+    }
+
+    private static void copyEdges(NDD node, NDD[] children, int[] labels) {
+        int i = 0;
+        for (Map.Entry<NDD, Integer> entry : node.edges.entrySet()) {
+            children[i] = entry.getKey();
+            labels[i++] = entry.getValue();
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super int[]> action) {
+        if (pendingTrue) {
+            pendingTrue = false;
+            for (int i = 0; i <= fieldNum; i++) {
+                vec[i] = 1;
+            }
+            action.accept(vec.clone());
+            return true;
+        }
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (!nextLabel(top)) {
+                stack.pop();
+                continue;
+            }
+            NDD child = top.children[top.edge];
+            int below = child.isTerminal() ? fieldNum + 1 : child.field;
+            for (int i = top.node.field + 1; i < below; i++) {
+                vec[i] = 1;
+            }
+            if (child.isTrue()) {
+                action.accept(cubes ? buildCubes() : vec.clone());
+                return true;
+            } else if (!child.isFalse()) {
+                NDD[] children = new NDD[child.edges.size()];
+                int[] labels = new int[children.length];
+                copyEdges(child, children, labels);
+                stack.push(new Frame(child, children, labels, 0, children.length));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move a frame to its next label, the next cube of the current edge when cubes are
+     * expanded, otherwise the next edge.
+     * @param frame The frame.
+     * @return If there is a next label.
+     */
+    private boolean nextLabel(Frame frame) {
+        if (cubes && frame.cubes != null && frame.cubes.next()) {
+            return true;
+        }
+        if (++frame.edge >= frame.to) {
+            return false;
+        }
+        int label = frame.labels[frame.edge];
+        vec[frame.node.field] = label;
+        if (cubes) {
+            frame.cubes = new Cubes(bddEngine, label);
+            // a label is never FALSE, so it has at least one cube
+            frame.cubes.next();
+        }
+        return true;
+    }
+
+    /**
+     * Build the cubes of the current path. The fields without a node on the path get TRUE.
+     * @return The cube of each field, not ref'ed.
+     */
+    private int[] buildCubes() {
+        int[] result = new int[fieldNum + 1];
+        Arrays.fill(result, 1);
+        // each cube is ref'ed while the next ones are built, then all are released
+        for (Frame frame : stack) {
+            result[frame.node.field] = frame.cubes.build();
+        }
+        for (Frame frame : stack) {
+            bddEngine.deref(result[frame.node.field]);
+        }
+        return result;
+    }
+
+    /**
+     * Split off the second half of the top-level edges not visited yet. The enumeration
+     * of cubes creates bdd nodes, which must not happen on several threads, so it is never
+     * split.
+     */
+    @Override
+    public Spliterator<int[]> trySplit() {
+        if (cubes || rootFrame == null || stack.isEmpty()) {
+            return null;
+        }
+        int unvisited = rootFrame.to - rootFrame.edge - 1;
+        if (unvisited < 2) {
+            return null;
+        }
+        int mid = rootFrame.to - unvisited / 2;
+        PathSpliterator rest = new PathSpliterator(this, mid, rootFrame.to);
+        rootFrame.to = mid;
+        return rest;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * A node on the current path and the edge taken from it.
+     */
+    private static final class Frame {
+        final NDD node;
+
+        /**
+         * The edges of the node, copied out of its map.
+         */
+        final NDD[] children;
+
+        final int[] labels;
+
+        /**
+         * The edge taken, starting before the first edge of the range.
+         */
+        int edge;
+
+        /**
+         * The end of the range of edges, exclusive.
+         */
+        int to;
+
+        /**
+         * The cubes of the label of the edge taken, only used when cubes are expanded.
+         */
+        Cubes cubes;
+
+        Frame(NDD node, NDD[] children, int[] labels, int from, int to) {
+            this.node = node;
+            this.children = children;
+            this.labels = labels;
+            this.edge = from - 1;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Depth-first enumeration of the paths to TRUE of a bdd, each a cube. The path is kept
+     * as the nodes passed and the branch taken at each, no bdd node is created until
+     * build().
+     */
+    private static final class Cubes {
+        private final BDD bddEngine;
+
+        private final int bdd;
+
+        private int[] nodes = new int[16];
+
+        private boolean[] high = new boolean[16];
+
+        /**
+         * The length of the current path, -1 before the first one.
+         */
+        private int depth = -1;
+
+        Cubes(BDD bddEngine, int bdd) {
+            this.bddEngine = bddEngine;
+            this.bdd = bdd;
+        }
+
+        /**
+         * Move to the next path to TRUE, low branches first.
+         * @return If there is a next path.
+         */
+        boolean next() {
+            int n;
+            if (depth < 0) {
+                depth = 0;
+                n = bdd;
+            } else if (backtrack()) {
+                n = bddEngine.getHigh(nodes[depth - 1]);
+            } else {
+                return false;
+            }
+            while (true) {
+                while (n > 1) {
+                    if (depth == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, depth * 2);
+                        high = Arrays.copyOf(high, depth * 2);
+                    }
+                    nodes[depth] = n;
+                    high[depth++] = false;
+                    n = bddEngine.getLow(n);
+                }
+                if (n == 1) {
+                    return true;
+                }
+                if (!backtrack()) {
+                    return false;
+                }
+                n = bddEngine.getHigh(nodes[depth - 1]);
+            }
+        }
+
+        /**
+         * Drop the nodes whose high branch is taken from the end of the path, and take the
+         * high branch of the last remaining one.
+         * @return If there is such a node.
+         */
+        private boolean backtrack() {
+            while (depth > 0 && high[depth - 1]) {
+                depth--;
+            }
+            if (depth == 0) {
+                return false;
+            }
+            high[depth - 1] = true;
+            return true;
+        }
+
+        /**
+         * Build the cube of the current path.
+         * @return The cube, ref'ed.
+         */
+        int build() {
+            int cube = 1;
+            for (int i = depth - 1; i >= 0; i--) {
+                int var = bddEngine.getVar(nodes[i]);
+                int next = bddEngine.ref(high[i] ? bddEngine.mk(var, 0, cube) : bddEngine.mk(var, cube, 0));
+                bddEngine.deref(cube);
+                cube = next;
+            }
+            return cube;
+        }
+    }
+}
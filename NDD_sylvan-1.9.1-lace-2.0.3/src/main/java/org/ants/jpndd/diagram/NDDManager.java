@@ -0,0 +1,1966 @@
+/**
+ * An independent NDD engine, which owns the node table, the operation caches and the
+ * field layout. The static API of NDD works on a default manager created by NDD.initNDD().
+ * Managers share nothing but Sylvan, so independent managers can live on different threads,
+ * each registered to JSylvan (see JSylvan.registerThread), and run their operations at once:
+ * every bdd a manager makes goes through Labels, which refs it before an operation of another
+ * thread can collect it. A manager itself is not thread safe, and nodes of different managers
+ * must not be mixed.
+ * @author Zechun Li - XJTU ANTS NetVerify Lab
+ * @version 1.0
+ */
+package org.ants.jpndd.diagram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+
+import org.ants.jpndd.cache.OperationCache;
+import org.ants.jpndd.nodetable.NodeTable;
+import org.ants.jpndd.utils.DecomposeBDD;
+import org.ants.jpndd.utils.Labels;
+
+import javafx.util.Pair;
+import jsylvan.JSylvan;
+import jsylvan.OperationAbortedException;
+import jsylvan.OperationLimit;
+import jsylvan.RootSet;
+
+public class NDDManager {
+    /**
+     * The default size of each operation cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /**
+     * The default associativity of each operation cache.
+     */
+    public static final int DEFAULT_CACHE_WAYS = 2;
+
+    private final static boolean DEBUG_MODEL = false;
+
+    /**
+     * The terminal node TRUE, shared by all managers.
+     */
+    private final static NDD TRUE = NDD.getTrue();
+
+    /**
+     * The terminal node FALSE, shared by all managers.
+     */
+    private final static NDD FALSE = NDD.getFalse();
+
+    /**
+     * The ndd node table.
+     */
+    private final NodeTable nodeTable;
+
+    /**
+     * The number of fields.
+     */
+    private int fieldNum;
+
+    /**
+     * The max id of bits for each field.
+     */
+    private final ArrayList<Integer> maxVariablePerField;
+
+    /**
+     * The decomposer of bdds into per field bdds, following maxVariablePerField.
+     */
+    private final DecomposeBDD decomposer;
+
+    /**
+     * The set of bdd variables of each field, used by operation of satCount.
+     */
+    private final ArrayList<Long> bddCubePerField;
+
+    /**
+     * The number of solutions of each node over the fields from its own field on,
+     * cached across satCount calls until the next garbage collection.
+     */
+    private final HashMap<NDD, Double> satCountCache;
+
+    /**
+     * The ref'ed bdd of each converted node. Only kept across toBDD calls with keepToBDDResults,
+     * until the node is freed, as the refs keep the bdds from Sylvan garbage collections.
+     */
+    private final HashMap<NDD, Long> toBDDCache;
+
+    /**
+     * If toBDDCache is kept across toBDD calls.
+     */
+    private boolean keepToBDDResults;
+
+    /**
+     * The op stream and results of the label intersections of one node pair, reused by all
+     * pairs and grown as needed.
+     */
+    private LongBuffer batchOps;
+    private LongBuffer batchResults;
+
+    /**
+     * The bdd variables, their negations and the cubes of all fields, protected as long as the manager.
+     */
+    private final RootSet bddRoots;
+
+    /**
+     * All bdd variables.
+     */
+    private final ArrayList<long[]> bddVarsPerField;
+
+    /**
+     * The negation of each ndd variable.
+     */
+    private final ArrayList<long[]> bddNotVarsPerField;
+
+    /**
+     * All ndd variables.
+     */
+    private final ArrayList<NDD[]> nddVarsPerField;
+
+    /**
+     * The negation of each ndd variable.
+     */
+    private final ArrayList<NDD[]> nddNotVarsPerField;
+
+    /**
+     * Temporary ndd nodes during a logical operation, which should be protected
+     * during garbage collection.
+     */
+    private final HashSet<NDD> temporarilyProtect;
+
+    /**
+     * The limit of the running bounded operation, null if the operation is unbounded.
+     */
+    private OperationLimit limit;
+
+    /**
+     * The cache of operation NOT.
+     */
+    private final OperationCache<NDD> notCache;
+    /**
+     * The cache of operation AND.
+     */
+    private final OperationCache<NDD> andCache;
+    /**
+     * The cache of operation OR.
+     */
+    private final OperationCache<NDD> orCache;
+    /**
+     * The cache of operation DIFF, where (a, b) and (b, a) differ.
+     */
+    private final OperationCache<NDD> diffCache;
+    /**
+     * The cache of operation IMP, where (a, b) and (b, a) differ.
+     */
+    private final OperationCache<NDD> impCache;
+    /**
+     * The cache of existential quantification, keyed by the node and the field.
+     */
+    private final OperationCache<NDD> existCache;
+    /**
+     * The cache of operation ITE, keyed by the three operands in order.
+     */
+    private final OperationCache<NDD> iteCache;
+    /**
+     * The cache of existential quantification of a set of fields, keyed by the node and the set.
+     */
+    private final OperationCache<NDD> existFieldsCache;
+    /**
+     * The cache of the fused AND and existential quantification, keyed by the nodes and the set of fields.
+     */
+    private final OperationCache<NDD> andExistCache;
+    /**
+     * The sets of fields quantified so far, each with a small id for the caches.
+     */
+    private final HashMap<BitSet, FieldSet> fieldSets;
+    /**
+     * The cache of field replacement, keyed by the node and the pair of fields.
+     */
+    private final OperationCache<NDD> replaceCache;
+
+    /**
+     * The slots in bddRoots of the bdd maps of compose that move the variables of one field
+     * to another, keyed by the pair of fields. The maps name variables by their levels, so
+     * they are rebuilt after a reordering.
+     */
+    private final HashMap<Integer, Integer> fieldMaps;
+    private long fieldMapsReorderCount;
+
+    /**
+     * Create an NDD manager with default operation caches.
+     * Sylvan is initialized by the first manager, later managers share it.
+     * 
+     * @param nddTableSize    The max size of ndd node table of this manager.
+     * @param bddTableSize    The max size of bdd node table.
+     * @param bddCacheSize    The max size of bdd operation cache.
+     * @param sylvanMaxMemory Maximum bytes for the Sylvan tables, used by the first manager only.
+     */
+    public NDDManager(int nddTableSize, int bddTableSize, int bddCacheSize, long sylvanMaxMemory) {
+        this(nddTableSize, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_WAYS, bddTableSize, bddCacheSize, sylvanMaxMemory);
+    }
+
+    /**
+     * Create an NDD manager.
+     * Sylvan is initialized by the first manager, later managers share it.
+     * 
+     * @param nddTableSize    The max size of ndd node table of this manager.
+     * @param nddCacheSize    The size of each ndd operation cache.
+     * @param cacheWays       The associativity of each ndd operation cache, 1 for direct-mapped caches.
+     * @param bddTableSize    The max size of bdd node table.
+     * @param bddCacheSize    The max size of bdd operation cache.
+     * @param sylvanMaxMemory Maximum bytes for the Sylvan tables, used by the first manager only.
+     */
+    public NDDManager(int nddTableSize, int nddCacheSize, int cacheWays, int bddTableSize, int bddCacheSize, long sylvanMaxMemory) {
+        nodeTable = new NodeTable(this, nddTableSize, bddTableSize, bddCacheSize, sylvanMaxMemory);
+        fieldNum = -1;
+        maxVariablePerField = new ArrayList<>();
+        decomposer = new DecomposeBDD(maxVariablePerField);
+        bddCubePerField = new ArrayList<>();
+        bddRoots = new RootSet(64);
+        satCountCache = new HashMap<>();
+        toBDDCache = new HashMap<>();
+        bddVarsPerField = new ArrayList<>();
+        bddNotVarsPerField = new ArrayList<>();
+        nddVarsPerField = new ArrayList<>();
+        nddNotVarsPerField = new ArrayList<>();
+        temporarilyProtect = new HashSet<>();
+        notCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        andCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        orCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        diffCache = new OperationCache<>(nddCacheSize, 3, cacheWays, false, nodeTable::isLive);
+        impCache = new OperationCache<>(nddCacheSize, 3, cacheWays, false, nodeTable::isLive);
+        existCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        iteCache = new OperationCache<>(nddCacheSize, 4, cacheWays, false, nodeTable::isLive);
+        existFieldsCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        andExistCache = new OperationCache<>(nddCacheSize, 3, cacheWays, true, nodeTable::isLive);
+        fieldSets = new HashMap<>();
+        replaceCache = new OperationCache<>(nddCacheSize, 2, cacheWays, true, nodeTable::isLive);
+        fieldMaps = new HashMap<>();
+    }
+
+    /**
+     * declare a new field of 'bitNum' bits.
+     * 
+     * @param bitNum The number of bits in the field.
+     * @return The id of the field.
+     */
+    public int declareField(int bitNum) {
+        // 1. update the number of fields
+        fieldNum++;
+        // 2. update the boundary of each field
+        if (maxVariablePerField.isEmpty()) {
+            maxVariablePerField.add(bitNum - 1);
+        } else {
+            maxVariablePerField.add(maxVariablePerField.get(maxVariablePerField.size() - 1) + bitNum);
+        }
+        // 3. update the cubes used in satCount operation of NDD, counts over the old fields are stale
+        int totalBitsBefore = 0;
+        if (maxVariablePerField.size() > 1) {
+            totalBitsBefore = maxVariablePerField.get(maxVariablePerField.size() - 2) + 1;
+        }
+        // keep the variables of the field in its own block when Sylvan reorders them, so
+        // each field keeps its range of levels
+        JSylvan.addReorderBoundary(totalBitsBefore + 1);
+        JSylvan.addReorderBoundary(totalBitsBefore + bitNum + 1);
+        int[] variableset = new int[bitNum];
+        for (int i = 0; i < bitNum; i++)
+            variableset[i] = totalBitsBefore + i + 1;
+        long cube = Labels.set(variableset);
+        bddRoots.add(cube);
+        Labels.deref(cube);
+        bddCubePerField.add(cube);
+        satCountCache.clear();
+        // 4. add node table
+        nodeTable.declareField();
+        // 5. declare vars
+        long[] bddVars = new long[bitNum];
+        long[] bddNotVars = new long[bitNum];
+        NDD[] nddVars = new NDD[bitNum];
+        NDD[] nddNotVars = new NDD[bitNum];
+
+        for (int i = 0; i < bitNum; i++) {
+            bddVars[i] = Labels.var(totalBitsBefore + i + 1);
+            bddRoots.add(bddVars[i]);
+            Labels.deref(bddVars[i]);
+            bddNotVars[i] = JSylvan.makeNot(bddVars[i]);
+            bddRoots.add(bddNotVars[i]);
+
+            EdgeList edges = new EdgeList(1);
+            edges.add(TRUE, Labels.ref(bddVars[i]));
+            nddVars[i] = mk(fieldNum, edges);
+            nodeTable.fixNDDNodeRefCount(nddVars[i]);
+
+            edges = new EdgeList(1);
+            edges.add(TRUE, Labels.ref(bddNotVars[i]));
+            nddNotVars[i] = mk(fieldNum, edges);
+            nodeTable.fixNDDNodeRefCount(nddNotVars[i]);
+        }
+        bddVarsPerField.add(bddVars);
+        bddNotVarsPerField.add(bddNotVars);
+        nddVarsPerField.add(nddVars);
+        nddNotVarsPerField.add(nddNotVars);
+        return fieldNum;
+    }
+
+    public int getFieldNum() {
+        return fieldNum;
+    }
+
+    /**
+     * Get the ndd variable of a specific bit.
+     * 
+     * @param field The id of the field.
+     * @param index The id of the bit in the field.
+     * @return The ndd variable.
+     */
+    public NDD getVar(int field, int index) {
+        return nddVarsPerField.get(field)[index];
+    }
+    
+    /**
+     * Get the negation the variable for a specific bit.
+     * 
+     * @param field The id of the field.
+     * @param index The id of the bit in the field.
+     * @return The negation of the ndd variable.
+     */
+    public NDD getNotVar(int field, int index) {
+        return nddNotVarsPerField.get(field)[index];
+    }
+
+    public long[] getBDDVars(int field) {
+        return bddVarsPerField.get(field);
+    }
+
+    public long[] getNotBDDVars(int field) {
+        return bddNotVarsPerField.get(field);
+    }
+
+    /**
+     * Clear all the caches. Garbage collections keep them, dropping the entries of freed nodes.
+     */
+    public void clearCaches() {
+        notCache.clearCache();
+        andCache.clearCache();
+        orCache.clearCache();
+        diffCache.clearCache();
+        impCache.clearCache();
+        existCache.clearCache();
+        iteCache.clearCache();
+        existFieldsCache.clearCache();
+        andExistCache.clearCache();
+        replaceCache.clearCache();
+        satCountCache.clear();
+        clearToBDDCache();
+    }
+
+    /**
+     * Deref and drop all the converted bdds.
+     */
+    private void clearToBDDCache() {
+        for (long bdd : toBDDCache.values()) {
+            Labels.deref(bdd);
+        }
+        toBDDCache.clear();
+    }
+
+    /**
+     * Keep the bdds of the nodes converted by toBDD and toBDDPar across calls, until the nodes
+     * are freed or the caches are cleared. Each kept bdd stays ref'ed meanwhile, so Sylvan can
+     * not collect it. Off by default: the converted bdds are only shared within one call.
+     * 
+     * @param keep If the converted bdds are kept (default false).
+     */
+    public void setKeepToBDDResults(boolean keep) {
+        keepToBDDResults = keep;
+        if (!keep) {
+            clearToBDDCache();
+        }
+    }
+
+    /**
+     * Drop the per-node caches of a node, invoked by the node table when the node is freed.
+     * The operation caches check their results on lookup instead.
+     * 
+     * @param ndd The freed ndd node.
+     */
+    public void evict(NDD ndd) {
+        satCountCache.remove(ndd);
+        Long bdd = toBDDCache.remove(ndd);
+        if (bdd != null) {
+            Labels.deref(bdd);
+        }
+    }
+
+    /**
+     * Set the max pause of one garbage collection of the node table. Unreferenced nodes are
+     * queued when their reference count drops to 0, so a collection only visits the garbage.
+     * With a budget, a collection stops when it runs out of time and resumes after a few more
+     * nodes are created, letting the table exceed its size meanwhile.
+     * 
+     * @param millis The budget in milliseconds, 0 for freeing all garbage at once (default).
+     */
+    public void setGCPauseBudget(long millis) {
+        nodeTable.setPauseBudget(millis);
+    }
+
+    /**
+     * Let the garbage collection of the node table reorder the bdd variables, each field
+     * in its own block, once the Sylvan table reaches the threshold of
+     * JSylvan.setAutoReorder(long). Off by default, as reordering is only built with
+     * Sylvan 1.9 and later.
+     * 
+     * @param enabled If the variables may be reordered (default false).
+     */
+    public void setAutoReorder(boolean enabled) {
+        nodeTable.setAutoReorder(enabled);
+    }
+
+    /**
+     * Protect a root node from garbage collection.
+     * 
+     * @param ndd The root to be protected.
+     * @return The ndd node.
+     */
+    public NDD ref(NDD ndd) {
+        return nodeTable.ref(ndd);
+    }
+
+    /**
+     * Unprotect a root node, such that the node can be cleared during garbage
+     * collection.
+     * 
+     * @param ndd The ndd node to be unprotected.
+     */
+    public void deref(NDD ndd) {
+        nodeTable.deref(ndd);
+    }
+
+    /**
+     * Get all the temporary nodes.
+     * 
+     * @return All the temporary nodes.
+     */
+    public HashSet<NDD> getTemporarilyProtect() {
+        return temporarilyProtect;
+    }
+
+    /**
+     * The logical operation AND, which automatically ref the result and deref the
+     * first operand.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD andTo(NDD a, NDD b) {
+        NDD result = ref(and(a, b));
+        deref(a);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long bBDD = Labels.ref(toBDD(b));
+            long resultBDD = Labels.and(aBDD, bBDD);
+            Labels.deref(aBDD);
+            Labels.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation and: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The logical operation OR, which automatically ref the result and deref the
+     * first operand.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD orTo(NDD a, NDD b) {
+        NDD result = ref(or(a, b));
+        deref(a);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long bBDD = Labels.ref(toBDD(b));
+            long resultBDD = Labels.or(aBDD, bBDD);
+            Labels.deref(aBDD);
+            Labels.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation or: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The logical operation AND.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD and(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        NDD result = andRec(a, b);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long bBDD = Labels.ref(toBDD(b));
+            long resultBDD = Labels.and(aBDD, bBDD);
+            Labels.deref(aBDD);
+            Labels.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation and: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The logical operation AND, within the resources of a limit. Every node made by the
+     * operation, ndd nodes and bdd nodes of the labels, counts towards the node budget.
+     * When a limit is hit, the temporary nodes and labels are released for the next
+     * garbage collection. The labels are computed in one bounded session of JSylvan, so
+     * other bounded operations wait until this one is done.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @param limit The resources the operation may use.
+     * @return The result of the logical operation.
+     * @throws OperationAbortedException If a limit was hit.
+     */
+    public NDD and(NDD a, NDD b, OperationLimit limit) {
+        temporarilyProtect.clear();
+        this.limit = limit;
+        try {
+            return JSylvan.bounded(limit, () -> andRec(a, b));
+        } catch (OperationAbortedException e) {
+            temporarilyProtect.clear();
+            throw e;
+        } finally {
+            this.limit = null;
+        }
+    }
+
+    /**
+     * The recursive implementation of the logical operation AND.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    private NDD andRec(NDD a, NDD b) {
+        // terminal condition
+        if (a.isFalse() || b.isTrue()) {
+            return a;
+        } else if (a.isTrue() || b.isFalse() || a == b) {
+            return b;
+        }
+
+        // check the cache
+        if (andCache.getEntry(a, b))
+            return andCache.result;
+        if (limit != null)
+            limit.check();
+
+        EdgeList edges;
+        if (a.field == b.field) {
+
+            edges = new EdgeList(Math.max(a.children.length, b.children.length));
+            // without a limit, all the labels are intersected in one batch
+            long[] intersects = limit == null ? intersectAll(a.labels, b.labels) : null;
+            // the label whose edge is being computed, released with edges on an abort
+            long pending = JSylvan.getFalse();
+            try {
+                for (int i = 0; i < a.children.length; i++) {
+                    for (int j = 0; j < b.children.length; j++) {
+                        // the bdd label on the new edge
+                        long intersect = intersects != null ? intersects[i * b.children.length + j]
+                                : Labels.and(a.labels[i], b.labels[j], limit);
+                        if (intersect != JSylvan.getFalse()) {
+                            pending = intersect;
+                            // the descendant of the new edge
+                            NDD subResult = andRec(a.children[i], b.children[j]);
+                            pending = JSylvan.getFalse();
+                            // try to merge edges
+                            edges.add(subResult, intersect);
+                        }
+                    }
+                }
+            } catch (OperationAbortedException e) {
+                Labels.deref(pending);
+                edges.derefLabels();
+                throw e;
+            }
+        } else {
+            if (a.field > b.field) {
+                NDD t = a;
+                a = b;
+                b = t;
+            }
+            edges = new EdgeList(a.children.length);
+            try {
+                for (int i = 0; i < a.children.length; i++) {
+                    /*
+                     * if A branches on a higher field than B,
+                     * we can let A operate with a pseudo node
+                     * with only edge labelled by true and pointing to B
+                     */
+                    NDD subResult = andRec(a.children[i], b);
+                    edges.add(subResult, Labels.ref(a.labels[i]));
+                }
+            } catch (OperationAbortedException e) {
+                edges.derefLabels();
+                throw e;
+            }
+        }
+        // try to create or reuse node
+        NDD result = mk(a.field, edges);
+        // protect the node during the operation
+        temporarilyProtect.add(result);
+        // the new node is unreferenced, so it is collected if the budget is exceeded
+        if (limit != null)
+            limit.addNodes(1);
+        // store the result into cache
+        andCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * The logical operation OR.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    public NDD or(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        NDD result = orRec(a, b);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long bBDD = Labels.ref(toBDD(b));
+            long resultBDD = Labels.or(aBDD, bBDD);
+            Labels.deref(aBDD);
+            Labels.deref(bBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation or: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the logical operation OR.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical operation.
+     */
+    private NDD orRec(NDD a, NDD b) {
+        // terminal condition
+        if (a.isTrue() || b.isFalse()) {
+            return a;
+        } else if (a.isFalse() || b.isTrue() || a == b) {
+            return b;
+        }
+
+        // check the cache
+        if (orCache.getEntry(a, b))
+            return orCache.result;
+
+        EdgeList edges;
+        if (a.field == b.field) {
+            edges = new EdgeList(a.children.length + b.children.length);
+            // record edges of each node, which will 'or' with the edge pointing to FALSE of
+            // another node
+            long[] residualA = a.labels.clone();
+            long[] residualB = b.labels.clone();
+            for (long oneBDD : residualA) {
+                Labels.ref(oneBDD);
+            }
+            for (long oneBDD : residualB) {
+                Labels.ref(oneBDD);
+            }
+            long[] intersects = intersectAll(a.labels, b.labels);
+
+            for (int i = 0; i < a.children.length; i++) {
+                for (int j = 0; j < b.children.length; j++) {
+                    // the bdd label on the new edge
+                    long intersect = intersects[i * b.children.length + j];
+                    if (intersect != JSylvan.getFalse()) {
+                        // update residual
+                        long notIntersect = Labels.not(intersect);
+                        long oldResidual = residualA[i];
+                        residualA[i] = Labels.and(oldResidual, notIntersect);
+                        Labels.deref(oldResidual);
+                        oldResidual = residualB[j];
+                        residualB[j] = Labels.and(oldResidual, notIntersect);
+                        Labels.deref(oldResidual);
+                        Labels.deref(notIntersect);
+                        // the descendant of the new edge
+                        NDD subResult = orRec(a.children[i], b.children[j]);
+                        // try to merge edges
+                        edges.add(subResult, intersect);
+                    }
+                }
+            }
+            /*
+             * Each residual of A doesn't match with any explicit edge of B,
+             * and will match with the edge pointing to FALSE of B, which is omitted.
+             * The situation is the same for B.
+             */
+            for (int i = 0; i < residualA.length; i++) {
+                edges.add(a.children[i], residualA[i]);
+            }
+            for (int j = 0; j < residualB.length; j++) {
+                edges.add(b.children[j], residualB[j]);
+            }
+        } else {
+            if (a.field > b.field) {
+                NDD t = a;
+                a = b;
+                b = t;
+            }
+            edges = new EdgeList(a.children.length + 1);
+            long residualB = JSylvan.getTrue();
+
+            for (int i = 0; i < a.children.length; i++) {
+                /*
+                 * if A branches on a higher field than B,
+                 * we can let A operate with a pseudo node
+                 * with only edge labelled by true and pointing to B
+                 */
+                long notIntersect = Labels.not(a.labels[i]);
+                long temp = residualB;
+                residualB = Labels.and(residualB, notIntersect);
+                Labels.deref(temp);
+                Labels.deref(notIntersect);
+                NDD subResult = orRec(a.children[i], b);
+                edges.add(subResult, Labels.ref(a.labels[i]));
+            }
+            edges.add(b, residualB);
+        }
+        // try to create or reuse node
+        NDD result = mk(a.field, edges);
+        // protect the node during the operation
+        temporarilyProtect.add(result);
+        // store the result into cache
+        orCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * Intersect each label of one node with each label of another in a single batch.
+     * The results are copied out, as the recursion reuses the batch buffers.
+     * 
+     * @param aLabels The labels of the first node.
+     * @param bLabels The labels of the second node.
+     * @return The ref'ed intersection of aLabels[i] and bLabels[j] at i * bLabels.length + j.
+     */
+    private long[] intersectAll(long[] aLabels, long[] bLabels) {
+        int count = aLabels.length * bLabels.length;
+        if (batchResults == null || batchResults.capacity() < count) {
+            int capacity = Math.max(count, 64);
+            batchOps = Labels.allocate(capacity * 3);
+            batchResults = Labels.allocate(capacity);
+        }
+        int k = 0;
+        for (long aLabel : aLabels) {
+            for (long bLabel : bLabels) {
+                batchOps.put(k++, JSylvan.OP_AND);
+                batchOps.put(k++, aLabel);
+                batchOps.put(k++, bLabel);
+            }
+        }
+        Labels.batch(batchOps, count, batchResults);
+        long[] intersects = new long[count];
+        for (int i = 0; i < count; i++) {
+            intersects[i] = batchResults.get(i);
+        }
+        return intersects;
+    }
+
+    /**
+     * The logical operation NOT.
+     * 
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    public NDD not(NDD a) {
+        temporarilyProtect.clear();
+        NDD result = notRec(a);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long resultBDD = Labels.not(aBDD);
+            Labels.deref(aBDD);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation not: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the logical operation NOT.
+     * 
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    private NDD notRec(NDD a) {
+        if (a.isTrue()) {
+            return FALSE;
+        } else if (a.isFalse()) {
+            return TRUE;
+        }
+
+        if (notCache.getEntry(a))
+            return notCache.result;
+
+        EdgeList edges = new EdgeList(a.children.length + 1);
+        long residual = JSylvan.getTrue();
+        for (int i = 0; i < a.children.length; i++) {
+            long notIntersect = Labels.not(a.labels[i]);
+            long temp = residual;
+            residual = Labels.and(residual, notIntersect);
+            Labels.deref(temp);
+            Labels.deref(notIntersect);
+            NDD subResult = notRec(a.children[i]);
+            edges.add(subResult, Labels.ref(a.labels[i]));
+        }
+        edges.add(TRUE, residual);
+        NDD result = mk(a.field, edges);
+        temporarilyProtect.add(result);
+        notCache.setEntry(a, result);
+        return result;
+    }
+
+    // a / b <==> a ∩ (not b)
+    /**
+     * The logical operation DIFF, which is equivalent to a AND (NOT b).
+     * 
+     * @param a The operand.
+     * @return The result of the logical operation.
+     */
+    public NDD diff(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        if (diffCache.getEntry(a, b))
+            return diffCache.result;
+        NDD n = notRec(b);
+        temporarilyProtect.add(n);
+        NDD result = andRec(a, n);
+        diffCache.setEntry(a, b, result);
+        if (DEBUG_MODEL) {
+            long aBDD = Labels.ref(toBDD(a));
+            long bBDD = Labels.ref(toBDD(b));
+            long t = Labels.not(bBDD);
+            Labels.deref(bBDD);
+            long resultBDD = Labels.and(aBDD, t);
+            Labels.deref(aBDD);
+            Labels.deref(t);
+            if (resultBDD != toBDD(result)) {
+                System.out.println("Operation diff: result wrong!");
+            }
+            Labels.deref(resultBDD);
+        }
+        return result;
+    }
+
+    /**
+     * The existential quantification.
+     * 
+     * @param a     The operand.
+     * @param field The field to run an existential quantification.
+     * @return The result.
+     */
+    public NDD exist(NDD a, int field) {
+        temporarilyProtect.clear();
+        return existRec(a, field);
+    }
+
+    /**
+     * The recursive implementation of existential quantification.
+     * 
+     * @param a     The operand.
+     * @param field The field to run an existential quantification.
+     * @return The result.
+     */
+    private NDD existRec(NDD a, int field) {
+        if (a.isTerminal() || a.field > field) {
+            return a;
+        }
+        if (existCache.getEntry(a, field))
+            return existCache.result;
+
+        NDD result = FALSE;
+        if (a.field == field) {
+            for (NDD next : a.children) {
+                result = orRec(result, next);
+            }
+        } else {
+            EdgeList edges = new EdgeList(a.children.length);
+            for (int i = 0; i < a.children.length; i++) {
+                NDD subResult = existRec(a.children[i], field);
+                edges.add(subResult, Labels.ref(a.labels[i]));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        existCache.setEntry(a, field, result);
+        return result;
+    }
+
+    /**
+     * The existential quantification of several fields in one pass.
+     * 
+     * @param a      The operand.
+     * @param fields The fields to quantify.
+     * @return The result.
+     */
+    public NDD exist(NDD a, BitSet fields) {
+        FieldSet set = fieldSet(fields);
+        temporarilyProtect.clear();
+        return existFields(a, set);
+    }
+
+    /**
+     * The projection onto some fields, i.e., the existential quantification of all others.
+     * 
+     * @param a    The operand.
+     * @param keep The fields to keep.
+     * @return The result.
+     */
+    public NDD project(NDD a, BitSet keep) {
+        BitSet fields = new BitSet();
+        fields.set(0, fieldNum + 1);
+        fields.andNot(keep);
+        return exist(a, fields);
+    }
+
+    /**
+     * The logical operation IF f THEN g ELSE h, i.e., (f AND g) OR (NOT f AND h), in one
+     * recursion.
+     * 
+     * @param f The condition.
+     * @param g The result where f holds.
+     * @param h The result where f does not hold.
+     * @return The result of the logical operation.
+     */
+    public NDD ite(NDD f, NDD g, NDD h) {
+        temporarilyProtect.clear();
+        return iteRec(f, g, h);
+    }
+
+    /**
+     * The recursive implementation of the logical operation ITE.
+     * 
+     * @param f The condition.
+     * @param g The result where f holds.
+     * @param h The result where f does not hold.
+     * @return The result of the logical operation.
+     */
+    private NDD iteRec(NDD f, NDD g, NDD h) {
+        // terminal condition
+        if (f.isTrue() || g == h) {
+            return g;
+        } else if (f.isFalse()) {
+            return h;
+        } else if (g.isTrue() || f == g) {
+            return orRec(f, h);
+        } else if (h.isFalse() || f == h) {
+            return andRec(f, g);
+        } else if (g.isFalse()) {
+            NDD n = notRec(f);
+            temporarilyProtect.add(n);
+            return andRec(n, h);
+        } else if (h.isTrue()) {
+            NDD n = notRec(f);
+            temporarilyProtect.add(n);
+            return orRec(n, g);
+        }
+
+        // check the cache
+        if (iteCache.getEntry(f, g, h))
+            return iteCache.result;
+
+        // all three operands are non-terminal here, split them on the top field
+        int field = Math.min(f.field, Math.min(g.field, h.field));
+        Pair<NDD[], long[]> fEdges = cofactors(f, field);
+        Pair<NDD[], long[]> gEdges = cofactors(g, field);
+        Pair<NDD[], long[]> hEdges = cofactors(h, field);
+        long[] fLabels = fEdges.getValue(), gLabels = gEdges.getValue(), hLabels = hEdges.getValue();
+        EdgeList edges = new EdgeList(Math.max(fLabels.length, Math.max(gLabels.length, hLabels.length)));
+        for (int i = 0; i < fLabels.length; i++) {
+            for (int j = 0; j < gLabels.length; j++) {
+                long fg = Labels.and(fLabels[i], gLabels[j]);
+                if (fg == JSylvan.getFalse()) {
+                    continue;
+                }
+                for (int k = 0; k < hLabels.length; k++) {
+                    long label = Labels.and(fg, hLabels[k]);
+                    if (label != JSylvan.getFalse()) {
+                        NDD subResult = iteRec(fEdges.getKey()[i], gEdges.getKey()[j], hEdges.getKey()[k]);
+                        edges.add(subResult, label);
+                    }
+                }
+                Labels.deref(fg);
+            }
+        }
+        for (long[] labels : Arrays.asList(fLabels, gLabels, hLabels)) {
+            for (long label : labels) {
+                Labels.deref(label);
+            }
+        }
+        NDD result = mk(field, edges);
+        temporarilyProtect.add(result);
+        iteCache.setEntry(f, g, h, result);
+        return result;
+    }
+
+    /**
+     * Get the edges of a node as seen from a field at or above it. A node on the field
+     * has its own edges, plus an edge to FALSE labelled by the rest of the field, which the
+     * node omits. A node below the field has a single edge labelled by TRUE.
+     * 
+     * @param n     The node.
+     * @param field The field.
+     * @return The descendants and their labels, which are ref'ed.
+     */
+    private Pair<NDD[], long[]> cofactors(NDD n, int field) {
+        if (n.isTerminal() || n.field != field) {
+            return new Pair<>(new NDD[] { n }, new long[] { JSylvan.getTrue() });
+        }
+        long covered = JSylvan.getFalse();
+        for (long label : n.labels) {
+            long t = Labels.or(covered, label);
+            Labels.deref(covered);
+            covered = t;
+        }
+        long rest = Labels.not(covered);
+        Labels.deref(covered);
+        int size = n.children.length + (rest == JSylvan.getFalse() ? 0 : 1);
+        NDD[] children = Arrays.copyOf(n.children, size);
+        long[] labels = new long[size];
+        for (int i = 0; i < n.labels.length; i++) {
+            labels[i] = Labels.ref(n.labels[i]);
+        }
+        if (size > n.children.length) {
+            children[size - 1] = FALSE;
+            labels[size - 1] = rest;
+        }
+        return new Pair<>(children, labels);
+    }
+
+    /**
+     * The conjunction of any number of operands, TRUE if there are none. The operands are
+     * joined in a balanced tree of pairs, the smallest first, which creates far fewer
+     * intermediate nodes than a chain of and().
+     * 
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public NDD andAll(Collection<NDD> operands) {
+        temporarilyProtect.clear();
+        return reduce(operands, true);
+    }
+
+    /**
+     * The union of any number of operands, FALSE if there are none, see andAll().
+     * 
+     * @param operands The operands.
+     * @return The result of the logical operation.
+     */
+    public NDD orAll(Collection<NDD> operands) {
+        temporarilyProtect.clear();
+        return reduce(operands, false);
+    }
+
+    /**
+     * The implementation of andAll() and orAll().
+     * 
+     * @param operands    The operands.
+     * @param conjunction If the operands are joined by AND, otherwise by OR.
+     * @return The result.
+     */
+    private NDD reduce(Collection<NDD> operands, boolean conjunction) {
+        NDD identity = conjunction ? TRUE : FALSE;
+        NDD absorbing = conjunction ? FALSE : TRUE;
+        // drop the identity and duplicates, and stop at the absorbing element
+        HashSet<NDD> seen = new HashSet<>();
+        ArrayList<NDD> terms = new ArrayList<>(operands.size());
+        for (NDD operand : operands) {
+            if (operand == absorbing) {
+                return absorbing;
+            }
+            if (operand != identity && seen.add(operand)) {
+                terms.add(operand);
+            }
+        }
+        HashMap<NDD, Integer> sizes = new HashMap<>();
+        for (NDD term : terms) {
+            sizes.put(term, size(term));
+        }
+        terms.sort(Comparator.comparingInt(sizes::get));
+        return balanced(terms.toArray(new NDD[0]), terms.size(), conjunction);
+    }
+
+    /**
+     * The number of non-terminal nodes reachable from a node.
+     * 
+     * @param root The node.
+     * @return The number of nodes.
+     */
+    private int size(NDD root) {
+        HashSet<NDD> visited = new HashSet<>();
+        ArrayDeque<NDD> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NDD n = stack.pop();
+            if (n.isTerminal() || !visited.add(n)) {
+                continue;
+            }
+            for (NDD next : n.children) {
+                stack.push(next);
+            }
+        }
+        return visited.size();
+    }
+
+    /**
+     * The fused AND and existential quantification, exist fields . a and b, also known as
+     * the relational product. The conjunction is never built: the descendants at the
+     * quantified fields are joined by OR as they are computed.
+     * 
+     * @param a      The first operand.
+     * @param b      The second operand.
+     * @param fields The fields to quantify.
+     * @return The result.
+     */
+    public NDD andExist(NDD a, NDD b, int[] fields) {
+        FieldSet set = fieldSet(fields);
+        temporarilyProtect.clear();
+        return andExistRec(a, b, set);
+    }
+
+    /**
+     * The recursive implementation of the fused AND and existential quantification.
+     * 
+     * @param a   The first operand.
+     * @param b   The second operand.
+     * @param set The fields to quantify.
+     * @return The result.
+     */
+    private NDD andExistRec(NDD a, NDD b, FieldSet set) {
+        // terminal condition
+        if (a.isFalse() || b.isFalse()) {
+            return FALSE;
+        } else if (a.isTrue() || a == b) {
+            return existFields(b, set);
+        } else if (b.isTrue()) {
+            return existFields(a, set);
+        }
+        if (a.field > b.field) {
+            NDD t = a;
+            a = b;
+            b = t;
+        }
+        // no quantified field below, so it is a plain AND
+        if (a.field > set.last) {
+            return andRec(a, b);
+        }
+
+        // check the cache
+        if (andExistCache.getEntry(a, b, set.id))
+            return andExistCache.result;
+
+        NDD result;
+        boolean quantified = set.fields.get(a.field);
+        if (a.field == b.field) {
+            if (quantified) {
+                // only whether the labels intersect matters, which makeAndExists tells without building the intersection
+                long cube = bddCubePerField.get(a.field);
+                result = FALSE;
+                for (int i = 0; i < a.children.length && !result.isTrue(); i++) {
+                    for (int j = 0; j < b.children.length && !result.isTrue(); j++) {
+                        long witness = Labels.andExists(a.labels[i], b.labels[j], cube);
+                        Labels.deref(witness);
+                        if (witness != JSylvan.getFalse()) {
+                            result = orRec(result, andExistRec(a.children[i], b.children[j], set));
+                            temporarilyProtect.add(result);
+                        }
+                    }
+                }
+            } else {
+                EdgeList edges = new EdgeList(Math.max(a.children.length, b.children.length));
+                for (int i = 0; i < a.children.length; i++) {
+                    for (int j = 0; j < b.children.length; j++) {
+                        long intersect = Labels.and(a.labels[i], b.labels[j]);
+                        if (intersect != JSylvan.getFalse()) {
+                            edges.add(andExistRec(a.children[i], b.children[j], set), intersect);
+                        }
+                    }
+                }
+                result = mk(a.field, edges);
+            }
+        } else if (quantified) {
+            // every label of a is satisfiable, so all descendants count
+            result = FALSE;
+            for (int i = 0; i < a.children.length && !result.isTrue(); i++) {
+                result = orRec(result, andExistRec(a.children[i], b, set));
+                temporarilyProtect.add(result);
+            }
+        } else {
+            EdgeList edges = new EdgeList(a.children.length);
+            for (int i = 0; i < a.children.length; i++) {
+                NDD subResult = andExistRec(a.children[i], b, set);
+                edges.add(subResult, Labels.ref(a.labels[i]));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        andExistCache.setEntry(a, b, set.id, result);
+        return result;
+    }
+
+    /**
+     * The recursive implementation of the existential quantification of a set of fields.
+     * 
+     * @param a   The operand.
+     * @param set The fields to quantify.
+     * @return The result.
+     */
+    private NDD existFields(NDD a, FieldSet set) {
+        if (a.isTerminal() || a.field > set.last) {
+            return a;
+        }
+        if (existFieldsCache.getEntry(a, set.id))
+            return existFieldsCache.result;
+
+        NDD result;
+        if (set.fields.get(a.field)) {
+            // the union of the quantified descendants
+            NDD[] terms = new NDD[a.children.length];
+            int count = 0;
+            for (NDD next : a.children) {
+                NDD subResult = existFields(next, set);
+                if (subResult.isTrue()) {
+                    count = 0;
+                    terms[count++] = TRUE;
+                    break;
+                }
+                terms[count++] = subResult;
+            }
+            result = balanced(terms, count, false);
+        } else {
+            EdgeList edges = new EdgeList(a.children.length);
+            for (int i = 0; i < a.children.length; i++) {
+                NDD subResult = existFields(a.children[i], set);
+                edges.add(subResult, Labels.ref(a.labels[i]));
+            }
+            result = mk(a.field, edges);
+        }
+        temporarilyProtect.add(result);
+        existFieldsCache.setEntry(a, set.id, result);
+        return result;
+    }
+
+    /**
+     * The conjunction or union of some nodes, in a balanced tree of pairs, such that the
+     * operands of each step stay small instead of one of them growing with each step.
+     * 
+     * @param terms       The nodes, overwritten with partial results.
+     * @param count       The number of nodes in terms.
+     * @param conjunction If the nodes are joined by AND, otherwise by OR.
+     * @return The result.
+     */
+    private NDD balanced(NDD[] terms, int count, boolean conjunction) {
+        NDD absorbing = conjunction ? FALSE : TRUE;
+        if (count == 0) {
+            return conjunction ? TRUE : FALSE;
+        }
+        while (count > 1) {
+            int half = 0;
+            for (int i = 0; i + 1 < count; i += 2) {
+                NDD step = conjunction ? andRec(terms[i], terms[i + 1]) : orRec(terms[i], terms[i + 1]);
+                if (step == absorbing) {
+                    return step;
+                }
+                temporarilyProtect.add(step);
+                terms[half++] = step;
+            }
+            if (count % 2 == 1) {
+                terms[half++] = terms[count - 1];
+            }
+            count = half;
+        }
+        return terms[0];
+    }
+
+    /**
+     * Get the field set of an array of fields, which is shared by all equal arrays.
+     * 
+     * @param fields The fields, in any order and with duplicates allowed.
+     * @return The field set.
+     */
+    private FieldSet fieldSet(int[] fields) {
+        BitSet bits = new BitSet();
+        for (int field : fields) {
+            if (field < 0) {
+                throw new IllegalArgumentException("no field " + field);
+            }
+            bits.set(field);
+        }
+        return fieldSet(bits);
+    }
+
+    /**
+     * Get the field set of a bit set of fields, which is shared by all equal bit sets.
+     * 
+     * @param fields The fields.
+     * @return The field set.
+     */
+    private FieldSet fieldSet(BitSet fields) {
+        if (fields.length() > fieldNum + 1) {
+            throw new IllegalArgumentException("no field " + (fields.length() - 1));
+        }
+        FieldSet set = fieldSets.get(fields);
+        if (set == null) {
+            // the key is copied, as the caller may change its bit set
+            BitSet bits = (BitSet) fields.clone();
+            set = new FieldSet(fieldSets.size(), bits);
+            fieldSets.put(bits, set);
+        }
+        return set;
+    }
+
+    /**
+     * A set of fields to quantify, with an id that stands for it in the operation caches.
+     */
+    private static final class FieldSet {
+        final int id;
+        final BitSet fields;
+        /**
+         * The highest field in the set, -1 if empty.
+         */
+        final int last;
+
+        FieldSet(int id, BitSet fields) {
+            this.id = id;
+            this.fields = fields;
+            this.last = fields.length() - 1;
+        }
+    }
+
+    /**
+     * Move the predicate on one field to another field of the same width, such as the
+     * rewrite of a header field. The old constraint on toField is dropped and fromField
+     * becomes unconstrained, i.e., the result is (exist toField . a)[fromField := toField].
+     * 
+     * @param a         The operand.
+     * @param fromField The field to move.
+     * @param toField   The field to move it to.
+     * @return The result.
+     */
+    public NDD replaceField(NDD a, int fromField, int toField) {
+        checkPairedFields(new int[] { toField, fromField });
+        temporarilyProtect.clear();
+        if (fromField == toField) {
+            return a;
+        }
+        return replaceRec(existRec(a, toField), fromField, toField);
+    }
+
+    /**
+     * The relational image of a set of states, e.g., the packets leaving a rewrite element.
+     * The relation relates each current field in pairedFields to the next field following
+     * it: pairedFields = {x0, x0', x1, x1', ...}. The image is
+     * (exist x0, x1, ... . states and relation)[x0' := x0, x1' := x1, ...], and fields not
+     * in pairedFields are kept as they are.
+     * 
+     * @param states       The set of states, over the current fields.
+     * @param relation     The relation, over the current and next fields.
+     * @param pairedFields The pairs of current and next fields.
+     * @return The image.
+     */
+    public NDD image(NDD states, NDD relation, int[] pairedFields) {
+        checkPairedFields(pairedFields);
+        temporarilyProtect.clear();
+        int[] currentFields = new int[pairedFields.length / 2];
+        for (int i = 0; i < currentFields.length; i++) {
+            currentFields[i] = pairedFields[2 * i];
+        }
+        NDD result = andExistRec(states, relation, fieldSet(currentFields));
+        for (int i = 0; i < pairedFields.length; i += 2) {
+            result = replaceRec(result, pairedFields[i + 1], pairedFields[i]);
+        }
+        return result;
+    }
+
+    /**
+     * The recursive implementation of field replacement, where toField is unconstrained in a.
+     * 
+     * @param a         The operand.
+     * @param fromField The field to move.
+     * @param toField   The field to move it to.
+     * @return The result.
+     */
+    private NDD replaceRec(NDD a, int fromField, int toField) {
+        if (a.isTerminal() || a.field > fromField) {
+            return a;
+        }
+        int key = fromField << 16 | toField;
+        if (replaceCache.getEntry(a, key))
+            return replaceCache.result;
+
+        NDD result;
+        if (a.field == fromField) {
+            // each edge becomes its descendant and its label moved to toField
+            result = FALSE;
+            for (int i = 0; i < a.children.length; i++) {
+                // the map is fetched for each label, as a garbage collection may reorder the variables
+                long map = fieldMap(fromField, toField);
+                NDD moved = toNDDFunc(Labels.compose(a.labels[i], map), toField);
+                temporarilyProtect.add(moved);
+                result = orRec(result, andRec(a.children[i], moved));
+            }
+        } else if (toField > a.field) {
+            // the moved field stays below this node
+            EdgeList edges = new EdgeList(a.children.length);
+            for (int i = 0; i < a.children.length; i++) {
+                NDD subResult = replaceRec(a.children[i], fromField, toField);
+                edges.add(subResult, Labels.ref(a.labels[i]));
+            }
+            result = mk(a.field, edges);
+        } else {
+            // the moved field goes above this node, so each edge is joined by AND
+            result = FALSE;
+            for (int i = 0; i < a.children.length; i++) {
+                NDD subResult = replaceRec(a.children[i], fromField, toField);
+                NDD edge = toNDDFunc(Labels.ref(a.labels[i]), a.field);
+                temporarilyProtect.add(edge);
+                result = orRec(result, andRec(edge, subResult));
+            }
+        }
+        temporarilyProtect.add(result);
+        replaceCache.setEntry(a, key, result);
+        return result;
+    }
+
+    /**
+     * Get the bdd map of compose that moves each variable of fromField to the variable of
+     * toField at the same bit.
+     */
+    private long fieldMap(int fromField, int toField) {
+        if (fieldMapsReorderCount != JSylvan.getReorderCount()) {
+            for (int slot : fieldMaps.values()) {
+                bddRoots.remove(slot);
+            }
+            fieldMaps.clear();
+            fieldMapsReorderCount = JSylvan.getReorderCount();
+        }
+        int key = fromField << 16 | toField;
+        Integer slot = fieldMaps.get(key);
+        if (slot == null) {
+            long[] from = bddVarsPerField.get(fromField);
+            long[] to = bddVarsPerField.get(toField);
+            slot = bddRoots.add(JSylvan.mapEmpty());
+            for (int i = 0; i < from.length; i++) {
+                // the current level of the variable
+                long map = Labels.mapAdd(bddRoots.get(slot), JSylvan.getVar(from[i]), to[i]);
+                bddRoots.set(slot, map);
+                Labels.deref(map);
+            }
+            fieldMaps.put(key, slot);
+        }
+        return bddRoots.get(slot);
+    }
+
+    /**
+     * Check that pairedFields holds pairs of declared fields of the same width.
+     */
+    private void checkPairedFields(int[] pairedFields) {
+        if (pairedFields.length % 2 != 0) {
+            throw new IllegalArgumentException("fields must come in pairs");
+        }
+        for (int i = 0; i < pairedFields.length; i += 2) {
+            int x = pairedFields[i], y = pairedFields[i + 1];
+            if (x < 0 || x > fieldNum || y < 0 || y > fieldNum) {
+                throw new IllegalArgumentException("no field " + (x < 0 || x > fieldNum ? x : y));
+            }
+            if (bddVarsPerField.get(x).length != bddVarsPerField.get(y).length) {
+                throw new IllegalArgumentException("fields " + x + " and " + y + " differ in width");
+            }
+        }
+    }
+
+    // a => b <==> (not a) ∪ b
+    /**
+     * The logical implication, which is equivalent to (NOT a) OR b.
+     * 
+     * @param a The first operand.
+     * @param b The second operand.
+     * @return The result of the logical implication.
+     */
+    public NDD imp(NDD a, NDD b) {
+        temporarilyProtect.clear();
+        if (impCache.getEntry(a, b))
+            return impCache.result;
+        NDD n = notRec(a);
+        temporarilyProtect.add(n);
+        NDD result = orRec(n, b);
+        impCache.setEntry(a, b, result);
+        return result;
+    }
+
+    /**
+     * The number of solutions encoded in the ndd node.
+     * 
+     * @param ndd The ndd node.
+     * @return The number of solutions.
+     */
+    public double satCount(NDD ndd) {
+        double result = satCountRec(ndd, 0);
+        if (DEBUG_MODEL) {
+            int[] variableset = new int[maxVariablePerField.get(fieldNum) + 1];
+            for (int i = 0; i < variableset.length; i++)
+                variableset[i] = i + 1;
+            long setOfVariables = Labels.set(variableset);
+            long bdd = Labels.ref(toBDD(ndd));
+            if (result != Labels.satcount(bdd, setOfVariables)) {
+                System.out.println("Operation satCount: result wrong!");
+            }
+            Labels.deref(bdd);
+            Labels.deref(setOfVariables);
+        }
+        return result;
+    }
+
+    /**
+     * The number of solutions of a node over the fields from 'field' on, where the fields
+     * skipped before the node are unconstrained.
+     * 
+     * @param curr  Current ndd node.
+     * @param field Current field.
+     * @return The number of solutions.
+     */
+    private double satCountRec(NDD curr, int field) {
+        if (curr.isFalse()) {
+            return 0;
+        } else if (curr.isTrue()) {
+            return Math.pow(2.0, bitsBefore(fieldNum + 1) - bitsBefore(field));
+        }
+        Double result = satCountCache.get(curr);
+        if (result == null) {
+            result = satCountNode(curr);
+        }
+        return Math.pow(2.0, bitsBefore(curr.field) - bitsBefore(field)) * result;
+    }
+
+    /**
+     * The number of solutions of a non-terminal node over the fields from its own field on,
+     * summing the solutions of each label times the solutions of its descendant.
+     * 
+     * @param curr The ndd node.
+     * @return The number of solutions.
+     */
+    private double satCountNode(NDD curr) {
+        long cube = bddCubePerField.get(curr.field);
+        double result = 0;
+        for (int i = 0; i < curr.children.length; i++) {
+            result += Labels.satcount(curr.labels[i], cube) * satCountRec(curr.children[i], curr.field + 1);
+        }
+        satCountCache.put(curr, result);
+        return result;
+    }
+
+    /**
+     * The number of bdd variables of all fields before a field.
+     * 
+     * @param field The field, fieldNum + 1 for all fields.
+     * @return The number of variables.
+     */
+    private int bitsBefore(int field) {
+        return field == 0 ? 0 : maxVariablePerField.get(field - 1) + 1;
+    }
+
+    /**
+     * Encode an NDD of a prefix with no temporary NDD nodes created.
+     * 
+     * @param prefixBinary The binary prefix, e.g., [1, 0, 1, 0] for 10.
+     * @param field        The field of the prefix.
+     * @return An ndd node encoding the prefix.
+     */
+    public NDD encodePrefix(int[] prefixBinary, int field) {
+        if (prefixBinary.length == 0) {
+            return TRUE;
+        }
+
+        long prefixBDD = encodePrefixBDD(prefixBinary, getBDDVars(field), getNotBDDVars(field));
+
+        EdgeList edges = new EdgeList(1);
+        edges.add(TRUE, prefixBDD);
+        return mk(field, edges);
+    }
+
+    public NDD encodePrefixs(ArrayList<int[]> prefixsBinary, int field) {
+        long prefixsBDD = JSylvan.getFalse();
+        for (int[] prefix : prefixsBinary) {
+            long temp = prefixsBDD;
+            long prefixBDD = encodePrefixBDD(prefix, getBDDVars(field), getNotBDDVars(field));
+            prefixsBDD = Labels.or(prefixsBDD, prefixBDD);
+            Labels.deref(temp);
+            Labels.deref(prefixBDD);
+        }
+        EdgeList edges = new EdgeList(1);
+        edges.add(TRUE, prefixsBDD);
+        return mk(field, edges);
+    }
+
+    private long encodePrefixBDD(int[] prefixBinary, long[] vars, long[] notVars) {
+        if (prefixBinary.length == 0) {
+            return JSylvan.getTrue();
+        }
+
+        long prefixBDD = JSylvan.getTrue();
+        for (int i = prefixBinary.length - 1; i >= 0; i--) {
+            long currentBit = prefixBinary[i] == 1 ? vars[i] : notVars[i];
+            if (i == prefixBinary.length - 1) {
+                prefixBDD = Labels.ref(currentBit);
+            } else {
+                long temp = prefixBDD;
+                prefixBDD = Labels.and(prefixBDD, currentBit);
+                Labels.deref(temp);
+            }
+        }
+        return prefixBDD;
+    }
+
+    /**
+     * <field, bdd>, entries in perFieldBDD must follow the order with field asc
+     */
+    public NDD encodeACL(ArrayList<Pair<Integer, Long>> perFieldBDD) {
+        NDD result = TRUE;
+        for (int i = perFieldBDD.size() - 1; i >= 0; i--) {
+            if (perFieldBDD.get(i).getValue() != JSylvan.getTrue()) {
+                EdgeList edges = new EdgeList(1);
+                edges.add(result, perFieldBDD.get(i).getValue());
+                result = mk(perFieldBDD.get(i).getKey(), edges);
+            }
+        }
+        return result;
+    }
+
+    public NDD toNDD(long a, int field) {
+        return toNDDFunc(a, field);
+    }
+
+    private NDD toNDDFunc(long a, int field) {
+        if (a == JSylvan.getTrue()) {
+            return TRUE;
+        } else {
+            EdgeList edges = new EdgeList(1);
+            edges.add(TRUE, a);
+            return mk(field, edges);
+        }
+    }
+
+    public NDD toNDD(long a) {
+        return toNDDFunc(a);
+    }
+
+    private NDD toNDDFunc(long a) {
+        Map<Long, HashMap<Long, Long>> decomposed = decomposer.decompose(a);
+        Map<Long, NDD> converted = new HashMap<>();
+        converted.put(JSylvan.getTrue(), TRUE);
+        while (!decomposed.isEmpty()) {
+            Set<Long> finished = converted.keySet();
+            for (Map.Entry<Long, HashMap<Long, Long>> entry : decomposed.entrySet()) {
+                if (finished.containsAll(entry.getValue().keySet())) {
+                    int field = decomposer.getField(entry.getKey());
+                    EdgeList edges = new EdgeList(entry.getValue().size());
+                    for (Map.Entry<Long, Long> entry1 : entry.getValue().entrySet()) {
+                        edges.add(converted.get(entry1.getKey()), Labels.ref(entry1.getValue()));
+                    }
+                    NDD n = mk(field, edges);
+                    converted.put(entry.getKey(), n);
+                    decomposed.remove(entry.getKey());
+                    break;
+                }
+            }
+        }
+        for (Map<Long, Long> map : decomposed.values()) {
+            for (Long pred : map.values()) {
+                Labels.deref(pred);
+            }
+        }
+        return converted.get(a);
+    }
+
+    public ArrayList<long[]> toArray(NDD curr) {
+        ArrayList<long[]> array = new ArrayList<>();
+        paths(curr, false).forEachRemaining(array::add);
+        return array;
+    }
+
+    /**
+     * Enumerate the paths of an ndd node to TRUE lazily, each as the bdd label of every
+     * field, TRUE for the fields the path skips. With cubes, each label is expanded into the
+     * cubes of its bdd, one path per combination; the cubes are not ref'ed, and only stay
+     * valid until the next bdd operation. The node must stay ref'ed while it is enumerated.
+     * Without cubes, the enumeration can be split for parallel streams, as it only reads
+     * nodes; with cubes, it creates bdd nodes, and is never split.
+     *
+     * @param root  The ndd node.
+     * @param cubes If the labels are expanded into cubes.
+     * @return The paths.
+     */
+    public Spliterator<long[]> paths(NDD root, boolean cubes) {
+        return new PathSpliterator(root, fieldNum, cubes);
+    }
+
+    /**
+     * Convert an ndd node to a bdd over all declared variables. The result is not ref'ed.
+     * 
+     * @param root The ndd node.
+     * @return The bdd node.
+     */
+    public long toBDD(NDD root) {
+        long result = toBDDRec(root);
+        if (!keepToBDDResults) {
+            clearToBDDCache();
+        }
+        Labels.deref(result);
+        return result;
+    }
+
+    /**
+     * The recursive implementation of toBDD, memoized per node in toBDDCache.
+     * 
+     * @param current The current ndd node.
+     * @return The bdd node, ref'ed for the caller.
+     */
+    private long toBDDRec(NDD current) {
+        if (current.isTrue()) {
+            return JSylvan.getTrue();
+        } else if (current.isFalse()) {
+            return JSylvan.getFalse();
+        }
+        Long cached = toBDDCache.get(current);
+        if (cached != null) {
+            return Labels.ref(cached);
+        }
+        for (NDD child : current.children) {
+            Labels.deref(toBDDRec(child));
+        }
+        long result = toBDDNode(current);
+        toBDDCache.put(current, Labels.ref(result));
+        return result;
+    }
+
+    /**
+     * Convert an ndd node to a bdd like toBDD(), converting the nodes of each field in parallel.
+     * Nodes of the same field never depend on each other, so the nodes are converted field by
+     * field from the last one, each field in a single call of JSylvan.makeSumsOfProductsPar,
+     * whose results are ref'ed before any other operation can collect them. Falls back to
+     * toBDD() with a native library that lacks it. The result is not ref'ed.
+     * 
+     * @param root The ndd node.
+     * @return The bdd node.
+     */
+    public long toBDDPar(NDD root) {
+        if (root.isTerminal()) {
+            return root.isTrue() ? JSylvan.getTrue() : JSylvan.getFalse();
+        }
+        // 1. collect the nodes to be converted of each field
+        ArrayList<ArrayList<NDD>> nodesPerField = new ArrayList<>();
+        for (int i = 0; i <= fieldNum; i++) {
+            nodesPerField.add(new ArrayList<>());
+        }
+        HashSet<NDD> visited = new HashSet<>();
+        ArrayDeque<NDD> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NDD current = stack.pop();
+            if (current.isTerminal() || toBDDCache.containsKey(current) || !visited.add(current)) {
+                continue;
+            }
+            nodesPerField.get(current.field).add(current);
+            for (NDD child : current.children) {
+                stack.push(child);
+            }
+        }
+        // 2. convert the nodes field by field, the descendants are always in toBDDCache
+        for (int field = fieldNum; field >= 0; field--) {
+            ArrayList<NDD> nodes = nodesPerField.get(field);
+            if (nodes.isEmpty()) {
+                continue;
+            }
+            int[] offsets = new int[nodes.size() + 1];
+            for (int k = 0; k < nodes.size(); k++) {
+                offsets[k + 1] = offsets[k] + nodes.get(k).children.length;
+            }
+            long[] children = new long[offsets[nodes.size()]];
+            long[] labels = new long[children.length];
+            for (int k = 0; k < nodes.size(); k++) {
+                NDD node = nodes.get(k);
+                for (int i = 0; i < node.children.length; i++) {
+                    NDD child = node.children[i];
+                    children[offsets[k] + i] = child.isTrue() ? JSylvan.getTrue() : toBDDCache.get(child);
+                    labels[offsets[k] + i] = node.labels[i];
+                }
+            }
+            long[] results = new long[nodes.size()];
+            try {
+                JSylvan.makeSumsOfProductsPar(children, labels, offsets, nodes.size(), results);
+            } catch (UnsatisfiedLinkError e) {
+                // native library built before makeSumsOfProductsPar, the fields done so far are cached
+                return toBDD(root);
+            }
+            for (int k = 0; k < nodes.size(); k++) {
+                toBDDCache.put(nodes.get(k), results[k]);
+            }
+        }
+        long result = toBDDCache.get(root);
+        if (!keepToBDDResults) {
+            clearToBDDCache();
+        }
+        return result;
+    }
+
+    /**
+     * Convert a node whose descendants are all converted, i.e., terminals or in toBDDCache.
+     * The terms of all edges are unioned in parallel by Sylvan.
+     * 
+     * @param current The current ndd node.
+     * @return The bdd node, ref'ed for the caller.
+     */
+    private long toBDDNode(NDD current) {
+        long[] childBDDs = new long[current.children.length];
+        for (int i = 0; i < childBDDs.length; i++) {
+            NDD child = current.children[i];
+            childBDDs[i] = child.isTrue() ? JSylvan.getTrue() : toBDDCache.get(child);
+        }
+        return Labels.sumOfProducts(childBDDs, current.labels);
+    }
+
+    public void print(NDD root) {
+        System.out.println("Print " + root + " begin!");
+        printRec(root);
+        System.out.println("Print " + root + " finish!\n");
+    }
+
+    private void printRec(NDD current) {
+        if (current.isTrue())
+            System.out.println("TRUE");
+        else if (current.isFalse())
+            System.out.println("FALSE");
+        else {
+            System.out.println("field:" + current.field + " node:" + current);
+            for (int i = 0; i < current.children.length; i++) {
+                System.out.println("next:" + current.children[i] + " label:" + current.labels[i]);
+            }
+            for (NDD next : current.children) {
+                printRec(next);
+            }
+        }
+    }
+
+    private PrintStream ps = null;
+    private Map<NDD, Boolean> visitedNDD = new HashMap<>();
+    private Map<Long, Boolean> visitedBDD = new HashMap<>();
+
+    public void printDot(String filename, NDD root) {
+        try {
+            ps = new PrintStream(new FileOutputStream(filename));
+            ps.println("digraph NDD {");
+            ps.println("\tinit__ [label=\"init\", style=invis, height=0, width=0];");
+            ps.println("\tinit__ -> " + root + ";");
+
+            printDot_rec(root);
+
+            ps.println("\t" + FALSE + " [shape=box, label=\"FALSE\", style=filled, shape=box, height=0.3, width=0.3];");
+            ps.println("\t" + TRUE + " [shape=box, label=\"TRUE\", style=filled, shape=box, height=0.3, width=0.3];");
+
+            ps.println("}");
+            ps.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void printDot_rec(NDD current) {
+        if (visitedNDD.containsKey(current)) {
+            return;
+        }
+        visitedNDD.put(current, true);
+        if (current.isTerminal()) {
+            return;
+        }
+        ps.println("\t" + current + " [label=\"" + current.field + "\", shape=circle];");
+        for (int i = 0; i < current.children.length; i++) {
+            ps.println("\t" + current + " -> " + current.children[i] + " [label=\"" + current.labels[i] + "\"];");
+            printDot_rec(current.children[i]);
+            printBDDDot(current.labels[i]);
+        }
+    }
+
+    private void printBDDDot(long bdd) {
+        if (bdd == 1 || bdd == 0) {
+            return;
+        }
+        if (visitedBDD.containsKey(bdd)) {
+            return;
+        }
+        visitedBDD.put(bdd, true);
+        JSylvan.printDot(bdd);
+    }
+
+    // create or reuse a new NDD node
+    /**
+     * Create or reuse an NDD node.
+     * Note that, one should ref all bdd labels in edges before invoking mk.
+     * 
+     * @param field The field of the ndd node.
+     * @param edges All the edges of the ndd node.
+     * @return The ndd node.
+     */
+    public NDD mk(int field, EdgeList edges) {
+        return nodeTable.mk(field, edges);
+    }
+
+    /**
+     * Create or reuse an NDD node from a map of edges.
+     * Note that, one should ref all bdd labels in edges before invoking mk.
+     * 
+     * @param field The field of the ndd node.
+     * @param edges All the edges of the ndd node.
+     * @return The ndd node.
+     */
+    public NDD mk(int field, Map<NDD, Long> edges) {
+        EdgeList list = new EdgeList(edges.size());
+        for (Map.Entry<NDD, Long> entry : edges.entrySet()) {
+            list.add(entry.getKey(), entry.getValue());
+        }
+        return nodeTable.mk(field, list);
+    }
+
+    public int nodeCount() {
+        return (int) nodeTable.nodeCount();
+    }
+}
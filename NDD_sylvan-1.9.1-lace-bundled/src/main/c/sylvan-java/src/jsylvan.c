@@ -15,164 +15,208 @@
  */
 
 #include <stdio.h>
+#include <stdint.h>
 #include <stdlib.h>
+#include <string.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <time.h>
 #include <jni.h>
 #include <sylvan.h>
 #include <lace.h>
+#include "lace_worker.h"
+
+/**
+ * Creating a node touches the per-thread region of the unique table, which Sylvan
+ * only resets on Lace workers during garbage collection. Run it as a task so that
+ * callers on arbitrary Java threads never claim a region of their own.
+ */
+TASK_1(BDD, make_var, BDDVAR, var)
+{
+    return sylvan_ithvar(var);
+}
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeVar(JNIEnv *env, jclass cl, jint var)
 {
-    return sylvan_ithvar(var);
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return RUN(make_var, var);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeNot(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_not(bdd);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeAnd(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_and(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeOr(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_or(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeIte(JNIEnv *env, jclass cl, jlong a, jlong b, jlong c)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_ite(a, b, c);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeEquals(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_equiv(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeNotEquals(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_xor(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeExists(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_exists(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeNext(JNIEnv *env, jclass cl, jlong a, jlong b, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_relnext(a, b, variables);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makePrev(JNIEnv *env, jclass cl, jlong a, jlong b, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_relprev(a, b, variables);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeClosure(JNIEnv *env, jclass cl, jlong a)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_closure(a);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeForall(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_forall(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeAndExists(JNIEnv *env, jclass cl, jlong a, jlong b, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_and_exists(a, b, variables);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeProject(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_project(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeAndProject(JNIEnv *env, jclass cl, jlong a, jlong b, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_and_project(a, b, variables);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeConstrain(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_constrain(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeRestrict(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_restrict(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeImplies(JNIEnv *env, jclass cl, jlong a, jlong b)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_imp(a, b);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_makeSupport(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_support(bdd);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_getIf(JNIEnv *env, jclass cl, jlong bdd)
 {
-    return sylvan_ithvar(sylvan_var(bdd));
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return RUN(make_var, sylvan_var(bdd));
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_getThen(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_high(bdd);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_getElse(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_low(bdd);
 }
 
 JNIEXPORT jint JNICALL
 Java_jsylvan_JSylvan_getVar(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_var(bdd);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_ref(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_ref(bdd);
 }
 
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_deref(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_deref(bdd);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_countRefs(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_count_refs();
     (void)env;
     (void)cl;
@@ -181,12 +225,14 @@ Java_jsylvan_JSylvan_countRefs(JNIEnv *env, jclass cl)
 JNIEXPORT jdouble JNICALL
 Java_jsylvan_JSylvan_satcount(JNIEnv *env, jclass cl, jlong bdd, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_satcount(bdd, variables);
 }
 
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_nodecount(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_nodecount(bdd); // note: unsigned/signed mismatch...
 }
 
@@ -201,9 +247,27 @@ Java_jsylvan_JSylvan_initLace(JNIEnv *env, jclass cl, jlong threads, jlong stack
     lace_startup(lace_stacksize, 0, 0);
 }
 
+JNIEXPORT jboolean JNICALL
+Java_jsylvan_JSylvan_registerThread0(JNIEnv *env, jclass cl)
+{
+    // this Lace has no external task queue, only its own workers may run tasks
+    return lace_get_worker() != NULL ? JNI_TRUE : JNI_FALSE;
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jint JNICALL
+Java_jsylvan_JSylvan_getWorkerCount(JNIEnv *env, jclass cl)
+{
+    return (jint)lace_workers();
+    (void)env;
+    (void)cl;
+}
+
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_initPackage(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_init_package();
     (void)env;
     (void)cl;
@@ -212,6 +276,7 @@ Java_jsylvan_JSylvan_initPackage(JNIEnv *env, jclass cl)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_quit(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_quit();
     (void)env;
     (void)cl;
@@ -220,6 +285,7 @@ Java_jsylvan_JSylvan_quit(JNIEnv *env, jclass cl)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_setLimits(JNIEnv *env, jclass cl, jlong memory_cap, jint table_ratio, jint initial_ratio)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_set_limits(memory_cap, table_ratio, initial_ratio);
     (void)env;
     (void)cl;
@@ -228,6 +294,7 @@ Java_jsylvan_JSylvan_setLimits(JNIEnv *env, jclass cl, jlong memory_cap, jint ta
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_setSizes(JNIEnv *env, jclass cl, jlong min_tablesize, jlong max_tablesize, jlong min_cachesize, jlong max_cachesize)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_set_sizes(min_tablesize, max_tablesize, min_cachesize, max_cachesize);
     (void)env;
     (void)cl;
@@ -236,6 +303,7 @@ Java_jsylvan_JSylvan_setSizes(JNIEnv *env, jclass cl, jlong min_tablesize, jlong
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_setGranularity(JNIEnv *env, jclass cl, jint granularity)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_set_granularity(granularity);
     (void)env;
     (void)cl;
@@ -244,7 +312,11 @@ Java_jsylvan_JSylvan_setGranularity(JNIEnv *env, jclass cl, jint granularity)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_initMtbdd(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_init_mtbdd();
+#if JSYLVAN_REORDER
+    sylvan_init_reorder();
+#endif
 
     // the JSylvan java class has static vars one and zero
     jfieldID one_field = (*env)->GetStaticFieldID(env, cl, "one", "J");
@@ -256,14 +328,16 @@ Java_jsylvan_JSylvan_initMtbdd(JNIEnv *env, jclass cl)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_gc(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_gc();
     (void)env;
     (void)cl;
 }
 
 JNIEXPORT jlong JNICALL
-Java_jsylvan_Jsylvan_getTableUsed(JNIEnv *env, jclass cl)
+Java_jsylvan_JSylvan_getTableUsed(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     size_t res;
     sylvan_table_usage(&res, NULL);
     return (long)res;
@@ -272,8 +346,9 @@ Java_jsylvan_Jsylvan_getTableUsed(JNIEnv *env, jclass cl)
 }
 
 JNIEXPORT jlong JNICALL
-Java_jsylvan_Jsylvan_getTableSize(JNIEnv *env, jclass cl)
+Java_jsylvan_JSylvan_getTableSize(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     size_t res;
     sylvan_table_usage(NULL, &res);
     return (long)res;
@@ -281,15 +356,217 @@ Java_jsylvan_Jsylvan_getTableSize(JNIEnv *env, jclass cl)
     (void)cl;
 }
 
+/**
+ * The computed table is internal to Sylvan, its usage is declared in sylvan_cache.h only.
+ */
+size_t cache_getused(void);
+size_t cache_getsize(void);
+
+/**
+ * The operations of SylvanStats.Op, as pairs of Sylvan counters: calls and cache hits.
+ */
+static const int jsylvan_stats_ops[][2] = {
+    {BDD_ITE, BDD_ITE_CACHED},
+    {BDD_AND, BDD_AND_CACHED},
+    {BDD_XOR, BDD_XOR_CACHED},
+    {BDD_EXISTS, BDD_EXISTS_CACHED},
+    {BDD_AND_EXISTS, BDD_AND_EXISTS_CACHED},
+    {BDD_RELNEXT, BDD_RELNEXT_CACHED},
+    {BDD_RELPREV, BDD_RELPREV_CACHED},
+    {BDD_SATCOUNT, BDD_SATCOUNT_CACHED},
+};
+
+#define JSYLVAN_STATS_OPS (sizeof(jsylvan_stats_ops) / sizeof(jsylvan_stats_ops[0]))
+#define JSYLVAN_STATS_LENGTH (9 + 2 * JSYLVAN_STATS_OPS)
+
+/**
+ * Fill the array of SylvanStats. The counters are only filled if Sylvan is built with
+ * SYLVAN_STATS (see CMakeLists.txt), since its stats module counts nothing otherwise.
+ * The snapshot is a Lace task, which this Lace build only runs on its own workers, so
+ * other threads get no counters.
+ */
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_stats0(JNIEnv *env, jclass cl, jlongArray values)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    jlong out[JSYLVAN_STATS_LENGTH] = {0};
+    size_t filled, total;
+    sylvan_table_usage(&filled, &total);
+    out[1] = (jlong)filled;
+    out[2] = (jlong)total;
+    out[3] = (jlong)cache_getused();
+    out[4] = (jlong)cache_getsize();
+#if JSYLVAN_STATS
+    if (lace_get_worker() != NULL) {
+        sylvan_stats_t stats;
+        sylvan_stats_snapshot(&stats);
+        out[0] = 1;
+        out[5] = (jlong)stats.counters[BDD_NODES_CREATED];
+        out[6] = (jlong)stats.counters[BDD_NODES_REUSED];
+        out[7] = (jlong)stats.counters[SYLVAN_GC_COUNT];
+        out[8] = (jlong)stats.timers[SYLVAN_GC];
+        for (size_t i = 0; i < JSYLVAN_STATS_OPS; i++) {
+            out[9 + 2 * i] = (jlong)stats.counters[jsylvan_stats_ops[i][0]];
+            out[10 + 2 * i] = (jlong)stats.counters[jsylvan_stats_ops[i][1]];
+        }
+    }
+#endif
+    jsize length = (*env)->GetArrayLength(env, values);
+    (*env)->SetLongArrayRegion(env, values, 0, length < (jsize)JSYLVAN_STATS_LENGTH ? length : (jsize)JSYLVAN_STATS_LENGTH, out);
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_resetStats(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (lace_get_worker() != NULL) {
+        sylvan_stats_reset();
+    }
+    (void)env;
+    (void)cl;
+}
+
+/**
+ * Variable reordering came with Sylvan 1.9; JSYLVAN_REORDER is set by CMake if the Sylvan
+ * headers have it. Other builds report canReorder() false, and Java never calls the rest.
+ */
+JNIEXPORT jboolean JNICALL
+Java_jsylvan_JSylvan_canReorder(JNIEnv *env, jclass cl)
+{
+#if JSYLVAN_REORDER
+    return JNI_TRUE;
+#else
+    return JNI_FALSE;
+#endif
+    (void)env;
+    (void)cl;
+}
+
+#if JSYLVAN_REORDER
+/**
+ * Sylvan only reorders the variables it knows as levels. Variable i of sylvan_ithvar is
+ * level i until the first reordering, so registering the levels keeps existing BDDs.
+ */
+static void
+jsylvan_ensure_levels(size_t count)
+{
+    size_t known = mtbdd_levelscount();
+    if (known < count) mtbdd_newlevels(count - known);
+}
+#endif
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_setReorderLimits0(JNIEnv *env, jclass cl, jdouble max_growth, jlong max_millis)
+{
+    JSYLVAN_WORKER_ONLY(env);
+#if JSYLVAN_REORDER
+    sylvan_set_reorder_maxgrowth((float)max_growth);
+    if (max_millis > 0) sylvan_set_reorder_timelimit_ms((double)max_millis);
+#else
+    (void)max_growth;
+    (void)max_millis;
+#endif
+    (void)env;
+    (void)cl;
+}
+
+/**
+ * Sift each block of levels between two boundaries on its own, so no variable leaves
+ * its block. sylvan_reduce_heap would sift over all levels at once.
+ */
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_reorder0(JNIEnv *env, jclass cl, jintArray boundaries)
+{
+    JSYLVAN_WORKER_ONLY(env);
+#if JSYLVAN_REORDER
+    jsize count = (*env)->GetArrayLength(env, boundaries);
+    if (count == 0) return;
+    jint *bounds = (*env)->GetIntArrayElements(env, boundaries, NULL);
+    jsylvan_ensure_levels((size_t)bounds[count - 1]);
+    sylvan_pre_reorder(SYLVAN_REORDER_SIFT);
+    uint32_t low = 0;
+    for (jsize i = 0; i < count; i++) {
+        uint32_t high = (uint32_t)bounds[i];
+        if (high > low + 1) RUN(sylvan_sifting, low, high - 1);
+        low = high;
+    }
+    sylvan_post_reorder();
+    (*env)->ReleaseIntArrayElements(env, boundaries, bounds, JNI_ABORT);
+#else
+    (void)boundaries;
+#endif
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jintArray JNICALL
+Java_jsylvan_JSylvan_getVariableOrder0(JNIEnv *env, jclass cl, jint levels)
+{
+    JSYLVAN_WORKER_ONLY(env, NULL);
+    jintArray result = (*env)->NewIntArray(env, levels);
+#if JSYLVAN_REORDER
+    if (result == NULL) return NULL;
+    jsylvan_ensure_levels((size_t)levels);
+    jint *order = (*env)->GetIntArrayElements(env, result, NULL);
+    for (jint level = 0; level < levels; level++) order[level] = (jint)mtbdd_order_to_level((uint32_t)level);
+    (*env)->ReleaseIntArrayElements(env, result, order, 0);
+#endif
+    return result;
+    (void)cl;
+}
+
+/**
+ * The leading fields of Sylvan's unique table (struct llmsset in llmsset.h), which Sylvan
+ * keeps internal. Its node data is allocated at the max size of the table when Sylvan
+ * starts and never moves, so Java can read it through direct buffers (see SylvanNodes).
+ * The table is bound by symbol name, as sylvan.h may or may not declare it. This copies
+ * a private layout, so JSylvan.nodes() checks the view against getVar/getThen/getElse
+ * before handing it out.
+ */
+struct jsylvan_llmsset {
+    uint64_t *table;
+    uint8_t *data;
+    uint64_t *bitmap1;
+    uint64_t *bitmap2;
+    uint64_t *bitmapc;
+    size_t max_size;
+};
+
+#ifdef __APPLE__
+extern struct jsylvan_llmsset *jsylvan_nodes __asm__("_nodes");
+#else
+extern struct jsylvan_llmsset *jsylvan_nodes __asm__("nodes");
+#endif
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_JSylvan_nodeTableSize0(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return (jlong)jsylvan_nodes->max_size;
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jobject JNICALL
+Java_jsylvan_JSylvan_nodeTable0(JNIEnv *env, jclass cl, jlong first, jlong count)
+{
+    JSYLVAN_WORKER_ONLY(env, NULL);
+    return (*env)->NewDirectByteBuffer(env, jsylvan_nodes->data + first * 16, count * 16);
+    (void)cl;
+}
+
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_print(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_print(bdd);
 }
 
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_fprint(JNIEnv *env, jclass cl, jstring filename, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env);
     const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
     FILE *f = fopen(path, "w");
     sylvan_fprint(f, bdd);
@@ -300,12 +577,14 @@ Java_jsylvan_JSylvan_fprint(JNIEnv *env, jclass cl, jstring filename, jlong bdd)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_printDot(JNIEnv *env, jclass cl, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_printdot(bdd, NULL);
 }
 
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_fprintDot(JNIEnv *env, jclass cl, jstring filename, jlong bdd)
 {
+    JSYLVAN_WORKER_ONLY(env);
     const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
     FILE *f = fopen(path, "w");
     sylvan_fprintdot(f, bdd);
@@ -313,50 +592,743 @@ Java_jsylvan_JSylvan_fprintDot(JNIEnv *env, jclass cl, jstring filename, jlong b
     (*env)->ReleaseStringUTFChars(env, filename, path);
 }
 
-TASK_3(BDD, union_par, BDD*, arr, int, first, int, last)
+/*
+ * Binary BDD forests, see JSylvan.save and JSylvan.load.
+ *
+ * A file is a header (magic, number of nodes, number of roots), the root edges and the
+ * nodes, all in 64-bit words of the native byte order. Nodes are numbered from 1 in file
+ * order, children before parents, and 0 is False. An edge is the number of its node
+ * shifted left by one, with the low bit set if the edge is complemented. A node is two
+ * words: its variable above the low edge in the first, its high edge in the second.
+ * Loading maps the file and creates the nodes in a single pass, since every child
+ * already exists when its parent is read.
+ */
+typedef struct {
+    char magic[8];
+    uint64_t nodes;
+    uint64_t roots;
+} forest_header_t;
+
+static const char forest_magic[8] = {'J', 'S', 'Y', 'L', 'B', 'D', 'D', '1'};
+
+#define FOREST_EDGE_BITS 40
+#define FOREST_EDGE_MASK ((1ULL << FOREST_EDGE_BITS) - 1)
+
+/* Sylvan marks complemented edges with the top bit, True is the complement of False */
+#define FOREST_COMPLEMENT ((BDD)0x8000000000000000ULL)
+
+/**
+ * Numbers the nodes reachable from the roots while appending their records.
+ * The map is open addressing over regular (uncomplemented) nodes, False marks an empty slot.
+ */
+typedef struct {
+    BDD *keys;
+    uint64_t *numbers;
+    size_t mask;
+    uint64_t *records;
+    uint64_t count;
+    uint64_t capacity;
+    int failed;
+} forest_writer_t;
+
+static size_t
+forest_slot(BDD node, size_t mask)
+{
+    return (size_t)((node * 0x9E3779B97F4A7C15ULL) >> 17) & mask;
+}
+
+static uint64_t
+forest_find(forest_writer_t *w, BDD node)
 {
-    if (first == last) return arr[first];
+    for (size_t i = forest_slot(node, w->mask); w->keys[i] != sylvan_false; i = (i + 1) & w->mask) {
+        if (w->keys[i] == node) return w->numbers[i];
+    }
+    return 0;
+}
 
-    BDD left, right;
+static void
+forest_put(BDD *keys, uint64_t *numbers, size_t mask, BDD node, uint64_t number)
+{
+    size_t i = forest_slot(node, mask);
+    while (keys[i] != sylvan_false) i = (i + 1) & mask;
+    keys[i] = node;
+    numbers[i] = number;
+}
 
-    int mid = (first+last)/2;
-    // check: last == first + 1
-    if (first == mid) { // we have 2
-        return CALL(sylvan_ite, arr[first], sylvan_true, arr[last], 0); // or
+static uint64_t
+forest_append(forest_writer_t *w, BDD node, uint64_t var, uint64_t low, uint64_t high)
+{
+    if ((w->count + 1) * 2 > w->mask + 1) {
+        size_t mask = w->mask * 2 + 1;
+        BDD *keys = (BDD*)calloc(mask + 1, sizeof(BDD));
+        uint64_t *numbers = (uint64_t*)malloc((mask + 1) * sizeof(uint64_t));
+        if (keys == NULL || numbers == NULL) {
+            free(keys);
+            free(numbers);
+            w->failed = 1;
+            return 0;
+        }
+        for (size_t i = 0; i <= w->mask; i++) {
+            if (w->keys[i] != sylvan_false) forest_put(keys, numbers, mask, w->keys[i], w->numbers[i]);
+        }
+        free(w->keys);
+        free(w->numbers);
+        w->keys = keys;
+        w->numbers = numbers;
+        w->mask = mask;
     }
+    if (w->count == w->capacity) {
+        uint64_t capacity = w->capacity * 2;
+        uint64_t *records = (uint64_t*)realloc(w->records, capacity * 2 * sizeof(uint64_t));
+        if (records == NULL) {
+            w->failed = 1;
+            return 0;
+        }
+        w->records = records;
+        w->capacity = capacity;
+    }
+    w->records[2 * w->count] = var << FOREST_EDGE_BITS | low;
+    w->records[2 * w->count + 1] = high;
+    w->count++;
+    forest_put(w->keys, w->numbers, w->mask, node, w->count);
+    return w->count;
+}
 
-    if (mid+1 == last) { // we have 3
-        left = sylvan_ref(CALL(sylvan_ite, arr[first], sylvan_true, arr[mid], 0)); // or
-        BDD result = CALL(sylvan_ite, left, sylvan_true, arr[last], 0);
-        sylvan_deref(left);
-        return result;
+/**
+ * Number the nodes of <bdd> children first, returning the edge to <bdd>.
+ * The recursion depth is bounded by the number of variables.
+ */
+static uint64_t
+forest_write_edge(forest_writer_t *w, BDD bdd)
+{
+    uint64_t complemented = (bdd & FOREST_COMPLEMENT) ? 1 : 0;
+    BDD node = bdd & ~FOREST_COMPLEMENT;
+    if (node == sylvan_false || w->failed) return complemented;
+    uint64_t number = forest_find(w, node);
+    if (number == 0) {
+        uint64_t low = forest_write_edge(w, sylvan_low(node));
+        uint64_t high = forest_write_edge(w, sylvan_high(node));
+        number = forest_append(w, node, sylvan_var(node), low, high);
     }
+    return number << 1 | complemented;
+}
 
-    SPAWN(union_par, arr, first, mid);
-    right = sylvan_ref(CALL(union_par, arr, mid+1, last));
-    left = sylvan_ref(SYNC(union_par));
-    BDD result = CALL(sylvan_ite, left, sylvan_true, right, 0);
+static BDD
+forest_edge(const BDD *made, uint64_t edge)
+{
+    BDD node = made[edge >> 1];
+    return (edge & 1) ? sylvan_not(node) : node;
+}
+
+/**
+ * Create the <count> nodes of a mapped file, each referenced until the roots are taken.
+ * Returns the number of nodes created, less than <count> if a record is malformed.
+ */
+TASK_3(uint64_t, forest_load, const uint64_t*, records, uint64_t, count, BDD*, made)
+{
+    made[0] = sylvan_false;
+    for (uint64_t i = 1; i <= count; i++) {
+        uint64_t low = records[2 * i - 2] & FOREST_EDGE_MASK, high = records[2 * i - 1];
+        if ((low >> 1) >= i || (high >> 1) >= i) return i - 1;
+        BDDVAR var = (BDDVAR)(records[2 * i - 2] >> FOREST_EDGE_BITS);
+        made[i] = sylvan_ref(sylvan_makenode(var, forest_edge(made, low), forest_edge(made, high)));
+    }
+    return count;
+}
+
+/**
+ * Check the magic and that the file holds exactly the roots and nodes of its header.
+ */
+static int
+forest_check(const forest_header_t *header, size_t size)
+{
+    size_t body = size - sizeof(forest_header_t);
+    if (memcmp(header->magic, forest_magic, sizeof(forest_magic)) != 0 || body % sizeof(uint64_t) != 0) return 0;
+    uint64_t words = body / sizeof(uint64_t);
+    return header->roots <= words && header->nodes == (words - header->roots) / 2 &&
+           header->roots + 2 * header->nodes == words;
+}
+
+static void
+throw_io_exception(JNIEnv *env, const char *message, const char *path)
+{
+    char text[512];
+    snprintf(text, sizeof(text), "%s: %s", message, path);
+    jclass ex = (*env)->FindClass(env, "java/io/IOException");
+    if (ex != NULL) (*env)->ThrowNew(env, ex, text);
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_save0(JNIEnv *env, jclass cl, jlongArray roots, jstring filename)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    jsize count = (*env)->GetArrayLength(env, roots);
+    uint64_t *edges = (uint64_t*)malloc((count + 1) * sizeof(uint64_t));
+    forest_writer_t w = {0};
+    w.mask = 1023;
+    w.capacity = 1024;
+    w.keys = (BDD*)calloc(w.mask + 1, sizeof(BDD));
+    w.numbers = (uint64_t*)malloc((w.mask + 1) * sizeof(uint64_t));
+    w.records = (uint64_t*)malloc(w.capacity * 2 * sizeof(uint64_t));
+    w.failed = edges == NULL || w.keys == NULL || w.numbers == NULL || w.records == NULL;
+
+    if (!w.failed) (*env)->GetLongArrayRegion(env, roots, 0, count, (jlong*)edges);
+    for (jsize i = 0; i < count && !w.failed; i++) edges[i] = forest_write_edge(&w, (BDD)edges[i]);
+
+    const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
+    if (w.failed) {
+        throw_io_exception(env, "out of memory while numbering the nodes of", path);
+    } else {
+        forest_header_t header;
+        memcpy(header.magic, forest_magic, sizeof(header.magic));
+        header.nodes = w.count;
+        header.roots = (uint64_t)count;
+        FILE *f = fopen(path, "wb");
+        if (f == NULL) {
+            throw_io_exception(env, "cannot open", path);
+        } else {
+            int ok = fwrite(&header, sizeof(header), 1, f) == 1 &&
+                     fwrite(edges, sizeof(uint64_t), count, f) == (size_t)count &&
+                     fwrite(w.records, 2 * sizeof(uint64_t), w.count, f) == w.count;
+            if (fclose(f) != 0 || !ok) throw_io_exception(env, "cannot write", path);
+        }
+    }
+    (*env)->ReleaseStringUTFChars(env, filename, path);
+    free(edges);
+    free(w.keys);
+    free(w.numbers);
+    free(w.records);
+    (void)cl;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_jsylvan_JSylvan_load0(JNIEnv *env, jclass cl, jstring filename)
+{
+    JSYLVAN_WORKER_ONLY(env, NULL);
+    const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
+    jlongArray result = NULL;
+    struct stat st;
+    int fd = open(path, O_RDONLY);
+    if (fd < 0 || fstat(fd, &st) != 0) {
+        throw_io_exception(env, "cannot open", path);
+        if (fd >= 0) close(fd);
+        (*env)->ReleaseStringUTFChars(env, filename, path);
+        return NULL;
+    }
+
+    size_t size = (size_t)st.st_size;
+    void *map = size >= sizeof(forest_header_t) ? mmap(NULL, size, PROT_READ, MAP_PRIVATE, fd, 0) : MAP_FAILED;
+    close(fd);
+    const forest_header_t *header = (const forest_header_t*)map;
+    if (map == MAP_FAILED || !forest_check(header, size)) {
+        throw_io_exception(env, "not a BDD forest", path);
+        if (map != MAP_FAILED) munmap(map, size);
+        (*env)->ReleaseStringUTFChars(env, filename, path);
+        return NULL;
+    }
+
+    const uint64_t *edges = (const uint64_t*)(header + 1);
+    const uint64_t *records = edges + header->roots;
+    BDD *made = (BDD*)malloc((header->nodes + 1) * sizeof(BDD));
+    if (made == NULL) {
+        throw_io_exception(env, "out of memory while loading", path);
+    } else {
+        uint64_t created = RUN(forest_load, records, header->nodes, made);
+        int valid = created == header->nodes;
+        for (uint64_t i = 0; i < header->roots && valid; i++) valid = (edges[i] >> 1) <= header->nodes;
+        if (!valid) {
+            throw_io_exception(env, "corrupt BDD forest", path);
+        } else {
+            result = (*env)->NewLongArray(env, (jsize)header->roots);
+            for (uint64_t i = 0; i < header->roots && result != NULL; i++) {
+                jlong root = (jlong)sylvan_ref(forest_edge(made, edges[i]));
+                (*env)->SetLongArrayRegion(env, result, (jsize)i, 1, &root);
+            }
+        }
+        for (uint64_t i = 1; i <= created; i++) sylvan_deref(made[i]);
+        free(made);
+    }
+    munmap(map, size);
+    (*env)->ReleaseStringUTFChars(env, filename, path);
+    return result;
+    (void)cl;
+}
+
+/*
+ * Opcodes of the batched apply stream, see JSylvan.applyBatch.
+ * Keep in sync with the OP_* constants of the JSylvan class.
+ */
+#define JSYLVAN_OP_AND    0
+#define JSYLVAN_OP_OR     1
+#define JSYLVAN_OP_NOT    2
+#define JSYLVAN_OP_DIFF   3
+#define JSYLVAN_OP_IMP    4
+#define JSYLVAN_OP_XOR    5
+#define JSYLVAN_OP_EQUIV  6
+#define JSYLVAN_OP_EXISTS 7
+#define JSYLVAN_OP_REF    8
+#define JSYLVAN_OP_DEREF  9
+
+/**
+ * Run <count> packed (opcode, operand, operand) triples in one Lace task.
+ * Every result except the one of OP_DEREF is referenced before the next op runs,
+ * so a garbage collection triggered by a later op cannot free it.
+ * Returns the index of the first unknown opcode, or -1 if all ops were run.
+ */
+TASK_3(int, batch_apply, const BDD*, ops, BDD*, results, int, count)
+{
+    for (int i = 0; i < count; i++) {
+        BDD a = ops[3*i+1], b = ops[3*i+2], r;
+        switch ((int)ops[3*i]) {
+        case JSYLVAN_OP_AND:
+            r = CALL(sylvan_ite, a, b, sylvan_false, 0);
+            break;
+        case JSYLVAN_OP_OR:
+            r = CALL(sylvan_ite, a, sylvan_true, b, 0);
+            break;
+        case JSYLVAN_OP_NOT:
+            r = sylvan_not(a);
+            break;
+        case JSYLVAN_OP_DIFF:
+            r = CALL(sylvan_ite, b, sylvan_false, a, 0);
+            break;
+        case JSYLVAN_OP_IMP:
+            r = CALL(sylvan_ite, a, b, sylvan_true, 0);
+            break;
+        case JSYLVAN_OP_XOR:
+            r = CALL(sylvan_xor, a, b, 0);
+            break;
+        case JSYLVAN_OP_EQUIV:
+            r = sylvan_not(CALL(sylvan_xor, a, b, 0));
+            break;
+        case JSYLVAN_OP_EXISTS:
+            r = CALL(sylvan_and_exists, a, sylvan_true, b, 0);
+            break;
+        case JSYLVAN_OP_REF:
+            r = a;
+            break;
+        case JSYLVAN_OP_DEREF:
+            sylvan_deref(a);
+            results[i] = sylvan_false;
+            continue;
+        default:
+            return i;
+        }
+        results[i] = sylvan_ref(r);
+    }
+    return -1;
+}
+
+static void
+throw_illegal_argument(JNIEnv *env, const char *message)
+{
+    if (env == NULL) {
+        // a plain C entry point of FfmBackend, which checks its arguments before the call
+        fprintf(stderr, "jsylvan: %s\n", message);
+        abort();
+    }
+    jclass ex = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+    if (ex != NULL) (*env)->ThrowNew(env, ex, message);
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_applyBatch0(JNIEnv *env, jclass cl, jlongArray ops, jint count, jlongArray results)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (count <= 0) return;
+
+    jlong *src = (*env)->GetLongArrayElements(env, ops, 0);
+    jlong *dst = (jlong*)malloc(sizeof(jlong) * count);
+    int bad = RUN(batch_apply, (const BDD*)src, (BDD*)dst, count);
+    (*env)->ReleaseLongArrayElements(env, ops, src, JNI_ABORT);
+
+    // results of the ops before an unknown opcode are referenced, so hand them back anyway
+    (*env)->SetLongArrayRegion(env, results, 0, bad < 0 ? count : bad, dst);
+    free(dst);
+    if (bad >= 0) throw_illegal_argument(env, "unknown opcode in batch");
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_applyBatchDirect0(JNIEnv *env, jclass cl, jobject ops, jint count, jobject results)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (count <= 0) return;
+
+    const BDD *src = (const BDD*)(*env)->GetDirectBufferAddress(env, ops);
+    BDD *dst = (BDD*)(*env)->GetDirectBufferAddress(env, results);
+    if (src == NULL || dst == NULL) {
+        throw_illegal_argument(env, "batch buffers must be direct");
+        return;
+    }
+    if (RUN(batch_apply, src, dst, count) >= 0) throw_illegal_argument(env, "unknown opcode in batch");
+    (void)cl;
+}
+
+/**
+ * Merge two partial results of fold_par. The ops are the associative ones of the batch
+ * stream; AND quantifies <variables> from the conjunction, which is plain AND for True.
+ */
+TASK_4(BDD, fold_apply, int, op, BDD, a, BDD, b, BDD, variables)
+{
+    switch (op) {
+    case JSYLVAN_OP_AND:
+        if (variables == sylvan_true) return CALL(sylvan_ite, a, b, sylvan_false, 0);
+        return CALL(sylvan_and_exists, a, b, variables, 0);
+    case JSYLVAN_OP_OR:
+        return CALL(sylvan_ite, a, sylvan_true, b, 0);
+    case JSYLVAN_OP_XOR:
+        return CALL(sylvan_xor, a, b, 0);
+    default:
+        return sylvan_not(CALL(sylvan_xor, a, b, 0));
+    }
+}
+
+/**
+ * Fold arr[first..last] with <op> by splitting the range in halves that are folded in parallel.
+ */
+TASK_5(BDD, fold_par, BDD*, arr, int, first, int, last, int, op, BDD, variables)
+{
+    if (first == last) return arr[first];
+
+    int mid = (first+last)/2;
+    SPAWN(fold_par, arr, first, mid, op, variables);
+    BDD right = sylvan_ref(CALL(fold_par, arr, mid+1, last, op, variables));
+    BDD left = sylvan_ref(SYNC(fold_par));
+    BDD result = CALL(fold_apply, op, left, right, variables);
     sylvan_deref(left);
     sylvan_deref(right);
     return result;
 }
 
+/**
+ * Fold <count> BDDs with <op>, shared by makeFoldPar0, makeUnionPar and the FFM backend.
+ */
+static BDD
+jsylvan_fold(int op, const BDD *bdds, int count, BDD variables)
+{
+    BDD identity = (op == JSYLVAN_OP_OR || op == JSYLVAN_OP_XOR) ? sylvan_false : sylvan_true;
+    if (count == 0) return identity;
+
+    return count == 1
+        ? RUN(fold_apply, op, bdds[0], identity, variables)  // still quantify a single conjunct
+        : RUN(fold_par, (BDD*)bdds, 0, count-1, op, variables);
+}
+
 JNIEXPORT jlong JNICALL
-Java_jsylvan_JSylvan_makeUnionPar(JNIEnv *env, jclass cl, jlongArray arr)
+Java_jsylvan_JSylvan_makeFoldPar0(JNIEnv *env, jclass cl, jint op, jlongArray arr, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     jsize len = (*env)->GetArrayLength(env, arr);
-    if (len == 0) return (jlong)sylvan_false;
+    jlong *src = (*env)->GetLongArrayElements(env, arr, 0);
+    BDD result = jsylvan_fold(op, (const BDD*)src, len, (BDD)variables);
+    (*env)->ReleaseLongArrayElements(env, arr, src, JNI_ABORT);
+
+    return result;
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_JSylvan_makeUnionPar(JNIEnv *env, jclass cl, jlongArray arr)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return Java_jsylvan_JSylvan_makeFoldPar0(env, cl, JSYLVAN_OP_OR, arr, sylvan_true);
+}
+
+/**
+ * The sums of products of makeSumsOfProductsPar0: sum k is the disjunction of a[i] and b[i]
+ * over offsets[k] <= i < offsets[k+1], and goes to results[k].
+ */
+struct jsylvan_sums {
+    const BDD *a;
+    const BDD *b;
+    const jint *offsets;
+    BDD *results;
+};
+
+/**
+ * The disjunction of a[i] and b[i] over first <= i < last, split in halves that run in parallel.
+ */
+TASK_3(BDD, sum_of_products, const struct jsylvan_sums*, sums, int, first, int, last)
+{
+    if (first == last) return sylvan_false;
+    if (last - first == 1) return CALL(sylvan_ite, sums->a[first], sums->b[first], sylvan_false, 0);
+
+    int mid = (first+last)/2;
+    SPAWN(sum_of_products, sums, first, mid);
+    BDD right = sylvan_ref(CALL(sum_of_products, sums, mid, last));
+    BDD left = sylvan_ref(SYNC(sum_of_products));
+    BDD result = CALL(sylvan_ite, left, sylvan_true, right, 0);
+    sylvan_deref(left);
+    sylvan_deref(right);
+    return result;
+}
+
+/**
+ * Compute sums first <= k < last, each referenced as soon as it is done, split in halves
+ * that run in parallel.
+ */
+VOID_TASK_3(sums_of_products, const struct jsylvan_sums*, sums, int, first, int, last)
+{
+    if (last - first == 1) {
+        sums->results[first] = sylvan_ref(CALL(sum_of_products, sums, sums->offsets[first], sums->offsets[first+1]));
+        return;
+    }
+
+    int mid = (first+last)/2;
+    SPAWN(sums_of_products, sums, first, mid);
+    CALL(sums_of_products, sums, mid, last);
+    SYNC(sums_of_products);
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_makeSumsOfProductsPar0(JNIEnv *env, jclass cl, jlongArray a, jlongArray b, jintArray offsets, jint count, jlongArray results)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (count <= 0) return;
+
+    struct jsylvan_sums sums;
+    jlong *src_a = (*env)->GetLongArrayElements(env, a, 0);
+    jlong *src_b = (*env)->GetLongArrayElements(env, b, 0);
+    jint *src_offsets = (*env)->GetIntArrayElements(env, offsets, 0);
+    sums.a = (const BDD*)src_a;
+    sums.b = (const BDD*)src_b;
+    sums.offsets = src_offsets;
+    sums.results = (BDD*)malloc(sizeof(BDD) * count);
+    RUN(sums_of_products, &sums, 0, count);
+    (*env)->ReleaseIntArrayElements(env, offsets, src_offsets, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, b, src_b, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, a, src_a, JNI_ABORT);
+
+    (*env)->SetLongArrayRegion(env, results, 0, count, (jlong*)sums.results);
+    free(sums.results);
+    (void)cl;
+}
+
+/*
+ * Ops of makeRef0 beyond those of the batch stream, which take a third operand or none.
+ * Keep in sync with the constants of the JSylvan class.
+ */
+#define JSYLVAN_OP_ITE        10
+#define JSYLVAN_OP_AND_EXISTS 11
+#define JSYLVAN_OP_NEXT       12
+#define JSYLVAN_OP_VAR        13
+#define JSYLVAN_OP_COMPOSE    14
+#define JSYLVAN_OP_MAP_ADD    15
+
+/**
+ * Run one op and reference its result in the same task, see JSylvan.applyRef. sylvan_ref
+ * does not yield to Lace, so no garbage collection can start between the op and the
+ * reference, while a ref() from Java after the op returned leaves a window for one
+ * started by another thread. The batch ops take <a> and <b>, OP_VAR takes variable <a>,
+ * OP_COMPOSE takes <a> and the map <b>, OP_MAP_ADD adds variable <b> with value <c> to map <a>.
+ */
+TASK_4(BDD, apply_ref, int, op, BDD, a, BDD, b, BDD, c)
+{
+    BDD r, batch[3] = { (BDD)op, a, b };
+    switch (op) {
+    case JSYLVAN_OP_ITE:
+        r = CALL(sylvan_ite, a, b, c, 0);
+        break;
+    case JSYLVAN_OP_AND_EXISTS:
+        r = CALL(sylvan_and_exists, a, b, c, 0);
+        break;
+    case JSYLVAN_OP_NEXT:
+        r = CALL(sylvan_relnext, a, b, c, 0);
+        break;
+    case JSYLVAN_OP_VAR:
+        r = CALL(make_var, (BDDVAR)a);
+        break;
+    case JSYLVAN_OP_COMPOSE:
+        r = CALL(sylvan_compose, a, b, 0);
+        break;
+    case JSYLVAN_OP_MAP_ADD:
+        r = sylvan_map_add(a, (BDDVAR)b, c);
+        break;
+    default:
+        // batch_apply references the result itself
+        CALL(batch_apply, batch, &r, 1);
+        return r;
+    }
+    return sylvan_ref(r);
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_JSylvan_makeRef0(JNIEnv *env, jclass cl, jint op, jlong a, jlong b, jlong c)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    if (op < JSYLVAN_OP_AND || op > JSYLVAN_OP_MAP_ADD || op == JSYLVAN_OP_DEREF) {
+        throw_illegal_argument(env, "unknown opcode");
+        return sylvan_false;
+    }
+    return RUN(apply_ref, op, a, b, c);
+    (void)cl;
+}
+
+/**
+ * State of the running bounded operation (see OperationLimit). JSylvan runs bounded
+ * operations one at a time, so the state is global. Once a limit is hit, the reason is set
+ * and every task returns False at once: the result is meaningless, but the stack unwinds
+ * quickly, holds no invalid BDDs that a garbage collection could trip over, and the nodes
+ * made so far are unreferenced garbage for the next collection.
+ */
+#define JSYLVAN_BOUND_NODES     1
+#define JSYLVAN_BOUND_DEADLINE  2
+#define JSYLVAN_BOUND_CANCELLED 3
+
+static volatile int jsylvan_bound_reason = 0;
+static volatile uint64_t jsylvan_bound_made = 0;
+static uint64_t jsylvan_bound_max = 0;
+static uint64_t jsylvan_bound_deadline = 0;  // CLOCK_MONOTONIC nanoseconds, 0 for no deadline
+static uint64_t jsylvan_bound_opid = 0;
+static _Thread_local uint32_t jsylvan_bound_ticks = 0;
+
+static uint64_t
+jsylvan_now(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (uint64_t)ts.tv_sec * 1000000000ULL + (uint64_t)ts.tv_nsec;
+}
+
+static void
+jsylvan_bound_abort(int reason)
+{
+    __sync_bool_compare_and_swap(&jsylvan_bound_reason, 0, reason);
+}
+
+/**
+ * Make a node, counting it against the node budget. Nodes that the unique table already
+ * holds are counted as well, so the budget bounds the work rather than the growth.
+ */
+static BDD
+jsylvan_bound_makenode(BDDVAR var, BDD low, BDD high)
+{
+    if (low == high) return low;
+    uint64_t made = __sync_add_and_fetch(&jsylvan_bound_made, 1);
+    if (made > jsylvan_bound_max) {
+        jsylvan_bound_abort(JSYLVAN_BOUND_NODES);
+        return sylvan_false;
+    }
+    return sylvan_makenode(var, low, high);
+}
+
+/**
+ * exists <vars> . <a> and <b>, plain AND for vars True, like sylvan_and_exists, but
+ * stopping at the limits of the running bounded operation.
+ */
+TASK_3(BDD, bounded_and_exists, BDD, a, BDD, b, BDD, vars)
+{
+    if (jsylvan_bound_reason != 0) return sylvan_false;
+
+    // terminal cases
+    if (a == sylvan_false || b == sylvan_false || a == sylvan_not(b)) return sylvan_false;
+    if (a == sylvan_true && b == sylvan_true) return sylvan_true;
+    if (vars == sylvan_true) {
+        if (a == sylvan_true || a == b) return b;
+        if (b == sylvan_true) return a;
+    }
+    if (a > b) {
+        BDD t = a;
+        a = b;
+        b = t;
+    }
 
-    jlong *dest = (*env)->GetLongArrayElements(env, arr, 0);
-    BDD result = RUN(union_par, (BDD*)dest, 0, len-1);
-    (*env)->ReleaseLongArrayElements(env, arr, dest, 0);
+    sylvan_gc_test();
+    if (jsylvan_bound_deadline != 0 && (++jsylvan_bound_ticks & 1023) == 0 && jsylvan_now() >= jsylvan_bound_deadline) {
+        jsylvan_bound_abort(JSYLVAN_BOUND_DEADLINE);
+        return sylvan_false;
+    }
 
+    // the top variable, skipping quantified variables above it
+    BDDVAR va = a == sylvan_true ? 0xffffffff : sylvan_var(a);
+    BDDVAR vb = b == sylvan_true ? 0xffffffff : sylvan_var(b);
+    BDDVAR v = va < vb ? va : vb;
+    while (vars != sylvan_true && sylvan_var(vars) < v) vars = sylvan_high(vars);
+    if (vars == sylvan_true && (a == sylvan_true || b == sylvan_true)) return a == sylvan_true ? b : a;
+
+    BDD result;
+    if (cache_get3(jsylvan_bound_opid, a, b, vars, &result)) return result;
+
+    BDD aLow = va == v ? sylvan_low(a) : a, aHigh = va == v ? sylvan_high(a) : a;
+    BDD bLow = vb == v ? sylvan_low(b) : b, bHigh = vb == v ? sylvan_high(b) : b;
+
+    if (vars != sylvan_true && sylvan_var(vars) == v) {
+        // quantify v: the disjunction of both cofactors, as not(not low and not high)
+        BDD rest = sylvan_high(vars);
+        BDD low = CALL(bounded_and_exists, aLow, bLow, rest);
+        if (low == sylvan_true) {
+            result = sylvan_true;
+        } else {
+            bdd_refs_push(low);
+            BDD high = CALL(bounded_and_exists, aHigh, bHigh, rest);
+            bdd_refs_push(high);
+            result = sylvan_not(CALL(bounded_and_exists, sylvan_not(low), sylvan_not(high), sylvan_true));
+            bdd_refs_pop(2);
+        }
+    } else {
+        bdd_refs_spawn(SPAWN(bounded_and_exists, aHigh, bHigh, vars));
+        BDD low = bdd_refs_push(CALL(bounded_and_exists, aLow, bLow, vars));
+        BDD high = bdd_refs_sync(SYNC(bounded_and_exists));
+        bdd_refs_pop(1);
+        result = jsylvan_bound_makenode(v, low, high);
+    }
+
+    // results computed after an abort are wrong, keep them out of the cache
+    if (jsylvan_bound_reason != 0) return sylvan_false;
+    cache_put3(jsylvan_bound_opid, a, b, vars, result);
     return result;
 }
 
+/**
+ * The root of a bounded operation, which references the result in the task like apply_ref.
+ */
+TASK_3(BDD, bounded_and_exists_ref, BDD, a, BDD, b, BDD, vars)
+{
+    BDD result = CALL(bounded_and_exists, a, b, vars);
+    return jsylvan_bound_reason == 0 ? sylvan_ref(result) : sylvan_false;
+}
+
+/**
+ * Run bounded_and_exists with a node budget and a timeout in nanoseconds, negative for none.
+ * status receives the reason it stopped early (0 if it did not, then the result is valid
+ * and referenced) and the number of nodes made.
+ */
+JNIEXPORT jlong JNICALL
+Java_jsylvan_JSylvan_boundedAndExists0(JNIEnv *env, jclass cl, jlong a, jlong b, jlong variables,
+                                       jlong max_nodes, jlong timeout, jlongArray status)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    if (jsylvan_bound_opid == 0) jsylvan_bound_opid = cache_next_opid();
+    jsylvan_bound_reason = 0;
+    jsylvan_bound_made = 0;
+    jsylvan_bound_max = (uint64_t)max_nodes;
+    jsylvan_bound_deadline = timeout >= 0 ? jsylvan_now() + (uint64_t)timeout : 0;
+    BDD result = RUN(bounded_and_exists_ref, (BDD)a, (BDD)b, (BDD)variables);
+
+    jlong out[2] = { jsylvan_bound_reason, (jlong)jsylvan_bound_made };
+    (*env)->SetLongArrayRegion(env, status, 0, 2, out);
+    return out[0] == 0 ? (jlong)result : (jlong)sylvan_false;
+    (void)cl;
+}
+
+/**
+ * Stop the running bounded operation. Without one it has no effect, as the next bounded
+ * operation clears the reason when it starts.
+ */
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_boundedAbort0(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    jsylvan_bound_abort(JSYLVAN_BOUND_CANCELLED);
+    (void)env;
+    (void)cl;
+}
+
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_disableGC(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_gc_disable();
     return;
     (void)env;
@@ -366,15 +1338,96 @@ Java_jsylvan_JSylvan_disableGC(JNIEnv *env, jclass cl)
 JNIEXPORT void JNICALL
 Java_jsylvan_JSylvan_enableGC(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env);
     sylvan_gc_enable();
     return;
     (void)env;
     (void)cl;
 }
 
+/**
+ * The JVM and the JSylvan method that notifies the Java GC listeners, set by initHooks.
+ */
+static JavaVM *jsylvan_vm = NULL;
+static jclass jsylvan_class = NULL;
+static jmethodID jsylvan_gc_event = NULL;
+
+/**
+ * Notify the Java GC listeners. Hooks run on the Lace worker that leads the collection,
+ * which is a native thread, so it is attached to the JVM (as a daemon) on first use.
+ * Exceptions are dropped, Sylvan cannot abort a collection halfway.
+ */
+static void
+jsylvan_fire_gc(jboolean started)
+{
+    JNIEnv *env;
+    if ((*jsylvan_vm)->GetEnv(jsylvan_vm, (void**)&env, JNI_VERSION_1_6) != JNI_OK &&
+        (*jsylvan_vm)->AttachCurrentThreadAsDaemon(jsylvan_vm, (void**)&env, NULL) != JNI_OK) {
+        return;
+    }
+    (*env)->CallStaticVoidMethod(env, jsylvan_class, jsylvan_gc_event, started);
+    if ((*env)->ExceptionCheck(env)) (*env)->ExceptionClear(env);
+}
+
+VOID_TASK_0(jsylvan_gc_pre)
+{
+    jsylvan_fire_gc(JNI_TRUE);
+}
+
+VOID_TASK_0(jsylvan_gc_post)
+{
+    jsylvan_fire_gc(JNI_FALSE);
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_initHooks(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (jsylvan_vm != NULL) return;
+    (*env)->GetJavaVM(env, &jsylvan_vm);
+    jsylvan_class = (jclass)(*env)->NewGlobalRef(env, cl);
+    jsylvan_gc_event = (*env)->GetStaticMethodID(env, cl, "gcEvent", "(Z)V");
+    sylvan_gc_hook_pregc(TASK(jsylvan_gc_pre));
+    sylvan_gc_hook_postgc(TASK(jsylvan_gc_post));
+}
+
+/**
+ * Protect every slot of a direct buffer of BDDs, like sylvan_protect on each of them.
+ * Sylvan reads the slots when it collects, so Java may store roots in the buffer without
+ * crossing JNI again until the buffer is unprotected.
+ */
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_protectRoots0(JNIEnv *env, jclass cl, jobject roots)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    BDD *slots = (BDD*)(*env)->GetDirectBufferAddress(env, roots);
+    jlong count = (*env)->GetDirectBufferCapacity(env, roots);
+    if (slots == NULL || count < 0) {
+        throw_illegal_argument(env, "root buffers must be direct");
+        return;
+    }
+    for (jlong i = 0; i < count; i++) mtbdd_protect(&slots[i]);
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_JSylvan_unprotectRoots0(JNIEnv *env, jclass cl, jobject roots)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    BDD *slots = (BDD*)(*env)->GetDirectBufferAddress(env, roots);
+    jlong count = (*env)->GetDirectBufferCapacity(env, roots);
+    if (slots == NULL || count < 0) {
+        throw_illegal_argument(env, "root buffers must be direct");
+        return;
+    }
+    for (jlong i = 0; i < count; i++) mtbdd_unprotect(&slots[i]);
+    (void)cl;
+}
+
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapEmpty(JNIEnv *env, jclass cl)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_empty();
     (void)env;
     (void)cl;
@@ -383,6 +1436,7 @@ Java_jsylvan_JSylvan_mapEmpty(JNIEnv *env, jclass cl)
 JNIEXPORT jboolean JNICALL
 Java_jsylvan_JSylvan_mapIsEmpty(JNIEnv *env, jclass cl, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, JNI_FALSE);
     return sylvan_map_isempty(map);
     (void)env;
     (void)cl;
@@ -391,6 +1445,7 @@ Java_jsylvan_JSylvan_mapIsEmpty(JNIEnv *env, jclass cl, jlong map)
 JNIEXPORT jint JNICALL
 Java_jsylvan_JSylvan_mapKey(JNIEnv *env, jclass cl, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_key(map);
     (void)env;
     (void)cl;
@@ -399,6 +1454,7 @@ Java_jsylvan_JSylvan_mapKey(JNIEnv *env, jclass cl, jlong map)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapValue(JNIEnv *env, jclass cl, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_value(map);
     (void)env;
     (void)cl;
@@ -407,6 +1463,7 @@ Java_jsylvan_JSylvan_mapValue(JNIEnv *env, jclass cl, jlong map)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapNext(JNIEnv *env, jclass cl, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_next(map);
     (void)env;
     (void)cl;
@@ -415,6 +1472,7 @@ Java_jsylvan_JSylvan_mapNext(JNIEnv *env, jclass cl, jlong map)
 JNIEXPORT jboolean JNICALL
 Java_jsylvan_JSylvan_mapContains(JNIEnv *env, jclass cl, jlong map, jint key)
 {
+    JSYLVAN_WORKER_ONLY(env, JNI_FALSE);
     return sylvan_map_contains(map, key);
     (void)env;
     (void)cl;
@@ -423,6 +1481,7 @@ Java_jsylvan_JSylvan_mapContains(JNIEnv *env, jclass cl, jlong map, jint key)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapCount(JNIEnv *env, jclass cl, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_count(map);
     (void)env;
     (void)cl;
@@ -431,6 +1490,7 @@ Java_jsylvan_JSylvan_mapCount(JNIEnv *env, jclass cl, jlong map)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapAdd(JNIEnv *env, jclass cl, jlong map, jint key, jlong value)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_add(map, key, value);
     (void)env;
     (void)cl;
@@ -439,6 +1499,7 @@ Java_jsylvan_JSylvan_mapAdd(JNIEnv *env, jclass cl, jlong map, jint key, jlong v
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapUpdate(JNIEnv *env, jclass cl, jlong map1, jlong map2)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_addall(map1, map2);
     (void)env;
     (void)cl;
@@ -447,6 +1508,7 @@ Java_jsylvan_JSylvan_mapUpdate(JNIEnv *env, jclass cl, jlong map1, jlong map2)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapRemove(JNIEnv *env, jclass cl, jlong map, jint key)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_remove(map, key);
     (void)env;
     (void)cl;
@@ -455,6 +1517,7 @@ Java_jsylvan_JSylvan_mapRemove(JNIEnv *env, jclass cl, jlong map, jint key)
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_mapRemoveAll(JNIEnv *env, jclass cl, jlong map, jlong variables)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_map_removeall(map, variables);
     (void)env;
     (void)cl;
@@ -463,7 +1526,37 @@ Java_jsylvan_JSylvan_mapRemoveAll(JNIEnv *env, jclass cl, jlong map, jlong varia
 JNIEXPORT jlong JNICALL
 Java_jsylvan_JSylvan_compose(JNIEnv *env, jclass cl, jlong bdd, jlong map)
 {
+    JSYLVAN_WORKER_ONLY(env, 0);
     return sylvan_compose(bdd, map);
     (void)env;
     (void)cl;
 }
+
+/**
+ * Plain C entry points of the hot operations, for the FFM backend of JSylvan (FfmBackend),
+ * which calls them through downcall handles instead of JNI. They forward to the JNI
+ * functions, which only use the JNI environment to report a bad opcode of makeRef0;
+ * FfmBackend checks the opcode before the call.
+ */
+JNIEXPORT uint64_t jsylvan_make_var(uint32_t var) { return Java_jsylvan_JSylvan_makeVar(NULL, NULL, var); }
+JNIEXPORT uint64_t jsylvan_make_not(uint64_t a) { return Java_jsylvan_JSylvan_makeNot(NULL, NULL, a); }
+JNIEXPORT uint64_t jsylvan_make_and(uint64_t a, uint64_t b) { return Java_jsylvan_JSylvan_makeAnd(NULL, NULL, a, b); }
+JNIEXPORT uint64_t jsylvan_make_or(uint64_t a, uint64_t b) { return Java_jsylvan_JSylvan_makeOr(NULL, NULL, a, b); }
+JNIEXPORT uint64_t jsylvan_make_implies(uint64_t a, uint64_t b) { return Java_jsylvan_JSylvan_makeImplies(NULL, NULL, a, b); }
+JNIEXPORT uint64_t jsylvan_make_ite(uint64_t a, uint64_t b, uint64_t c) { return Java_jsylvan_JSylvan_makeIte(NULL, NULL, a, b, c); }
+JNIEXPORT uint64_t jsylvan_make_equals(uint64_t a, uint64_t b) { return Java_jsylvan_JSylvan_makeEquals(NULL, NULL, a, b); }
+JNIEXPORT uint64_t jsylvan_make_not_equals(uint64_t a, uint64_t b) { return Java_jsylvan_JSylvan_makeNotEquals(NULL, NULL, a, b); }
+JNIEXPORT uint64_t jsylvan_make_exists(uint64_t a, uint64_t vars) { return Java_jsylvan_JSylvan_makeExists(NULL, NULL, a, vars); }
+JNIEXPORT uint64_t jsylvan_make_forall(uint64_t a, uint64_t vars) { return Java_jsylvan_JSylvan_makeForall(NULL, NULL, a, vars); }
+JNIEXPORT uint64_t jsylvan_make_and_exists(uint64_t a, uint64_t b, uint64_t vars) { return Java_jsylvan_JSylvan_makeAndExists(NULL, NULL, a, b, vars); }
+JNIEXPORT uint64_t jsylvan_make_next(uint64_t a, uint64_t b, uint64_t vars) { return Java_jsylvan_JSylvan_makeNext(NULL, NULL, a, b, vars); }
+JNIEXPORT uint64_t jsylvan_make_prev(uint64_t a, uint64_t b, uint64_t vars) { return Java_jsylvan_JSylvan_makePrev(NULL, NULL, a, b, vars); }
+JNIEXPORT uint64_t jsylvan_ref(uint64_t a) { return Java_jsylvan_JSylvan_ref(NULL, NULL, a); }
+JNIEXPORT void jsylvan_deref(uint64_t a) { Java_jsylvan_JSylvan_deref(NULL, NULL, a); }
+JNIEXPORT int32_t jsylvan_get_var(uint64_t a) { return Java_jsylvan_JSylvan_getVar(NULL, NULL, a); }
+JNIEXPORT uint64_t jsylvan_get_then(uint64_t a) { return Java_jsylvan_JSylvan_getThen(NULL, NULL, a); }
+JNIEXPORT uint64_t jsylvan_get_else(uint64_t a) { return Java_jsylvan_JSylvan_getElse(NULL, NULL, a); }
+JNIEXPORT double jsylvan_satcount(uint64_t a, uint64_t vars) { return Java_jsylvan_JSylvan_satcount(NULL, NULL, a, vars); }
+JNIEXPORT uint64_t jsylvan_nodecount(uint64_t a) { return Java_jsylvan_JSylvan_nodecount(NULL, NULL, a); }
+JNIEXPORT uint64_t jsylvan_fold_par(int32_t op, const uint64_t *bdds, int32_t count, uint64_t vars) { return jsylvan_fold(op, bdds, count, vars); }
+JNIEXPORT uint64_t jsylvan_make_ref(int32_t op, uint64_t a, uint64_t b, uint64_t c) { return Java_jsylvan_JSylvan_makeRef0(NULL, NULL, op, a, b, c); }
@@ -0,0 +1,42 @@
+/*
+ * Guard for the JNI entry points of builds with the bundled Lace.
+ *
+ * This Lace has no external task queue: LACE_ME, and with it every Sylvan operation,
+ * dereferences the worker of the calling thread, which is NULL on any thread that Lace
+ * did not start. Only the thread that initialized JSylvan is such a worker (see
+ * Java_jsylvan_JSylvan_registerThread0), so every entry point checks the caller first
+ * and throws instead of crashing the JVM.
+ *
+ * The plain C entry points of the FFM backend pass no JNI environment; for them a call
+ * from another thread is a fatal error with a message instead of a segmentation fault.
+ */
+
+#ifndef JSYLVAN_LACE_WORKER_H
+#define JSYLVAN_LACE_WORKER_H
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <jni.h>
+#include <lace.h>
+
+static inline int
+jsylvan_is_worker(JNIEnv *env)
+{
+    if (lace_get_worker() != NULL) return 1;
+    if (env == NULL) {
+        fprintf(stderr, "JSylvan called from a thread that is not a Lace worker\n");
+        abort();
+    }
+    jclass ex = (*env)->FindClass(env, "java/lang/IllegalStateException");
+    if (ex != NULL) {
+        (*env)->ThrowNew(env, ex, "JSylvan called from a thread that is not a Lace worker; "
+                "this Lace build only accepts the thread that initialized JSylvan");
+    }
+    return 0;
+}
+
+/* Return from the calling JNI function with the given value unless the caller is a worker */
+#define JSYLVAN_WORKER_ONLY(env, ...) \
+    do { if (!jsylvan_is_worker(env)) return __VA_ARGS__; } while (0)
+
+#endif
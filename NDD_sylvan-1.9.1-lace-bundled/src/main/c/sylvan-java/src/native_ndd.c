@@ -0,0 +1,849 @@
+/*
+ * Native NDD engine on top of Sylvan, see jsylvan.NativeNDD.
+ *
+ * An NDD node is a field id plus a set of edges (descendant, BDD label). Nodes live in a
+ * chunked node array that never moves, so that Lace workers can read nodes while another
+ * worker creates new ones; only the unique table itself is guarded by a lock. Node 0 is
+ * FALSE and node 1 is TRUE.
+ *
+ * The apply recursion runs as Lace tasks: every pair of edges in the cross-product of two
+ * nodes spawns the recursive call on the descendants, and the label intersections are
+ * computed by the spawning worker while the descendants are being processed.
+ *
+ * All labels stored in a node are referenced in Sylvan. Nodes are only freed by
+ * Java_jsylvan_NativeNDD_gc0, which must not run concurrently with an operation.
+ *
+ * When no node can be created or a scratch array cannot be allocated, the task returns
+ * NDD_FAILED. The tasks pass it up instead of a result, and the JNI wrappers turn it into
+ * an OutOfMemoryError.
+ */
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdatomic.h>
+#include <pthread.h>
+#include <jni.h>
+#include <sylvan.h>
+#include <lace.h>
+#include "lace_worker.h"
+
+typedef uint64_t NDDID;
+
+#define NDD_FALSE ((NDDID)0)
+#define NDD_TRUE  ((NDDID)1)
+#define NDD_FAILED UINT64_MAX
+
+#define NDD_CHUNK_BITS 16
+#define NDD_CHUNK_SIZE (1UL << NDD_CHUNK_BITS)
+#define NDD_MAX_CHUNKS (1UL << 16)
+
+typedef struct ndd_node
+{
+    int32_t field;          // -1 for a free slot
+    uint32_t count;         // number of edges
+    uint64_t hash;
+    NDDID *children;        // sorted ascending, followed by the labels of the edges
+    BDD *labels;
+    _Atomic int32_t refs;   // references from Java
+    uint32_t mark;
+} ndd_node_t;
+
+static ndd_node_t *chunks[NDD_MAX_CHUNKS];
+static NDDID next_id;       // first never used id
+static NDDID *free_ids;     // ids of nodes freed by gc
+static size_t free_count, free_size;
+static size_t node_count;   // number of live nodes, without the terminals
+
+static NDDID *utable;       // open addressing, 0 marks an empty slot
+static size_t utable_size, utable_used;
+
+static pthread_mutex_t ndd_lock = PTHREAD_MUTEX_INITIALIZER;
+
+#define NODE(id) (&chunks[(id) >> NDD_CHUNK_BITS][(id) & (NDD_CHUNK_SIZE - 1)])
+
+/*
+ * Operation cache: direct mapped and lossy. A worker that finds an entry locked simply
+ * skips the cache instead of waiting.
+ */
+#define NDD_OP_AND   1
+#define NDD_OP_OR    2
+#define NDD_OP_NOT   3
+#define NDD_OP_EXIST 4
+
+typedef struct ndd_cache_entry
+{
+    atomic_flag lock;
+    uint32_t op;
+    NDDID a, b, result;
+} ndd_cache_entry_t;
+
+static ndd_cache_entry_t *cache;
+static size_t cache_mask;
+
+static inline uint64_t
+ndd_mix(uint64_t h, uint64_t v)
+{
+    h ^= v + 0x9e3779b97f4a7c15ULL + (h << 6) + (h >> 2);
+    h *= 0xff51afd7ed558ccdULL;
+    return h ^ (h >> 32);
+}
+
+static int
+cache_get(uint32_t op, NDDID a, NDDID b, NDDID *result)
+{
+    ndd_cache_entry_t *e = &cache[ndd_mix(ndd_mix(op, a), b) & cache_mask];
+    if (atomic_flag_test_and_set_explicit(&e->lock, memory_order_acquire)) return 0;
+    int hit = e->op == op && e->a == a && e->b == b;
+    if (hit) *result = e->result;
+    atomic_flag_clear_explicit(&e->lock, memory_order_release);
+    return hit;
+}
+
+static void
+cache_put(uint32_t op, NDDID a, NDDID b, NDDID result)
+{
+    if (result == NDD_FAILED) return;
+    ndd_cache_entry_t *e = &cache[ndd_mix(ndd_mix(op, a), b) & cache_mask];
+    if (atomic_flag_test_and_set_explicit(&e->lock, memory_order_acquire)) return;
+    e->op = op;
+    e->a = a;
+    e->b = b;
+    e->result = result;
+    atomic_flag_clear_explicit(&e->lock, memory_order_release);
+}
+
+static void
+cache_clear(void)
+{
+    for (size_t i = 0; i <= cache_mask; i++) {
+        cache[i].op = 0;
+    }
+}
+
+static uint64_t
+node_hash(int32_t field, uint32_t count, const NDDID *children, const BDD *labels)
+{
+    uint64_t h = ndd_mix(14695981039346656037ULL, (uint64_t)field);
+    for (uint32_t i = 0; i < count; i++) {
+        h = ndd_mix(h, children[i]);
+        h = ndd_mix(h, labels[i]);
+    }
+    return h;
+}
+
+static void
+utable_insert(NDDID id)
+{
+    size_t mask = utable_size - 1;
+    size_t i = NODE(id)->hash & mask;
+    while (utable[i] != 0) i = (i + 1) & mask;
+    utable[i] = id;
+    utable_used++;
+}
+
+static void
+utable_fill(void)
+{
+    utable_used = 0;
+    for (NDDID id = 2; id < next_id; id++) {
+        if (NODE(id)->field >= 0) utable_insert(id);
+    }
+}
+
+/**
+ * Move the live nodes to a unique table of <size> slots. Returns 0 and keeps the current
+ * table if the new one cannot be allocated.
+ */
+static int
+utable_rebuild(size_t size)
+{
+    NDDID *table = (NDDID*)calloc(size, sizeof(NDDID));
+    if (table == NULL) return 0;
+    free(utable);
+    utable = table;
+    utable_size = size;
+    utable_fill();
+    return 1;
+}
+
+/**
+ * Find or create the node of the given canonical edges. Takes over the references of
+ * the labels. Only a lookup or an insertion happens under the lock, never a Sylvan call,
+ * so a worker waiting here cannot hold up a Sylvan garbage collection.
+ * Returns NDD_FAILED if the node ids or the memory ran out.
+ */
+static NDDID
+unique_node(int32_t field, uint32_t count, NDDID *children, BDD *labels)
+{
+    uint64_t hash = node_hash(field, count, children, labels);
+
+    pthread_mutex_lock(&ndd_lock);
+    size_t mask = utable_size - 1;
+    for (size_t i = hash & mask; utable[i] != 0; i = (i + 1) & mask) {
+        ndd_node_t *n = NODE(utable[i]);
+        if (n->hash == hash && n->field == field && n->count == count &&
+                memcmp(n->children, children, count * sizeof(NDDID)) == 0 &&
+                memcmp(n->labels, labels, count * sizeof(BDD)) == 0) {
+            NDDID found = utable[i];
+            pthread_mutex_unlock(&ndd_lock);
+            for (uint32_t j = 0; j < count; j++) sylvan_deref(labels[j]);
+            return found;
+        }
+    }
+
+    // grow the table first, so a failure leaves no node half made
+    int room = 2 * (utable_used + 1) <= utable_size || utable_rebuild(2 * utable_size);
+    NDDID *edges = room ? (NDDID*)malloc(count * (sizeof(NDDID) + sizeof(BDD))) : NULL;
+    NDDID id = NDD_FAILED;
+    if (edges != NULL && free_count > 0) {
+        id = free_ids[--free_count];
+    } else if (edges != NULL && (next_id >> NDD_CHUNK_BITS) < NDD_MAX_CHUNKS) {
+        size_t c = next_id >> NDD_CHUNK_BITS;
+        if (chunks[c] == NULL) chunks[c] = (ndd_node_t*)calloc(NDD_CHUNK_SIZE, sizeof(ndd_node_t));
+        if (chunks[c] != NULL) id = next_id++;
+    }
+    if (id == NDD_FAILED) {
+        pthread_mutex_unlock(&ndd_lock);
+        free(edges);
+        for (uint32_t j = 0; j < count; j++) sylvan_deref(labels[j]);
+        return NDD_FAILED;
+    }
+
+    ndd_node_t *n = NODE(id);
+    n->children = edges;
+    n->labels = (BDD*)(n->children + count);
+    memcpy(n->children, children, count * sizeof(NDDID));
+    memcpy(n->labels, labels, count * sizeof(BDD));
+    n->count = count;
+    n->hash = hash;
+    atomic_store(&n->refs, 0);
+    n->mark = 0;
+    n->field = field;
+    node_count++;
+
+    utable_insert(id);
+    pthread_mutex_unlock(&ndd_lock);
+    return id;
+}
+
+/**
+ * Create a node from arbitrary edges: drops edges to FALSE and empty labels, merges the
+ * labels of edges to the same descendant and sorts the edges by descendant.
+ * Takes over the references of the labels; the arrays are used as scratch space.
+ */
+TASK_4(NDDID, ndd_mk, int32_t, field, uint32_t, count, NDDID*, children, BDD*, labels)
+{
+    for (uint32_t i = 0; i < count; i++) {
+        if (children[i] == NDD_FAILED) {
+            for (uint32_t j = 0; j < count; j++) sylvan_deref(labels[j]);
+            return NDD_FAILED;
+        }
+    }
+
+    uint32_t k = 0;
+    for (uint32_t i = 0; i < count; i++) {
+        if (children[i] == NDD_FALSE || labels[i] == sylvan_false) {
+            sylvan_deref(labels[i]);
+            continue;
+        }
+        // insertion sort, merging equal descendants
+        uint32_t j = k;
+        while (j > 0 && children[j-1] > children[i]) j--;
+        if (j > 0 && children[j-1] == children[i]) {
+            BDD merged = sylvan_ref(CALL(sylvan_ite, labels[j-1], sylvan_true, labels[i], 0));
+            sylvan_deref(labels[j-1]);
+            sylvan_deref(labels[i]);
+            labels[j-1] = merged;
+            continue;
+        }
+        NDDID child = children[i];
+        BDD label = labels[i];
+        memmove(children + j + 1, children + j, (k - j) * sizeof(NDDID));
+        memmove(labels + j + 1, labels + j, (k - j) * sizeof(BDD));
+        children[j] = child;
+        labels[j] = label;
+        k++;
+    }
+
+    if (k == 0) return NDD_FALSE;
+    if (k == 1 && labels[0] == sylvan_true) return children[0];
+    return unique_node(field, k, children, labels);
+}
+
+/**
+ * Disjunction of the labels of a node, referenced.
+ */
+TASK_1(BDD, ndd_cover, ndd_node_t*, n)
+{
+    BDD cover = sylvan_false;
+    for (uint32_t i = 0; i < n->count; i++) {
+        BDD next = sylvan_ref(CALL(sylvan_ite, cover, sylvan_true, n->labels[i], 0));
+        sylvan_deref(cover);
+        cover = next;
+    }
+    return cover;
+}
+
+TASK_2(NDDID, ndd_and, NDDID, a, NDDID, b)
+{
+    if (a == NDD_FAILED || b == NDD_FAILED) return NDD_FAILED;
+    if (a == NDD_FALSE || b == NDD_TRUE || a == b) return a;
+    if (a == NDD_TRUE || b == NDD_FALSE) return b;
+    if (a > b) { NDDID t = a; a = b; b = t; }
+
+    NDDID result;
+    if (cache_get(NDD_OP_AND, a, b, &result)) return result;
+
+    ndd_node_t *na = NODE(a), *nb = NODE(b);
+    if (na->field > nb->field) { ndd_node_t *t = na; na = nb; nb = t; NDDID u = a; a = b; b = u; }
+
+    size_t max = na->field == nb->field ? (size_t)na->count * nb->count : na->count;
+    NDDID *children = (NDDID*)malloc(max * sizeof(NDDID));
+    BDD *labels = (BDD*)malloc(max * sizeof(BDD));
+    if (children == NULL || labels == NULL) {
+        free(children);
+        free(labels);
+        return NDD_FAILED;
+    }
+    uint32_t k = 0;
+
+    if (na->field == nb->field) {
+        for (uint32_t i = 0; i < na->count; i++) {
+            for (uint32_t j = 0; j < nb->count; j++) {
+                BDD label = sylvan_ref(CALL(sylvan_ite, na->labels[i], nb->labels[j], sylvan_false, 0));
+                if (label == sylvan_false) continue;
+                labels[k++] = label;
+                SPAWN(ndd_and, na->children[i], nb->children[j]);
+            }
+        }
+    } else {
+        for (uint32_t i = 0; i < na->count; i++) {
+            labels[k++] = sylvan_ref(na->labels[i]);
+            SPAWN(ndd_and, na->children[i], b);
+        }
+    }
+    for (uint32_t i = k; i > 0; i--) children[i-1] = SYNC(ndd_and);
+
+    result = CALL(ndd_mk, na->field, k, children, labels);
+    free(children);
+    free(labels);
+    cache_put(NDD_OP_AND, a < b ? a : b, a < b ? b : a, result);
+    return result;
+}
+
+TASK_2(NDDID, ndd_or, NDDID, a, NDDID, b)
+{
+    if (a == NDD_FAILED || b == NDD_FAILED) return NDD_FAILED;
+    if (a == NDD_TRUE || b == NDD_FALSE || a == b) return a;
+    if (a == NDD_FALSE || b == NDD_TRUE) return b;
+    if (a > b) { NDDID t = a; a = b; b = t; }
+
+    NDDID result;
+    if (cache_get(NDD_OP_OR, a, b, &result)) return result;
+
+    ndd_node_t *na = NODE(a), *nb = NODE(b);
+    if (na->field > nb->field) { ndd_node_t *t = na; na = nb; nb = t; NDDID u = a; a = b; b = u; }
+
+    size_t max = na->field == nb->field
+        ? (size_t)na->count * nb->count + na->count + nb->count
+        : (size_t)na->count + 1;
+    NDDID *children = (NDDID*)malloc(max * sizeof(NDDID));
+    BDD *labels = (BDD*)malloc(max * sizeof(BDD));
+    if (children == NULL || labels == NULL) {
+        free(children);
+        free(labels);
+        return NDD_FAILED;
+    }
+    uint32_t k = 0;
+
+    BDD coverA = CALL(ndd_cover, na);
+    if (na->field == nb->field) {
+        BDD coverB = CALL(ndd_cover, nb);
+        for (uint32_t i = 0; i < na->count; i++) {
+            for (uint32_t j = 0; j < nb->count; j++) {
+                BDD label = sylvan_ref(CALL(sylvan_ite, na->labels[i], nb->labels[j], sylvan_false, 0));
+                if (label == sylvan_false) continue;
+                labels[k++] = label;
+                SPAWN(ndd_or, na->children[i], nb->children[j]);
+            }
+        }
+        uint32_t spawned = k;
+        // the parts of each label that the other operand does not cover keep their descendant
+        for (uint32_t i = 0; i < na->count; i++) {
+            children[k] = na->children[i];
+            labels[k++] = sylvan_ref(CALL(sylvan_ite, coverB, sylvan_false, na->labels[i], 0));
+        }
+        for (uint32_t j = 0; j < nb->count; j++) {
+            children[k] = nb->children[j];
+            labels[k++] = sylvan_ref(CALL(sylvan_ite, coverA, sylvan_false, nb->labels[j], 0));
+        }
+        for (uint32_t i = spawned; i > 0; i--) children[i-1] = SYNC(ndd_or);
+        sylvan_deref(coverB);
+    } else {
+        for (uint32_t i = 0; i < na->count; i++) {
+            labels[k++] = sylvan_ref(na->labels[i]);
+            SPAWN(ndd_or, na->children[i], b);
+        }
+        children[k] = b;
+        labels[k++] = sylvan_ref(sylvan_not(coverA));
+        for (uint32_t i = k - 1; i > 0; i--) children[i-1] = SYNC(ndd_or);
+    }
+    sylvan_deref(coverA);
+
+    result = CALL(ndd_mk, na->field, k, children, labels);
+    free(children);
+    free(labels);
+    cache_put(NDD_OP_OR, a < b ? a : b, a < b ? b : a, result);
+    return result;
+}
+
+TASK_1(NDDID, ndd_not, NDDID, a)
+{
+    if (a == NDD_FAILED) return NDD_FAILED;
+    if (a == NDD_TRUE) return NDD_FALSE;
+    if (a == NDD_FALSE) return NDD_TRUE;
+
+    NDDID result;
+    if (cache_get(NDD_OP_NOT, a, 0, &result)) return result;
+
+    ndd_node_t *na = NODE(a);
+    NDDID *children = (NDDID*)malloc((na->count + 1) * sizeof(NDDID));
+    BDD *labels = (BDD*)malloc((na->count + 1) * sizeof(BDD));
+    if (children == NULL || labels == NULL) {
+        free(children);
+        free(labels);
+        return NDD_FAILED;
+    }
+    uint32_t k = 0;
+
+    for (uint32_t i = 0; i < na->count; i++) {
+        labels[k++] = sylvan_ref(na->labels[i]);
+        SPAWN(ndd_not, na->children[i]);
+    }
+    BDD cover = CALL(ndd_cover, na);
+    children[k] = NDD_TRUE;
+    labels[k++] = sylvan_ref(sylvan_not(cover));
+    sylvan_deref(cover);
+    for (uint32_t i = k - 1; i > 0; i--) children[i-1] = SYNC(ndd_not);
+
+    result = CALL(ndd_mk, na->field, k, children, labels);
+    free(children);
+    free(labels);
+    cache_put(NDD_OP_NOT, a, 0, result);
+    return result;
+}
+
+/**
+ * Balanced parallel disjunction of arr[first..last].
+ */
+TASK_3(NDDID, ndd_or_range, const NDDID*, arr, uint32_t, first, uint32_t, last)
+{
+    if (first == last) return arr[first];
+    uint32_t mid = first + (last - first) / 2;
+    SPAWN(ndd_or_range, arr, first, mid);
+    NDDID right = CALL(ndd_or_range, arr, mid + 1, last);
+    NDDID left = SYNC(ndd_or_range);
+    return CALL(ndd_or, left, right);
+}
+
+TASK_2(NDDID, ndd_exist, NDDID, a, int32_t, field)
+{
+    if (a <= NDD_TRUE) return a;
+    ndd_node_t *na = NODE(a);
+    if (na->field > field) return a;
+
+    NDDID result;
+    if (cache_get(NDD_OP_EXIST, a, (NDDID)field, &result)) return result;
+
+    if (na->field == field) {
+        result = CALL(ndd_or_range, na->children, 0, na->count - 1);
+    } else {
+        NDDID *children = (NDDID*)malloc(na->count * sizeof(NDDID));
+        BDD *labels = (BDD*)malloc(na->count * sizeof(BDD));
+        if (children == NULL || labels == NULL) {
+            free(children);
+            free(labels);
+            return NDD_FAILED;
+        }
+        for (uint32_t i = 0; i < na->count; i++) {
+            labels[i] = sylvan_ref(na->labels[i]);
+            SPAWN(ndd_exist, na->children[i], field);
+        }
+        for (uint32_t i = na->count; i > 0; i--) children[i-1] = SYNC(ndd_exist);
+        result = CALL(ndd_mk, na->field, na->count, children, labels);
+        free(children);
+        free(labels);
+    }
+    cache_put(NDD_OP_EXIST, a, (NDDID)field, result);
+    return result;
+}
+
+TASK_2(NDDID, ndd_diff, NDDID, a, NDDID, b)
+{
+    NDDID notB = CALL(ndd_not, b);
+    return CALL(ndd_and, a, notB);
+}
+
+TASK_2(NDDID, ndd_imp, NDDID, a, NDDID, b)
+{
+    NDDID notA = CALL(ndd_not, a);
+    return CALL(ndd_or, notA, b);
+}
+
+/*
+ * toBDD memoizes the BDD of every visited node in a table local to the call.
+ */
+typedef struct ndd_bdd_memo
+{
+    NDDID *keys;
+    BDD *values;
+    size_t mask;
+} ndd_bdd_memo_t;
+
+TASK_2(BDD, ndd_to_bdd, NDDID, a, ndd_bdd_memo_t*, memo)
+{
+    if (a == NDD_TRUE) return sylvan_true;
+    if (a == NDD_FALSE) return sylvan_false;
+
+    size_t slot = ndd_mix(0, a) & memo->mask;
+    while (memo->keys[slot] != 0) {
+        if (memo->keys[slot] == a) return memo->values[slot];
+        slot = (slot + 1) & memo->mask;
+    }
+
+    ndd_node_t *na = NODE(a);
+    BDD result = sylvan_false;
+    for (uint32_t i = 0; i < na->count; i++) {
+        BDD child = CALL(ndd_to_bdd, na->children[i], memo);
+        BDD edge = sylvan_ref(CALL(sylvan_ite, na->labels[i], child, sylvan_false, 0));
+        BDD next = sylvan_ref(CALL(sylvan_ite, result, sylvan_true, edge, 0));
+        sylvan_deref(edge);
+        sylvan_deref(result);
+        result = next;
+    }
+
+    // the recursion may have filled the table, so probe again
+    slot = ndd_mix(0, a) & memo->mask;
+    while (memo->keys[slot] != 0) slot = (slot + 1) & memo->mask;
+    memo->keys[slot] = a;
+    memo->values[slot] = result;
+    return result;
+}
+
+/**
+ * The BDD of an NDD, not referenced. sylvan_invalid if the memo table cannot be allocated.
+ */
+TASK_1(BDD, ndd_to_bdd_root, NDDID, a)
+{
+    ndd_bdd_memo_t memo;
+    size_t size = 64;
+    while (size < 2 * node_count + 2) size <<= 1;
+    memo.keys = (NDDID*)calloc(size, sizeof(NDDID));
+    memo.values = (BDD*)malloc(size * sizeof(BDD));
+    memo.mask = size - 1;
+    if (memo.keys == NULL || memo.values == NULL) {
+        free(memo.keys);
+        free(memo.values);
+        return sylvan_invalid;
+    }
+
+    BDD result = sylvan_ref(CALL(ndd_to_bdd, a, &memo));
+    for (size_t i = 0; i < size; i++) {
+        if (memo.keys[i] != 0) sylvan_deref(memo.values[i]);
+    }
+    free(memo.keys);
+    free(memo.values);
+    sylvan_deref(result);
+    return result;
+}
+
+static void
+throw_exception(JNIEnv *env, const char *name, const char *message)
+{
+    jclass ex = (*env)->FindClass(env, name);
+    if (ex != NULL) (*env)->ThrowNew(env, ex, message);
+}
+
+static int
+is_node(NDDID a)
+{
+    return a >= 2 && a < next_id && NODE(a)->field >= 0;
+}
+
+/**
+ * Pass the result of an operation to Java, throwing an OutOfMemoryError if it failed.
+ */
+static jlong
+ndd_result(JNIEnv *env, NDDID result)
+{
+    if (result == NDD_FAILED) {
+        throw_exception(env, "java/lang/OutOfMemoryError", "native NDD: out of node ids or memory");
+        return 0;
+    }
+    return (jlong)result;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_NativeNDD_init0(JNIEnv *env, jclass cl, jint cacheSize)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    size_t size = 1;
+    while (size < (size_t)cacheSize) size <<= 1;
+    cache = (ndd_cache_entry_t*)calloc(size, sizeof(ndd_cache_entry_t));
+    chunks[0] = (ndd_node_t*)calloc(NDD_CHUNK_SIZE, sizeof(ndd_node_t));
+    free_size = 1024;
+    free_ids = (NDDID*)malloc(free_size * sizeof(NDDID));
+    next_id = 2;
+    node_count = 0;
+    free_count = 0;
+    if (cache == NULL || chunks[0] == NULL || free_ids == NULL || !utable_rebuild(1024)) {
+        free(cache);
+        free(chunks[0]);
+        free(free_ids);
+        cache = NULL;
+        chunks[0] = NULL;
+        free_ids = NULL;
+        throw_exception(env, "java/lang/OutOfMemoryError", "native NDD: cannot allocate the tables");
+        return;
+    }
+    for (size_t i = 0; i < size; i++) atomic_flag_clear(&cache[i].lock);
+    cache_mask = size - 1;
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_NativeNDD_quit0(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    for (NDDID id = 2; id < next_id; id++) {
+        ndd_node_t *n = NODE(id);
+        if (n->field < 0) continue;
+        for (uint32_t i = 0; i < n->count; i++) sylvan_deref(n->labels[i]);
+        free(n->children);
+    }
+    for (size_t c = 0; c < NDD_MAX_CHUNKS && chunks[c] != NULL; c++) {
+        free(chunks[c]);
+        chunks[c] = NULL;
+    }
+    free(utable);
+    free(free_ids);
+    free(cache);
+    utable = NULL;
+    free_ids = NULL;
+    cache = NULL;
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_mk0(JNIEnv *env, jclass cl, jint field, jlongArray children, jlongArray labels)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    jsize count = (*env)->GetArrayLength(env, children);
+    if ((*env)->GetArrayLength(env, labels) != count) {
+        throw_exception(env, "java/lang/IllegalArgumentException", "children and labels differ in length");
+        return 0;
+    }
+    NDDID *c = (NDDID*)malloc((count + 1) * sizeof(NDDID));
+    BDD *l = (BDD*)malloc((count + 1) * sizeof(BDD));
+    if (c == NULL || l == NULL) {
+        free(c);
+        free(l);
+        return ndd_result(env, NDD_FAILED);
+    }
+    (*env)->GetLongArrayRegion(env, children, 0, count, (jlong*)c);
+    (*env)->GetLongArrayRegion(env, labels, 0, count, (jlong*)l);
+    for (jsize i = 0; i < count; i++) sylvan_ref(l[i]);
+
+    NDDID result = RUN(ndd_mk, field, count, c, l);
+    free(c);
+    free(l);
+    return ndd_result(env, result);
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_and0(JNIEnv *env, jclass cl, jlong a, jlong b)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_and, a, b));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_or0(JNIEnv *env, jclass cl, jlong a, jlong b)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_or, a, b));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_not0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_not, a));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_diff0(JNIEnv *env, jclass cl, jlong a, jlong b)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_diff, a, b));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_imp0(JNIEnv *env, jclass cl, jlong a, jlong b)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_imp, a, b));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_exist0(JNIEnv *env, jclass cl, jlong a, jint field)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return ndd_result(env, RUN(ndd_exist, a, field));
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_toBDD0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    BDD result = RUN(ndd_to_bdd_root, a);
+    if (result == sylvan_invalid) {
+        throw_exception(env, "java/lang/OutOfMemoryError", "native NDD: cannot allocate the memo table");
+        return 0;
+    }
+    return (jlong)result;
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_NativeNDD_ref0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (is_node(a)) atomic_fetch_add(&NODE(a)->refs, 1);
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT void JNICALL
+Java_jsylvan_NativeNDD_deref0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env);
+    if (is_node(a)) atomic_fetch_sub(&NODE(a)->refs, 1);
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jint JNICALL
+Java_jsylvan_NativeNDD_getField0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return is_node(a) ? NODE(a)->field : -1;
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jint JNICALL
+Java_jsylvan_NativeNDD_getEdgeCount0(JNIEnv *env, jclass cl, jlong a)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return is_node(a) ? (jint)NODE(a)->count : 0;
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_getChild0(JNIEnv *env, jclass cl, jlong a, jint i)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return (jlong)NODE(a)->children[i];
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_getLabel0(JNIEnv *env, jclass cl, jlong a, jint i)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return (jlong)NODE(a)->labels[i];
+    (void)env;
+    (void)cl;
+}
+
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_nodeCount0(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    return (jlong)node_count;
+    (void)env;
+    (void)cl;
+}
+
+static void
+ndd_mark(NDDID a)
+{
+    if (a <= NDD_TRUE) return;
+    ndd_node_t *n = NODE(a);
+    if (n->mark) return;
+    n->mark = 1;
+    for (uint32_t i = 0; i < n->count; i++) ndd_mark(n->children[i]);
+}
+
+/**
+ * Free every node that is not reachable from a node referenced by Java.
+ */
+JNIEXPORT jlong JNICALL
+Java_jsylvan_NativeNDD_gc0(JNIEnv *env, jclass cl)
+{
+    JSYLVAN_WORKER_ONLY(env, 0);
+    for (NDDID id = 2; id < next_id; id++) {
+        ndd_node_t *n = NODE(id);
+        if (n->field >= 0 && atomic_load(&n->refs) > 0) ndd_mark(id);
+    }
+
+    size_t freed = 0;
+    for (NDDID id = 2; id < next_id; id++) {
+        ndd_node_t *n = NODE(id);
+        if (n->field < 0) continue;
+        if (n->mark) {
+            n->mark = 0;
+            continue;
+        }
+        for (uint32_t i = 0; i < n->count; i++) sylvan_deref(n->labels[i]);
+        free(n->children);
+        n->children = NULL;
+        n->labels = NULL;
+        n->field = -1;
+        if (free_count == free_size) {
+            NDDID *grown = (NDDID*)realloc(free_ids, 2 * free_size * sizeof(NDDID));
+            if (grown != NULL) {
+                free_ids = grown;
+                free_size *= 2;
+            }
+        }
+        // without room to record it, the id is never reused
+        if (free_count < free_size) free_ids[free_count++] = id;
+        freed++;
+    }
+    node_count -= freed;
+
+    size_t size = 1024;
+    while (size < 2 * (node_count + 1)) size <<= 1;
+    if (!utable_rebuild(size)) {
+        // the current table is larger, as it held the freed nodes as well
+        memset(utable, 0, utable_size * sizeof(NDDID));
+        utable_fill();
+    }
+    cache_clear();
+    return (jlong)freed;
+    (void)env;
+    (void)cl;
+}
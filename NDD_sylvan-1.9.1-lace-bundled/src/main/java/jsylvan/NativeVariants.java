@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The native builds of libsylvan-java in the JAR, one per Sylvan/Lace combination, and the
+ * choice among them.
+ *
+ * Besides its own build (/linux-x64/libsylvan-java.so), a JAR may bundle other builds under
+ * /linux-x64/variants/<name>/, listed in /linux-x64/variants/variants.txt
+ * (see build-variants.sh --bundle). The system property jsylvan.variant picks one by name;
+ * "auto" runs a small benchmark with each build, in a separate JVM as a process can only
+ * load one of them, and takes the fastest. The choice of "auto" is cached next to the
+ * extracted libraries, keyed by the checksums of the builds, so it is made only once.
+ */
+public class NativeVariants
+{
+    /**
+     * The name of the JAR's own build.
+     */
+    public static final String DEFAULT = "default";
+
+    private static final String DEFAULT_LIBRARY = "/linux-x64/libsylvan-java.so";
+    private static final String VARIANTS = "/linux-x64/variants/";
+
+    private static String selected = null;
+
+    private NativeVariants()
+    {
+    }
+
+    /**
+     * Get the names of the builds in the JAR, starting with DEFAULT.
+     */
+    public static List<String> available() throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        names.add(DEFAULT);
+        if (!NativeUtils.hasResource(VARIANTS + "variants.txt")) return names;
+        byte[] list = NativeUtils.readResource(VARIANTS + "variants.txt");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(list), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !names.contains(line)) names.add(line);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get the name of the build loaded by JSylvan.init(), null before.
+     */
+    public static synchronized String selected()
+    {
+        return selected;
+    }
+
+    /**
+     * Load the build named by the system property jsylvan.variant, DEFAULT if unset.
+     */
+    static synchronized void load() throws IOException
+    {
+        String name = System.getProperty("jsylvan.variant", DEFAULT);
+        if (name.equals("auto")) name = fastest();
+        if (!available().contains(name)) {
+            throw new IllegalArgumentException("unknown jsylvan.variant " + name + ", the JAR has " + available());
+        }
+        NativeUtils.loadLibraryFromJar(library(name));
+        selected = name;
+    }
+
+    private static String library(String name)
+    {
+        return name.equals(DEFAULT) ? DEFAULT_LIBRARY : VARIANTS + name + "/libsylvan-java.so";
+    }
+
+    /**
+     * Get the fastest build, from the cache or by running benchmark() with each build.
+     * Builds that fail to run are skipped.
+     */
+    private static String fastest() throws IOException
+    {
+        List<String> names = available();
+        if (names.size() == 1) return DEFAULT;
+
+        StringBuilder key = new StringBuilder();
+        for (String name : names) key.append(name).append('=').append(NativeUtils.checksum(library(name))).append('\n');
+        Path cache = NativeUtils.cacheDir().resolve("auto-" + Integer.toHexString(key.toString().hashCode()));
+        if (Files.isRegularFile(cache)) {
+            List<String> lines = Files.readAllLines(cache, StandardCharsets.UTF_8);
+            // the key is stored too, so a hash collision is noticed
+            if (lines.size() > 1 && String.join("\n", lines.subList(1, lines.size())).equals(key.toString().trim())
+                    && names.contains(lines.get(0))) {
+                return lines.get(0);
+            }
+        }
+
+        String best = DEFAULT;
+        long bestTime = Long.MAX_VALUE;
+        for (String name : names) {
+            long time = runBenchmark(name);
+            if (time >= 0 && time < bestTime) {
+                best = name;
+                bestTime = time;
+            }
+        }
+
+        // a failure of every build, such as a broken classpath, is not a verdict worth keeping
+        if (bestTime == Long.MAX_VALUE) return DEFAULT;
+
+        Files.createDirectories(cache.getParent());
+        List<String> lines = new ArrayList<>();
+        lines.add(best);
+        Collections.addAll(lines, key.toString().trim().split("\n"));
+        Files.write(cache, lines, StandardCharsets.UTF_8);
+        return best;
+    }
+
+    /**
+     * Run main() with a build in a new JVM.
+     *
+     * @return The time of the benchmark in nanoseconds, -1 if the build failed.
+     */
+    private static long runBenchmark(String name)
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Djsylvan.variant=" + name, "-Djsylvan.cache.dir=" + NativeUtils.cacheDir(),
+                NativeVariants.class.getName());
+        pb.redirectErrorStream(true);
+        try {
+            Process process = pb.start();
+            String last = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) last = line;
+            }
+            if (process.waitFor() != 0 || last == null) return -1;
+            return Long.parseLong(last.trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * Build the BDD of the n-queens problem, the workload of the NQueens benchmark, and
+     * return the time in nanoseconds. The best of three runs is taken, so the JIT has warmed up.
+     */
+    static long benchmark(int n)
+    {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long queens = JSylvan.ref(JSylvan.getTrue());
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    // a queen on (i, j) excludes the other squares of its row, column and diagonals
+                    long others = JSylvan.ref(JSylvan.getTrue());
+                    for (int k = 0; k < n; k++) {
+                        for (int l = 0; l < n; l++) {
+                            boolean attacked = k == i || l == j || k - l == i - j || k + l == i + j;
+                            if (attacked && (k != i || l != j)) {
+                                long free = JSylvan.makeNot(JSylvan.makeVar(k * n + l));
+                                long next = JSylvan.ref(JSylvan.makeAnd(others, free));
+                                JSylvan.deref(others);
+                                others = next;
+                            }
+                        }
+                    }
+                    long rule = JSylvan.ref(JSylvan.makeImplies(JSylvan.makeVar(i * n + j), others));
+                    long next = JSylvan.ref(JSylvan.makeAnd(queens, rule));
+                    JSylvan.deref(rule);
+                    JSylvan.deref(others);
+                    JSylvan.deref(queens);
+                    queens = next;
+                }
+                // one queen in each row
+                long row = JSylvan.ref(JSylvan.getFalse());
+                for (int j = 0; j < n; j++) {
+                    long next = JSylvan.ref(JSylvan.makeOr(row, JSylvan.makeVar(i * n + j)));
+                    JSylvan.deref(row);
+                    row = next;
+                }
+                long next = JSylvan.ref(JSylvan.makeAnd(queens, row));
+                JSylvan.deref(row);
+                JSylvan.deref(queens);
+                queens = next;
+            }
+            JSylvan.deref(queens);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * The benchmark of the build named by jsylvan.variant, run by the "auto" choice.
+     * Prints the time in nanoseconds as the last line.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        JSylvan.init(0, 1L << 30, 1, 4, 1);
+        System.out.println(benchmark(args.length > 0 ? Integer.parseInt(args[0]) : 8));
+        JSylvan.quit();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+/**
+ * The resources an operation may use: a budget of nodes, a deadline and a cancellation
+ * token, each optional. Operations that take a limit check it as they go and throw an
+ * OperationAbortedException when one is exceeded, such as JSylvan.makeAndExists(long,
+ * long, long, OperationLimit).
+ *
+ * Every node made counts towards the budget, also when an equal node already existed, so
+ * the budget bounds the work of the operation rather than the growth of the table. The
+ * deadline counts from the creation of the limit. A limit is meant for one operation, or
+ * a sequence of them sharing the budget, on one thread.
+ */
+public class OperationLimit
+{
+    private final long maxNodes;
+    private final long deadline;
+    private final boolean hasDeadline;
+    private final CancellationToken token;
+
+    private long nodesMade = 0;
+
+    /**
+     * The outcome of the last native bounded call: the reason it aborted, 0 if it did not,
+     * and the number of nodes it made. Reused by every call under this limit.
+     */
+    final long[] status = new long[2];
+
+    /**
+     * @param maxNodes The number of nodes the operation may make, 0 for no budget.
+     * @param timeoutMillis The time the operation may take in milliseconds, 0 for no deadline.
+     * @param token The token to cancel the operation, null for none.
+     */
+    public OperationLimit(long maxNodes, long timeoutMillis, CancellationToken token)
+    {
+        if (maxNodes < 0 || timeoutMillis < 0) throw new IllegalArgumentException("negative limit");
+        this.maxNodes = maxNodes == 0 ? Long.MAX_VALUE : maxNodes;
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        this.token = token;
+    }
+
+    /**
+     * Throw an OperationAbortedException if a limit is exceeded.
+     */
+    public void check()
+    {
+        if (token != null && token.isCancelled()) throw aborted(OperationAbortedException.Reason.CANCELLED);
+        if (nodesMade > maxNodes) throw aborted(OperationAbortedException.Reason.NODE_BUDGET);
+        if (hasDeadline && System.nanoTime() - deadline >= 0) throw aborted(OperationAbortedException.Reason.DEADLINE);
+    }
+
+    /**
+     * Count nodes made by the operation, and throw an OperationAbortedException if that
+     * exceeds the budget.
+     */
+    public void addNodes(long count)
+    {
+        nodesMade += count;
+        if (nodesMade > maxNodes) throw aborted(OperationAbortedException.Reason.NODE_BUDGET);
+    }
+
+    /**
+     * Get the number of nodes made so far.
+     */
+    public long getNodesMade()
+    {
+        return nodesMade;
+    }
+
+    /**
+     * Get the token, null if none.
+     */
+    public CancellationToken getToken()
+    {
+        return token;
+    }
+
+    /**
+     * Get the number of nodes left in the budget, Long.MAX_VALUE for no budget.
+     */
+    long remainingNodes()
+    {
+        return maxNodes == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, maxNodes - nodesMade);
+    }
+
+    /**
+     * Get the time left in nanoseconds, -1 for no deadline.
+     */
+    long remainingNanos()
+    {
+        return hasDeadline ? Math.max(0, deadline - System.nanoTime()) : -1;
+    }
+
+    /**
+     * Get the exception for a limit that was hit.
+     */
+    OperationAbortedException aborted(OperationAbortedException.Reason reason)
+    {
+        return new OperationAbortedException(reason, nodesMade);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Tom van Dijk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jsylvan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The SylvanStatsMXBean registered by JSylvan.registerMBean().
+ */
+class SylvanStatsBean implements SylvanStatsMXBean
+{
+    @Override
+    public boolean isCountersEnabled()
+    {
+        return JSylvan.stats().hasCounters();
+    }
+
+    @Override
+    public long getTableUsed()
+    {
+        return JSylvan.stats().getTableUsed();
+    }
+
+    @Override
+    public long getTableSize()
+    {
+        return JSylvan.stats().getTableSize();
+    }
+
+    @Override
+    public double getTableFill()
+    {
+        return JSylvan.stats().getTableFill();
+    }
+
+    @Override
+    public long getCacheUsed()
+    {
+        return JSylvan.stats().getCacheUsed();
+    }
+
+    @Override
+    public long getCacheSize()
+    {
+        return JSylvan.stats().getCacheSize();
+    }
+
+    @Override
+    public long getNodesCreated()
+    {
+        return JSylvan.stats().getNodesCreated();
+    }
+
+    @Override
+    public long getNodesReused()
+    {
+        return JSylvan.stats().getNodesReused();
+    }
+
+    @Override
+    public long getGcCount()
+    {
+        return JSylvan.stats().getGcCount();
+    }
+
+    @Override
+    public long getGcTimeMillis()
+    {
+        return JSylvan.stats().getGcTimeNanos() / 1_000_000;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCalls()
+    {
+        SylvanStats stats = JSylvan.stats();
+        Map<String, Long> calls = new LinkedHashMap<>();
+        for (SylvanStats.Op op : SylvanStats.Op.values()) {
+            calls.put(op.name(), stats.getCalls(op));
+        }
+        return calls;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCacheHits()
+    {
+        SylvanStats stats = JSylvan.stats();
+        Map<String, Long> hits = new LinkedHashMap<>();
+        for (SylvanStats.Op op : SylvanStats.Op.values()) {
+            hits.put(op.name(), stats.getCacheHits(op));
+        }
+        return hits;
+    }
+
+    @Override
+    public void resetStats()
+    {
+        JSylvan.resetStats();
+    }
+}
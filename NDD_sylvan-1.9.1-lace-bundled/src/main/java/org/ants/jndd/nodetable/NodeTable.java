@@ -9,10 +9,16 @@ import jdd.bdd.BDD;
 import jdd.util.JDDConsole;
 import jdd.util.Options;
 import org.ants.jndd.diagram.NDD;
+import org.ants.jndd.diagram.NDDManager;
 
 import java.util.*;
 
 public class NodeTable {
+    /**
+     * The manager owning the node table, whose caches and temporary nodes are handled in gc.
+     */
+    private final NDDManager manager;
+
     /**
      * The current size of the node table.
      */
@@ -43,33 +49,63 @@ public class NodeTable {
      */
     HashMap<NDD, Integer> referenceCount;
 
+    /**
+     * The nodes whose reference count dropped to 0, the only candidates of garbage collection.
+     * A queued node may be revived before it is collected, so its count is checked again.
+     */
+    LinkedHashSet<NDD> zeroRefNodes;
+
+    /**
+     * The max pause of one garbage collection in nanoseconds, 0 for freeing all garbage at once.
+     */
+    long pauseBudget;
+
+    /**
+     * The size of the node table that triggers the next garbage collection.
+     */
+    long gcThreshold;
+
+    /**
+     * If a collection runs out of its pause budget, the next one starts after this share of
+     * nddTableSize more nodes is created.
+     */
+    final double SLICE_ALLOCATION = 0.01;
+
     /**
      * Construct function for ndd.
+     * @param manager The manager owning the node table.
      * @param nddTableSize The max size of ndd node table.
      * @param bddTableSize The max size of bdd node table.
      * @param bddCacheSize The max size of ndd operation cache.
      */
-    public NodeTable(long nddTableSize, int bddTableSize, int bddCacheSize) {
+    public NodeTable(NDDManager manager, long nddTableSize, int bddTableSize, int bddCacheSize) {
+        this.manager = manager;
         this.currentSize = 0L;
         this.nddTableSize = nddTableSize;
         this.nodeTable = new ArrayList<>();
         bddEngine = new BDD(bddTableSize, bddCacheSize);
         this.referenceCount = new HashMap<>();
+        this.zeroRefNodes = new LinkedHashSet<>();
+        this.gcThreshold = nddTableSize;
         // Register NDD GC as a prehook to JDD GC
         bddEngine.registerGCPrehook(this::performGC);
     }
 
     /**
      * Construct function for atomized ndd.
+     * @param manager The manager owning the node table.
      * @param nddTableSize The max size of ndd node table.
      * @param bddEngine The engine for bdd.
      */
-    public NodeTable(long nddTableSize, BDD bddEngine) {
+    public NodeTable(NDDManager manager, long nddTableSize, BDD bddEngine) {
+        this.manager = manager;
         this.currentSize = 0L;
         this.nddTableSize = nddTableSize;
         this.nodeTable = new ArrayList<>();
         this.bddEngine = bddEngine;
         this.referenceCount = new HashMap<>();
+        this.zeroRefNodes = new LinkedHashSet<>();
+        this.gcThreshold = nddTableSize;
         // Register NDD GC as a prehook to JDD GC
         bddEngine.registerGCPrehook(this::performGC);
     }
@@ -86,6 +122,25 @@ public class NodeTable {
         return bddEngine;
     }
 
+    /**
+     * Set the max pause of one garbage collection. A collection that runs out of its budget
+     * resumes after a few more nodes are created, so the table may exceed its size meanwhile.
+     * Collections triggered by the JDD GC prehook always free all garbage.
+     * @param millis The budget in milliseconds, 0 for freeing all garbage at once (default).
+     */
+    public void setPauseBudget(long millis) {
+        pauseBudget = millis * 1_000_000L;
+    }
+
+    /**
+     * Check if a node is still in the node table, i.e., it has not been freed.
+     * @param ndd The ndd node.
+     * @return If the node is alive.
+     */
+    public boolean isLive(NDD ndd) {
+        return ndd.isTerminal() || referenceCount.containsKey(ndd);
+    }
+
     /**
      * Declare a new field.
      */
@@ -122,14 +177,15 @@ public class NodeTable {
                 }
 
                 // 2. check if there should be a gc or grow
-                if (currentSize >= nddTableSize) {
+                if (currentSize >= gcThreshold) {
                     gcOrGrow();
                 }
 
-                // 3. create node
+                // 3. create node, which is unreferenced until it is ref'ed or becomes a descendant
                 NDD newNode = new NDD(field, edges);
                 nodeTable.get(field).put(edges, newNode);
                 referenceCount.put(newNode, 0);
+                zeroRefNodes.add(newNode);
                 currentSize++;
                 return newNode;
             } else {
@@ -144,70 +200,86 @@ public class NodeTable {
 
     /**
      * Free unused ndd node, first by garbage collection, then by growing the node table.
+     * Operation caches are kept, their entries of freed nodes are dropped on lookup.
      */
     private void gcOrGrow() {
-        gc(false);  // NDD self-triggered GC
-        if (nddTableSize - currentSize <= nddTableSize * QUICK_GROW_THRESHOLD) {
-            grow();
+        if (gc(false)) {  // NDD self-triggered GC
+            while (nddTableSize - currentSize <= nddTableSize * QUICK_GROW_THRESHOLD) {
+                grow();
+            }
+            gcThreshold = nddTableSize;
+        } else {
+            // continue the collection after a little more allocation
+            gcThreshold = currentSize + Math.max(1, (long) (nddTableSize * SLICE_ALLOCATION));
         }
-        NDD.clearCaches();
     }
 
     /**
-     * Garbage collection.
+     * Garbage collection, which frees the unreferenced nodes in zeroRefNodes and the
+     * descendants only reachable from them.
      * @param triggeredByJDD true if called from JDD GC prehook, false if NDD self-triggered
+     * @return If all the garbage is freed, false if the pause budget ran out first.
      */
-    private void gc(boolean triggeredByJDD) {
+    private boolean gc(boolean triggeredByJDD) {
         long startSize = currentSize;
         long startTime = System.currentTimeMillis();
+        long budget = triggeredByJDD ? 0 : pauseBudget;
+        long deadline = System.nanoTime() + budget;
         String caller = triggeredByJDD ? "JDD prehook" : "NDD self";
 
         if (Options.gc_log) {
-            JDDConsole.out.printf("[NDD GC] Start (triggered by %s): currentSize=%d, tableSize=%d\n",
-                caller, currentSize, nddTableSize);
+            JDDConsole.out.printf("[NDD GC] Start (triggered by %s): currentSize=%d, tableSize=%d, queued=%d\n",
+                caller, currentSize, nddTableSize, zeroRefNodes.size());
         }
 
         // protect temporary nodes during NDD operations
-        for (NDD ndd : NDD.getTemporarilyProtect()) {
+        for (NDD ndd : manager.getTemporarilyProtect()) {
             ref(ndd);
         }
 
-        // remove unused nodes by topological sorting
-        Queue<NDD> deadNodesQueue = new LinkedList<>();
-        for (Map.Entry<NDD, Integer> entry : referenceCount.entrySet()) {
-            if (entry.getValue() == 0) {
-                deadNodesQueue.offer(entry.getKey());
+        // remove unused nodes in topological order, checking the clock every 64 nodes
+        int steps = 0;
+        while (!zeroRefNodes.isEmpty()) {
+            if (budget > 0 && (++steps & 63) == 0 && System.nanoTime() >= deadline) {
+                break;
             }
-        }
-        while (!deadNodesQueue.isEmpty()) {
-            NDD deadNode = deadNodesQueue.poll();
-            for (NDD descendant : deadNode.getEdges().keySet()) {
-                if (descendant.isTerminal()) continue;
-                int newReferenceCount = referenceCount.get(descendant) - 1;
-                referenceCount.put(descendant, newReferenceCount);
-                if (newReferenceCount == 0) {
-                    deadNodesQueue.offer(descendant);
-                }
-            }
-            // delete current dead node
-            for (int bddLabel : deadNode.getEdges().values()) {
-                bddEngine.deref(bddLabel);
+            Iterator<NDD> iterator = zeroRefNodes.iterator();
+            NDD deadNode = iterator.next();
+            iterator.remove();
+            // skip nodes that are revived or already freed
+            Integer refCount = referenceCount.get(deadNode);
+            if (refCount != null && refCount == 0) {
+                free(deadNode);
             }
-            referenceCount.remove(deadNode);
-            nodeTable.get(deadNode.getField()).remove(deadNode.getEdges());
-            currentSize--;
         }
+        boolean finished = zeroRefNodes.isEmpty();
 
-        for (NDD ndd : NDD.getTemporarilyProtect()) {
+        for (NDD ndd : manager.getTemporarilyProtect()) {
             deref(ndd);
         }
 
         if (Options.gc_log) {
             long freed = startSize - currentSize;
             long elapsed = System.currentTimeMillis() - startTime;
-            JDDConsole.out.printf("[NDD GC] End (triggered by %s): freed=%d, currentSize=%d, time=%dms\n",
-                caller, freed, currentSize, elapsed);
+            JDDConsole.out.printf("[NDD GC] End (triggered by %s): freed=%d, currentSize=%d, time=%dms%s\n",
+                caller, freed, currentSize, elapsed, finished ? "" : ", to be continued");
+        }
+        return finished;
+    }
+
+    /**
+     * Free an unreferenced node, queueing the descendants that become unreferenced.
+     * @param deadNode The ndd node.
+     */
+    private void free(NDD deadNode) {
+        for (Map.Entry<NDD, Integer> edge : deadNode.getEdges().entrySet()) {
+            deref(edge.getKey());
+            bddEngine.deref(edge.getValue());
         }
+        referenceCount.remove(deadNode);
+        nodeTable.get(deadNode.getField()).remove(deadNode.getEdges());
+        manager.evict(deadNode);
+        currentSize--;
     }
 
     /**
@@ -217,7 +289,7 @@ public class NodeTable {
      */
     public void performGC() {
         gc(true);  // Triggered by JDD GC prehook
-        NDD.clearCaches();
+        manager.clearCaches();
     }
 
     /**
@@ -253,7 +325,11 @@ public class NodeTable {
      */
     public void deref(NDD ndd) {
         if (!ndd.isTerminal() && referenceCount.get(ndd) != Integer.MAX_VALUE) {
-            referenceCount.put(ndd, referenceCount.get(ndd) - 1);
+            int refCount = referenceCount.get(ndd) - 1;
+            referenceCount.put(ndd, refCount);
+            if (refCount == 0) {
+                zeroRefNodes.add(ndd);
+            }
         }
     }
 }
@@ -21,8 +21,15 @@ LACE_LATEST_TAG="v2.0.3"
 clean=1
 gmp="off"
 mmap="on"
+stats="off"
+bundle=0
 mode="all"
 
+# --bundle packs the native library of every variant built by this run into this variant's
+# jar, where JSylvan picks one at runtime by -Djsylvan.variant=<name>|auto
+BUNDLE_HOST="$VARIANT_BUNDLED_191"
+BUNDLE_DIR="$REPO_ROOT/$BUNDLE_HOST/src/main/resources/linux-x64/variants"
+
 for arg in "$@"; do
   case "$arg" in
     --no-clean)
@@ -34,24 +41,36 @@ for arg in "$@"; do
     --mmap=on|--mmap=off)
       mmap="${arg#*=}"
       ;;
+    --stats=on|--stats=off)
+      stats="${arg#*=}"
+      ;;
+    --bundle)
+      bundle=1
+      ;;
     all|bundled|lace|lace150|lace151|latest|bundled191)
       mode="$arg"
       ;;
     *)
-      echo "Usage: $0 [--no-clean] [--gmp=on|off] [--mmap=on|off] {all|bundled|lace|lace150|lace151|latest|bundled191}" >&2
+      echo "Usage: $0 [--no-clean] [--gmp=on|off] [--mmap=on|off] [--stats=on|off] [--bundle] {all|bundled|lace|lace150|lace151|latest|bundled191}" >&2
       exit 1
       ;;
   esac
 done
 
+if [[ "$bundle" -eq 1 && "$clean" -eq 1 ]]; then
+  rm -rf "$BUNDLE_DIR"
+fi
+
 gmp_flag="$(echo "$gmp" | tr '[:lower:]' '[:upper:]')"
 mmap_flag="$(echo "$mmap" | tr '[:lower:]' '[:upper:]')"
+stats_flag="$(echo "$stats" | tr '[:lower:]' '[:upper:]')"
 
 build_variant() {
-  local dir="$1"
-  local tag="$2"
-  local lace_tag="${3:-}"
-  local cflags_extra="${4:-}"
+  local name="$1"
+  local dir="$2"
+  local tag="$3"
+  local lace_tag="${4:-}"
+  local cflags_extra="${5:-}"
 
   cd "$REPO_ROOT/$dir"
   if [[ "$clean" -eq 1 ]]; then
@@ -60,38 +79,52 @@ build_variant() {
   LACE_GIT_REMOTE="$LACE_REMOTE" \
   LACE_GIT_TAG="$lace_tag" \
   SYLVAN_C_FLAGS_EXTRA="$cflags_extra" \
-  SYLVAN_CMAKE_ARGS="-DSYLVAN_USE_MMAP=${mmap_flag} -DSYLVAN_GMP=${gmp_flag} -DSYLVAN_ENABLE_PIC=ON" \
+  SYLVAN_CMAKE_ARGS="-DSYLVAN_USE_MMAP=${mmap_flag} -DSYLVAN_GMP=${gmp_flag} -DSYLVAN_STATS=${stats_flag} -DSYLVAN_ENABLE_PIC=ON" \
     src/main/c/sylvan-java/build-sylvan.sh "$SYLVAN_REMOTE" "$tag"
   mvn package
+
+  if [[ "$bundle" -eq 1 ]]; then
+    mkdir -p "$BUNDLE_DIR/$name"
+    cp src/main/resources/linux-x64/libsylvan-java.so "$BUNDLE_DIR/$name/"
+    touch "$BUNDLE_DIR/variants.txt"
+    grep -qx "$name" "$BUNDLE_DIR/variants.txt" || echo "$name" >> "$BUNDLE_DIR/variants.txt"
+  fi
 }
 
 case "$mode" in
     all)
-    build_variant "$VARIANT_BUNDLED" "$SYLVAN_BUNDLED_TAG"
-    build_variant "$VARIANT_LACE" "$SYLVAN_LACE_TAG"
-    build_variant "$VARIANT_LACE_150" "$SYLVAN_LATEST_TAG" "$LACE_150_TAG"
-    build_variant "$VARIANT_LACE_151" "$SYLVAN_LATEST_TAG" "$LACE_151_TAG" "-DLINE_SIZE=64"
+    build_variant bundled "$VARIANT_BUNDLED" "$SYLVAN_BUNDLED_TAG"
+    build_variant lace "$VARIANT_LACE" "$SYLVAN_LACE_TAG"
+    build_variant lace150 "$VARIANT_LACE_150" "$SYLVAN_LATEST_TAG" "$LACE_150_TAG"
+    build_variant lace151 "$VARIANT_LACE_151" "$SYLVAN_LATEST_TAG" "$LACE_151_TAG" "-DLINE_SIZE=64"
     ;;
   bundled)
-    build_variant "$VARIANT_BUNDLED" "$SYLVAN_BUNDLED_TAG"
+    build_variant bundled "$VARIANT_BUNDLED" "$SYLVAN_BUNDLED_TAG"
     ;;
   lace)
-    build_variant "$VARIANT_LACE" "$SYLVAN_LACE_TAG"
+    build_variant lace "$VARIANT_LACE" "$SYLVAN_LACE_TAG"
     ;;
   lace150)
-    build_variant "$VARIANT_LACE_150" "$SYLVAN_LATEST_TAG" "$LACE_150_TAG"
+    build_variant lace150 "$VARIANT_LACE_150" "$SYLVAN_LATEST_TAG" "$LACE_150_TAG"
     ;;
   lace151)
-    build_variant "$VARIANT_LACE_151" "$SYLVAN_LATEST_TAG" "$LACE_151_TAG" "-DLINE_SIZE=64"
+    build_variant lace151 "$VARIANT_LACE_151" "$SYLVAN_LATEST_TAG" "$LACE_151_TAG" "-DLINE_SIZE=64"
     ;;
   latest)
-    build_variant "$VARIANT_LATEST" "$SYLVAN_LATEST_TAG" "$LACE_LATEST_TAG"
+    build_variant latest "$VARIANT_LATEST" "$SYLVAN_LATEST_TAG" "$LACE_LATEST_TAG"
     ;;
   bundled191)
-    build_variant "$VARIANT_BUNDLED_191" "$SYLVAN_LATEST_TAG"
+    build_variant bundled191 "$VARIANT_BUNDLED_191" "$SYLVAN_LATEST_TAG"
     ;;
   *)
     echo "Usage: $0 [--no-clean] {all|bundled|lace|lace150|lace151|latest|bundled191}" >&2
     exit 1
     ;;
 esac
+
+if [[ "$bundle" -eq 1 ]]; then
+  # repackage the host variant, now with the libraries of all variants built above
+  cd "$REPO_ROOT/$BUNDLE_HOST"
+  mvn package
+  echo "Bundled variants: $(tr '\n' ' ' < "$BUNDLE_DIR/variants.txt")"
+fi